@@ -39,6 +39,8 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -46,7 +48,14 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.prefs.Preferences;
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.ReadOnlyBooleanWrapper;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Alert.AlertType;
 import javafx.scene.control.TextArea;
@@ -64,13 +73,39 @@ public class ImportController {
      */
     private static final int PREVIEW_ROW_LIMIT = 100;
 
+    /**
+     * Give up on a preview query that has not completed in this time.
+     */
+    private static final int PREVIEW_TIMEOUT_SECONDS = 60;
+
+    private static final ExecutorService PREVIEW_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(runnable, "JDBC Import Preview");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * A preview query in progress and the statement it is running, so it can
+     * be cancelled from the FX thread.
+     */
+    private static final class PreviewTask {
+
+        private volatile Future<?> future;
+        private volatile Statement statement;
+        private volatile boolean cancelled = false;
+    }
+
     private final JDBCImporterStage stage;
     private JDBCConnection connection;
     private String query;
     private String username;
     private String password;
+    private String partitionColumn;
+    private int partitionCount = 4;
     private List<String[]> currentData = new ArrayList<>();
     private String[] currentColumns = new String[0];
+    private PreviewTask currentPreview;
+    private final ReadOnlyBooleanWrapper previewRunning = new ReadOnlyBooleanWrapper(false);
     private ConfigurationPane configurationPane;
     private boolean schemaInitialised;
     private String attributeFilter = "";
@@ -134,6 +169,16 @@ public class ImportController {
         this.query = query;
     }
     
+    public void setPartitionColumn(String partitionColumn)
+    {
+        this.partitionColumn = partitionColumn;
+    }
+    
+    public void setPartitionCount(int partitionCount)
+    {
+        this.partitionCount = partitionCount;
+    }
+    
     public void setUsername(String username)
     {
         this.username = username;
@@ -404,6 +449,8 @@ public class ImportController {
                                 .set(ImportJDBCPlugin.QUERY_PARAMETER_ID, query)
                                 .set(ImportJDBCPlugin.USERNAME_PARAMETER_ID, username)
                                 .set(ImportJDBCPlugin.PASSWORD_PARAMETER_ID, password)
+                                .set(ImportJDBCPlugin.PARTITION_COLUMN_PARAMETER_ID, partitionColumn)
+                                .set(ImportJDBCPlugin.PARTITION_COUNT_PARAMETER_ID, partitionCount)
                                 .executeWriteLater(importGraph);
                     }
                 }
@@ -417,69 +464,161 @@ public class ImportController {
                     .set(ImportJDBCPlugin.QUERY_PARAMETER_ID, query)
                     .set(ImportJDBCPlugin.USERNAME_PARAMETER_ID, username)
                     .set(ImportJDBCPlugin.PASSWORD_PARAMETER_ID, password)
+                    .set(ImportJDBCPlugin.PARTITION_COLUMN_PARAMETER_ID, partitionColumn)
+                    .set(ImportJDBCPlugin.PARTITION_COUNT_PARAMETER_ID, partitionCount)
                     .set(ImportJDBCPlugin.SCHEMA_PARAMETER_ID, schema)
                     .executeWriteLater(importGraph);
         }
     }
 
     public void cancelImport() {
+        cancelSampleData();
         stage.close();
     }
 
+    /**
+     * Run the query for the preview in the background, replacing the sample
+     * data when it completes. A preview already running is cancelled.
+     * <p>
+     * The row limit and timeout are applied through the driver rather than
+     * by rewriting the query, so they hold whatever the SQL dialect.
+     */
     public void updateSampleData() {
+        cancelSampleData();
         if (connection == null || query == null || query.isBlank()) {
             currentColumns = new String[0];
             currentData = new ArrayList<>();
-        } else {
+            if (configurationPane != null) {
+                configurationPane.setSampleData(currentColumns, currentData);
+            }
+            return;
+        }
+
+        final JDBCConnection previewConnection = connection;
+        final String previewQuery = query;
+        final String previewUsername = username;
+        final String previewPassword = password;
+        final PreviewTask task = new PreviewTask();
+        previewRunning.set(true);
+        task.future = PREVIEW_EXECUTOR.submit(() -> {
             try {
-                try ( Connection dbConnection = connection.getConnection(username, password))
-                {
-                    if (!query.toLowerCase().contains(" limit ") && query.toLowerCase().startsWith("select "))
-                    {
-                        query += " limit " + PREVIEW_ROW_LIMIT;
-                    }
-                    try (PreparedStatement ps = dbConnection.prepareStatement(query))
-                    {
-                        try (ResultSet rs = ps.executeQuery())
-                        {
-                            int count = 0;
-                            currentData.clear();
-                            while (rs.next() && count < PREVIEW_ROW_LIMIT)
-                            {
-                                count++;
-                                String[] d = new String[ps.getMetaData().getColumnCount()];
-                                for (int i=0;i<ps.getMetaData().getColumnCount();i++)
-                                {
-                                    d[i] = rs.getString(i+1);
-                                }
-                                currentData.add(d);
+                final List<String[]> data = new ArrayList<>();
+                final String[] columns;
+                try {
+                    try (Connection dbConnection = previewConnection.getConnection(previewUsername, previewPassword)) {
+                        if (dbConnection == null) {
+                            throw new SQLException("The driver does not accept the connection string.");
+                        }
+                        try (PreparedStatement ps = dbConnection.prepareStatement(previewQuery)) {
+                            task.statement = ps;
+                            if (task.cancelled) {
+                                return;
                             }
-                            currentColumns = new String[ps.getMetaData().getColumnCount()+1];
-                            currentColumns[0]="Row";
-                            ResultSetMetaData rsmd =ps.getMetaData();
-                            for (int i=0;i< rsmd.getColumnCount(); i++)
-                            {
-                                currentColumns[i+1] = rsmd.getColumnName(i+1);
+                            ps.setMaxRows(PREVIEW_ROW_LIMIT);
+                            ps.setQueryTimeout(PREVIEW_TIMEOUT_SECONDS);
+                            try {
+                                ps.setFetchSize(PREVIEW_ROW_LIMIT);
+                            } catch (SQLException ex) {
+                                // only a hint, not all drivers take it
+                            }
+                            try (ResultSet rs = ps.executeQuery()) {
+                                final ResultSetMetaData rsmd = rs.getMetaData();
+                                final int columnCount = rsmd.getColumnCount();
+                                while (data.size() < PREVIEW_ROW_LIMIT && !task.cancelled && rs.next()) {
+                                    final String[] d = new String[columnCount];
+                                    for (int i = 0; i < columnCount; i++) {
+                                        d[i] = rs.getString(i + 1);
+                                    }
+                                    data.add(d);
+                                }
+                                columns = new String[columnCount + 1];
+                                columns[0] = "Row";
+                                for (int i = 0; i < columnCount; i++) {
+                                    columns[i + 1] = rsmd.getColumnName(i + 1);
+                                }
                             }
                         }
                     }
+                } catch (MalformedURLException | ClassNotFoundException | SQLException | NoSuchMethodException | InstantiationException | IllegalAccessException | InvocationTargetException | RuntimeException ex) {
+                    Platform.runLater(() -> {
+                        if (finishPreview(task) && !task.cancelled) {
+                            final Alert alert = new Alert(AlertType.ERROR);
+                            alert.setTitle(ex instanceof SQLTimeoutException ? "Query timed out" : "Query error");
+                            alert.setResizable(true);
+                            final TextArea ta = new TextArea(ex instanceof SQLTimeoutException
+                                    ? String.format("The preview query did not complete within %d seconds.", PREVIEW_TIMEOUT_SECONDS)
+                                    : ex.getMessage());
+                            ta.setEditable(false);
+                            ta.setWrapText(true);
+                            alert.getDialogPane().setContent(ta);
+                            alert.showAndWait();
+                        }
+                    });
+                    return;
                 }
-            } catch (MalformedURLException | ClassNotFoundException | SQLException | NoSuchMethodException | InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException ex) {
-                Alert alert = new Alert(AlertType.ERROR);
-                alert.setTitle("Query error");
-                alert.setResizable(true);
-                TextArea ta = new TextArea(ex.getMessage());
-                ta.setEditable(false);
-                ta.setWrapText(true);
-                alert.getDialogPane().setContent(ta);
-                alert.showAndWait();
+
+                Platform.runLater(() -> {
+                    if (finishPreview(task) && !task.cancelled) {
+                        currentColumns = columns;
+                        currentData = data;
+                        if (configurationPane != null) {
+                            configurationPane.setSampleData(currentColumns, currentData);
+                        }
+                    }
+                });
+            } finally {
+                // a no-op when the preview has already been finished above,
+                // otherwise the preview can't be left marked as running
+                Platform.runLater(() -> finishPreview(task));
             }
+        });
+        currentPreview = task;
+    }
 
+    /**
+     * Cancel the preview query if one is running, leaving the sample data as
+     * it was.
+     */
+    public void cancelSampleData() {
+        final PreviewTask task = currentPreview;
+        if (task == null) {
+            return;
+        }
+        currentPreview = null;
+        previewRunning.set(false);
+        task.cancelled = true;
+        final Statement statement = task.statement;
+        if (statement != null) {
+            // cancel blocks on some drivers until the server acknowledges it
+            CompletableFuture.runAsync(() -> {
+                try {
+                    statement.cancel();
+                } catch (SQLException ex) {
+                    // the query has finished or the connection has gone
+                }
+            });
+        } else if (task.future != null) {
+            // still connecting
+            task.future.cancel(true);
         }
+    }
 
-        if (configurationPane != null) {
-            configurationPane.setSampleData(currentColumns, currentData);
+    /**
+     * Whether a preview query is running, only changed on the FX thread.
+     *
+     * @return the property.
+     */
+    public ReadOnlyBooleanProperty previewRunningProperty() {
+        return previewRunning.getReadOnlyProperty();
+    }
+
+    private boolean finishPreview(final PreviewTask task) {
+        if (currentPreview != task) {
+            return false;
         }
+        currentPreview = null;
+        previewRunning.set(false);
+        return true;
     }
 
     public void createNewRun() {
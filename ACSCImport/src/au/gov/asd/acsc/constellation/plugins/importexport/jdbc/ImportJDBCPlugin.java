@@ -25,6 +25,7 @@ import au.gov.asd.tac.constellation.plugins.PluginException;
 import au.gov.asd.tac.constellation.plugins.PluginExecutor;
 import au.gov.asd.tac.constellation.plugins.PluginInfo;
 import au.gov.asd.tac.constellation.plugins.PluginInteraction;
+import au.gov.asd.tac.constellation.plugins.PluginNotificationLevel;
 import au.gov.asd.tac.constellation.plugins.PluginType;
 import au.gov.asd.tac.constellation.plugins.arrangements.AbstractInclusionGraph;
 import au.gov.asd.tac.constellation.plugins.arrangements.ArrangementPluginRegistry;
@@ -33,6 +34,8 @@ import au.gov.asd.tac.constellation.plugins.parameters.PluginParameter;
 import au.gov.asd.tac.constellation.plugins.parameters.PluginParameters;
 import au.gov.asd.tac.constellation.plugins.parameters.types.BooleanParameterType;
 import au.gov.asd.tac.constellation.plugins.parameters.types.BooleanParameterType.BooleanParameterValue;
+import au.gov.asd.tac.constellation.plugins.parameters.types.IntegerParameterType;
+import au.gov.asd.tac.constellation.plugins.parameters.types.IntegerParameterType.IntegerParameterValue;
 import au.gov.asd.tac.constellation.plugins.parameters.types.ObjectParameterType;
 import au.gov.asd.tac.constellation.plugins.parameters.types.ObjectParameterType.ObjectParameterValue;
 import au.gov.asd.tac.constellation.plugins.parameters.types.PasswordParameterType;
@@ -42,13 +45,12 @@ import au.gov.asd.tac.constellation.plugins.parameters.types.StringParameterValu
 import au.gov.asd.tac.constellation.plugins.templates.SimpleEditPlugin;
 import java.lang.reflect.InvocationTargetException;
 import java.net.MalformedURLException;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 import org.openide.util.NbBundle;
 import org.openide.util.lookup.ServiceProvider;
 
@@ -71,6 +73,12 @@ public class ImportJDBCPlugin extends SimpleEditPlugin {
     public static final String CONNECTION_PARAMETER_ID = PluginParameter.buildId(ImportJDBCPlugin.class, "connection");
     public static final String SCHEMA_PARAMETER_ID = PluginParameter.buildId(ImportJDBCPlugin.class, "schema");
     public static final String DEFINITIONS_PARAMETER_ID = PluginParameter.buildId(ImportJDBCPlugin.class, "definitions");
+    public static final String PARTITION_COLUMN_PARAMETER_ID = PluginParameter.buildId(ImportJDBCPlugin.class, "partitionColumn");
+    public static final String PARTITION_COUNT_PARAMETER_ID = PluginParameter.buildId(ImportJDBCPlugin.class, "partitionCount");
+
+    public static final int MAX_PARTITIONS = 32;
+
+    private static final Pattern ROW_REFERENCE = Pattern.compile("\\bRow\\b");
 
     @Override
     public PluginParameters createParameters() {
@@ -107,6 +115,19 @@ public class ImportJDBCPlugin extends SimpleEditPlugin {
         definitionParam.setDescription("The list of definitions that extend ImportDefinition");
         definitionParam.setObjectValue(null);
         params.addParameter(definitionParam);
+        
+        final PluginParameter<StringParameterValue> partitionColumnParam = StringParameterType.build(PARTITION_COLUMN_PARAMETER_ID);
+        partitionColumnParam.setName("Partition Column");
+        partitionColumnParam.setDescription("A numeric or date column of the query whose range is split between concurrent queries, blank to run the query as it is");
+        params.addParameter(partitionColumnParam);
+        
+        final PluginParameter<IntegerParameterValue> partitionCountParam = IntegerParameterType.build(PARTITION_COUNT_PARAMETER_ID);
+        partitionCountParam.setName("Partitions");
+        partitionCountParam.setDescription("The number of queries the range is split between when a partition column is given. Partitioned rows arrive in no particular order, so the first row setting is ignored and Row numbers rows as they arrive");
+        partitionCountParam.setIntegerValue(4);
+        IntegerParameterType.setMinimum(partitionCountParam, 1);
+        IntegerParameterType.setMaximum(partitionCountParam, MAX_PARTITIONS);
+        params.addParameter(partitionCountParam);
 
         return params;
     }
@@ -123,47 +144,57 @@ public class ImportJDBCPlugin extends SimpleEditPlugin {
         String username = parameters.getParameters().get(USERNAME_PARAMETER_ID).getStringValue();
         String password = parameters.getParameters().get(PASSWORD_PARAMETER_ID).getStringValue();
         
+        final String partitionColumn = parameters.getParameters().get(PARTITION_COLUMN_PARAMETER_ID).getStringValue();
+        final int partitionCount = parameters.getParameters().get(PARTITION_COUNT_PARAMETER_ID).getIntegerValue();
+        
         if (connection != null && query != null && !query.isBlank())
         {
-            List<String[]> data = new ArrayList<>();
-            try {
-                try ( Connection dbConnection = connection.getConnection(username, password))
+            for (final ImportDefinition definition : definitions) {
+                addAttributes(graph, definition);
+
+                // Determine if a positional attribute has been defined, if so update the overall flag
+                final boolean isPositional = attributeDefintionIsPositional(definition.getDefinitions(AttributeType.SOURCE_VERTEX), definition.getDefinitions(AttributeType.DESTINATION_VERTEX));
+                positionalAtrributesExist = (positionalAtrributesExist || isPositional);
+            }
+
+            // rows are added to the graph a batch at a time as they are fetched
+            int rowCount = 0;
+            interaction.setProgress(0, -1, "Running query", true);
+            try (JDBCExtraction extraction = new JDBCExtraction(connection, username, password, query, partitionColumn, partitionCount))
+            {
+                extraction.start();
+                final boolean partitioned = extraction.isPartitioned();
+                if (partitioned && definitions.stream().anyMatch(definition -> definition.getFirstRow() > 0 || usesRow(definition.getRowFilter()))) {
+                    interaction.notify(PluginNotificationLevel.WARNING, "The query is partitioned so its rows arrive in no particular order. The first row setting is ignored and Row in filters numbers rows as they arrive.");
+                }
+                List<String[]> batch;
+                while ((batch = extraction.take()) != null)
                 {
-                    try (PreparedStatement ps = dbConnection.prepareStatement(query))
-                    {
-                        try (ResultSet rs = ps.executeQuery())
-                        {
-                            while (rs.next() )
-                            {
-                                String[] d = new String[ps.getMetaData().getColumnCount()];
-                                for (int i=0;i<ps.getMetaData().getColumnCount();i++)
-                                {
-                                    d[i] = rs.getString(i+1);
-                                }
-                                data.add(d);
+                    for (final ImportDefinition definition : definitions) {
+                        final int firstRow = partitioned ? 0 : definition.getFirstRow();
+                        if (definition.getDefinitions(AttributeType.SOURCE_VERTEX).isEmpty()) {
+                            if (!definition.getDefinitions(AttributeType.DESTINATION_VERTEX).isEmpty()) {
+                                processVertices(definition, graph, batch, rowCount, firstRow, AttributeType.DESTINATION_VERTEX, initialiseWithSchema, newVertices);
                             }
+                        } else if (definition.getDefinitions(AttributeType.DESTINATION_VERTEX).isEmpty()) {
+                            processVertices(definition, graph, batch, rowCount, firstRow, AttributeType.SOURCE_VERTEX, initialiseWithSchema, newVertices);
+                        } else {
+                            processTransactions(definition, graph, batch, rowCount, firstRow, initialiseWithSchema);
                         }
                     }
+                    rowCount += batch.size();
+                    interaction.setProgress(0, -1, String.format("Imported %d rows", rowCount), true);
                 }
             } catch (MalformedURLException | ClassNotFoundException | SQLException | NoSuchMethodException | InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException ex) {
+                interaction.notify(PluginNotificationLevel.ERROR, String.format("Import failed after %d rows: %s", rowCount, ex.getMessage()));
+                return;
+            } catch (InterruptedException ex) {
+                interaction.notify(PluginNotificationLevel.WARNING, String.format("Import cancelled after %d rows", rowCount));
+                throw ex;
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.SEVERE, "JDBC import failed", ex);
+                interaction.notify(PluginNotificationLevel.ERROR, String.format("Import failed after %d rows: %s", rowCount, ex.getMessage()));
                 return;
-            }
-
-
-            for (final ImportDefinition definition : definitions) {
-                if (definition.getDefinitions(AttributeType.SOURCE_VERTEX).isEmpty()) {
-                    if (!definition.getDefinitions(AttributeType.DESTINATION_VERTEX).isEmpty()) {
-                        processVertices(definition, graph, data, AttributeType.DESTINATION_VERTEX, initialiseWithSchema, interaction, newVertices);
-                    }
-                } else if (definition.getDefinitions(AttributeType.DESTINATION_VERTEX).isEmpty()) {
-                    processVertices(definition, graph, data, AttributeType.SOURCE_VERTEX, initialiseWithSchema, interaction, newVertices);
-                } else {
-                    processTransactions(definition, graph, data, initialiseWithSchema, interaction);
-                }
-
-                // Determine if a positional attribute has been defined, if so update the overall flag
-                final boolean isPositional = attributeDefintionIsPositional(definition.getDefinitions(AttributeType.SOURCE_VERTEX), definition.getDefinitions(AttributeType.DESTINATION_VERTEX));
-                positionalAtrributesExist = (positionalAtrributesExist || isPositional);
             }
 
             // If at least one positional attribute has been received for either the src or destination vertex we will assume that the user is trying to import positions and won't auto arrange
@@ -197,20 +228,19 @@ public class ImportJDBCPlugin extends SimpleEditPlugin {
         return destAttributeDefinitions.stream().map(attribute -> attribute.getAttribute().getName()).anyMatch(name -> (VisualConcept.VertexAttribute.X.getName().equals(name) || VisualConcept.VertexAttribute.Y.getName().equals(name) || VisualConcept.VertexAttribute.Z.getName().equals(name)));
     }
 
-    private static void processVertices(ImportDefinition definition, GraphWriteMethods graph, List<String[]> data, AttributeType attributeType, boolean initialiseWithSchema, PluginInteraction interaction, final List<Integer> newVertices) throws InterruptedException {
-        final List<ImportAttributeDefinition> attributeDefinitions = definition.getDefinitions(attributeType);
-
-        addAttributes(graph, GraphElementType.VERTEX, attributeDefinitions);
+    private static boolean usesRow(final RowFilter filter) {
+        return filter != null && filter.getScript() != null && ROW_REFERENCE.matcher(filter.getScript()).find();
+    }
 
-        int currentRow = 0;
-        final int totalRows = data.size() - definition.getFirstRow();
+    private static void processVertices(ImportDefinition definition, GraphWriteMethods graph, List<String[]> data, int offset, int firstRow, AttributeType attributeType, boolean initialiseWithSchema, final List<Integer> newVertices) {
+        final List<ImportAttributeDefinition> attributeDefinitions = definition.getDefinitions(attributeType);
 
         final RowFilter filter = definition.getRowFilter();
 
-        for (int i = definition.getFirstRow(); i < data.size(); i++) {
-            interaction.setProgress(++currentRow, totalRows, "Importing Vertices", true);
-
-            final String[] row = data.get(i);
+        // i is the row's position in the whole result, or in the order rows
+        // arrived when partitioned, data holds the rows from offset on
+        for (int i = Math.max(offset, firstRow); i < offset + data.size(); i++) {
+            final String[] row = data.get(i - offset);
             if (filter == null || filter.passesFilter(i, row)) {
                 final int vertexId = graph.addVertex();
                 newVertices.add(vertexId);
@@ -226,7 +256,7 @@ public class ImportJDBCPlugin extends SimpleEditPlugin {
         }
     }
 
-    private static void processTransactions(ImportDefinition definition, GraphWriteMethods graph, List<String[]> data, boolean initialiseWithSchema, PluginInteraction interaction) throws InterruptedException {
+    private static void processTransactions(ImportDefinition definition, GraphWriteMethods graph, List<String[]> data, int offset, int firstRow, boolean initialiseWithSchema) {
         final List<ImportAttributeDefinition> sourceVertexDefinitions = definition.getDefinitions(AttributeType.SOURCE_VERTEX);
         final List<ImportAttributeDefinition> destinationVertexDefinitions = definition.getDefinitions(AttributeType.DESTINATION_VERTEX);
         final List<ImportAttributeDefinition> transactionDefinitions = definition.getDefinitions(AttributeType.TRANSACTION);
@@ -239,19 +269,10 @@ public class ImportJDBCPlugin extends SimpleEditPlugin {
             }
         }
 
-        addAttributes(graph, GraphElementType.VERTEX, sourceVertexDefinitions);
-        addAttributes(graph, GraphElementType.VERTEX, destinationVertexDefinitions);
-        addAttributes(graph, GraphElementType.TRANSACTION, transactionDefinitions);
-
-        int currentRow = 0;
-        final int totalRows = data.size() - definition.getFirstRow();
-
         final RowFilter filter = definition.getRowFilter();
 
-        for (int i = definition.getFirstRow(); i < data.size(); i++) {
-            interaction.setProgress(++currentRow, totalRows, "Importing Transactions", true);
-
-            final String[] row = data.get(i);
+        for (int i = Math.max(offset, firstRow); i < offset + data.size(); i++) {
+            final String[] row = data.get(i - offset);
 
             if (filter == null || filter.passesFilter(i, row)) {
                 final int sourceVertexId = graph.addVertex();
@@ -284,6 +305,18 @@ public class ImportJDBCPlugin extends SimpleEditPlugin {
         }
     }
 
+    private static void addAttributes(GraphWriteMethods graph, ImportDefinition definition) {
+        if (definition.getDefinitions(AttributeType.SOURCE_VERTEX).isEmpty()) {
+            addAttributes(graph, GraphElementType.VERTEX, definition.getDefinitions(AttributeType.DESTINATION_VERTEX));
+        } else if (definition.getDefinitions(AttributeType.DESTINATION_VERTEX).isEmpty()) {
+            addAttributes(graph, GraphElementType.VERTEX, definition.getDefinitions(AttributeType.SOURCE_VERTEX));
+        } else {
+            addAttributes(graph, GraphElementType.VERTEX, definition.getDefinitions(AttributeType.SOURCE_VERTEX));
+            addAttributes(graph, GraphElementType.VERTEX, definition.getDefinitions(AttributeType.DESTINATION_VERTEX));
+            addAttributes(graph, GraphElementType.TRANSACTION, definition.getDefinitions(AttributeType.TRANSACTION));
+        }
+    }
+
     /**
      * Add the attribute to the graph
      *
@@ -20,7 +20,9 @@ import java.net.MalformedURLException;
 import java.sql.Connection;
 import java.sql.Driver;
 import java.sql.SQLException;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 import javafx.scene.control.Alert;
 import javafx.scene.control.TextArea;
 
@@ -28,15 +30,53 @@ public class JDBCConnection {
     private String _connectionName;
     private JDBCDriver _driver;
     private String _connectionString;
+    private int _poolSize;
+    private int _idleTimeout;
+    private String _validationQuery;
+    
+    // one pool per user, the pool checks the password given with each request
+    private final Map<String, JDBCConnectionPool> _pools = new ConcurrentHashMap<>();
     
     public JDBCConnection(String connectionName, JDBCDriver driver,  String connectionString)
+    {
+        this(connectionName, driver, connectionString, 0, 0, null);
+    }
+    
+    public JDBCConnection(String connectionName, JDBCDriver driver,  String connectionString, int poolSize, int idleTimeout, String validationQuery)
     {
         this._connectionName = connectionName;
         this._driver = driver;
         this._connectionString = connectionString;
+        this._poolSize = poolSize;
+        this._idleTimeout = idleTimeout;
+        this._validationQuery = validationQuery;
     }
     
     public Connection getConnection(String user, String password) throws MalformedURLException, ClassNotFoundException, SQLException, NoSuchMethodException, InstantiationException, IllegalAccessException, IllegalArgumentException, InvocationTargetException
+    {
+        if (_poolSize <= 0)
+        {
+            return connect(user, password);
+        }
+        final JDBCConnectionPool pool = _pools.computeIfAbsent(user,
+                k -> new JDBCConnectionPool(p -> connect(user, p), _poolSize, _idleTimeout, _validationQuery));
+        return pool.getConnection(password);
+    }
+    
+    /**
+     * Close the pooled connections. Connections in use are closed when they
+     * are released.
+     */
+    public void closePools()
+    {
+        for (JDBCConnectionPool pool : _pools.values())
+        {
+            pool.close();
+        }
+        _pools.clear();
+    }
+    
+    private Connection connect(String user, String password) throws MalformedURLException, ClassNotFoundException, SQLException, NoSuchMethodException, InstantiationException, IllegalAccessException, IllegalArgumentException, InvocationTargetException
     {
         Driver driver = _driver.getDriver();
 
@@ -97,6 +137,18 @@ public class JDBCConnection {
         this._connectionString = _connectionString;
     }
 
+    public int getPoolSize() {
+        return _poolSize;
+    }
+
+    public int getIdleTimeout() {
+        return _idleTimeout;
+    }
+
+    public String getValidationQuery() {
+        return _validationQuery;
+    }
+
     public String getConnectionName() {
         return _connectionName;
     }
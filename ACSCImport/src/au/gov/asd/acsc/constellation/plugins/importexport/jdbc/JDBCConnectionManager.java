@@ -61,7 +61,8 @@ public class JDBCConnectionManager {
                         JDBCDriver driver = dm.getDriver(connections.getString("driver_name"));
                         if (driver != null)
                         {
-                            JDBCConnection d = new JDBCConnection(connections.getString("name"), driver, connections.getString("connection_string"));
+                            JDBCConnection d = new JDBCConnection(connections.getString("name"), driver, connections.getString("connection_string"), 
+                                    connections.getInt("pool_size"), connections.getInt("idle_timeout"), connections.getString("validation_query"));
                             __connections.put(d.getConnectionName(), d);
                         }
                     }
@@ -88,17 +89,28 @@ public class JDBCConnectionManager {
     
     public boolean addConnection(String connectionName, JDBCDriver driver, String username, String password, String connectionString) 
     {
-        JDBCConnection conn = new JDBCConnection(connectionName, driver, connectionString);
+        return addConnection(connectionName, driver, username, password, connectionString, SQLiteDBManager.DEFAULT_POOL_SIZE, SQLiteDBManager.DEFAULT_IDLE_TIMEOUT, null);
+    }
+    
+    public boolean addConnection(String connectionName, JDBCDriver driver, String username, String password, String connectionString, int poolSize, int idleTimeout, String validationQuery) 
+    {
         if (testConnection(connectionName, driver, username, password, connectionString))
         {
             try (final Connection connection = sql.getConnection()) {
-                try (final PreparedStatement statement = connection.prepareStatement("insert into connection (name, driver_name, connection_string) values (?, ?, ?)")) {
+                try (final PreparedStatement statement = connection.prepareStatement("insert into connection (name, driver_name, connection_string, pool_size, idle_timeout, validation_query) values (?, ?, ?, ?, ?, ?)")) {
                     statement.setString(1, connectionName);
                     statement.setString(2, driver.getName());
                     statement.setString(3, connectionString);
+                    statement.setInt(4, poolSize);
+                    statement.setInt(5, idleTimeout);
+                    statement.setString(6, validationQuery == null || validationQuery.isBlank() ? null : validationQuery);
                     statement.executeUpdate();
                 }
-                __connections.put(connectionName, new JDBCConnection(connectionName, driver, connectionString));
+                JDBCConnection replaced = __connections.put(connectionName, new JDBCConnection(connectionName, driver, connectionString, poolSize, idleTimeout, validationQuery));
+                if (replaced != null)
+                {
+                    replaced.closePools();
+                }
 
             } catch (IOException | SQLException ex) {
                 Alert a = new Alert(AlertType.ERROR);
@@ -126,6 +138,7 @@ public class JDBCConnectionManager {
         if (d != null)
         {
             __connections.remove(name);
+            d.closePools();
         }
         try (final Connection connection = sql.getConnection()) {
             try (final PreparedStatement statement = connection.prepareStatement("delete from connection where name=?")) {
@@ -145,6 +158,19 @@ public class JDBCConnectionManager {
         } 
     }
     
+    /* the connections of a driver about to be removed */
+    public void closeConnectionsWithDriver(String driverName)
+    {
+        __connections.values().removeIf(c -> {
+            if (c.getDriver().getName().equals(driverName))
+            {
+                c.closePools();
+                return true;
+            }
+            return false;
+        });
+    }
+    
     public static JDBCConnectionManager getInstance()
     {
         if (__instance__ == null)
@@ -0,0 +1,442 @@
+/*
+ * Copyright 2010-2020 Australian Signals Directorate
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package au.gov.asd.acsc.constellation.plugins.importexport.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A small pool of open connections for one saved connection and user.
+ * <p>
+ * Connections handed out are returned to the pool when closed. Idle
+ * connections are checked with the validation query, or
+ * Connection.isValid when there is none, before they are handed out again,
+ * and are closed in the background once they have been idle longer than the
+ * idle timeout. When every pooled connection is in use, an extra connection
+ * is opened and closed for real when it is released, so callers never wait
+ * on the pool.
+ * <p>
+ * The password is not kept, only a salted hash of the one the pooled
+ * connections were opened with. A different password is checked by opening
+ * a new connection with it, and if that succeeds the connections opened with
+ * the old one are retired.
+ */
+public class JDBCConnectionPool {
+    
+    /**
+     * Opens the underlying connections.
+     */
+    interface ConnectionFactory
+    {
+        Connection connect(String password) throws SQLException, MalformedURLException, ClassNotFoundException, NoSuchMethodException, InstantiationException, IllegalAccessException, InvocationTargetException;
+    }
+    
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+    private static final int SALT_LENGTH = 16;
+    
+    // closes expired idle connections for every pool
+    private static final ScheduledExecutorService REAPER = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "JDBC Connection Pool Reaper");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    private static final class Idle
+    {
+        private final Connection connection;
+        private final int generation;
+        private final long since;
+        
+        private Idle(Connection connection, int generation)
+        {
+            this.connection = connection;
+            this.generation = generation;
+            this.since = System.nanoTime();
+        }
+    }
+    
+    private final ConnectionFactory factory;
+    private final int size;
+    private final long idleTimeout;
+    private final String validationQuery;
+    private final ScheduledFuture<?> reaper;
+    
+    private final byte[] salt = new byte[SALT_LENGTH];
+    private byte[] credential = null;
+    private int generation = 0;
+    
+    // oldest first
+    private final Deque<Idle> idle = new ArrayDeque<>();
+    private int open = 0;
+    private boolean closed = false;
+    
+    JDBCConnectionPool(ConnectionFactory factory, int size, int idleTimeoutSeconds, String validationQuery)
+    {
+        this.factory = factory;
+        this.size = size;
+        this.idleTimeout = TimeUnit.SECONDS.toNanos(idleTimeoutSeconds);
+        this.validationQuery = validationQuery == null || validationQuery.isBlank() ? null : validationQuery;
+        new SecureRandom().nextBytes(salt);
+        if (idleTimeoutSeconds > 0)
+        {
+            final long period = Math.max(1, idleTimeoutSeconds / 2);
+            this.reaper = REAPER.scheduleWithFixedDelay(this::closeExpired, period, period, TimeUnit.SECONDS);
+        }
+        else
+        {
+            this.reaper = null;
+        }
+    }
+    
+    public Connection getConnection(String password) throws SQLException, MalformedURLException, ClassNotFoundException, NoSuchMethodException, InstantiationException, IllegalAccessException, InvocationTargetException
+    {
+        final byte[] offered = hash(password);
+        final boolean matches;
+        synchronized (this)
+        {
+            if (closed)
+            {
+                throw new SQLException("The connection pool has been closed.");
+            }
+            matches = credential != null && MessageDigest.isEqual(credential, offered);
+        }
+        if (!matches)
+        {
+            return connect(password, offered);
+        }
+        
+        while (true)
+        {
+            final Idle next;
+            synchronized (this)
+            {
+                if (closed)
+                {
+                    throw new SQLException("The connection pool has been closed.");
+                }
+                next = idle.pollLast();
+                if (next == null)
+                {
+                    break;
+                }
+            }
+            
+            // validate outside the lock, it may go to the server
+            if (!isExpired(next) && isValid(next.connection))
+            {
+                return wrap(next.connection, true, next.generation);
+            }
+            discard(next.connection);
+        }
+        
+        final boolean pooled;
+        final int current;
+        synchronized (this)
+        {
+            pooled = open < size;
+            if (pooled)
+            {
+                open++;
+            }
+            current = generation;
+        }
+        try
+        {
+            final Connection connection = factory.connect(password);
+            if (connection == null)
+            {
+                // the driver does not accept the connection string
+                if (pooled)
+                {
+                    synchronized (this)
+                    {
+                        open--;
+                    }
+                }
+                return null;
+            }
+            return wrap(connection, pooled, current);
+        }
+        catch (Exception ex)
+        {
+            if (pooled)
+            {
+                synchronized (this)
+                {
+                    open--;
+                }
+            }
+            throw ex;
+        }
+    }
+    
+    /*
+     * a password other than the one the pool was opened with, so the server
+     * checks it before any pooled connection is handed out
+     */
+    private Connection connect(String password, byte[] offered) throws SQLException, MalformedURLException, ClassNotFoundException, NoSuchMethodException, InstantiationException, IllegalAccessException, InvocationTargetException
+    {
+        final Connection connection = factory.connect(password);
+        if (connection == null)
+        {
+            return null;
+        }
+        final List<Idle> retired;
+        final boolean pooled;
+        final int current;
+        synchronized (this)
+        {
+            retired = new ArrayList<>(idle);
+            idle.clear();
+            open -= retired.size();
+            credential = offered;
+            current = ++generation;
+            pooled = !closed && open < size;
+            if (pooled)
+            {
+                open++;
+            }
+        }
+        for (Idle i : retired)
+        {
+            closeQuietly(i.connection);
+        }
+        return wrap(connection, pooled, current);
+    }
+    
+    /**
+     * Close the idle connections and stop pooling. Connections in use are
+     * closed when they are released.
+     */
+    public void close()
+    {
+        if (reaper != null)
+        {
+            reaper.cancel(false);
+        }
+        final Idle[] toClose;
+        synchronized (this)
+        {
+            closed = true;
+            toClose = idle.toArray(new Idle[0]);
+            open -= toClose.length;
+            idle.clear();
+        }
+        for (Idle i : toClose)
+        {
+            closeQuietly(i.connection);
+        }
+    }
+    
+    /* run by the reaper, the oldest idle connections are at the front */
+    private void closeExpired()
+    {
+        final List<Idle> expired = new ArrayList<>();
+        synchronized (this)
+        {
+            while (!idle.isEmpty() && isExpired(idle.peekFirst()))
+            {
+                expired.add(idle.pollFirst());
+            }
+            open -= expired.size();
+        }
+        for (Idle i : expired)
+        {
+            closeQuietly(i.connection);
+        }
+    }
+    
+    private byte[] hash(String password)
+    {
+        try
+        {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(salt);
+            return digest.digest((password == null ? "" : password).getBytes(StandardCharsets.UTF_8));
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            throw new IllegalStateException(ex);
+        }
+    }
+    
+    private boolean isExpired(Idle i)
+    {
+        return idleTimeout > 0 && System.nanoTime() - i.since > idleTimeout;
+    }
+    
+    private boolean isValid(Connection connection)
+    {
+        try
+        {
+            if (validationQuery != null)
+            {
+                try (Statement statement = connection.createStatement())
+                {
+                    statement.setQueryTimeout(VALIDATION_TIMEOUT_SECONDS);
+                    statement.execute(validationQuery);
+                }
+                return true;
+            }
+            try
+            {
+                return connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+            }
+            catch (SQLFeatureNotSupportedException | AbstractMethodError ex)
+            {
+                // older drivers, the best we can do is check it is open
+                return !connection.isClosed();
+            }
+        }
+        catch (SQLException ex)
+        {
+            return false;
+        }
+    }
+    
+    private void release(Connection connection, boolean pooled, int opened)
+    {
+        if (pooled)
+        {
+            boolean reusable;
+            try
+            {
+                reusable = !connection.isClosed();
+                if (reusable && !connection.getAutoCommit())
+                {
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+            }
+            catch (SQLException ex)
+            {
+                reusable = false;
+            }
+            
+            synchronized (this)
+            {
+                if (reusable && !closed && opened == generation)
+                {
+                    idle.addLast(new Idle(connection, opened));
+                    return;
+                }
+                open--;
+            }
+        }
+        closeQuietly(connection);
+    }
+    
+    private void discard(Connection connection)
+    {
+        synchronized (this)
+        {
+            open--;
+        }
+        closeQuietly(connection);
+    }
+    
+    private static void closeQuietly(Connection connection)
+    {
+        try
+        {
+            connection.close();
+        }
+        catch (SQLException ex)
+        {
+            // already gone
+        }
+    }
+    
+    /* hand out a proxy so closing the connection returns it to the pool */
+    private Connection wrap(Connection connection, boolean pooled, int opened)
+    {
+        final InvocationHandler handler = new InvocationHandler()
+        {
+            private boolean released = false;
+            
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+            {
+                switch (method.getName())
+                {
+                    case "close":
+                        synchronized (this)
+                        {
+                            if (released)
+                            {
+                                return null;
+                            }
+                            released = true;
+                        }
+                        release(connection, pooled, opened);
+                        return null;
+                    case "isClosed":
+                        synchronized (this)
+                        {
+                            if (released)
+                            {
+                                return true;
+                            }
+                        }
+                        break;
+                    case "toString":
+                        break;
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        synchronized (this)
+                        {
+                            if (released)
+                            {
+                                throw new SQLException("The connection has been closed.");
+                            }
+                        }
+                        break;
+                }
+                try
+                {
+                    return method.invoke(connection, args);
+                }
+                catch (InvocationTargetException ex)
+                {
+                    throw ex.getCause();
+                }
+            }
+        };
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, handler);
+    }
+}
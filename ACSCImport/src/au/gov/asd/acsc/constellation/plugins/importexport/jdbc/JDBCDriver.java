@@ -27,11 +27,40 @@ import java.nio.charset.StandardCharsets;
 import java.sql.Driver;
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.zip.ZipEntry;
 
 public class JDBCDriver {
+    
+    /**
+     * The class loader of each driver jar and the driver instances loaded
+     * from it, shared by every connection using the jar.
+     */
+    private static final class LoadedJar
+    {
+        private final URLClassLoader loader;
+        private final long lastModified;
+        private final long length;
+        private final Map<String, Driver> drivers = new ConcurrentHashMap<>();
+        
+        private LoadedJar(URLClassLoader loader, File jar)
+        {
+            this.loader = loader;
+            this.lastModified = jar.lastModified();
+            this.length = jar.length();
+        }
+        
+        private boolean isCurrent(File jar)
+        {
+            return lastModified == jar.lastModified() && length == jar.length();
+        }
+    }
+    
+    private static final Map<String, LoadedJar> LOADED_JARS = new ConcurrentHashMap<>();
+    
     private String driverName;
     private File jarFile;
     
@@ -116,15 +145,65 @@ public class JDBCDriver {
     
     public Driver getDriver() throws MalformedURLException, ClassNotFoundException, NoSuchMethodException, NoSuchMethodException, InstantiationException, InstantiationException, InstantiationException, IllegalAccessException, IllegalArgumentException, InvocationTargetException
     {
-        final URL[] searchPath = new URL[]{new URL("file:///" + jarFile.getAbsolutePath())};
-        final ClassLoader clloader = URLClassLoader.newInstance(searchPath);
-
-        // Note: we can't use DriverManager here: it only uses classes that have been loaded by the system class loader.
-        // Since we're loading the class on the fly with our own Classloader, DriverManager will refuse to recognise it.
-        final Driver driver = (Driver) Class.forName(driverName, true, clloader).getDeclaredConstructor().newInstance();
+        final LoadedJar jar = getLoadedJar();
+        Driver driver = jar.drivers.get(driverName);
+        if (driver == null)
+        {
+            // Note: we can't use DriverManager here: it only uses classes that have been loaded by the system class loader.
+            // Since we're loading the class on the fly with our own Classloader, DriverManager will refuse to recognise it.
+            driver = (Driver) Class.forName(driverName, true, jar.loader).getDeclaredConstructor().newInstance();
+            final Driver loaded = jar.drivers.putIfAbsent(driverName, driver);
+            if (loaded != null)
+            {
+                driver = loaded;
+            }
+        }
         return driver;
     }
     
+    private LoadedJar getLoadedJar() throws MalformedURLException
+    {
+        final String key = jarFile.getAbsolutePath();
+        final URL[] searchPath = new URL[]{new URL("file:///" + key)};
+        return LOADED_JARS.compute(key, (k, loaded) -> {
+            if (loaded != null && loaded.isCurrent(jarFile))
+            {
+                return loaded;
+            }
+            // the jar has been replaced since it was loaded
+            if (loaded != null)
+            {
+                close(loaded);
+            }
+            return new LoadedJar(URLClassLoader.newInstance(searchPath), jarFile);
+        });
+    }
+    
+    /**
+     * Release the class loader of this driver's jar, so the jar can be
+     * deleted or replaced. The next call to getDriver loads it again.
+     */
+    public void unload()
+    {
+        final LoadedJar loaded = LOADED_JARS.remove(jarFile.getAbsolutePath());
+        if (loaded != null)
+        {
+            close(loaded);
+        }
+    }
+    
+    private static void close(LoadedJar loaded)
+    {
+        try
+        {
+            loaded.loader.close();
+        }
+        catch (IOException ex)
+        {
+            // the loader is dropped either way
+        }
+    }
+    
     @Override
     public String toString()
     {
@@ -137,6 +137,8 @@ public class JDBCDriverManager {
         JDBCDriver d = __drivers.get(name);
         if (d != null)
         {
+            // release the jar before deleting it
+            d.unload();
             d.getJarFileLocation().delete();
             __drivers.remove(name);
         }
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2010-2020 Australian Signals Directorate
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package au.gov.asd.acsc.constellation.plugins.importexport.jdbc;
+
+import java.lang.reflect.InvocationTargetException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.net.MalformedURLException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+
+/**
+ * Runs an import query and hands its rows over in batches as they are
+ * fetched.
+ * <p>
+ * With a partition column, the range of the column is split into equal
+ * parts and a copy of the query bounded to each part is run, with one more
+ * for rows where the column is null. As many run at once as the connection's
+ * pool has connections, and the rest wait their turn. Rows from the
+ * partitions arrive in no particular order. Without a partition column the
+ * query is run as written.
+ */
+final class JDBCExtraction implements AutoCloseable {
+
+    private static final int BATCH_SIZE = 1000;
+
+    /* batches waiting for the graph, per partition, so fetching can't run far ahead */
+    private static final int QUEUED_BATCHES = 4;
+
+    /* marks the end of one partition's rows */
+    private static final List<String[]> END = new ArrayList<>(0);
+
+    /* column names that are safe to use unquoted */
+    private static final Pattern IDENTIFIER = Pattern.compile("[\\p{L}_][\\p{L}\\p{N}_$#@]*");
+
+    private static final class Partition {
+
+        private final String sql;
+        private final Object[] bounds;
+
+        private Partition(final String sql, final Object... bounds) {
+            this.sql = sql;
+            this.bounds = bounds;
+        }
+    }
+
+    private final JDBCConnection connection;
+    private final String username;
+    private final String password;
+    private final String query;
+    private final String partitionColumn;
+    private final int partitionCount;
+
+    private final Set<Statement> running = ConcurrentHashMap.newKeySet();
+    private final AtomicReference<SQLException> error = new AtomicReference<>();
+    private BlockingQueue<List<String[]>> batches;
+    private ExecutorService executor;
+    private int partitions = 0;
+    private int finished = 0;
+
+    JDBCExtraction(final JDBCConnection connection, final String username, final String password, final String query, final String partitionColumn, final int partitionCount) {
+        this.connection = connection;
+        this.username = username;
+        this.password = password;
+        this.query = query;
+        this.partitionColumn = partitionColumn == null || partitionColumn.isBlank() ? null : partitionColumn.trim();
+        this.partitionCount = Math.max(1, partitionCount);
+    }
+
+    /**
+     * Work out the partitions and start fetching them.
+     */
+    void start() throws MalformedURLException, ClassNotFoundException, SQLException, NoSuchMethodException, InstantiationException, IllegalAccessException, IllegalArgumentException, InvocationTargetException {
+        final List<Partition> split = partitionColumn == null || partitionCount == 1
+                ? List.of(new Partition(query))
+                : split();
+
+        partitions = split.size();
+        batches = new ArrayBlockingQueue<>(partitions * QUEUED_BATCHES);
+        // more queries than the pool has connections would each open an
+        // overflow connection
+        final int threads = connection.getPoolSize() > 0 ? Math.min(partitions, connection.getPoolSize()) : partitions;
+        executor = Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, "JDBC Import");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (final Partition partition : split) {
+            executor.submit(() -> fetch(partition));
+        }
+    }
+
+    /**
+     * Whether the query is split into partitions, whose rows arrive in no
+     * particular order.
+     */
+    boolean isPartitioned() {
+        return partitionColumn != null && partitionCount > 1;
+    }
+
+    /**
+     * The next batch of rows, waiting for one if none have been fetched.
+     *
+     * @return the rows, or null once every partition has been read.
+     * @throws SQLException if a partition failed.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    List<String[]> take() throws SQLException, InterruptedException {
+        while (finished < partitions) {
+            final SQLException ex = error.get();
+            if (ex != null) {
+                throw ex;
+            }
+            final List<String[]> batch = batches.poll(100, TimeUnit.MILLISECONDS);
+            if (batch == END) {
+                finished++;
+            } else if (batch != null) {
+                return batch;
+            }
+        }
+        final SQLException ex = error.get();
+        if (ex != null) {
+            throw ex;
+        }
+        return null;
+    }
+
+    /**
+     * Stop any partitions still being fetched.
+     */
+    @Override
+    public void close() {
+        if (executor != null) {
+            for (final Statement statement : running) {
+                try {
+                    statement.cancel();
+                } catch (SQLException ex) {
+                    // finished in the meantime
+                }
+            }
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Split the range of the partition column into bounded copies of the
+     * query.
+     */
+    private List<Partition> split() throws MalformedURLException, ClassNotFoundException, SQLException, NoSuchMethodException, InstantiationException, IllegalAccessException, IllegalArgumentException, InvocationTargetException {
+        final String subquery = stripTerminator(query);
+        final Object min;
+        final Object max;
+        final boolean temporal;
+        final String column;
+        try (Connection dbConnection = connection.getConnection(username, password)) {
+            if (dbConnection == null) {
+                throw new SQLException("The driver does not accept the connection string.");
+            }
+            column = quoteIdentifier(dbConnection.getMetaData(), partitionColumn);
+            try (PreparedStatement ps = dbConnection.prepareStatement(String.format("SELECT MIN(%s), MAX(%s) FROM (%s) q", column, column, subquery))) {
+                try (ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                    switch (rs.getMetaData().getColumnType(1)) {
+                        case Types.TINYINT:
+                        case Types.SMALLINT:
+                        case Types.INTEGER:
+                        case Types.BIGINT:
+                        case Types.DECIMAL:
+                        case Types.NUMERIC:
+                        case Types.REAL:
+                        case Types.FLOAT:
+                        case Types.DOUBLE:
+                            temporal = false;
+                            min = rs.getBigDecimal(1);
+                            max = rs.getBigDecimal(2);
+                            break;
+                        case Types.DATE:
+                        case Types.TIMESTAMP:
+                        case Types.TIMESTAMP_WITH_TIMEZONE:
+                            temporal = true;
+                            min = rs.getTimestamp(1);
+                            max = rs.getTimestamp(2);
+                            break;
+                        default:
+                            throw new SQLException(String.format("The partition column %s is not a number or a date.", partitionColumn));
+                    }
+                }
+            }
+        }
+
+        final List<Object> boundaries = new ArrayList<>();
+        if (min != null && max != null) {
+            if (temporal) {
+                final long lower = ((Timestamp) min).getTime();
+                final long upper = ((Timestamp) max).getTime();
+                for (int i = 0; i <= partitionCount; i++) {
+                    // the ends keep their sub-millisecond part so no rows at
+                    // either end fall outside the partitions
+                    final Timestamp boundary;
+                    if (i == 0) {
+                        boundary = (Timestamp) min;
+                    } else if (i == partitionCount) {
+                        boundary = (Timestamp) max;
+                    } else {
+                        boundary = new Timestamp(lower + (long) ((upper - lower) * ((double) i / partitionCount)));
+                    }
+                    if (boundaries.isEmpty() || !boundaries.get(boundaries.size() - 1).equals(boundary)) {
+                        boundaries.add(boundary);
+                    }
+                }
+            } else {
+                final BigDecimal lower = (BigDecimal) min;
+                final BigDecimal upper = (BigDecimal) max;
+                final BigDecimal step = upper.subtract(lower).divide(BigDecimal.valueOf(partitionCount), MathContext.DECIMAL64);
+                for (int i = 0; i <= partitionCount; i++) {
+                    final BigDecimal boundary = i == partitionCount ? upper : lower.add(step.multiply(BigDecimal.valueOf(i)));
+                    if (boundaries.isEmpty() || ((BigDecimal) boundaries.get(boundaries.size() - 1)).compareTo(boundary) != 0) {
+                        boundaries.add(boundary);
+                    }
+                }
+            }
+        }
+
+        final List<Partition> split = new ArrayList<>();
+        final String bounded = String.format("SELECT * FROM (%s) q WHERE %s >= ? AND %s < ?", subquery, column, column);
+        final String last = String.format("SELECT * FROM (%s) q WHERE %s >= ? AND %s <= ?", subquery, column, column);
+        if (boundaries.size() == 1) {
+            // every value is the same
+            split.add(new Partition(last, boundaries.get(0), boundaries.get(0)));
+        }
+        for (int i = 0; i < boundaries.size() - 1; i++) {
+            split.add(new Partition(i == boundaries.size() - 2 ? last : bounded, boundaries.get(i), boundaries.get(i + 1)));
+        }
+        split.add(new Partition(String.format("SELECT * FROM (%s) q WHERE %s IS NULL", subquery, column)));
+        return split;
+    }
+
+    /**
+     * The partition column as it can be written into the query. A plain
+     * name is used as typed, anything else is quoted the way the database
+     * quotes identifiers.
+     */
+    private static String quoteIdentifier(final DatabaseMetaData metaData, final String name) throws SQLException {
+        if (IDENTIFIER.matcher(name).matches()) {
+            return name;
+        }
+        final String quote = metaData.getIdentifierQuoteString();
+        if (quote == null || quote.isBlank()) {
+            throw new SQLException(String.format("The partition column %s is not a valid column name.", name));
+        }
+        return quote + name.replace(quote, quote + quote) + quote;
+    }
+
+    private static String stripTerminator(final String query) {
+        String stripped = query.strip();
+        while (stripped.endsWith(";")) {
+            stripped = stripped.substring(0, stripped.length() - 1).strip();
+        }
+        return stripped;
+    }
+
+    private void fetch(final Partition partition) {
+        try (Connection dbConnection = connection.getConnection(username, password)) {
+            if (dbConnection == null) {
+                throw new SQLException("The driver does not accept the connection string.");
+            }
+            try (PreparedStatement ps = dbConnection.prepareStatement(partition.sql)) {
+                running.add(ps);
+                try {
+                    for (int i = 0; i < partition.bounds.length; i++) {
+                        if (partition.bounds[i] instanceof Timestamp) {
+                            ps.setTimestamp(i + 1, (Timestamp) partition.bounds[i]);
+                        } else {
+                            ps.setBigDecimal(i + 1, (BigDecimal) partition.bounds[i]);
+                        }
+                    }
+                    try {
+                        ps.setFetchSize(BATCH_SIZE);
+                    } catch (SQLException ex) {
+                        // only a hint, not all drivers take it
+                    }
+                    try (ResultSet rs = ps.executeQuery()) {
+                        final int columnCount = rs.getMetaData().getColumnCount();
+                        List<String[]> batch = new ArrayList<>(BATCH_SIZE);
+                        while (rs.next()) {
+                            final String[] row = new String[columnCount];
+                            for (int i = 0; i < columnCount; i++) {
+                                row[i] = rs.getString(i + 1);
+                            }
+                            batch.add(row);
+                            if (batch.size() == BATCH_SIZE) {
+                                batches.put(batch);
+                                batch = new ArrayList<>(BATCH_SIZE);
+                            }
+                        }
+                        if (!batch.isEmpty()) {
+                            batches.put(batch);
+                        }
+                    }
+                } finally {
+                    running.remove(ps);
+                }
+            }
+        } catch (SQLException ex) {
+            error.compareAndSet(null, ex);
+        } catch (MalformedURLException | ReflectiveOperationException | RuntimeException ex) {
+            error.compareAndSet(null, new SQLException(ex.getMessage(), ex));
+        } catch (InterruptedException ex) {
+            // closed before the partition was read
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            batches.put(END);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -106,6 +106,7 @@ public class JDBCImporterStage extends Stage {
         });
 
         setScene(scene);
+        setOnHidden(event -> importController.cancelSampleData());
         setTitle("Import from JDBC Source");
         getIcons().add(new Image(JDBC_IMPORTER_ICON_PATH));
         JDBCImporterStage.this.centerOnScreen();
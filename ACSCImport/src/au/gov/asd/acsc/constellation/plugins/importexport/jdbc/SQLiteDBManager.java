@@ -22,10 +22,15 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Set;
 import org.openide.util.Exceptions;
 
 public class SQLiteDBManager {
     
+    public static final int DEFAULT_POOL_SIZE = 4;
+    public static final int DEFAULT_IDLE_TIMEOUT = 300;
+    
     private static SQLiteDBManager __instance__ = null;
     private File sqlite;
     
@@ -52,6 +57,7 @@ public class SQLiteDBManager {
                         }
                     }
                 }
+                addPoolColumns(connection);
                 try (final PreparedStatement stmt = connection.prepareStatement("SELECT count(*) from sqlite_master where type='table' AND name='driver'")) {
                     try (ResultSet rs = stmt.executeQuery())
                     {
@@ -94,6 +100,34 @@ public class SQLiteDBManager {
         }
     }
     
+    /* connection pool settings, added to databases created before pooling */
+    private void addPoolColumns(Connection connection) throws SQLException
+    {
+        final Set<String> columns = new HashSet<>();
+        try (final PreparedStatement stmt = connection.prepareStatement("PRAGMA table_info(connection)")) {
+            try (ResultSet rs = stmt.executeQuery())
+            {
+                while (rs.next())
+                {
+                    columns.add(rs.getString("name"));
+                }
+            }
+        }
+        addColumn(connection, columns, "pool_size", "Integer default " + DEFAULT_POOL_SIZE);
+        addColumn(connection, columns, "idle_timeout", "Integer default " + DEFAULT_IDLE_TIMEOUT);
+        addColumn(connection, columns, "validation_query", "String");
+    }
+    
+    private void addColumn(Connection connection, Set<String> columns, String name, String definition) throws SQLException
+    {
+        if (!columns.contains(name))
+        {
+            try (final PreparedStatement statement = connection.prepareStatement(String.format("alter table connection add column %s %s", name, definition))) {
+                statement.executeUpdate();
+            }
+        }
+    }
+    
     public static SQLiteDBManager getInstance()
     {
         if (__instance__ == null)
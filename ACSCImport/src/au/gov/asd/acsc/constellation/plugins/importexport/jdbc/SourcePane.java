@@ -32,6 +32,7 @@ import javafx.collections.ObservableList;
 import javafx.event.ActionEvent;
 import javafx.geometry.HPos;
 import javafx.geometry.Insets;
+import javafx.geometry.Pos;
 import javafx.geometry.VPos;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
@@ -43,16 +44,19 @@ import javafx.scene.control.Label;
 import javafx.scene.control.PasswordField;
 import javafx.scene.control.ScrollPane;
 import javafx.scene.control.SelectionMode;
+import javafx.scene.control.Spinner;
 import javafx.scene.control.Tab;
 import javafx.scene.control.TabPane;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
 import javafx.scene.control.TextArea;
 import javafx.scene.control.TextField;
+import javafx.scene.control.Tooltip;
 import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.ColumnConstraints;
 import javafx.scene.layout.GridPane;
+import javafx.scene.layout.HBox;
 import javafx.scene.layout.Pane;
 import javafx.scene.layout.Priority;
 import javafx.scene.paint.Color;
@@ -202,6 +206,24 @@ public class SourcePane extends GridPane {
                 PasswordField password = new PasswordField();
                 gp.add(password, 1, 4, 2, 1);
                 
+                Label poolSizeLabel = new Label("Pool Size");
+                gp.add(poolSizeLabel, 0, 5, 1, 1);
+                TextField poolSize = new TextField(Integer.toString(SQLiteDBManager.DEFAULT_POOL_SIZE));
+                poolSize.setTooltip(new Tooltip("The number of connections kept open for reuse, 0 to open a new connection each time"));
+                gp.add(poolSize, 1, 5, 2, 1);
+                
+                Label idleTimeoutLabel = new Label("Idle Timeout (s)");
+                gp.add(idleTimeoutLabel, 0, 6, 1, 1);
+                TextField idleTimeout = new TextField(Integer.toString(SQLiteDBManager.DEFAULT_IDLE_TIMEOUT));
+                idleTimeout.setTooltip(new Tooltip("How long an unused pooled connection is kept open, 0 to keep it open"));
+                gp.add(idleTimeout, 1, 6, 2, 1);
+                
+                Label validationQueryLabel = new Label("Validation Query");
+                gp.add(validationQueryLabel, 0, 7, 1, 1);
+                TextField validationQuery = new TextField();
+                validationQuery.setTooltip(new Tooltip("Query run to check a pooled connection still works before reusing it, such as SELECT 1"));
+                gp.add(validationQuery, 1, 7, 2, 1);
+                
                 Button add = new Button("Add");
                 add.setOnAction((final ActionEvent t2) -> {
                     if (!cn.getText().isBlank() && 
@@ -210,7 +232,8 @@ public class SourcePane extends GridPane {
                             !username.getText().isBlank() &&
                             !password.getText().isBlank())
                     {
-                        if (connectionManager.addConnection(cn.getText(), driver.getValue(), username.getText(),password.getText(), connectionStringF.getText()))
+                        if (connectionManager.addConnection(cn.getText(), driver.getValue(), username.getText(),password.getText(), connectionStringF.getText(), 
+                                parseSetting(poolSize.getText(), SQLiteDBManager.DEFAULT_POOL_SIZE), parseSetting(idleTimeout.getText(), SQLiteDBManager.DEFAULT_IDLE_TIMEOUT), validationQuery.getText()))
                         {
                             connectionsTable.getItems().clear();
                             connectionsTable.getItems().addAll(connectionManager.getConnections());
@@ -226,7 +249,7 @@ public class SourcePane extends GridPane {
                     }
                 });
                 
-                gp.add(add, 0,5,1,1);
+                gp.add(add, 0,8,1,1);
                 
                 Button test = new Button("Test");
                 test.setOnAction((final ActionEvent t2) -> {
@@ -245,14 +268,14 @@ public class SourcePane extends GridPane {
                     }
                 });
                 
-                gp.add(test, 1,5,1,1);
+                gp.add(test, 1,8,1,1);
                 
                 
                 
                 final ScrollPane sp = new ScrollPane(gp);
                 sp.setFitToWidth(true);
 
-                sp.setPrefHeight(200);
+                sp.setPrefHeight(300);
                 sp.setPrefWidth(400);
                 sp.setHbarPolicy(ScrollPane.ScrollBarPolicy.AS_NEEDED);
                 sp.setVbarPolicy(ScrollPane.ScrollBarPolicy.AS_NEEDED);
@@ -318,6 +341,7 @@ public class SourcePane extends GridPane {
                         }
                     }
                     
+                    connectionManager.closeConnectionsWithDriver(d.getName());
                     driverManager.removeConnectionsWithDriver(d.getName());
                     driverManager.deleteDriver(d.getName());
                     driverTable.getItems().clear();
@@ -513,9 +537,39 @@ public class SourcePane extends GridPane {
                 importController.updateSampleData();
             }
         });
-        GridPane.setConstraints(sampleButton, 2, 4, 2, 1, HPos.LEFT, VPos.TOP);
+        sampleButton.disableProperty().bind(importController.previewRunningProperty());
+        
+        Button cancelSampleButton = new Button("Cancel");
+        cancelSampleButton.setOnAction((final ActionEvent t) -> {
+            importController.cancelSampleData();
+        });
+        cancelSampleButton.disableProperty().bind(importController.previewRunningProperty().not());
+        
+        HBox sampleButtons = new HBox(5, sampleButton, cancelSampleButton);
+        GridPane.setConstraints(sampleButtons, 2, 4, 2, 1, HPos.LEFT, VPos.TOP);
+        
+        Label partitionLabel = new Label("Partition Column:");
+        GridPane.setConstraints(partitionLabel, 0, 5, 1, 1, HPos.LEFT, VPos.TOP);
+        
+        TextField partitionColumn = new TextField();
+        partitionColumn.setPromptText("Optional numeric or date column");
+        partitionColumn.setTooltip(new Tooltip("Split the range of this column between concurrent queries when importing large tables"));
+        partitionColumn.textProperty().addListener((observable, oldValue, newValue) -> {
+            importController.setPartitionColumn(newValue);
+        });
+        
+        Spinner<Integer> partitionCount = new Spinner<>(1, ImportJDBCPlugin.MAX_PARTITIONS, 4);
+        partitionCount.setPrefWidth(80);
+        partitionCount.valueProperty().addListener((observable, oldValue, newValue) -> {
+            importController.setPartitionCount(newValue);
+        });
+        partitionCount.disableProperty().bind(partitionColumn.textProperty().isEmpty());
+        
+        HBox partitionBox = new HBox(5, partitionColumn, new Label("Partitions:"), partitionCount);
+        partitionBox.setAlignment(Pos.CENTER_LEFT);
+        GridPane.setConstraints(partitionBox, 1, 5, 2, 1, HPos.LEFT, VPos.TOP);
 
-        getChildren().addAll(fileLabel, dbConnectionComboBox, manageConnectionsBtn, usernameLabel, username, passwordLabel, password, queryLabel, query, destinationLabel, graphComboBox, sampleButton);
+        getChildren().addAll(fileLabel, dbConnectionComboBox, manageConnectionsBtn, usernameLabel, username, passwordLabel, password, queryLabel, query, destinationLabel, graphComboBox, sampleButtons, partitionLabel, partitionBox);
 
 
     }
@@ -546,4 +600,13 @@ public class SourcePane extends GridPane {
     public final ImportDestination<?> getDestination() {
         return graphComboBox.getSelectionModel().getSelectedItem();
     }
+
+    /* a non-negative pool setting, or the default if it is not one */
+    private static int parseSetting(final String text, final int defaultValue) {
+        try {
+            return Math.max(0, Integer.parseInt(text.trim()));
+        } catch (final NumberFormatException ex) {
+            return defaultValue;
+        }
+    }
 }
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2010-2020 Australian Signals Directorate
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A lookup that can resolve several indicators in a single request.
+ * <p>
+ * Providers whose API only accepts one indicator per request return a maximum
+ * batch size of 1, callers still get de-duplication and partitioning from
+ * {@link BatchLookups}.
+ * <p>
+ * A lookup is used for a single run and closed once the run is over, so any
+ * connections it opened can be released.
+ *
+ * @param <R> the result for a single indicator.
+ */
+public interface BatchLookup<R> extends Closeable {
+
+    /**
+     * The largest number of indicators that can be sent in one request.
+     *
+     * @return the maximum batch size.
+     */
+    int getMaximumBatchSize();
+
+    /**
+     * Resolve a batch of distinct indicators, no larger than
+     * {@link #getMaximumBatchSize()}.
+     *
+     * @param indicators the indicators to look up.
+     * @return the results keyed by indicator, indicators that were not found
+     * are left out. Returns null if the lookup failed and no further batches
+     * should be sent, the provider is responsible for notifying the user.
+     */
+    Map<String, R> lookupBatch(Collection<String> indicators);
+
+    @Override
+    default void close() throws IOException {
+        // nothing is held open by default
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2010-2020 Australian Signals Directorate
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment;
+
+import com.google.common.collect.Lists;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs a {@link BatchLookup} over any number of indicators, removing
+ * duplicates and splitting them into batches the provider accepts.
+ */
+public final class BatchLookups {
+
+    @FunctionalInterface
+    public interface BatchConsumer<R> {
+
+        /**
+         * Receive the results of one batch as soon as it has been resolved.
+         *
+         * @param batch the indicators that were sent.
+         * @param results the results keyed by indicator.
+         * @throws InterruptedException if the plugin was cancelled.
+         */
+        void accept(List<String> batch, Map<String, R> results) throws InterruptedException;
+    }
+
+    private BatchLookups() {
+    }
+
+    /**
+     * Look up every distinct indicator, handing each batch to the consumer as
+     * it completes.
+     *
+     * @param <R> the result for a single indicator.
+     * @param lookup the provider lookup.
+     * @param indicators the indicators, duplicates are sent once.
+     * @param consumer receives each batch and its results.
+     * @return false if the lookup failed part way through.
+     * @throws InterruptedException if the plugin was cancelled.
+     */
+    public static <R> boolean lookup(final BatchLookup<R> lookup, final Collection<String> indicators, final BatchConsumer<R> consumer) throws InterruptedException {
+        final List<String> distinct = new ArrayList<>(new LinkedHashSet<>(indicators));
+        final int batchSize = Math.max(1, lookup.getMaximumBatchSize());
+        for (final List<String> batch : Lists.partition(distinct, batchSize)) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            final Map<String, R> results = lookup.lookupBatch(batch);
+            if (results == null) {
+                return false;
+            }
+            consumer.accept(batch, results);
+        }
+        return true;
+    }
+}
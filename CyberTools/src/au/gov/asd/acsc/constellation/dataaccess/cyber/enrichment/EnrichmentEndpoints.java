@@ -0,0 +1,45 @@
+/*
+ * Copyright 2010-2020 Australian Signals Directorate
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment;
+
+/**
+ * Resolves the base url of an enrichment service.
+ * <p>
+ * The default can be replaced with the system property
+ * {@code acsc.enrichment.<provider>.url}, for example
+ * {@code -J-Dacsc.enrichment.greynoise.url=http://localhost:8080}, so that
+ * plugins can be run against a local stub without using real API quota.
+ */
+public final class EnrichmentEndpoints {
+
+    private EnrichmentEndpoints() {
+    }
+
+    /**
+     * The base url for a provider.
+     *
+     * @param provider the provider key, such as greynoise.
+     * @param defaultUrl the url of the real service.
+     * @return the overridden url, or the default.
+     */
+    public static String getBaseUrl(final String provider, final String defaultUrl) {
+        final String url = System.getProperty(String.format("acsc.enrichment.%s.url", provider));
+        if (url == null || url.isEmpty()) {
+            return defaultUrl;
+        }
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+}
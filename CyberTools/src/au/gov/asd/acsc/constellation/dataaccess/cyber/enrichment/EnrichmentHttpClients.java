@@ -0,0 +1,73 @@
+/*
+ * Copyright 2010-2020 Australian Signals Directorate
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment;
+
+import au.gov.asd.tac.constellation.security.proxy.ConstellationHttpProxySelector;
+import java.net.Proxy;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.List;
+import org.apache.http.HttpHost;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+
+/**
+ * Builds http clients that honour the Constellation proxy settings.
+ */
+public final class EnrichmentHttpClients {
+
+    private EnrichmentHttpClients() {
+    }
+
+    /**
+     * A client builder using the first proxy selected for the url.
+     *
+     * @param url the base url of the service.
+     * @return the builder, without a proxy if a direct connection was
+     * selected.
+     * @throws URISyntaxException if the url is not valid.
+     */
+    public static HttpClientBuilder builder(final String url) throws URISyntaxException {
+        final HttpClientBuilder clientBuilder = HttpClients.custom();
+        final List<Proxy> proxies = ConstellationHttpProxySelector.getDefault().select(new URI(url));
+        if (!proxies.isEmpty()) {
+            final Proxy proxy = proxies.get(0);
+            if (proxy.type() != Proxy.Type.DIRECT) {
+                final String h = proxy.address().toString();
+                if (h.contains(":")) {
+                    final String addr = h.split(":")[0].split("/")[0];
+                    final int port = Integer.parseInt(h.split(":")[1]);
+                    clientBuilder.setProxy(new HttpHost(addr, port));
+                } else {
+                    clientBuilder.setProxy(new HttpHost(h));
+                }
+            }
+        }
+        return clientBuilder;
+    }
+
+    /**
+     * A client using the first proxy selected for the url.
+     *
+     * @param url the base url of the service.
+     * @return the client.
+     * @throws URISyntaxException if the url is not valid.
+     */
+    public static CloseableHttpClient create(final String url) throws URISyntaxException {
+        return builder(url).build();
+    }
+}
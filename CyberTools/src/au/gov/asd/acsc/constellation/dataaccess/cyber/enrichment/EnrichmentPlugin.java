@@ -0,0 +1,250 @@
+/*
+ * Copyright 2010-2020 Australian Signals Directorate
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment;
+
+import au.gov.asd.acsc.constellation.preferences.ACSCPreferenceKeys;
+import au.gov.asd.tac.constellation.graph.processing.GraphRecordStore;
+import au.gov.asd.tac.constellation.graph.processing.GraphRecordStoreUtilities;
+import au.gov.asd.tac.constellation.graph.processing.RecordStore;
+import au.gov.asd.tac.constellation.graph.schema.analytic.concept.AnalyticConcept;
+import au.gov.asd.tac.constellation.graph.schema.visual.concept.VisualConcept;
+import au.gov.asd.tac.constellation.plugins.PluginException;
+import au.gov.asd.tac.constellation.plugins.PluginInteraction;
+import au.gov.asd.tac.constellation.plugins.PluginNotificationLevel;
+import au.gov.asd.tac.constellation.plugins.parameters.PluginParameters;
+import au.gov.asd.tac.constellation.views.dataaccess.DataAccessPlugin;
+import au.gov.asd.tac.constellation.views.dataaccess.DataAccessPluginCoreType;
+import au.gov.asd.tac.constellation.views.dataaccess.templates.RecordStoreQueryPlugin;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.prefs.Preferences;
+import org.openide.util.NbPreferences;
+
+/**
+ * Runs an {@link EnrichmentProvider} over the selected vertices.
+ * <p>
+ * Subclasses register themselves as a {@link DataAccessPlugin} and supply the
+ * provider, along with any parameters it needs.
+ *
+ * @param <R> the response for a single indicator.
+ */
+public abstract class EnrichmentPlugin<R> extends RecordStoreQueryPlugin implements DataAccessPlugin {
+
+    private static final Logger LOGGER = Logger.getLogger(EnrichmentPlugin.class.getName());
+
+    // shared by every run so concurrent runs don't repeat a batch, the keys
+    // start with the provider name and request key
+    private static final SingleFlight<Map<String, ?>> REQUESTS = new SingleFlight<>();
+    private static final Map<String, LruCache<String, Object>> CACHES = new ConcurrentHashMap<>();
+    private static final int CACHE_SIZE = 2000;
+
+    /**
+     * The provider used by this plugin.
+     *
+     * @return the provider.
+     */
+    protected abstract EnrichmentProvider<R> getProvider();
+
+    @Override
+    public String getType() {
+        return DataAccessPluginCoreType.ENRICHMENT;
+    }
+
+    @Override
+    protected RecordStore query(final RecordStore query, final PluginInteraction interaction, final PluginParameters parameters) throws PluginException {
+        final RecordStore results = new GraphRecordStore();
+        final EnrichmentProvider<R> provider = getProvider();
+        final Preferences prefs = NbPreferences.forModule(ACSCPreferenceKeys.class);
+
+        final String error = provider.getConfigurationError(prefs);
+        if (error != null) {
+            interaction.notify(PluginNotificationLevel.FATAL, error);
+            return results;
+        }
+
+        if (query.size() == 0) {
+            return results;
+        }
+
+        // identifier -> the vertex types it was selected as
+        final Set<String> supported = provider.getSupportedTypes();
+        final Map<String, List<String>> indicators = new LinkedHashMap<>();
+        query.reset();
+        while (query.next()) {
+            final String identifier = query.get(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER);
+            final String type = query.get(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE);
+            if (identifier != null && type != null && supported.contains(type)) {
+                final List<String> types = indicators.computeIfAbsent(identifier, k -> new ArrayList<>());
+                if (!types.contains(type)) {
+                    types.add(type);
+                }
+            }
+        }
+
+        if (indicators.isEmpty()) {
+            return results;
+        }
+
+        final long start = System.nanoTime();
+        final int total = indicators.size();
+        final int[] done = {0};
+        final BatchLookup<R> paced = new PacedLookup<>(provider.createLookup(prefs, parameters, interaction), provider.getRateLimit());
+        final String requestKey = provider.getRequestKey(prefs, parameters);
+        try (final BatchLookup<R> lookup = requestKey == null ? paced : new SharedLookup<>(paced, provider.getName() + " " + requestKey, getCache(provider))) {
+            interaction.setProgress(0, total, "Querying " + provider.getName(), true);
+            BatchLookups.lookup(lookup, indicators.keySet(), (batch, res) -> {
+                for (final Map.Entry<String, R> match : res.entrySet()) {
+                    final List<String> types = indicators.get(match.getKey());
+                    if (types == null || match.getValue() == null) {
+                        continue;
+                    }
+                    for (final String type : types) {
+                        provider.map(match.getKey(), type, match.getValue(), parameters, results);
+                    }
+                }
+                done[0] += batch.size();
+                interaction.setProgress(done[0], total, String.format("Queried %d of %d on %s", done[0], total, provider.getName()), true);
+            });
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Unable to close the " + provider.getName() + " lookup", ex);
+        }
+
+        LOGGER.log(Level.INFO, "{0}: {1} of {2} indicators in {3} ms", new Object[]{provider.getName(), done[0], total, (System.nanoTime() - start) / 1000000});
+        return results;
+    }
+
+    /**
+     * The cache shared by every run of the provider.
+     *
+     * @return the cache, or null if the provider does not cache responses.
+     */
+    private static LruCache<String, Object> getCache(final EnrichmentProvider<?> provider) {
+        final long minutes = provider.getCacheMinutes();
+        if (minutes <= 0) {
+            return null;
+        }
+        return CACHES.computeIfAbsent(provider.getName(), k -> new LruCache<>(CACHE_SIZE, minutes, TimeUnit.MINUTES));
+    }
+
+    /**
+     * Spaces the batches of a lookup to stay inside the provider rate limit.
+     */
+    private static class PacedLookup<R> implements BatchLookup<R> {
+
+        private final BatchLookup<R> lookup;
+        private final RequestPacer pacer;
+
+        PacedLookup(final BatchLookup<R> lookup, final RateLimit limit) {
+            this.lookup = lookup;
+            this.pacer = new RequestPacer(limit);
+        }
+
+        @Override
+        public int getMaximumBatchSize() {
+            return lookup.getMaximumBatchSize();
+        }
+
+        @Override
+        public Map<String, R> lookupBatch(final Collection<String> indicators) {
+            try {
+                pacer.acquire();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            return lookup.lookupBatch(indicators);
+        }
+
+        @Override
+        public void close() throws IOException {
+            lookup.close();
+        }
+    }
+
+    /**
+     * Shares the responses of a lookup with other runs using the same key.
+     * Cached indicators are left out of the batch, and a batch another run
+     * already has in flight is waited for rather than sent again.
+     */
+    private static class SharedLookup<R> implements BatchLookup<R> {
+
+        private final BatchLookup<R> lookup;
+        private final String key;
+        private final LruCache<String, Object> cache;
+
+        /**
+         * @param lookup the lookup that makes the requests.
+         * @param key identifies the provider and the responses it gives.
+         * @param cache the responses kept for later runs, or null.
+         */
+        SharedLookup(final BatchLookup<R> lookup, final String key, final LruCache<String, Object> cache) {
+            this.lookup = lookup;
+            this.key = key;
+            this.cache = cache;
+        }
+
+        @Override
+        public int getMaximumBatchSize() {
+            return lookup.getMaximumBatchSize();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Map<String, R> lookupBatch(final Collection<String> indicators) {
+            final Map<String, R> results = new LinkedHashMap<>();
+            final List<String> remaining = new ArrayList<>();
+            for (final String indicator : indicators) {
+                final Object cached = cache == null ? null : cache.get(key + " " + indicator);
+                if (cached != null) {
+                    results.put(indicator, (R) cached);
+                } else {
+                    remaining.add(indicator);
+                }
+            }
+            if (remaining.isEmpty()) {
+                return results;
+            }
+
+            final Map<String, R> fetched = (Map<String, R>) REQUESTS.get(key + " " + String.join(",", remaining), () -> lookup.lookupBatch(remaining));
+            if (fetched == null) {
+                return null;
+            }
+            for (final Map.Entry<String, R> entry : fetched.entrySet()) {
+                if (cache != null && entry.getValue() != null) {
+                    cache.put(key + " " + entry.getKey(), entry.getValue());
+                }
+                results.put(entry.getKey(), entry.getValue());
+            }
+            return results;
+        }
+
+        @Override
+        public void close() throws IOException {
+            lookup.close();
+        }
+    }
+}
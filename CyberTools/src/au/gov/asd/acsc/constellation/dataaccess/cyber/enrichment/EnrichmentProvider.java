@@ -0,0 +1,113 @@
+/*
+ * Copyright 2010-2020 Australian Signals Directorate
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment;
+
+import au.gov.asd.tac.constellation.graph.processing.RecordStore;
+import au.gov.asd.tac.constellation.plugins.PluginInteraction;
+import au.gov.asd.tac.constellation.plugins.parameters.PluginParameters;
+import java.util.Set;
+import java.util.prefs.Preferences;
+
+/**
+ * A source of enrichment for selected vertices, such as a web service.
+ * <p>
+ * A provider only describes how to talk to the service and how to draw its
+ * responses. Reading the selection, de-duplication, batching, pacing,
+ * coalescing, caching and progress are handled by {@link EnrichmentPlugin} so
+ * they behave the same for every provider.
+ *
+ * @param <R> the response for a single indicator.
+ */
+public interface EnrichmentProvider<R> {
+
+    /**
+     * The name shown to the user in progress and error messages.
+     *
+     * @return the provider name.
+     */
+    String getName();
+
+    /**
+     * The vertex types this provider can look up.
+     *
+     * @return the names of the supported vertex types.
+     */
+    Set<String> getSupportedTypes();
+
+    /**
+     * Check that the provider has been configured, for example that an API
+     * key has been set.
+     *
+     * @param prefs the ACSC preferences.
+     * @return a message to show the user, or null if the provider is ready.
+     */
+    String getConfigurationError(Preferences prefs);
+
+    /**
+     * The limit imposed by the service on how fast requests can be made.
+     *
+     * @return the rate limit, {@link RateLimit#UNLIMITED} if there is none.
+     */
+    RateLimit getRateLimit();
+
+    /**
+     * Identifies the responses a run will get, so that runs with the same key
+     * can share them. It must include everything that changes a response,
+     * such as the account and any parameters.
+     * <p>
+     * Runs with the same key wait for a batch another run already has in
+     * flight rather than sending it again, and reuse cached responses if
+     * {@link #getCacheMinutes()} is set.
+     *
+     * @param prefs the ACSC preferences.
+     * @param parameters the plugin parameters.
+     * @return the key, or null if runs should not share responses.
+     */
+    default String getRequestKey(final Preferences prefs, final PluginParameters parameters) {
+        return null;
+    }
+
+    /**
+     * How long a response is reused by later runs with the same request key.
+     * Indicators that were not found are looked up again.
+     *
+     * @return the number of minutes, 0 if responses are not cached.
+     */
+    default long getCacheMinutes() {
+        return 0;
+    }
+
+    /**
+     * Create the lookup used for a single run of the plugin.
+     *
+     * @param prefs the ACSC preferences.
+     * @param parameters the plugin parameters.
+     * @param interaction used to notify the user of errors.
+     * @return the lookup.
+     */
+    BatchLookup<R> createLookup(Preferences prefs, PluginParameters parameters, PluginInteraction interaction);
+
+    /**
+     * Draw the response for one indicator.
+     *
+     * @param identifier the identifier that was looked up.
+     * @param type the vertex type of the identifier.
+     * @param response the response for the identifier.
+     * @param parameters the plugin parameters.
+     * @param results the record store to draw into.
+     */
+    void map(String identifier, String type, R response, PluginParameters parameters, RecordStore results);
+}
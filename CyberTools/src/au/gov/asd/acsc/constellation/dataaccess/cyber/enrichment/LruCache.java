@@ -0,0 +1,94 @@
+/*
+ * Copyright 2010-2020 Australian Signals Directorate
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A size-bounded cache that evicts the least recently used entry once it is
+ * full, and optionally entries older than a time to live. All access is
+ * synchronized so a cache can be shared between lookup threads.
+ *
+ * @param <K> the key type.
+ * @param <V> the value type.
+ */
+public final class LruCache<K, V> {
+
+    private static final class Entry<V> {
+
+        private final V value;
+        private final long expires;
+
+        Entry(final V value, final long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+    private final Map<K, Entry<V>> entries;
+    private final long ttl;
+
+    /**
+     * @param capacity the maximum number of entries held.
+     */
+    public LruCache(final int capacity) {
+        this(capacity, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param capacity the maximum number of entries held.
+     * @param ttl how long an entry is kept after it is put, 0 to keep it until
+     * it is evicted.
+     * @param unit the unit of the time to live.
+     */
+    public LruCache(final int capacity, final long ttl, final TimeUnit unit) {
+        this.ttl = unit.toNanos(ttl);
+        entries = new LinkedHashMap<K, Entry<V>>(16, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<K, Entry<V>> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * The cached value, marking it as recently used.
+     *
+     * @param key the key.
+     * @return the value, or null if it is not cached or has expired.
+     */
+    public synchronized V get(final K key) {
+        final Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (ttl > 0 && System.nanoTime() - entry.expires > 0) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    public synchronized void put(final K key, final V value) {
+        entries.put(key, new Entry<>(value, ttl > 0 ? System.nanoTime() + ttl : 0));
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+}
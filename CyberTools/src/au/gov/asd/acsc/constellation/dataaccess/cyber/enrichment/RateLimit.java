@@ -0,0 +1,72 @@
+/*
+ * Copyright 2010-2020 Australian Signals Directorate
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How many requests a provider allows in a period. The
+ * {@link EnrichmentPlugin} spaces its batches evenly so the limit is never
+ * exceeded by a single run.
+ */
+public final class RateLimit {
+
+    public static final RateLimit UNLIMITED = new RateLimit(0, 0, TimeUnit.SECONDS);
+
+    private final int requests;
+    private final long period;
+    private final TimeUnit unit;
+
+    /**
+     * @param requests the number of requests allowed, 0 for no limit.
+     * @param period the length of the period.
+     * @param unit the unit of the period.
+     */
+    public RateLimit(final int requests, final long period, final TimeUnit unit) {
+        this.requests = requests;
+        this.period = period;
+        this.unit = unit;
+    }
+
+    public int getRequests() {
+        return requests;
+    }
+
+    public long getPeriod() {
+        return period;
+    }
+
+    public TimeUnit getUnit() {
+        return unit;
+    }
+
+    /**
+     * The minimum time between two requests.
+     *
+     * @return the interval in nanoseconds, 0 if there is no limit.
+     */
+    public long getInterval() {
+        if (requests <= 0 || period <= 0) {
+            return 0;
+        }
+        return unit.toNanos(period) / requests;
+    }
+
+    @Override
+    public String toString() {
+        return requests <= 0 ? "unlimited" : String.format("%d per %d %s", requests, period, unit.toString().toLowerCase());
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2010-2020 Australian Signals Directorate
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment;
+
+/**
+ * Hands out request slots spaced evenly to stay inside a {@link RateLimit}.
+ * Slots are reserved in order, so threads sharing a pacer never make
+ * requests closer together than the limit allows.
+ */
+public final class RequestPacer {
+
+    private final long interval;
+    private long next = 0;
+
+    public RequestPacer(final RateLimit limit) {
+        this.interval = limit.getInterval();
+    }
+
+    /**
+     * Wait for the next request slot.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void acquire() throws InterruptedException {
+        if (interval <= 0) {
+            return;
+        }
+        final long wait;
+        synchronized (this) {
+            final long now = System.nanoTime();
+            final long slot = Math.max(now, next);
+            next = slot + interval;
+            wait = slot - now;
+        }
+        if (wait > 0) {
+            Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+        }
+    }
+}
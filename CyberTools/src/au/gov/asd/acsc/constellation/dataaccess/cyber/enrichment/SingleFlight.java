@@ -0,0 +1,101 @@
+/*
+ * Copyright 2010-2020 Australian Signals Directorate
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent requests for the same key so that only one of them
+ * reaches the provider and the others wait for its result.
+ * <p>
+ * Nothing is cached once the request completes, a later call for the same key
+ * will go to the provider again. Providers keep one instance for the lifetime
+ * of the module so that plugin runs on different graphs share it.
+ *
+ * @param <R> the response type.
+ */
+public final class SingleFlight<R> {
+
+    private final ConcurrentMap<String, CompletableFuture<R>> inFlight = new ConcurrentHashMap<>();
+    private final R interrupted;
+
+    /**
+     * A waiting thread that is interrupted gets null, for callers that treat
+     * null as a failed request.
+     */
+    public SingleFlight() {
+        this(null);
+    }
+
+    /**
+     * @param interrupted the response given to a waiting thread that is
+     * interrupted, it must be one the callers treat as a failed request.
+     */
+    public SingleFlight(final R interrupted) {
+        this.interrupted = interrupted;
+    }
+
+    /**
+     * Run the loader for the key, or wait for a request for the same key that
+     * is already running.
+     *
+     * @param key identifies the request, for example the full request url.
+     * @param loader issues the request.
+     * @return the response, or the interrupted response if the waiting thread
+     * was interrupted. The thread's interrupt status is kept.
+     */
+    public R get(final String key, final Supplier<R> loader) {
+        final CompletableFuture<R> created = new CompletableFuture<>();
+        final CompletableFuture<R> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            try {
+                return existing.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return interrupted;
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ex.getCause();
+                }
+                throw new IllegalStateException(ex.getCause());
+            }
+        }
+
+        try {
+            final R result = loader.get();
+            created.complete(result);
+            return result;
+        } catch (RuntimeException | Error ex) {
+            created.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inFlight.remove(key, created);
+        }
+    }
+
+    /**
+     * The number of requests currently running.
+     *
+     * @return the number of distinct keys in flight.
+     */
+    public int size() {
+        return inFlight.size();
+    }
+}
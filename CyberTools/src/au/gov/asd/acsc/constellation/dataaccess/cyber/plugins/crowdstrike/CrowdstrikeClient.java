@@ -15,17 +15,39 @@
  */
 package au.gov.asd.acsc.constellation.dataaccess.cyber.plugins.crowdstrike;
 
+import au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment.BatchLookup;
+import au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment.EnrichmentEndpoints;
+import au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment.LruCache;
+import au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment.RateLimit;
+import au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment.RequestPacer;
+import au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment.SingleFlight;
 import au.gov.asd.tac.constellation.plugins.PluginInteraction;
 import au.gov.asd.tac.constellation.plugins.PluginNotificationLevel;
 import au.gov.asd.tac.constellation.security.proxy.ConstellationHttpProxySelector;
+import com.google.common.collect.Lists;
 import java.io.IOException;
 import java.net.Proxy;
 import java.net.ProxySelector;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.apache.http.Header;
 import org.apache.http.HttpHost;
 import org.apache.http.client.config.CookieSpecs;
@@ -45,14 +67,85 @@ import org.python.google.common.net.UrlEscapers;
 
 public class CrowdstrikeClient 
 {
+    private static final Logger LOGGER = Logger.getLogger(CrowdstrikeClient.class.getName());
+    
     String secret = null;
     String username = null;
-    String apiBase = "https://intelapi.crowdstrike.com";
+    String apiBase = EnrichmentEndpoints.getBaseUrl("crowdstrike", "https://intelapi.crowdstrike.com");
+    
+    // the v2 search endpoints match a single value per request
+    private static final int SEARCH_BATCH_SIZE = 1;
+    
+    // shared by every client so concurrent runs don't repeat a request
+    private static final SingleFlight<String> REQUESTS = new SingleFlight<>();
+    
+    // names and ids resolved per entity request
+    private static final int ENTITY_BATCH_SIZE = 100;
+    private static final int CACHE_SIZE = 2000;
+    private static final long CACHE_TTL_MINUTES = 30;
+    
+    // requests made at the same time, all clients share the pacer
+    private static final int CONCURRENCY = 4;
+    private static final RequestPacer PACER = new RequestPacer(new RateLimit(10, 1, TimeUnit.SECONDS));
     
-    HashMap<String, String> cache = new HashMap<>();
+    // the name to id and entity resolutions are shared by every client so
+    // later runs reuse what earlier runs resolved, the keys start with the
+    // username and entries expire so changes on the server are picked up
+    private static final LruCache<String, List<String>> NAMES = new LruCache<>(CACHE_SIZE, CACHE_TTL_MINUTES, TimeUnit.MINUTES);
+    private static final LruCache<String, JSONObject> ENTITIES = new LruCache<>(CACHE_SIZE, CACHE_TTL_MINUTES, TimeUnit.MINUTES);
+    
+    // searches are only cached for the run that made them
+    private final Map<String, String> cache = new ConcurrentHashMap<>();
     
     CloseableHttpClient client = null;
-    HttpClientContext context = HttpClientContext.create();
+    
+    public BatchLookup<JSONArray> getIndicatorLookup(final PluginInteraction interaction)
+    {
+        return new BatchLookup<JSONArray>() {
+            @Override
+            public int getMaximumBatchSize() {
+                return SEARCH_BATCH_SIZE;
+            }
+
+            @Override
+            public Map<String, JSONArray> lookupBatch(Collection<String> indicators) {
+                Map<String, JSONArray> results = new HashMap<>();
+                for (String indicator : indicators)
+                {
+                    JSONArray res = searchGeneric(indicator, interaction);
+                    if (res != null)
+                    {
+                        results.put(indicator, res);
+                    }
+                }
+                return results;
+            }
+        };
+    }
+    
+    public BatchLookup<JSONArray> getActorLookup(final PluginInteraction interaction)
+    {
+        return new BatchLookup<JSONArray>() {
+            @Override
+            public int getMaximumBatchSize() {
+                return SEARCH_BATCH_SIZE;
+            }
+
+            @Override
+            public Map<String, JSONArray> lookupBatch(Collection<String> actors) {
+                Map<String, JSONArray> results = new HashMap<>();
+                for (String actor : actors)
+                {
+                    JSONArray res = searchActor(actor, interaction);
+                    if (res != null)
+                    {
+                        results.put(actor, res);
+                    }
+                }
+                return results;
+            }
+        };
+    }
     
     public JSONArray searchIPAddress(String query, PluginInteraction interaction)
     {
@@ -66,21 +159,7 @@ public class CrowdstrikeClient
         
     public JSONObject getActor(String query, PluginInteraction interaction)
     {
-        JSONObject s = new JSONObject(getQuery(String.format("%s/actors/queries/actors/v1?name=%s&perPage=10000", apiBase, UrlEscapers.urlFormParameterEscaper().escape(query)), interaction));
-        ArrayList<String> ids = new ArrayList<>();
-        for (Object id : s.getJSONArray("resources"))
-        {
-            ids.add("ids=" + id);
-        }
-        if (ids.isEmpty())
-        {
-            return null;
-        }
-        else
-        {
-            return new JSONObject(getQuery(String.format("%s/actors/entities/actors/v1?%s&fields=__full__&perPage=10000", apiBase, String.join("&", ids)), interaction));
-        }
-        
+        return asResources(resolveActors(Collections.singleton(query), interaction).get(query));
     }
     
     public JSONArray searchDomain(String query, PluginInteraction interaction)
@@ -146,53 +225,253 @@ public class CrowdstrikeClient
     
     public JSONObject searchReportName(String query, PluginInteraction interaction)
     {
-        JSONObject s = new JSONObject(getQuery(String.format("%s/reports/queries/reports/v1?name=%s&perPage=10000", apiBase, UrlEscapers.urlFormParameterEscaper().escape(query)), interaction));
-        
-        String ids = "";
-        for (Object id : s.getJSONArray("resources"))
+        return asResources(resolveReports(Collections.singleton(query), interaction).get(query));
+    }
+    
+    private static JSONObject asResources(List<JSONObject> resources)
+    {
+        if (resources == null || resources.isEmpty())
         {
-            ids += "ids=" + id;
+            return null;
         }
-        if (ids.isEmpty())
+        JSONObject res = new JSONObject();
+        res.put("resources", new JSONArray(resources));
+        return res;
+    }
+    
+    /**
+     * Resolve report names to their report entities.
+     * 
+     * @return the reports found for each name, names that could not be
+     * resolved are left out.
+     */
+    public Map<String, List<JSONObject>> resolveReports(Collection<String> names, PluginInteraction interaction)
+    {
+        return resolve("reports", "", names, interaction);
+    }
+    
+    /**
+     * Resolve actor names to their full actor entities.
+     * 
+     * @return the actors found for each name, names that could not be
+     * resolved are left out.
+     */
+    public Map<String, List<JSONObject>> resolveActors(Collection<String> names, PluginInteraction interaction)
+    {
+        return resolve("actors", "&fields=__full__", names, interaction);
+    }
+    
+    /**
+     * Look up the ids for each distinct name not already cached, then fetch
+     * every id not already cached in batched ids= entity requests. The
+     * requests are made in parallel, and any that fail are reported once at
+     * the end.
+     */
+    private Map<String, List<JSONObject>> resolve(String kind, String fields, Collection<String> names, PluginInteraction interaction)
+    {
+        final ExecutorService executor = Executors.newFixedThreadPool(CONCURRENCY);
+        try
         {
-            return null;
+            final List<String> distinct = new ArrayList<>(new LinkedHashSet<>(names));
+            final Map<String, List<String>> resolvedNames = new HashMap<>();
+            final List<String> unresolved = new ArrayList<>();
+            final List<Callable<String>> nameQueries = new ArrayList<>();
+            for (String name : distinct)
+            {
+                List<String> ids = NAMES.get(nameKey(kind, name));
+                if (ids != null)
+                {
+                    resolvedNames.put(name, ids);
+                    continue;
+                }
+                final String query = String.format("%s/%s/queries/%s/v1?name=%s&perPage=10000", apiBase, kind, kind, UrlEscapers.urlFormParameterEscaper().escape(name));
+                unresolved.add(name);
+                nameQueries.add(() -> fetch(query, interaction));
+            }
+            final List<Future<String>> nameResults = executor.invokeAll(nameQueries);
+            
+            int failedNames = 0;
+            for (int i = 0; i < unresolved.size(); i++)
+            {
+                String res = result(nameResults.get(i));
+                if (res == null)
+                {
+                    failedNames++;
+                    continue;
+                }
+                List<String> ids = new ArrayList<>();
+                for (Object id : new JSONObject(res).getJSONArray("resources"))
+                {
+                    ids.add(String.valueOf(id));
+                }
+                NAMES.put(nameKey(kind, unresolved.get(i)), ids);
+                resolvedNames.put(unresolved.get(i), ids);
+            }
+            
+            final Map<String, List<String>> nameToIds = new LinkedHashMap<>();
+            final Set<String> missing = new LinkedHashSet<>();
+            for (String name : distinct)
+            {
+                List<String> ids = resolvedNames.get(name);
+                if (ids == null)
+                {
+                    continue;
+                }
+                for (String id : ids)
+                {
+                    if (ENTITIES.get(entityKey(kind, id)) == null)
+                    {
+                        missing.add(id);
+                    }
+                }
+                nameToIds.put(name, ids);
+            }
+            
+            final List<List<String>> batches = Lists.partition(new ArrayList<>(missing), ENTITY_BATCH_SIZE);
+            final List<Callable<String>> entityQueries = new ArrayList<>();
+            for (List<String> batch : batches)
+            {
+                List<String> ids = new ArrayList<>();
+                for (String id : batch)
+                {
+                    ids.add("ids=" + UrlEscapers.urlFormParameterEscaper().escape(id));
+                }
+                final String query = String.format("%s/%s/entities/%s/v1?%s%s&perPage=10000", apiBase, kind, kind, String.join("&", ids), fields);
+                entityQueries.add(() -> fetch(query, interaction));
+            }
+            final List<Future<String>> entityResults = executor.invokeAll(entityQueries);
+            
+            final Map<String, JSONObject> found = new HashMap<>();
+            int failedBatches = 0;
+            for (Future<String> future : entityResults)
+            {
+                String res = result(future);
+                if (res == null)
+                {
+                    failedBatches++;
+                    continue;
+                }
+                for (Object r : new JSONObject(res).getJSONArray("resources"))
+                {
+                    JSONObject entity = (JSONObject)r;
+                    String id = String.valueOf(entity.get("id"));
+                    ENTITIES.put(entityKey(kind, id), entity);
+                    found.put(id, entity);
+                }
+            }
+            
+            if (failedNames > 0 || failedBatches > 0)
+            {
+                String message = String.format("Unable to resolve %d of %d CrowdStrike %s names and %d of %d %s batches", failedNames, distinct.size(), kind, failedBatches, batches.size(), kind);
+                LOGGER.log(Level.WARNING, message);
+                if (interaction != null)
+                {
+                    interaction.notify(PluginNotificationLevel.WARNING, message);
+                }
+            }
+            
+            final Map<String, List<JSONObject>> results = new LinkedHashMap<>();
+            for (Map.Entry<String, List<String>> entry : nameToIds.entrySet())
+            {
+                List<JSONObject> resolved = new ArrayList<>();
+                for (String id : entry.getValue())
+                {
+                    JSONObject entity = found.get(id);
+                    if (entity == null)
+                    {
+                        entity = ENTITIES.get(entityKey(kind, id));
+                    }
+                    if (entity != null)
+                    {
+                        resolved.add(entity);
+                    }
+                }
+                if (!resolved.isEmpty())
+                {
+                    results.put(entry.getKey(), resolved);
+                }
+            }
+            return results;
         }
-        else
+        catch (InterruptedException ex)
         {
-            return new JSONObject(getQuery(String.format("%s/reports/entities/reports/v1?%s&perPage=10000", apiBase, ids), interaction));
+            Thread.currentThread().interrupt();
+            return Collections.emptyMap();
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+    
+    private String nameKey(String kind, String name)
+    {
+        return username + " " + kind + " name " + name;
+    }
+    
+    private String entityKey(String kind, String id)
+    {
+        return username + " " + kind + " " + id;
+    }
+    
+    private static String result(Future<String> future) throws InterruptedException
+    {
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            LOGGER.log(Level.WARNING, "CrowdStrike request failed", ex.getCause());
+            return null;
         }
- 
     }
     
     private String getQuery(String query, PluginInteraction interaction)
     {
-        if (cache.containsKey(query))
+        String res = cache.get(query);
+        if (res != null)
         {
-            return cache.get(query);
+            return res;
         }
-        String res = null;
-        int retry = 0;
-        while (true && retry < 3)
+        res = fetch(query, interaction);
+        if (res != null)
         {
-            String out = getObject(query, interaction);
-            if (out != null)
-            {
-                cache.put(query, out);
-                return out;
-            }
-            else
+            cache.put(query, res);
+        }
+        return res;
+    }
+    
+    /**
+     * Make a request without the cache, retrying failures.
+     */
+    private String fetch(String query, PluginInteraction interaction)
+    {
+        return REQUESTS.get(username + " " + query, () -> {
+            int retry = 0;
+            while (retry < 3)
             {
                 try {
-                    Thread.sleep(5000);
+                    PACER.acquire();
                 } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
                     return null;
                 }
-                retry++;
+                String out = getObject(query, interaction);
+                if (out != null)
+                {
+                    return out;
+                }
+                else
+                {
+                    try {
+                        Thread.sleep(5000);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        return null;
+                    }
+                    retry++;
+                }
             }
-               
-        }
-        return res;
-        
+            return null;
+        });
     }
     
     public CloseableHttpClient getClient()
@@ -200,108 +479,76 @@ public class CrowdstrikeClient
         return client;
     }
     
-    private String getObject(String query, PluginInteraction interaction) 
+    /**
+     * Build the client on first use, it is shared by the lookup threads.
+     */
+    private synchronized CloseableHttpClient createClient(String query) throws URISyntaxException
     {
-        String result = null;
-        
         if (client == null)
         {
-            try {
-                ProxySelector sel = ConstellationHttpProxySelector.getDefault();
-                List<Proxy> proxies = sel.select(new URI(query));
-                for (Proxy proxy : proxies) {
-                    HttpClientBuilder clientBuilder = HttpClients.custom();
-                    RequestConfig gc = RequestConfig.custom().setCookieSpec(CookieSpecs.STANDARD).setAuthenticationEnabled(true).build();
-                    clientBuilder.setConnectionManagerShared(true);
-                    
-                    clientBuilder.setDefaultCookieStore(new BasicCookieStore());
-                    clientBuilder.setDefaultRequestConfig(gc);
-                    ArrayList<Header> headers = new ArrayList<>();
-                    headers.add(new BasicHeader("X-CSIX-CUSTID", username));
-                    headers.add(new BasicHeader("X-CSIX-CUSTKEY", secret));
-                    clientBuilder.setDefaultHeaders(headers);
-                    
-
-                    if (proxy.type() != Proxy.Type.DIRECT) {
-                        String h = proxy.address().toString();
-                        String addr = null;
-                        Integer port = null;
-                        if (h.contains(":")) {
-                            addr = h.split(":")[0];
-                            addr = addr.split("/")[0];
-                            port = Integer.parseInt(h.split(":")[1]);
-                        } else {
-                            addr = h;
-                        }
-                        if (port != null) {
-                            clientBuilder.setProxy(new HttpHost(addr, port));
-                        } else {
-                            clientBuilder.setProxy(new HttpHost(addr));
-                        }
-                    }
-                    client = clientBuilder.build();
-                    HttpGet get = new HttpGet(query);
-
-                    get.addHeader("Accept", "application/json");
-
-                    try (CloseableHttpResponse resp = client.execute(get, context)){
-                        if (resp.getStatusLine().getStatusCode() == 200) {
-                            String answer = EntityUtils.toString(resp.getEntity());
-                            EntityUtils.consume(resp.getEntity());
-                            result = answer;
-                        }
-                        else if (resp.getStatusLine().getStatusCode() == 401) { // unauthorised
-                            String answer = EntityUtils.toString(resp.getEntity());
-                        }
-                        else {
-                            //unhandled
-                            //System.out.println(resp.getStatusLine().getReasonPhrase());
-                        }
-
-                    } catch (IOException ex) {
-                        ex.printStackTrace();
-                        if (interaction != null) {
-                            interaction.notify(PluginNotificationLevel.FATAL, "Failed to query the CrowdStrike web service " + ex.getMessage());
-                        }
-                    }
-                    catch (org.apache.http.ParseException ex) {
-                        ex.printStackTrace();
-                    }
-                    break;
+            ProxySelector sel = ConstellationHttpProxySelector.getDefault();
+            List<Proxy> proxies = sel.select(new URI(query));
+            HttpClientBuilder clientBuilder = HttpClients.custom();
+            RequestConfig gc = RequestConfig.custom().setCookieSpec(CookieSpecs.STANDARD).setAuthenticationEnabled(true).build();
+            clientBuilder.setConnectionManagerShared(true);
+            clientBuilder.setMaxConnTotal(CONCURRENCY);
+            clientBuilder.setMaxConnPerRoute(CONCURRENCY);
+            
+            clientBuilder.setDefaultCookieStore(new BasicCookieStore());
+            clientBuilder.setDefaultRequestConfig(gc);
+            ArrayList<Header> headers = new ArrayList<>();
+            headers.add(new BasicHeader("X-CSIX-CUSTID", username));
+            headers.add(new BasicHeader("X-CSIX-CUSTKEY", secret));
+            clientBuilder.setDefaultHeaders(headers);
+            
+            if (!proxies.isEmpty() && proxies.get(0).type() != Proxy.Type.DIRECT) {
+                String h = proxies.get(0).address().toString();
+                String addr = null;
+                Integer port = null;
+                if (h.contains(":")) {
+                    addr = h.split(":")[0];
+                    addr = addr.split("/")[0];
+                    port = Integer.parseInt(h.split(":")[1]);
+                } else {
+                    addr = h;
+                }
+                if (port != null) {
+                    clientBuilder.setProxy(new HttpHost(addr, port));
+                } else {
+                    clientBuilder.setProxy(new HttpHost(addr));
                 }
-
-            } catch (URISyntaxException ex) {
-                ex.printStackTrace();
             }
+            client = clientBuilder.build();
         }
-        else
-        {
-            HttpGet get = new HttpGet(query);
-
-            get.addHeader("Accept", "application/json");
-            try (CloseableHttpResponse resp = client.execute(get, context)){
-
-                if (resp.getStatusLine().getStatusCode() == 200) {
-                    String answer = EntityUtils.toString(resp.getEntity());
-                    EntityUtils.consume(resp.getEntity());
-                    result = answer;
-                }
-                else if (resp.getStatusLine().getStatusCode() == 401) { // unauthorised
-                    String answer = EntityUtils.toString(resp.getEntity());
-                }
-                else {
-                    // unhandled
-                    // System.out.println(resp.getStatusLine().getReasonPhrase());
-                }
-            } catch (IOException ex) {
-                ex.printStackTrace();
-                if (interaction != null) {
-                    interaction.notify(PluginNotificationLevel.FATAL, "Failed to query the CrowdStrike web service " + ex.getMessage());
-                }
+        return client;
+    }
+    
+    private String getObject(String query, PluginInteraction interaction) 
+    {
+        String result = null;
+        
+        HttpGet get = new HttpGet(query);
+        get.addHeader("Accept", "application/json");
+        
+        // a context per request, the cookies are kept in the client's store
+        try (CloseableHttpResponse resp = createClient(query).execute(get, HttpClientContext.create())){
+            
+            if (resp.getStatusLine().getStatusCode() == 200) {
+                String answer = EntityUtils.toString(resp.getEntity());
+                EntityUtils.consume(resp.getEntity());
+                result = answer;
+            }
+            else {
+                // unauthorised or unhandled
+                EntityUtils.consume(resp.getEntity());
             }
-            catch (org.apache.http.ParseException ex) {
-                ex.printStackTrace();
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Failed to query the CrowdStrike web service", ex);
+            if (interaction != null) {
+                interaction.notify(PluginNotificationLevel.FATAL, "Failed to query the CrowdStrike web service " + ex.getMessage());
             }
+        } catch (URISyntaxException | org.apache.http.ParseException ex) {
+            LOGGER.log(Level.WARNING, "Failed to query the CrowdStrike web service", ex);
         }
         return result;
     }
@@ -15,6 +15,7 @@
  */
 package au.gov.asd.acsc.constellation.dataaccess.cyber.plugins.crowdstrike;
 
+import au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment.BatchLookups;
 import au.gov.asd.acsc.constellation.preferences.ACSCPreferenceKeys;
 import au.gov.asd.acsc.constellation.schema.cyberschema.concept.CyberConcept;
 import au.gov.asd.tac.constellation.graph.processing.GraphRecordStore;
@@ -33,7 +34,13 @@ import au.gov.asd.tac.constellation.utilities.temporal.TemporalFormatting;
 import au.gov.asd.tac.constellation.views.dataaccess.DataAccessPlugin;
 import au.gov.asd.tac.constellation.views.dataaccess.DataAccessPluginCoreType;
 import au.gov.asd.tac.constellation.views.dataaccess.templates.RecordStoreQueryPlugin;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.prefs.Preferences;
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -108,7 +115,7 @@ public class CrowdstrikePlugin extends RecordStoreQueryPlugin implements DataAcc
         return mapping.getOrDefault(type, type);
     }
     
-    private void drawIndicatorResults(RecordStore results, PluginInteraction interaction, String identifier, String type, JSONArray res, CrowdstrikeClient client)
+    private void drawIndicatorResults(RecordStore results, String identifier, String type, JSONArray res, Map<String, List<JSONObject>> reports, Map<String, List<JSONObject>> actorEntities)
     {
         for (Object o : res)
         {
@@ -149,12 +156,11 @@ public class CrowdstrikePlugin extends RecordStoreQueryPlugin implements DataAcc
             {
                 for (Object report : match.getJSONArray("reports"))
                 {
-                    JSONObject reportData = client.searchReportName((String)report, interaction);
+                    List<JSONObject> reportData = reports.get((String)report);
                     if (reportData != null)
                     {
-                        for (Object r : reportData.getJSONArray("resources"))
+                        for (JSONObject rep : reportData)
                         {
-                            JSONObject rep = (JSONObject)r;
 
                             results.add();
                             results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, identifier);
@@ -188,13 +194,11 @@ public class CrowdstrikePlugin extends RecordStoreQueryPlugin implements DataAcc
                     results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, identifier);
                     results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, type);
 
-                    JSONObject actorObj = client.getActor(actor, interaction);
-                    if (actorObj != null)
+                    List<JSONObject> actors = actorEntities.get(actor);
+                    if (actors != null)
                     {
-                        JSONArray actors = actorObj.getJSONArray("resources");
-                        for (Object b : actors)
+                        for (JSONObject ao : actors)
                         {
-                            JSONObject ao = (JSONObject)b;
                             String name = ao.getString("name");
                             String desc = ao.getString("description");
 
@@ -249,66 +253,28 @@ public class CrowdstrikePlugin extends RecordStoreQueryPlugin implements DataAcc
         }
     }
     
-    private void searchHostname(RecordStore results, PluginInteraction interaction, CrowdstrikeClient client, String identifier, String type )
+    private static void collectNames(Map<String, JSONArray> matches, Set<String> reportNames, Set<String> actorNames)
     {
-        JSONArray res = client.searchDomain(identifier, interaction);
-        if (res != null)
+        for (JSONArray res : matches.values())
         {
-            drawIndicatorResults(results, interaction, identifier, type, res, client);
-        }
-    }
-    
-    private void searchIPAddress(RecordStore results, PluginInteraction interaction, CrowdstrikeClient client, String identifier, String type )
-    {
-        JSONArray res = client.searchIPAddress(identifier, interaction);
-        if (res != null)
-        {
-            drawIndicatorResults(results, interaction, identifier, type, res, client);
-        }
-    }
-    
-    private void searchHash(RecordStore results, PluginInteraction interaction, CrowdstrikeClient client, String identifier, String type )
-    {
-        JSONArray res = client.searchHash(identifier, interaction);
-        if (res != null)
-        {
-            drawIndicatorResults(results, interaction, identifier, type, res, client);
-        }
-    }
-    
-    private void searchEmailAddress(RecordStore results, PluginInteraction interaction, CrowdstrikeClient client, String identifier, String type )
-    {
-        JSONArray res = client.searchEmailAddress(identifier, interaction);
-        if (res != null)
-        {
-            drawIndicatorResults(results, interaction, identifier, type, res, client);
-        }
-    }
-    
-    private void searchUrl(RecordStore results, PluginInteraction interaction, CrowdstrikeClient client, String identifier, String type )
-    {
-        JSONArray res = client.searchUrl(identifier, interaction);
-        if (res != null)
-        {
-            drawIndicatorResults(results, interaction, identifier, type, res, client);
-        }
-    }
-    
-    private void searchGeneric(RecordStore results, PluginInteraction interaction, CrowdstrikeClient client, String identifier, String type )
-    {
-        JSONArray res = client.searchHash(identifier, interaction);
-        if (res != null)
-        {
-            drawIndicatorResults(results, interaction, identifier, type, res, client);
-        }
-    }
-    
-    private void searchActor(RecordStore results, PluginInteraction interaction, CrowdstrikeClient client, String identifier, String type )
-    {
-        JSONArray res = client.searchActor(identifier, interaction);
-        if (res != null)
-        {
-            drawIndicatorResults(results, interaction, identifier, type, res, client);
+            for (Object o : res)
+            {
+                JSONObject match = (JSONObject)o;
+                if (match.has("reports") && match.get("reports") != null)
+                {
+                    for (Object report : match.getJSONArray("reports"))
+                    {
+                        reportNames.add((String)report);
+                    }
+                }
+                if (match.has("actors") && match.get("actors") != null)
+                {
+                    for (Object actor : match.getJSONArray("actors"))
+                    {
+                        actorNames.add((String)actor);
+                    }
+                }
+            }
         }
     }
     
@@ -332,40 +298,53 @@ public class CrowdstrikePlugin extends RecordStoreQueryPlugin implements DataAcc
         query.reset();
         
         
-        CrowdstrikeClient client  = new CrowdstrikeClient(secret, username);
+        // group the selection so each distinct indicator is searched once
+        final Map<String, List<String>> indicators = new LinkedHashMap<>();
+        final Map<String, List<String>> actors = new LinkedHashMap<>();
         while (query.next()) {
             
             String identifier = query.get(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER);
             String type = query.get(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE);
-            if (type.equals(AnalyticConcept.VertexType.IPV4.toString())
-                    || type.equals(AnalyticConcept.VertexType.IPV6.toString())
-                    || type.equals(AnalyticConcept.VertexType.IP_ADDRESS.toString())) {
-                searchIPAddress(results, interaction, client, identifier, type); 
-            }
-            else if (type.equals(AnalyticConcept.VertexType.HOST_NAME.toString())) {
-                searchHostname(results, interaction, client, identifier, type); 
-            }
-            else if (type.equals(AnalyticConcept.VertexType.HASH.toString()) ||
-                    type.equals(AnalyticConcept.VertexType.MD5.toString())  ||
-                    type.equals(AnalyticConcept.VertexType.SHA1.toString())  ||    
-                    type.equals(AnalyticConcept.VertexType.SHA256.toString())  ||
-                    type.equals(AnalyticConcept.VertexType.MD5.toString())) {
-                searchHash(results, interaction, client, identifier, type);
-            }
-            else if (type.equals(AnalyticConcept.VertexType.EMAIL_ADDRESS.toString())) {
-                searchEmailAddress(results, interaction, client, identifier, type);
-                
+            if (type.equals(CyberConcept.VertexType.INTRUSION_SET.toString())) {
+                actors.computeIfAbsent(identifier, k -> new ArrayList<>()).add(type);
             }
-            else if (type.equals(AnalyticConcept.VertexType.URL.toString())) {
-                searchUrl(results, interaction, client, identifier, type);
-                
+            else
+            {
+                indicators.computeIfAbsent(identifier, k -> new ArrayList<>()).add(type);
             }
-            else if (type.equals(CyberConcept.VertexType.INTRUSION_SET.toString())) {
-                searchActor(results, interaction, client, identifier, type);
+        }
+        
+        CrowdstrikeClient client  = new CrowdstrikeClient(secret, username);
+        final Map<String, JSONArray> indicatorMatches = new LinkedHashMap<>();
+        final Map<String, JSONArray> actorMatches = new LinkedHashMap<>();
+        try {
+            BatchLookups.lookup(client.getIndicatorLookup(interaction), indicators.keySet(), (batch, res) -> indicatorMatches.putAll(res));
+            BatchLookups.lookup(client.getActorLookup(interaction), actors.keySet(), (batch, res) -> actorMatches.putAll(res));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return results;
+        }
+        
+        // resolve the reports and actors named across every match at once
+        final Set<String> reportNames = new LinkedHashSet<>();
+        final Set<String> actorNames = new LinkedHashSet<>();
+        collectNames(indicatorMatches, reportNames, actorNames);
+        collectNames(actorMatches, reportNames, actorNames);
+        final Map<String, List<JSONObject>> reports = client.resolveReports(reportNames, interaction);
+        final Map<String, List<JSONObject>> actorEntities = client.resolveActors(actorNames, interaction);
+        
+        for (Map.Entry<String, JSONArray> match : indicatorMatches.entrySet())
+        {
+            for (String type : indicators.get(match.getKey()))
+            {
+                drawIndicatorResults(results, match.getKey(), type, match.getValue(), reports, actorEntities);
             }
-            else
+        }
+        for (Map.Entry<String, JSONArray> match : actorMatches.entrySet())
+        {
+            for (String type : actors.get(match.getKey()))
             {
-                searchGeneric(results, interaction, client, identifier, type);
+                drawIndicatorResults(results, match.getKey(), type, match.getValue(), reports, actorEntities);
             }
         }
         return results;
@@ -15,54 +15,126 @@
  */
 package au.gov.asd.acsc.constellation.dataaccess.cyber.plugins.domaintools;
 
+import au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment.EnrichmentEndpoints;
+import au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment.EnrichmentHttpClients;
+import au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment.RateLimit;
+import au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment.RequestPacer;
 import au.gov.asd.tac.constellation.plugins.PluginInteraction;
 import au.gov.asd.tac.constellation.plugins.PluginNotificationLevel;
-import au.gov.asd.tac.constellation.security.proxy.ConstellationHttpProxySelector;
+import java.io.Closeable;
 import java.io.IOException;
-import java.net.Proxy;
-import java.net.ProxySelector;
-import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.List;
-import org.apache.http.HttpHost;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
 import org.json.JSONObject;
 import org.python.google.common.net.UrlEscapers;
 
-public class DomainToolsClient 
+public class DomainToolsClient implements Closeable
 {
     String apiKey = null;
     String username = null;
-    String apiBase = "https://api.domaintools.com/v1";
+    String apiBase = EnrichmentEndpoints.getBaseUrl("domaintools", "https://api.domaintools.com/v1");
     
-    private JSONObject query(String query, PluginInteraction interaction)
+    // requests made at the same time
+    static final int CONCURRENCY = 4;
+    private static final int RETRIES = 3;
+    
+    private final RequestPacer pacer;
+    private final AtomicBoolean failed = new AtomicBoolean(false);
+    private CloseableHttpClient client = null;
+    
+    /**
+     * A request for a single indicator that failed, the other indicators can
+     * still be queried.
+     */
+    public static class QueryException extends Exception
+    {
+        public QueryException(String message)
+        {
+            super(message);
+        }
+    }
+    
+    public DomainToolsClient(String apiKey, String username)
     {
-        int page = 0;
-        JSONObject res = null;
+        this(apiKey, username, RateLimit.UNLIMITED);
+    }
+    
+    public DomainToolsClient(String apiKey, String username, RateLimit rateLimit)
+    {
+        this.apiKey = apiKey;
+        this.username = username;
+        this.pacer = new RequestPacer(rateLimit);
+    }
+    
+    /**
+     * Whether the account was rejected, after which no more requests are
+     * made.
+     */
+    public boolean isFailed()
+    {
+        return failed.get();
+    }
+    
+    private synchronized CloseableHttpClient getClient() throws URISyntaxException
+    {
+        if (client == null)
+        {
+            client = EnrichmentHttpClients.builder(apiBase)
+                    .setMaxConnTotal(CONCURRENCY)
+                    .setMaxConnPerRoute(CONCURRENCY)
+                    .build();
+        }
+        return client;
+    }
+    
+    private JSONObject query(String query, PluginInteraction interaction) throws QueryException
+    {
+        String message = "Failed to query the DomainTools web service";
         int retry = 0;
-        while (true && retry < 3)
+        while (retry < RETRIES)
         {
-            page++;
-            JSONObject out = queryService(query, interaction);
+            if (failed.get())
+            {
+                throw new QueryException("The DomainTools account was rejected");
+            }
+            
+            JSONObject out = null;
+            try {
+                pacer.acquire();
+                out = queryService(query);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new QueryException("Interrupted");
+            } catch (IOException ex) {
+                message = "Failed to query the DomainTools web service " + ex.getMessage();
+            }
             
             if (out != null)
             {
                 if (out.has("error"))
                 {
                     JSONObject error = out.getJSONObject("error");
-                    if (error.getInt("code") == 206)
+                    int code = error.getInt("code");
+                    if (code == 206)
                     {
                         return new JSONObject(); // failed to parse, just return
                     }
+                    else if (code == 401 || code == 403)
+                    {
+                        // the account can't be used, so stop every request
+                        if (failed.compareAndSet(false, true))
+                        {
+                            interaction.notify(PluginNotificationLevel.FATAL, error.getString("message"));
+                        }
+                        throw new QueryException(error.getString("message"));
+                    }
                     else
                     {
-                        interaction.notify(PluginNotificationLevel.FATAL, error.getString("message"));
-                        return null;
+                        throw new QueryException(error.getString("message"));
                     }
                 }
                 else
@@ -75,19 +147,19 @@ public class DomainToolsClient
                 try {
                     Thread.sleep(5000);
                 } catch (InterruptedException ex) {
-                    return null;
+                    Thread.currentThread().interrupt();
+                    throw new QueryException("Interrupted");
                 }
                 retry++;
             }
                
         }
-        return res;
+        throw new QueryException(message);
         
     }
     
-    private JSONObject queryService(String query, PluginInteraction interaction)
+    private JSONObject queryService(String query) throws IOException
     {
-        JSONObject result = null;
         String c = "";
         if (query.contains("?"))
         {
@@ -98,84 +170,42 @@ public class DomainToolsClient
             c = String.format("?api_username=%s&api_key=%s", username, apiKey);
         }
 
-        
-        try {
-            ProxySelector sel = ConstellationHttpProxySelector.getDefault();
-            List<Proxy> proxies = sel.select(new URI(query));
-            for (Proxy proxy : proxies) {
-                HttpClientBuilder clientBuilder = HttpClients.custom();
-                if (proxy.type() != Proxy.Type.DIRECT) {
-                    String h = proxy.address().toString();
-                    String addr = null;
-                    Integer port = null;
-                    if (h.contains(":")) {
-                        addr = h.split(":")[0];
-                        addr = addr.split("/")[0];
-                        port = Integer.parseInt(h.split(":")[1]);
-                    } else {
-                        addr = h;
-                    }
-                    if (port != null) {
-                        clientBuilder.setProxy(new HttpHost(addr, port));
-                    } else {
-                        clientBuilder.setProxy(new HttpHost(addr));
-                    }
-                }
-                CloseableHttpClient client = clientBuilder.build();
-                HttpGet get = new HttpGet(query + c);
-                CloseableHttpResponse resp;
-                try {
-                    resp = client.execute(get);
-                } catch (IOException ex) {
-                    if (interaction != null) {
-                        interaction.notify(PluginNotificationLevel.FATAL, "Failed to query the DomainTools web service " + ex.getMessage());
-                    }
-                    return null;
-                }
-
-                try {
-                    if (resp.getStatusLine().getStatusCode() == 200) {
-                        String answer = EntityUtils.toString(resp.getEntity());
-                        result = new JSONObject(answer);
-                    }
-                    else if (resp.getStatusLine().getStatusCode() == 401) { // unauthorised
-                        String answer = EntityUtils.toString(resp.getEntity());
-                        result = new JSONObject(answer);
-                    }
-                    else {
-                        return null;
-                    }
-                } catch (IOException ex) {
-                    if (interaction != null) {
-                        interaction.notify(PluginNotificationLevel.FATAL, "Could not read from the DomainTools web service.");
-                    }
-                    return null;
-                } catch (org.apache.http.ParseException ex) {
-                    ex.printStackTrace();
-                    return null;
-                }
-                break;
+        HttpGet get = new HttpGet(query + c);
+        try (CloseableHttpResponse resp = getClient().execute(get)) {
+            int statusCode = resp.getStatusLine().getStatusCode();
+            String answer = EntityUtils.toString(resp.getEntity());
+            if (statusCode == 200 || statusCode == 401 || (answer != null && answer.trim().startsWith("{") && answer.contains("\"error\"")))
+            {
+                // errors such as unauthorised or not found carry a message
+                return new JSONObject(answer);
             }
-
+            return null;
         } catch (URISyntaxException ex) {
             ex.printStackTrace();
+            return null;
+        } catch (org.apache.http.ParseException | org.json.JSONException ex) {
+            ex.printStackTrace();
+            return null;
         }
-        return result;
-    }
-    
-    public DomainToolsClient(String apiKey, String username)
-    {
-        this.apiKey = apiKey;
-        this.username = username;
     }
     
-    public JSONObject searchWhois(String query, PluginInteraction interaction)
+    public JSONObject searchWhois(String query, PluginInteraction interaction) throws QueryException
     {
         return query(String.format("%s/%s/whois/parsed", apiBase, UrlEscapers.urlPathSegmentEscaper().escape(query)), interaction);
     }
     
-    public JSONObject searchProfile(String query, PluginInteraction interaction)
+    public JSONObject searchProfile(String query, PluginInteraction interaction) throws QueryException
     {
         return query(String.format("%s/%s/", apiBase, UrlEscapers.urlPathSegmentEscaper().escape(query)), interaction);
     }    
+    
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if (client != null)
+        {
+            client.close();
+            client = null;
+        }
+    }
 }
@@ -15,6 +15,7 @@
  */
 package au.gov.asd.acsc.constellation.dataaccess.cyber.plugins.domaintools;
 
+import au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment.RateLimit;
 import au.gov.asd.acsc.constellation.preferences.ACSCPreferenceKeys;
 import au.gov.asd.tac.constellation.graph.processing.GraphRecordStore;
 import au.gov.asd.tac.constellation.graph.processing.GraphRecordStoreUtilities;
@@ -29,16 +30,33 @@ import au.gov.asd.tac.constellation.plugins.PluginInteraction;
 import au.gov.asd.tac.constellation.plugins.PluginNotificationLevel;
 import au.gov.asd.tac.constellation.plugins.parameters.PluginParameter;
 import au.gov.asd.tac.constellation.plugins.parameters.PluginParameters;
+import au.gov.asd.tac.constellation.plugins.parameters.types.IntegerParameterType;
+import au.gov.asd.tac.constellation.plugins.parameters.types.IntegerParameterType.IntegerParameterValue;
 import au.gov.asd.tac.constellation.plugins.parameters.types.MultiChoiceParameterType;
 import au.gov.asd.tac.constellation.utilities.temporal.TemporalFormatting;
 import au.gov.asd.tac.constellation.views.dataaccess.DataAccessPlugin;
 import au.gov.asd.tac.constellation.views.dataaccess.DataAccessPluginCoreType;
 import au.gov.asd.tac.constellation.views.dataaccess.templates.RecordStoreQueryPlugin;
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.prefs.Preferences;
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 import org.openide.util.NbBundle.Messages;
 import org.openide.util.NbPreferences;
@@ -53,7 +71,13 @@ import org.openide.util.lookup.ServiceProviders;
 @Messages("DomainToolsPlugin=DomainTools Whois")
 public class DomainToolsPlugin extends RecordStoreQueryPlugin implements DataAccessPlugin {
 
+    private static final Logger LOGGER = Logger.getLogger(DomainToolsPlugin.class.getName());
+
     public static final String QUERY_PARAMETER_ID = PluginParameter.buildId(DomainToolsPlugin.class, "queries");
+    public static final String QUERY_RATE_PARAMETER_ID = PluginParameter.buildId(DomainToolsPlugin.class, "queryRate");
+    
+    private static final int DEFAULT_QUERY_RATE = 60;
+    private static final int MAX_REPORTED_ERRORS = 10;
 
     @Override
     public String getType() {
@@ -87,282 +111,309 @@ public class DomainToolsPlugin extends RecordStoreQueryPlugin implements DataAcc
         MultiChoiceParameterType.setChoices(queries, new ArrayList<>());
         params.addParameter(queries);
         
+        final PluginParameter<IntegerParameterValue> queryRate = IntegerParameterType.build(QUERY_RATE_PARAMETER_ID);
+        queryRate.setName("Queries Per Minute");
+        queryRate.setDescription("The most requests to make each minute, set this to the query rate limit of the account");
+        IntegerParameterType.setMinimum(queryRate, 1);
+        queryRate.setIntegerValue(DEFAULT_QUERY_RATE);
+        params.addParameter(queryRate);
+        
         return params;
     }
     
-    private boolean whoisIP(String identifier, String type, DomainToolsClient client, RecordStore results, PluginInteraction interaction)
+    private void whoisIP(String identifier, String type, JSONObject res, Set<String> contactsDrawn, RecordStore results)
     {
-        JSONObject res = client.searchWhois(identifier, interaction);
-        if (res != null)
+        if (res.has("response"))
         {
-            if (res.has("response"))
-            {
-                JSONObject response  = res.getJSONObject("response");
-                String registrant = response.getString("registrant");
-                JSONObject parsedWhois = response.getJSONObject("parsed_whois");
-                JSONObject whois = response.getJSONObject("whois");
-                String source = response.getString("source");
-                String recordSource = response.getString("record_source");
-
-                results.add();
-                results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, identifier);
-                results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, type);
-                results.set(GraphRecordStoreUtilities.SOURCE + "Whois", whois.get("record"));
-                results.set(GraphRecordStoreUtilities.SOURCE + TemporalConcept.VertexAttribute.DATETIME, TemporalFormatting.completeZonedDateTimeString((String)whois.get("date")));
-                JSONArray networks = parsedWhois.getJSONArray("networks");
-                for (Object o : networks)
-                {
-                    JSONObject net =(JSONObject)o;
-                    JSONArray cidrs = net.getJSONObject("range").getJSONArray("cidr");
-                    for (Object c : cidrs)
-                    {
-                        results.add();
-                        results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, identifier);
-                        results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, type);
-                        results.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, (String)c);
-                        results.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, "CIDR");
-
-                        results.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.COMMENT, net.getJSONArray("descr").join("\n"));
-                        results.set(GraphRecordStoreUtilities.DESTINATION + "Name", net.get("name"));
-                        if (net.has("created_date") && net.get("created_date") != null && !net.getString("created_date").isEmpty())
-                        {
-                            results.set(GraphRecordStoreUtilities.DESTINATION + TemporalConcept.VertexAttribute.CREATED , TemporalFormatting.completeZonedDateTimeString(net.getString("created_date")));
-                        }
-                        if (net.has("updated_date") && net.get("updated_date") != null && !net.getString("updated_date").isEmpty())
-                        {
-                            results.set(GraphRecordStoreUtilities.DESTINATION + TemporalConcept.VertexAttribute.CREATED , TemporalFormatting.completeZonedDateTimeString(net.getString("updated_date")));
-                        }
+            JSONObject response  = res.getJSONObject("response");
+            String registrant = response.getString("registrant");
+            JSONObject parsedWhois = response.getJSONObject("parsed_whois");
+            JSONObject whois = response.getJSONObject("whois");
+            String source = response.getString("source");
+            String recordSource = response.getString("record_source");
 
-                    }
-                }
-                JSONArray contacts = parsedWhois.getJSONArray("contacts");
-                for (Object c : contacts)
+            results.add();
+            results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, identifier);
+            results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, type);
+            results.set(GraphRecordStoreUtilities.SOURCE + "Whois", whois.get("record"));
+            results.set(GraphRecordStoreUtilities.SOURCE + TemporalConcept.VertexAttribute.DATETIME, TemporalFormatting.completeZonedDateTimeString((String)whois.get("date")));
+            JSONArray networks = parsedWhois.getJSONArray("networks");
+            for (Object o : networks)
+            {
+                JSONObject net =(JSONObject)o;
+                JSONArray cidrs = net.getJSONObject("range").getJSONArray("cidr");
+                for (Object c : cidrs)
                 {
-                    JSONObject contact = (JSONObject)c;
                     results.add();
                     results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, identifier);
                     results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, type);
-                    String name = contact.getString("id");
-                    if (contact.has("name") && contact.get("name") != null && !contact.getString("name").isEmpty())
-                    {
-                        name = contact.getString("name");
-                    }
-                    results.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, name);
-                    results.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.PERSON);
-                    results.set(GraphRecordStoreUtilities.DESTINATION + "Address", contact.getJSONArray("address").join(" "));
-                    for (Object p : contact.getJSONArray("phone"))
+                    results.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, (String)c);
+                    results.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, "CIDR");
+
+                    results.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.COMMENT, net.getJSONArray("descr").join("\n"));
+                    results.set(GraphRecordStoreUtilities.DESTINATION + "Name", net.get("name"));
+                    if (net.has("created_date") && net.get("created_date") != null && !net.getString("created_date").isEmpty())
                     {
-                        results.add();
-                        results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, name);
-                        results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.PERSON);
-                        results.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, (String)p);
-                        results.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.TELEPHONE_IDENTIFIER);
+                        results.set(GraphRecordStoreUtilities.DESTINATION + TemporalConcept.VertexAttribute.CREATED , TemporalFormatting.completeZonedDateTimeString(net.getString("created_date")));
                     }
-                    for (Object p : contact.getJSONArray("email"))
+                    if (net.has("updated_date") && net.get("updated_date") != null && !net.getString("updated_date").isEmpty())
                     {
-                        results.add();
-                        results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, name);
-                        results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.PERSON);
-                        results.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, (String)p);
-                        results.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.EMAIL_ADDRESS);
+                        results.set(GraphRecordStoreUtilities.DESTINATION + TemporalConcept.VertexAttribute.CREATED , TemporalFormatting.completeZonedDateTimeString(net.getString("updated_date")));
                     }
+
+                }
+            }
+            JSONArray contacts = parsedWhois.getJSONArray("contacts");
+            for (Object c : contacts)
+            {
+                JSONObject contact = (JSONObject)c;
+                results.add();
+                results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, identifier);
+                results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, type);
+                String name = contact.getString("id");
+                if (contact.has("name") && contact.get("name") != null && !contact.getString("name").isEmpty())
+                {
+                    name = contact.getString("name");
+                }
+                results.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, name);
+                results.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.PERSON);
+                if (!contactsDrawn.add(name + "\n" + contact.toString()))
+                {
+                    // shared contact, its details are already drawn
+                    continue;
+                }
+                results.set(GraphRecordStoreUtilities.DESTINATION + "Address", contact.getJSONArray("address").join(" "));
+                for (Object p : contact.getJSONArray("phone"))
+                {
+                    results.add();
+                    results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, name);
+                    results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.PERSON);
+                    results.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, (String)p);
+                    results.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.TELEPHONE_IDENTIFIER);
+                }
+                for (Object p : contact.getJSONArray("email"))
+                {
+                    results.add();
+                    results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, name);
+                    results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.PERSON);
+                    results.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, (String)p);
+                    results.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.EMAIL_ADDRESS);
                 }
             }
-            return true;
-        }
-        else
-        {
-            return false;
         }
     }
     
-    private boolean profileDomain(String identifier, String type, DomainToolsClient client, RecordStore results, PluginInteraction interaction)
+    private void profileDomain(String identifier, String type, JSONObject res, RecordStore results)
     {
-        JSONObject res = client.searchProfile(identifier, interaction);
-        if (res != null)
+        if (res.has("response"))
         {
-            if (res.has("response"))
+            JSONObject response  = res.getJSONObject("response");
+            JSONObject data = null;
+            
+            if (response.has("server"))
             {
-                JSONObject response  = res.getJSONObject("response");
-                JSONObject data = null;
-                
-                if (response.has("server"))
-                {
-                    data = response.getJSONObject("server");
-                    if (data.has("ip_address") && data.get("ip_address") != null && !data.getString("ip_address").isEmpty())
-                    {
-                        results.add();
-                        results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, identifier);
-                        results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, type);
-
-                        results.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, data.getString("ip_address"));
-                        results.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.IPV4);
-                    }
-                }
-                if (response.has("website_data"))
+                data = response.getJSONObject("server");
+                if (data.has("ip_address") && data.get("ip_address") != null && !data.getString("ip_address").isEmpty())
                 {
-                    data = response.getJSONObject("website_data");
                     results.add();
                     results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, identifier);
                     results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, type);
-                    if (data.has("server") && data.get("server")!= null)
-                    {
-                        results.set(GraphRecordStoreUtilities.SOURCE + "Server", data.get("server"));
-                    }
-                    if (data.has("title") && data.get("title")!= null)
-                    {
-                        results.set(GraphRecordStoreUtilities.SOURCE + "Page Title", data.get("title"));
-                    }
-                    
+
+                    results.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, data.getString("ip_address"));
+                    results.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.IPV4);
                 }
-                if (response.has("registrant"))
+            }
+            if (response.has("website_data"))
+            {
+                data = response.getJSONObject("website_data");
+                results.add();
+                results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, identifier);
+                results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, type);
+                if (data.has("server") && data.get("server")!= null)
                 {
-                    data = response.getJSONObject("registrant");
-                    results.add();
-                    results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, identifier);
-                    results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, type);
-                    if (data.has("name") && data.get("name") != null)
-                    {
-                        results.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, data.getString("name"));
-                        results.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.PERSON);
-                        results.set(GraphRecordStoreUtilities.TRANSACTION + AnalyticConcept.TransactionAttribute.TYPE, "Registrant");
-                    }
+                    results.set(GraphRecordStoreUtilities.SOURCE + "Server", data.get("server"));
+                }
+                if (data.has("title") && data.get("title")!= null)
+                {
+                    results.set(GraphRecordStoreUtilities.SOURCE + "Page Title", data.get("title"));
+                }
+                
+            }
+            if (response.has("registrant"))
+            {
+                data = response.getJSONObject("registrant");
+                results.add();
+                results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, identifier);
+                results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, type);
+                if (data.has("name") && data.get("name") != null)
+                {
+                    results.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, data.getString("name"));
+                    results.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.PERSON);
+                    results.set(GraphRecordStoreUtilities.TRANSACTION + AnalyticConcept.TransactionAttribute.TYPE, "Registrant");
                 }
             }
-            return true;
-        }
-        else
-        {
-            return false;
         }
     }
 
-    private boolean whoisDomain(String identifier, String type, DomainToolsClient client, RecordStore results, PluginInteraction interaction)
+    private void whoisDomain(String identifier, String type, JSONObject res, Set<String> contactsDrawn, RecordStore results)
     {
-        JSONObject res = client.searchWhois(identifier, interaction);
-        if (res != null)
+        if (res.has("response"))
         {
-            if (res.has("response"))
-            {
-                JSONObject response  = res.getJSONObject("response");
-                JSONObject parsedWhois = response.getJSONObject("parsed_whois");
-                JSONObject whois = response.getJSONObject("whois");
+            JSONObject response  = res.getJSONObject("response");
+            JSONObject parsedWhois = response.getJSONObject("parsed_whois");
+            JSONObject whois = response.getJSONObject("whois");
 
 
-                results.add();
-                results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, identifier);
-                results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, type);
-                results.set(GraphRecordStoreUtilities.SOURCE + "Whois", whois.get("record"));
-                results.set(GraphRecordStoreUtilities.SOURCE + "Whois Date", TemporalFormatting.completeZonedDateTimeString((String)whois.get("date")));
-                results.set(GraphRecordStoreUtilities.SOURCE + TemporalConcept.VertexAttribute.CREATED, TemporalFormatting.completeZonedDateTimeString((String)parsedWhois.get("created_date")));
-                results.set(GraphRecordStoreUtilities.SOURCE + TemporalConcept.VertexAttribute.MODIFIED, TemporalFormatting.completeZonedDateTimeString((String)parsedWhois.get("updated_date")));
-                results.set(GraphRecordStoreUtilities.SOURCE + "Expires", TemporalFormatting.completeZonedDateTimeString((String)parsedWhois.get("expired_date")));
-
-                JSONObject contacts = parsedWhois.getJSONObject("contacts");
-                for (Object c : contacts.keySet())
-                {
-                    String contactType = (String)c;
-                    JSONObject contact = contacts.getJSONObject(contactType);
-
-                    if ( (contact.get("country") != null && !contact.getString("country").isEmpty()) ||
-                         (contact.get("org") != null && !contact.getString("org").isEmpty()) ||
-                         (contact.get("city") != null && !contact.getString("city").isEmpty()) ||
-                         (contact.get("phone") != null && !contact.getString("phone").isEmpty()) ||
-                         (contact.get("street") != null && !contact.getJSONArray("street").isEmpty()) ||
-                         (contact.get("name") != null && !contact.getString("name").isEmpty()) ||
-                         (contact.get("state") != null && !contact.getString("state").isEmpty()) ||
-                         (contact.get("postal") != null && !contact.getString("postal").isEmpty()) ||
-                         (contact.get("fax") != null && !contact.getString("fax").isEmpty()) ||
-                         (contact.get("email") != null && !contact.getString("email").isEmpty()))
-                    {
+            results.add();
+            results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, identifier);
+            results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, type);
+            results.set(GraphRecordStoreUtilities.SOURCE + "Whois", whois.get("record"));
+            results.set(GraphRecordStoreUtilities.SOURCE + "Whois Date", TemporalFormatting.completeZonedDateTimeString((String)whois.get("date")));
+            results.set(GraphRecordStoreUtilities.SOURCE + TemporalConcept.VertexAttribute.CREATED, TemporalFormatting.completeZonedDateTimeString((String)parsedWhois.get("created_date")));
+            results.set(GraphRecordStoreUtilities.SOURCE + TemporalConcept.VertexAttribute.MODIFIED, TemporalFormatting.completeZonedDateTimeString((String)parsedWhois.get("updated_date")));
+            results.set(GraphRecordStoreUtilities.SOURCE + "Expires", TemporalFormatting.completeZonedDateTimeString((String)parsedWhois.get("expired_date")));
 
-                        results.add();
-                        results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, identifier);
-                        results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, type);
-                        String name = String.format("%s contact", contactType);
-
-                        if (contact.has("name") && contact.get("name") != null && !contact.getString("name").isEmpty())
-                        {
-                            name = contact.getString("name");
-                        }
-                        results.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, name);
-                        results.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.PERSON);
-                        if (contact.get("country") != null && !contact.getString("country").isEmpty())
-                        {
-                            results.set(GraphRecordStoreUtilities.DESTINATION + SpatialConcept.VertexAttribute.COUNTRY, contact.getString("country"));
-                        }
-                        if (contact.get("org") != null && !contact.getString("org").isEmpty())
-                        {
-                            results.set(GraphRecordStoreUtilities.DESTINATION + "Organisation", contact.getString("org"));
-                        }
-                        if (contact.get("city") != null && !contact.getString("city").isEmpty())
-                        {
-                            results.set(GraphRecordStoreUtilities.DESTINATION + SpatialConcept.VertexAttribute.CITY, contact.getString("city"));
-                        }
-                        if (contact.get("street") != null && !contact.getJSONArray("street").isEmpty())
-                        {
-                            results.set(GraphRecordStoreUtilities.DESTINATION + "Steet", contact.getJSONArray("street").join(" "));
-                        }
-                        if (contact.get("state") != null && !contact.getString("state").isEmpty())
-                        {
-                            results.set(GraphRecordStoreUtilities.DESTINATION + "State", contact.getString("state"));
-                        }
-                        if (contact.get("postal") != null && !contact.getString("postal").isEmpty())
-                        {
-                            results.set(GraphRecordStoreUtilities.DESTINATION + "Postal", contact.getString("postal"));
-                        }
-                        results.set(GraphRecordStoreUtilities.TRANSACTION + AnalyticConcept.TransactionAttribute.TYPE, contactType);
-
-                        if (contact.get("phone") != null && !contact.getString("phone").isEmpty())
-                        {
-                            results.add();
-                            results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, name);
-                            results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.PERSON);
-                            results.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, contact.getString("phone"));
-                            results.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.TELEPHONE_IDENTIFIER);
-                            results.set(GraphRecordStoreUtilities.TRANSACTION + AnalyticConcept.TransactionAttribute.TYPE, "Phone");
-                        }
-
-                        if (contact.get("fax") != null && !contact.getString("fax").isEmpty())
-                        {
-                            results.add();
-                            results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, name);
-                            results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.PERSON);
-                            results.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, contact.getString("fax"));
-                            results.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.TELEPHONE_IDENTIFIER);
-                            results.set(GraphRecordStoreUtilities.TRANSACTION + AnalyticConcept.TransactionAttribute.TYPE, "Fax");
-                        }
-
-                        if (contact.get("email") != null && !contact.getString("email").isEmpty())
-                        {
-                            results.add();
-                            results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, name);
-                            results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.PERSON);
-                            results.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, contact.getString("email"));
-                            results.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.EMAIL_ADDRESS);
-                        }
-                    }
-                }
+            JSONObject contacts = parsedWhois.getJSONObject("contacts");
+            for (Object c : contacts.keySet())
+            {
+                String contactType = (String)c;
+                JSONObject contact = contacts.getJSONObject(contactType);
 
-                if (response.has("registrant") && response.get("registrant") != null && !response.getString("registrant").isEmpty())
+                if ( (contact.get("country") != null && !contact.getString("country").isEmpty()) ||
+                     (contact.get("org") != null && !contact.getString("org").isEmpty()) ||
+                     (contact.get("city") != null && !contact.getString("city").isEmpty()) ||
+                     (contact.get("phone") != null && !contact.getString("phone").isEmpty()) ||
+                     (contact.get("street") != null && !contact.getJSONArray("street").isEmpty()) ||
+                     (contact.get("name") != null && !contact.getString("name").isEmpty()) ||
+                     (contact.get("state") != null && !contact.getString("state").isEmpty()) ||
+                     (contact.get("postal") != null && !contact.getString("postal").isEmpty()) ||
+                     (contact.get("fax") != null && !contact.getString("fax").isEmpty()) ||
+                     (contact.get("email") != null && !contact.getString("email").isEmpty()))
                 {
+
                     results.add();
                     results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, identifier);
                     results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, type);
-                    results.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, response.getString("registrant"));
-                    results.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.ORGANISATION);
-                    results.set(GraphRecordStoreUtilities.TRANSACTION + AnalyticConcept.TransactionAttribute.TYPE, "Registrant");
+                    String name = String.format("%s contact", contactType);
+
+                    if (contact.has("name") && contact.get("name") != null && !contact.getString("name").isEmpty())
+                    {
+                        name = contact.getString("name");
+                    }
+                    results.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, name);
+                    results.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.PERSON);
+                    results.set(GraphRecordStoreUtilities.TRANSACTION + AnalyticConcept.TransactionAttribute.TYPE, contactType);
+                    if (!contactsDrawn.add(name + "\n" + contact.toString()))
+                    {
+                        // shared contact, its details are already drawn
+                        continue;
+                    }
+                    if (contact.get("country") != null && !contact.getString("country").isEmpty())
+                    {
+                        results.set(GraphRecordStoreUtilities.DESTINATION + SpatialConcept.VertexAttribute.COUNTRY, contact.getString("country"));
+                    }
+                    if (contact.get("org") != null && !contact.getString("org").isEmpty())
+                    {
+                        results.set(GraphRecordStoreUtilities.DESTINATION + "Organisation", contact.getString("org"));
+                    }
+                    if (contact.get("city") != null && !contact.getString("city").isEmpty())
+                    {
+                        results.set(GraphRecordStoreUtilities.DESTINATION + SpatialConcept.VertexAttribute.CITY, contact.getString("city"));
+                    }
+                    if (contact.get("street") != null && !contact.getJSONArray("street").isEmpty())
+                    {
+                        results.set(GraphRecordStoreUtilities.DESTINATION + "Steet", contact.getJSONArray("street").join(" "));
+                    }
+                    if (contact.get("state") != null && !contact.getString("state").isEmpty())
+                    {
+                        results.set(GraphRecordStoreUtilities.DESTINATION + "State", contact.getString("state"));
+                    }
+                    if (contact.get("postal") != null && !contact.getString("postal").isEmpty())
+                    {
+                        results.set(GraphRecordStoreUtilities.DESTINATION + "Postal", contact.getString("postal"));
+                    }
+
+                    if (contact.get("phone") != null && !contact.getString("phone").isEmpty())
+                    {
+                        results.add();
+                        results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, name);
+                        results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.PERSON);
+                        results.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, contact.getString("phone"));
+                        results.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.TELEPHONE_IDENTIFIER);
+                        results.set(GraphRecordStoreUtilities.TRANSACTION + AnalyticConcept.TransactionAttribute.TYPE, "Phone");
+                    }
+
+                    if (contact.get("fax") != null && !contact.getString("fax").isEmpty())
+                    {
+                        results.add();
+                        results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, name);
+                        results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.PERSON);
+                        results.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, contact.getString("fax"));
+                        results.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.TELEPHONE_IDENTIFIER);
+                        results.set(GraphRecordStoreUtilities.TRANSACTION + AnalyticConcept.TransactionAttribute.TYPE, "Fax");
+                    }
+
+                    if (contact.get("email") != null && !contact.getString("email").isEmpty())
+                    {
+                        results.add();
+                        results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, name);
+                        results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.PERSON);
+                        results.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, contact.getString("email"));
+                        results.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.EMAIL_ADDRESS);
+                    }
                 }
-                
             }
-            return true;
+
+            if (response.has("registrant") && response.get("registrant") != null && !response.getString("registrant").isEmpty())
+            {
+                results.add();
+                results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, identifier);
+                results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, type);
+                results.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, response.getString("registrant"));
+                results.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.ORGANISATION);
+                results.set(GraphRecordStoreUtilities.TRANSACTION + AnalyticConcept.TransactionAttribute.TYPE, "Registrant");
+            }
+            
         }
-        else
+    }
+
+    /**
+     * A query to draw for a selected indicator.
+     */
+    private static final class Lookup
+    {
+        private final String identifier;
+        private final String type;
+        private final String query;
+        private final CompletableFuture<JSONObject> response;
+        
+        private Lookup(String identifier, String type, String query, CompletableFuture<JSONObject> response)
         {
-            return false;
+            this.identifier = identifier;
+            this.type = type;
+            this.query = query;
+            this.response = response;
         }
     }
-
+    
+    private static JSONObject whois(DomainToolsClient client, String identifier, PluginInteraction interaction)
+    {
+        try {
+            return client.searchWhois(identifier, interaction);
+        } catch (DomainToolsClient.QueryException ex) {
+            throw new CompletionException(ex);
+        }
+    }
+    
+    private static JSONObject profile(DomainToolsClient client, String identifier, PluginInteraction interaction)
+    {
+        try {
+            return client.searchProfile(identifier, interaction);
+        } catch (DomainToolsClient.QueryException ex) {
+            throw new CompletionException(ex);
+        }
+    }
+    
     @Override
     protected RecordStore query(final RecordStore query, final PluginInteraction interaction, final PluginParameters parameters) throws PluginException {
 
@@ -387,32 +438,104 @@ public class DomainToolsPlugin extends RecordStoreQueryPlugin implements DataAcc
 
         List<String> queries = querylist.getChoices();
         
-        DomainToolsClient client  = new DomainToolsClient(apiKey, username);
-        while (query.next()) {
-            
-            String identifier = query.get(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER);
-            String type = query.get(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE);
-            if (type.equals(AnalyticConcept.VertexType.IPV4.toString())
-                    || type.equals(AnalyticConcept.VertexType.IPV6.toString())
-                    || type.equals(AnalyticConcept.VertexType.IP_ADDRESS.toString())) {
-                
-                if (queries.contains("Whois") && !whoisIP(identifier, type, client, results, interaction))
+        final int queryRate = params.get(QUERY_RATE_PARAMETER_ID).getIntegerValue();
+        
+        // request every endpoint for every indicator up front, sharing the
+        // response when an identifier is selected more than once
+        final Map<String, CompletableFuture<JSONObject>> requests = new HashMap<>();
+        final List<Lookup> lookups = new ArrayList<>();
+        final ExecutorService executor = Executors.newFixedThreadPool(DomainToolsClient.CONCURRENCY);
+        try (DomainToolsClient client = new DomainToolsClient(apiKey, username, new RateLimit(queryRate, 1, TimeUnit.MINUTES))) {
+            while (query.next()) {
+
+                String identifier = query.get(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER);
+                String type = query.get(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE);
+                if (identifier == null || type == null)
                 {
-                    break;
+                    continue;
+                }
+                if (type.equals(AnalyticConcept.VertexType.IPV4.toString())
+                        || type.equals(AnalyticConcept.VertexType.IPV6.toString())
+                        || type.equals(AnalyticConcept.VertexType.IP_ADDRESS.toString())) {
+
+                    if (queries.contains("Whois"))
+                    {
+                        lookups.add(new Lookup(identifier, type, "Whois IP", requests.computeIfAbsent("Whois " + identifier, k -> CompletableFuture.supplyAsync(() -> whois(client, identifier, interaction), executor))));
+                    }
+
+                }
+                if (type.equals(AnalyticConcept.VertexType.HOST_NAME.toString())) {
+
+                    if (queries.contains("Whois"))
+                    {
+                        lookups.add(new Lookup(identifier, type, "Whois", requests.computeIfAbsent("Whois " + identifier, k -> CompletableFuture.supplyAsync(() -> whois(client, identifier, interaction), executor))));
+                    }
+                    if (queries.contains("Profile"))
+                    {
+                        lookups.add(new Lookup(identifier, type, "Profile", requests.computeIfAbsent("Profile " + identifier, k -> CompletableFuture.supplyAsync(() -> profile(client, identifier, interaction), executor))));
+                    }
                 }
-                
             }
-            if (type.equals(AnalyticConcept.VertexType.HOST_NAME.toString())) {
+            
+            // draw each response in selection order as it arrives
+            final Set<String> contactsDrawn = new HashSet<>();
+            final Queue<String> errors = new ArrayDeque<>();
+            int done = 0;
+            for (Lookup lookup : lookups)
+            {
+                interaction.setProgress(done++, lookups.size(), String.format("Querying DomainTools for %d indicators", lookups.size()), true);
+                JSONObject res;
+                try {
+                    // get rather than join so that cancelling the plugin
+                    // interrupts the wait
+                    res = lookup.response.get();
+                } catch (ExecutionException ex) {
+                    if (!client.isFailed())
+                    {
+                        errors.add(String.format("%s %s: %s", lookup.query, lookup.identifier, ex.getCause() != null ? ex.getCause().getMessage() : ex.getMessage()));
+                    }
+                    continue;
+                }
                 
-                if (queries.contains("Whois") && !whoisDomain(identifier, type, client, results, interaction))
-                {
-                    break;
+                try {
+                    switch (lookup.query)
+                    {
+                        case "Whois IP":
+                            whoisIP(lookup.identifier, lookup.type, res, contactsDrawn, results);
+                            break;
+                        case "Whois":
+                            whoisDomain(lookup.identifier, lookup.type, res, contactsDrawn, results);
+                            break;
+                        default:
+                            profileDomain(lookup.identifier, lookup.type, res, results);
+                            break;
+                    }
+                } catch (JSONException ex) {
+                    errors.add(String.format("%s %s: %s", lookup.query, lookup.identifier, ex.getMessage()));
                 }
-                if (queries.contains("Profile") && !profileDomain(identifier, type, client, results, interaction))
-                {
-                    break;
+            }
+            
+            if (!errors.isEmpty())
+            {
+                final List<String> shown = new ArrayList<>();
+                for (final String error : errors) {
+                    if (shown.size() == MAX_REPORTED_ERRORS) {
+                        shown.add("...");
+                        break;
+                    }
+                    shown.add(error);
                 }
+                interaction.notify(PluginNotificationLevel.WARNING, String.format("Unable to query %d indicators:\n%s", errors.size(), String.join("\n", shown)));
+            }
+        } catch (InterruptedException ex) {
+            for (final CompletableFuture<JSONObject> request : requests.values()) {
+                request.cancel(true);
             }
+            Thread.currentThread().interrupt();
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Failed to close the DomainTools client", ex);
+        } finally {
+            executor.shutdownNow();
         }
         return results;
     }
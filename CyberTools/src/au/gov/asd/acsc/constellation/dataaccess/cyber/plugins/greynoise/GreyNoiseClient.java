@@ -0,0 +1,212 @@
+/*
+ * Copyright 2010-2020 Australian Signals Directorate
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package au.gov.asd.acsc.constellation.dataaccess.cyber.plugins.greynoise;
+
+import au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment.BatchLookup;
+import au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment.EnrichmentEndpoints;
+import au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment.EnrichmentHttpClients;
+import au.gov.asd.tac.constellation.plugins.PluginInteraction;
+import au.gov.asd.tac.constellation.plugins.PluginNotificationLevel;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.openide.util.Exceptions;
+
+public class GreyNoiseClient implements Closeable
+{
+    private static final int QUICK_BATCH_SIZE = 1000;
+    
+    String apiKey = null;
+    String apiBase = EnrichmentEndpoints.getBaseUrl("greynoise", "https://api.greynoise.io");
+    
+    CloseableHttpClient client = null;
+    
+    public GreyNoiseClient(String apiKey)
+    {
+        this.apiKey = apiKey;
+    }
+    
+    /**
+     * The quick endpoint accepts up to 1000 IPs per request. Closing the
+     * lookup closes the client.
+     */
+    public BatchLookup<JSONObject> getQuickLookup(final PluginInteraction interaction)
+    {
+        return new BatchLookup<JSONObject>() {
+            @Override
+            public int getMaximumBatchSize() {
+                return QUICK_BATCH_SIZE;
+            }
+
+            @Override
+            public Map<String, JSONObject> lookupBatch(Collection<String> ips) {
+                Object res = getQuery(String.format("%s/v2/noise/multi/quick?ips=%s", apiBase, String.join(",", ips)), true, interaction);
+                if (res == null)
+                {
+                    return null;
+                }
+                Map<String, JSONObject> results = new HashMap<>();
+                if (res instanceof JSONArray)
+                {
+                    for (Object o : (JSONArray)res)
+                    {
+                        JSONObject r = (JSONObject)o;
+                        results.put((String)r.get("ip"), r);
+                    }
+                }
+                return results;
+            }
+
+            @Override
+            public void close() throws IOException {
+                GreyNoiseClient.this.close();
+            }
+        };
+    }
+    
+    /**
+     * The context endpoint only accepts a single IP per request. Closing the
+     * lookup closes the client.
+     */
+    public BatchLookup<JSONObject> getContextLookup(final PluginInteraction interaction)
+    {
+        return new BatchLookup<JSONObject>() {
+            @Override
+            public int getMaximumBatchSize() {
+                return 1;
+            }
+
+            @Override
+            public Map<String, JSONObject> lookupBatch(Collection<String> ips) {
+                Map<String, JSONObject> results = new HashMap<>();
+                for (String ip : ips)
+                {
+                    Object res = getQuery(String.format("%s/v2/noise/context/%s", apiBase, ip), false, interaction);
+                    if (res == null)
+                    {
+                        return null;
+                    }
+                    // an empty response means the IP was skipped
+                    if (res instanceof JSONObject && !((JSONObject)res).isEmpty())
+                    {
+                        results.put(ip, (JSONObject)res);
+                    }
+                }
+                return results;
+            }
+
+            @Override
+            public void close() throws IOException {
+                GreyNoiseClient.this.close();
+            }
+        };
+    }
+    
+    private synchronized CloseableHttpClient getClient() throws URISyntaxException
+    {
+        if (client == null)
+        {
+            client = EnrichmentHttpClients.create(apiBase);
+        }
+        return client;
+    }
+    
+    /**
+     * Returns the parsed response, an empty JSONObject if this request should be
+     * skipped and nothing drawn for it, or null if no further requests should
+     * be made.
+     */
+    private Object getQuery(String query, boolean fatalParseErrors, PluginInteraction interaction)
+    {
+        JSONParser parser = new JSONParser();
+        HttpGet get = new HttpGet(query);
+        get.addHeader("key", apiKey);
+        get.addHeader("Accept","application/json");
+
+        try (CloseableHttpResponse resp = getClient().execute(get)) {
+            if (resp.getStatusLine().getStatusCode() == 200) {
+                String answer = EntityUtils.toString(resp.getEntity());
+
+                try {
+                    return parser.parse(answer);
+                } catch (ParseException ex) {
+                    if (fatalParseErrors)
+                    {
+                        if (interaction != null) {
+                            interaction.notify(PluginNotificationLevel.FATAL, "Could not parse the GreyNoise web service response");
+                        }
+                        return null;
+                    }
+                    Exceptions.printStackTrace(ex);
+                    return new JSONObject();
+                }
+            } 
+            else if (resp.getStatusLine().getStatusCode() == 400)
+            {
+                interaction.notify(PluginNotificationLevel.FATAL, "Bad API request.");
+                return null;
+            }
+            else if (resp.getStatusLine().getStatusCode() == 401)
+            {
+                // unauthorised
+                interaction.notify(PluginNotificationLevel.FATAL, "Unauthorised, please check API key.");
+                return null;
+            }
+            else if (resp.getStatusLine().getStatusCode() == 429)
+            {
+                interaction.notify(PluginNotificationLevel.WARNING, "To many requests, you have hit the rate limit.");
+                return new JSONObject();
+            }
+            else {
+                interaction.notify(PluginNotificationLevel.FATAL, "Could not access the GreyNoise web service error code " + resp.getStatusLine().getStatusCode());
+                return null;
+            }
+        } catch (IOException ex) {
+            if (interaction != null) {
+                interaction.notify(PluginNotificationLevel.FATAL, "Failed to query the GreyNoise web service " + ex.getMessage());
+            }
+            ex.printStackTrace();
+            return null;
+        } catch (org.apache.http.ParseException ex) {
+            Exceptions.printStackTrace(ex);
+            return null;
+        } catch (URISyntaxException ex) {
+            Exceptions.printStackTrace(ex);
+            return null;
+        }
+    }
+    
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if (client != null)
+        {
+            client.close();
+            client = null;
+        }
+    }
+}
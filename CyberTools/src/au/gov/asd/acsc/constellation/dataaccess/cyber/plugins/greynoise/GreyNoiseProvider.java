@@ -0,0 +1,234 @@
+/*
+ * Copyright 2010-2020 Australian Signals Directorate
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package au.gov.asd.acsc.constellation.dataaccess.cyber.plugins.greynoise;
+
+import au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment.BatchLookup;
+import au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment.EnrichmentProvider;
+import au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment.RateLimit;
+import au.gov.asd.acsc.constellation.dataaccess.cyber.plugins.maxmind.MaxmindConcept;
+import au.gov.asd.acsc.constellation.preferences.ACSCPreferenceKeys;
+import au.gov.asd.acsc.constellation.schema.cyberschema.concept.CyberConcept;
+import au.gov.asd.tac.constellation.graph.processing.GraphRecordStoreUtilities;
+import au.gov.asd.tac.constellation.graph.processing.RecordStore;
+import au.gov.asd.tac.constellation.graph.schema.analytic.concept.AnalyticConcept;
+import au.gov.asd.tac.constellation.graph.schema.analytic.concept.SpatialConcept;
+import au.gov.asd.tac.constellation.graph.schema.analytic.concept.TemporalConcept;
+import au.gov.asd.tac.constellation.graph.schema.visual.concept.VisualConcept;
+import au.gov.asd.tac.constellation.plugins.PluginInteraction;
+import au.gov.asd.tac.constellation.plugins.parameters.PluginParameters;
+import au.gov.asd.tac.constellation.utilities.temporal.TemporalFormatting;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.prefs.Preferences;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Looks up IP addresses with the GreyNoise quick or context endpoints.
+ */
+public class GreyNoiseProvider implements EnrichmentProvider<JSONObject> {
+
+    private static final Set<String> SUPPORTED_TYPES = new HashSet<>(Arrays.asList(
+            AnalyticConcept.VertexType.IPV4.toString(),
+            AnalyticConcept.VertexType.IPV6.toString(),
+            AnalyticConcept.VertexType.IP_ADDRESS.toString()));
+
+    @Override
+    public String getName() {
+        return "GreyNoise";
+    }
+
+    @Override
+    public Set<String> getSupportedTypes() {
+        return SUPPORTED_TYPES;
+    }
+
+    @Override
+    public String getConfigurationError(Preferences prefs) {
+        final String apiKey = prefs.get(ACSCPreferenceKeys.GREYNOISE_API_KEY, null);
+        if (apiKey == null || apiKey.isEmpty()) {
+            return "The API key has not been set.\nPlease update these at Setup > Options > CONSTELLATION > ACSC > GreyNoise";
+        }
+        return null;
+    }
+
+    @Override
+    public RateLimit getRateLimit() {
+        // the service answers 429 when the limit is hit, which the client reports
+        return RateLimit.UNLIMITED;
+    }
+
+    @Override
+    public String getRequestKey(Preferences prefs, PluginParameters parameters) {
+        return (isDetailed(parameters) ? "context " : "quick ") + prefs.get(ACSCPreferenceKeys.GREYNOISE_API_KEY, null);
+    }
+
+    @Override
+    public long getCacheMinutes() {
+        return 30;
+    }
+
+    @Override
+    public BatchLookup<JSONObject> createLookup(Preferences prefs, PluginParameters parameters, PluginInteraction interaction) {
+        final GreyNoiseClient client = new GreyNoiseClient(prefs.get(ACSCPreferenceKeys.GREYNOISE_API_KEY, null));
+        if (isDetailed(parameters)) {
+            return client.getContextLookup(interaction);
+        }
+        return client.getQuickLookup(interaction);
+    }
+
+    @Override
+    public void map(String identifier, String type, JSONObject response, PluginParameters parameters, RecordStore results) {
+        if (isDetailed(parameters)) {
+            drawContext(identifier, type, response, results);
+        } else {
+            drawQuick(identifier, type, response, results);
+        }
+    }
+
+    private static boolean isDetailed(PluginParameters parameters) {
+        return parameters.getParameters().get(GreyNoisePlugin.DETAILED_PARAMETER).getBooleanValue();
+    }
+
+    private static final Map<String, String> CODE_MAPPINGS = new HashMap<>();
+
+    static {
+        CODE_MAPPINGS.put("0x00","The IP has never been observed scanning the Internet");
+        CODE_MAPPINGS.put("0x01","The IP has been observed by the GreyNoise sensor network");
+        CODE_MAPPINGS.put("0x02","The IP has been observed scanning the GreyNoise sensor network, but has not completed a full connection, meaning this can be spoofed");
+        CODE_MAPPINGS.put("0x03","The IP is adjacent to another host that has been directly observed by the GreyNoise sensor network");
+        CODE_MAPPINGS.put("0x04","Reserved");
+        CODE_MAPPINGS.put("0x05","This IP is commonly spoofed in Internet-scan activity");
+        CODE_MAPPINGS.put("0x06","This IP has been observed as noise, but this host belongs to a cloud provider where IPs can be cycled frequently");
+        CODE_MAPPINGS.put("0x07","This IP is invalid");
+        CODE_MAPPINGS.put("0x08","This IP was classified as noise, but has not been observed engaging in Internet-wide scans or attacks in over 60 days");
+    }
+
+    private void drawQuick(String ip, String type, JSONObject r, RecordStore results)
+    {
+        Boolean isNoise = (Boolean)r.get("noise");
+        String code = (String)r.get("code");
+
+        results.add();
+        results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, ip);
+        results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, type);
+        results.set(GraphRecordStoreUtilities.SOURCE + GreyNoiseConcept.VertexAttribute.IS_NOISE, isNoise);
+
+        if (code != null && CODE_MAPPINGS.containsKey(code))
+        {
+            results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.COMMENT, CODE_MAPPINGS.get(code));
+        }
+    }
+
+    private void drawContext(String ip, String type, JSONObject r, RecordStore results)
+    {
+        String ip1 = (String)r.get("ip");
+        String classification = (String)r.get("classification");
+        String firstSeen = (String)r.get("first_seen");
+        String lastSeen = (String)r.get("last_seen");
+        String actor = (String)r.get("actor");
+        JSONArray tags = (JSONArray)r.get("tags");
+        JSONObject metadata = (JSONObject)r.get("metadata");
+        JSONObject rawData = (JSONObject)r.get("raw_data");
+
+        JSONArray ja3s = rawData == null ? null : (JSONArray)rawData.get("ja3");
+
+        results.add();
+        results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, ip1);
+        results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, type);
+
+        if (classification != null && !classification.isEmpty())
+        {
+            results.set(GraphRecordStoreUtilities.SOURCE + CyberConcept.VertexAttribute.CLASSIFICATION, classification);
+        }
+        if (firstSeen != null && !firstSeen.isEmpty())
+        {
+            results.set(GraphRecordStoreUtilities.SOURCE + TemporalConcept.VertexAttribute.FIRST_SEEN, TemporalFormatting.completeZonedDateTimeString(firstSeen));
+        }
+        if (lastSeen != null && !lastSeen.isEmpty())
+        {
+            results.set(GraphRecordStoreUtilities.SOURCE + TemporalConcept.VertexAttribute.LAST_SEEN, TemporalFormatting.completeZonedDateTimeString(lastSeen));
+        }
+        if (actor != null && !actor.isEmpty())
+        {
+            results.set(GraphRecordStoreUtilities.SOURCE + CyberConcept.VertexAttribute.ACTOR, actor);
+        }
+        if (tags != null )
+        {
+            results.set(GraphRecordStoreUtilities.SOURCE + CyberConcept.VertexAttribute.TAGS, String.join("\n", tags));
+        }
+        if (metadata != null )
+        {
+            String country = (String)metadata.get("country");
+            String city = (String)metadata.get("city");
+            String organisation = (String)metadata.get("organization");
+            String rdns = (String)metadata.get("rdns");
+            Boolean tor = (Boolean)metadata.get("tor");
+            String os = (String)metadata.get("os");
+            String category = (String)metadata.get("Category");
+            if (country != null && !country.isEmpty())
+            {
+                results.set(GraphRecordStoreUtilities.SOURCE + SpatialConcept.VertexAttribute.COUNTRY, country);
+            }
+            if (city != null && !city.isEmpty())
+            {
+                results.set(GraphRecordStoreUtilities.SOURCE + SpatialConcept.VertexAttribute.CITY, city);
+            }
+            if (organisation != null && !organisation.isEmpty())
+            {
+                results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.ORGANISATION, organisation);
+            }
+            if (tor != null )
+            {
+                results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.IS_TOR_EXIT_NODE, tor);
+            }
+            if (rdns != null && !rdns.isEmpty())
+            {
+                results.set(GraphRecordStoreUtilities.SOURCE + "rDNS", rdns);
+            }
+            if (os != null && !os.isEmpty())
+            {
+                results.set(GraphRecordStoreUtilities.SOURCE + CyberConcept.VertexAttribute.OPERATING_SYSTEM, os);
+            }
+            if (category != null && !category.isEmpty())
+            {
+                results.set(GraphRecordStoreUtilities.SOURCE + CyberConcept.VertexAttribute.CATEGORY, category);
+            }
+            if (tags != null)
+            {
+                results.set(GraphRecordStoreUtilities.SOURCE + CyberConcept.VertexAttribute.TAGS, String.join("\n", tags));
+            }
+        }
+        if (ja3s != null )
+        {
+            for (Object o1 : ja3s)
+            {
+                JSONObject ja3 = (JSONObject)o1;
+                String fingerprint = (String)ja3.get("fingerprint");
+                Long port = (Long)ja3.get("port");
+                results.add();
+                results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, ip);  
+                results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, type);
+                results.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, fingerprint);  
+                results.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, CyberConcept.VertexType.JA3);
+                results.set(GraphRecordStoreUtilities.TRANSACTION + CyberConcept.TransactionAttribute.DST_PORTS, port);
+            }
+        }
+    }
+}
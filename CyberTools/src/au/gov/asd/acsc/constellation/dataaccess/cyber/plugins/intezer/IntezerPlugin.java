@@ -15,6 +15,8 @@
  */
 package au.gov.asd.acsc.constellation.dataaccess.cyber.plugins.intezer;
 
+import au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment.EnrichmentEndpoints;
+import au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment.EnrichmentHttpClients;
 import au.gov.asd.acsc.constellation.preferences.ACSCPreferenceKeys;
 import au.gov.asd.acsc.constellation.schema.cyberschema.concept.CyberConcept;
 import au.gov.asd.tac.constellation.graph.processing.GraphRecordStore;
@@ -27,31 +29,34 @@ import au.gov.asd.tac.constellation.plugins.Plugin;
 import au.gov.asd.tac.constellation.plugins.PluginException;
 import au.gov.asd.tac.constellation.plugins.PluginInteraction;
 import au.gov.asd.tac.constellation.plugins.PluginNotificationLevel;
-import au.gov.asd.tac.constellation.plugins.parameters.PluginParameter;
 import au.gov.asd.tac.constellation.plugins.parameters.PluginParameters;
-import au.gov.asd.tac.constellation.security.proxy.ConstellationHttpProxySelector;
 import au.gov.asd.tac.constellation.utilities.temporal.TemporalFormatting;
 import au.gov.asd.tac.constellation.views.dataaccess.DataAccessPlugin;
 import au.gov.asd.tac.constellation.views.dataaccess.DataAccessPluginCoreType;
 import au.gov.asd.tac.constellation.views.dataaccess.templates.RecordStoreQueryPlugin;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
-import java.net.Proxy;
-import java.net.ProxySelector;
-import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.prefs.Preferences;
-import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -71,8 +76,18 @@ import org.openide.util.lookup.ServiceProviders;
 @Messages("IntezerPlugin=Intezer Enrichment")
 public class IntezerPlugin extends RecordStoreQueryPlugin implements DataAccessPlugin {
     
+    // requests made at the same time while polling and fetching sub-analyses
+    private static final int CONCURRENCY = 4;
+    private static final long INITIAL_POLL_DELAY = TimeUnit.SECONDS.toMillis(1);
+    private static final long MAX_POLL_DELAY = TimeUnit.SECONDS.toMillis(30);
+    private static final long MAX_POLL_TIME = TimeUnit.MINUTES.toMillis(15);
+    // a stalled connection would otherwise hold up the whole query
+    private static final int CONNECT_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(30);
+    private static final int SOCKET_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(60);
+    
     private String token = null;
-    private final String apiBase = "https://analyze.intezer.com/api/v2-0";
+    private final String apiBase = EnrichmentEndpoints.getBaseUrl("intezer", "https://analyze.intezer.com/api/v2-0");
+    private CloseableHttpClient client = null;
 
     @Override
     public String getType() {
@@ -95,320 +110,445 @@ public class IntezerPlugin extends RecordStoreQueryPlugin implements DataAccessP
         
         return params;
     }
-
-    private JSONObject analyseByHash(String hash)
+    
+    /**
+     * A response from the api, body is null unless it could be parsed.
+     */
+    private static final class Response
     {
-        JSONObject result = null;
-        String url = String.format("%s/analyze-by-hash", apiBase);
-        JSONObject body = new JSONObject();
-        body.put("hash", hash);
+        private final int statusCode;
+        private final JSONObject body;
         
-        ProxySelector ps = ConstellationHttpProxySelector.getDefault();
-        try {
-            List<Proxy> proxies = ps.select(new URI(apiBase));
-            for (Proxy proxy : proxies) {
-                HttpClientBuilder clientBuilder = HttpClients.custom();
-                if (proxy.type() != Proxy.Type.DIRECT) {
-                    String h = proxy.address().toString();
-                    String addr = null;
-                    Integer port = null;
-                    if (h.contains(":")) {
-                        addr = h.split(":")[0];
-                        addr = addr.split("/")[0];
-                        port = Integer.parseInt(h.split(":")[1]);
-                    } else {
-                        addr = h;
-                    }
-                    if (port != null) {
-                        clientBuilder.setProxy(new HttpHost(addr, port));
-                    } else {
-                        clientBuilder.setProxy(new HttpHost(addr));
-                    }
-                }
-                CloseableHttpClient client = clientBuilder.build();
-
-                HttpPost post = new HttpPost(url);
-                post.setEntity(new StringEntity(body.toJSONString()));
-                post.setHeader("Accept", "application/json");
-                post.setHeader("Content-type", "application/json");
-                post.setHeader("Authorization", String.format("Bearer %s", token));
-
-                CloseableHttpResponse resp;
-                try {
-                    resp = client.execute(post);
-                    int statusCode = resp.getStatusLine().getStatusCode();
-                    if (statusCode == 404)
-                    {
-                        // didn't find file.
-                    }
-                    else if (statusCode == 201) {
-                        JSONParser parser = new JSONParser();
-                        JSONObject o = (JSONObject)parser.parse(EntityUtils.toString(resp.getEntity()));
-                        String resultUrl = (String)o.get("result_url");
-                        
-                        CloseableHttpResponse resp1 = null;
-                        
-                        while (resp1 == null || resp1.getStatusLine().getStatusCode() != 200)
-                        {
-                            Thread.sleep(5000);
-                            HttpGet get = new HttpGet(String.format("%s%s", apiBase, resultUrl));
-                            get.setHeader("Accept", "application/json");
-                            get.setHeader("Authorization", String.format("Bearer %s", token));
-                            if (resp1 != null)
-                            {
-                                resp1.close();
-                            }
-                            resp1 = client.execute(get);
-                        }
-                        
-                        result = (JSONObject)parser.parse(EntityUtils.toString(resp1.getEntity())); 
-                    }
-                    
-                } catch (IOException ex) {
-                    ex.printStackTrace();
-                } catch (ParseException ex) {
-                    Exceptions.printStackTrace(ex);
-                } catch (InterruptedException ex) {
-                    Exceptions.printStackTrace(ex);
-                } 
+        private Response(int statusCode, JSONObject body)
+        {
+            this.statusCode = statusCode;
+            this.body = body;
+        }
+    }
+    
+    /**
+     * A hash being analysed, filled in as its requests complete.
+     */
+    private static final class Analysis
+    {
+        private final String identifier;
+        private final String type;
+        private String resultUrl = null;
+        private JSONObject result = null;
+        private final List<SubAnalysis> subAnalyses = new ArrayList<>();
+        
+        private Analysis(String identifier, String type)
+        {
+            this.identifier = identifier;
+            this.type = type;
+        }
+    }
+    
+    private static final class SubAnalysis
+    {
+        private final JSONObject subAnalysis;
+        private final CompletableFuture<JSONObject> metadata;
+        private final CompletableFuture<JSONObject> codeReuse;
+        
+        private SubAnalysis(JSONObject subAnalysis, CompletableFuture<JSONObject> metadata, CompletableFuture<JSONObject> codeReuse)
+        {
+            this.subAnalysis = subAnalysis;
+            this.metadata = metadata;
+            this.codeReuse = codeReuse;
+        }
+    }
+    
+    private synchronized CloseableHttpClient getClient() throws URISyntaxException
+    {
+        if (client == null)
+        {
+            RequestConfig config = RequestConfig.custom()
+                    .setConnectTimeout(CONNECT_TIMEOUT)
+                    .setConnectionRequestTimeout(CONNECT_TIMEOUT)
+                    .setSocketTimeout(SOCKET_TIMEOUT)
+                    .build();
+            client = EnrichmentHttpClients.builder(apiBase)
+                    .setDefaultRequestConfig(config)
+                    .setMaxConnTotal(CONCURRENCY)
+                    .setMaxConnPerRoute(CONCURRENCY)
+                    .build();
+        }
+        return client;
+    }
+    
+    private synchronized void closeClient()
+    {
+        if (client != null)
+        {
+            try {
+                client.close();
+            } catch (IOException ex) {
+                Exceptions.printStackTrace(ex);
             }
-        } catch (URISyntaxException ex) {
-            Exceptions.printStackTrace(ex);
-        } catch (UnsupportedEncodingException ex) {
-            Exceptions.printStackTrace(ex);
+            client = null;
         }
-        return result;
     }
     
-    private JSONObject getSubAnalyses(String analysisId)
+    private Response execute(HttpUriRequest request)
     {
-        JSONObject result = null;
-        String url = String.format("%s/analyses/%s/sub-analyses", apiBase, analysisId);
+        request.setHeader("Accept", "application/json");
+        if (token != null)
+        {
+            request.setHeader("Authorization", String.format("Bearer %s", token));
+        }
         
-        ProxySelector ps = ConstellationHttpProxySelector.getDefault();
-        try {
-            List<Proxy> proxies = ps.select(new URI(apiBase));
-            for (Proxy proxy : proxies) {
-                HttpClientBuilder clientBuilder = HttpClients.custom();
-                if (proxy.type() != Proxy.Type.DIRECT) {
-                    String h = proxy.address().toString();
-                    String addr = null;
-                    Integer port = null;
-                    if (h.contains(":")) {
-                        addr = h.split(":")[0];
-                        addr = addr.split("/")[0];
-                        port = Integer.parseInt(h.split(":")[1]);
-                    } else {
-                        addr = h;
-                    }
-                    if (port != null) {
-                        clientBuilder.setProxy(new HttpHost(addr, port));
-                    } else {
-                        clientBuilder.setProxy(new HttpHost(addr));
-                    }
-                }
-                CloseableHttpClient client = clientBuilder.build();
-
-                HttpGet get = new HttpGet(url);
-                get.setHeader("Accept", "application/json");
-                get.setHeader("Authorization", String.format("Bearer %s", token));
-
-                CloseableHttpResponse resp;
-                try {
-                    resp = client.execute(get);
-                    int statusCode = resp.getStatusLine().getStatusCode();
-                    if (statusCode == 404)
-                    {
-                        // didn't find file.
-                    }
-                    else if (statusCode == 200) {
-                        JSONParser parser = new JSONParser();
-                        result = (JSONObject)parser.parse(EntityUtils.toString(resp.getEntity()));
-                    }
-                    
-                } catch (IOException ex) {
-                    ex.printStackTrace();
-                } catch (ParseException ex) {
-                    Exceptions.printStackTrace(ex);
-                }
+        try (CloseableHttpResponse resp = getClient().execute(request)) {
+            int statusCode = resp.getStatusLine().getStatusCode();
+            JSONObject body = null;
+            String answer = EntityUtils.toString(resp.getEntity());
+            if (answer != null && answer.startsWith("{"))
+            {
+                JSONParser parser = new JSONParser();
+                body = (JSONObject)parser.parse(answer);
             }
+            return new Response(statusCode, body);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        } catch (ParseException ex) {
+            Exceptions.printStackTrace(ex);
         } catch (URISyntaxException ex) {
             Exceptions.printStackTrace(ex);
-        } 
-        return result;
+        }
+        return null;
     }
     
-    private JSONObject getSubAnalysisMetadata(String analysisId, String subAnalysisId)
+    private Response post(String url, JSONObject body)
     {
-        JSONObject result = null;
-        String url = String.format("%s/analyses/%s/sub-analyses/%s/metadata", apiBase, analysisId, subAnalysisId);
-        
-        ProxySelector ps = ConstellationHttpProxySelector.getDefault();
+        HttpPost post = new HttpPost(url);
         try {
-            List<Proxy> proxies = ps.select(new URI(apiBase));
-            for (Proxy proxy : proxies) {
-                HttpClientBuilder clientBuilder = HttpClients.custom();
-                if (proxy.type() != Proxy.Type.DIRECT) {
-                    String h = proxy.address().toString();
-                    String addr = null;
-                    Integer port = null;
-                    if (h.contains(":")) {
-                        addr = h.split(":")[0];
-                        addr = addr.split("/")[0];
-                        port = Integer.parseInt(h.split(":")[1]);
-                    } else {
-                        addr = h;
-                    }
-                    if (port != null) {
-                        clientBuilder.setProxy(new HttpHost(addr, port));
-                    } else {
-                        clientBuilder.setProxy(new HttpHost(addr));
-                    }
-                }
-                CloseableHttpClient client = clientBuilder.build();
-
-                HttpGet get = new HttpGet(url);
-                get.setHeader("Accept", "application/json");
-                get.setHeader("Authorization", String.format("Bearer %s", token));
-
-                CloseableHttpResponse resp;
-                try {
-                    resp = client.execute(get);
-                    int statusCode = resp.getStatusLine().getStatusCode();
-                    if (statusCode == 404)
-                    {
-                        // didn't find file.
-                    }
-                    else if (statusCode == 200) {
-                        JSONParser parser = new JSONParser();
-                        result = (JSONObject)parser.parse(EntityUtils.toString(resp.getEntity()));
-                    }
-                    
-                } catch (IOException ex) {
-                    ex.printStackTrace();
-                } catch (ParseException ex) {
-                    Exceptions.printStackTrace(ex);
-                }
-            }
-        } catch (URISyntaxException ex) {
+            post.setEntity(new StringEntity(body.toJSONString()));
+        } catch (UnsupportedEncodingException ex) {
             Exceptions.printStackTrace(ex);
-        } 
-     
+            return null;
+        }
+        post.setHeader("Content-type", "application/json");
+        return execute(post);
+    }
+    
+    private JSONObject get(String url)
+    {
+        Response resp = execute(new HttpGet(url));
+        if (resp != null && resp.statusCode == 200)
+        {
+            return resp.body;
+        }
+        return null;
+    }
+
+    /**
+     * Submit a hash for analysis.
+     * 
+     * @return the url to poll for the result, or null if the file was not
+     * found.
+     */
+    private String analyseByHash(String hash)
+    {
+        String url = String.format("%s/analyze-by-hash", apiBase);
+        JSONObject body = new JSONObject();
+        body.put("hash", hash);
         
-        return result;
+        Response resp = post(url, body);
+        if (resp != null && resp.statusCode == 201 && resp.body != null)
+        {
+            return (String)resp.body.get("result_url");
+        }
+        return null;
     }
     
-    private JSONObject getSubAnalysisCodeReuse(String analysisId, String subAnalysisId)
+    /**
+     * Poll the result urls of all the analyses together, backing off between
+     * rounds while any are still running.
+     */
+    private void pollResults(List<Analysis> analyses, ExecutorService executor, PluginInteraction interaction) throws InterruptedException
     {
-        JSONObject result = null;
-        String url = String.format("%s/analyses/%s/sub-analyses/%s/code-reuse", apiBase, analysisId, subAnalysisId);
+        List<Analysis> pending = new ArrayList<>();
+        for (Analysis analysis : analyses)
+        {
+            if (analysis.resultUrl != null)
+            {
+                pending.add(analysis);
+            }
+        }
         
-        ProxySelector ps = ConstellationHttpProxySelector.getDefault();
-        try {
-            List<Proxy> proxies = ps.select(new URI(apiBase));
-            for (Proxy proxy : proxies) {
-                HttpClientBuilder clientBuilder = HttpClients.custom();
-                if (proxy.type() != Proxy.Type.DIRECT) {
-                    String h = proxy.address().toString();
-                    String addr = null;
-                    Integer port = null;
-                    if (h.contains(":")) {
-                        addr = h.split(":")[0];
-                        addr = addr.split("/")[0];
-                        port = Integer.parseInt(h.split(":")[1]);
-                    } else {
-                        addr = h;
-                    }
-                    if (port != null) {
-                        clientBuilder.setProxy(new HttpHost(addr, port));
-                    } else {
-                        clientBuilder.setProxy(new HttpHost(addr));
-                    }
+        long delay = INITIAL_POLL_DELAY;
+        final long deadline = System.currentTimeMillis() + MAX_POLL_TIME;
+        while (!pending.isEmpty())
+        {
+            interaction.setProgress(analyses.size() - pending.size(), analyses.size(), String.format("Waiting on %d Intezer analyses", pending.size()), true);
+            if (System.currentTimeMillis() > deadline)
+            {
+                interaction.notify(PluginNotificationLevel.WARNING, String.format("Gave up waiting on %d Intezer analyses", pending.size()));
+                return;
+            }
+            Thread.sleep(delay);
+            delay = Math.min(delay * 2, MAX_POLL_DELAY);
+            
+            final Map<Analysis, CompletableFuture<Response>> polls = new LinkedHashMap<>();
+            for (Analysis analysis : pending)
+            {
+                final String url = String.format("%s%s", apiBase, analysis.resultUrl);
+                polls.put(analysis, CompletableFuture.supplyAsync(() -> execute(new HttpGet(url)), executor));
+            }
+            
+            for (Iterator<Analysis> it = pending.iterator(); it.hasNext();)
+            {
+                Analysis analysis = it.next();
+                Response resp = join(polls.get(analysis));
+                if (resp == null || resp.statusCode == 202)
+                {
+                    // still running, or the request failed and is retried next round
+                    continue;
                 }
-                CloseableHttpClient client = clientBuilder.build();
-
-                HttpGet get = new HttpGet(url);
-                get.setHeader("Accept", "application/json");
-                get.setHeader("Authorization", String.format("Bearer %s", token));
-
-                CloseableHttpResponse resp;
-                try {
-                    resp = client.execute(get);
-                    int statusCode = resp.getStatusLine().getStatusCode();
-                    if (statusCode == 404)
-                    {
-                        // didn't find file.
-                    }
-                    else if (statusCode == 200) {
-                        JSONParser parser = new JSONParser();
-                        result = (JSONObject)parser.parse(EntityUtils.toString(resp.getEntity()));
-                    }
-                    
-                } catch (IOException ex) {
-                    ex.printStackTrace();
-                } catch (ParseException ex) {
-                    Exceptions.printStackTrace(ex);
+                if (resp.statusCode == 200)
+                {
+                    analysis.result = resp.body;
                 }
+                it.remove();
             }
-        } catch (URISyntaxException ex) {
-            Exceptions.printStackTrace(ex);
-        } 
-        return result;
+        }
+    }
+    
+    /**
+     * Wait for a request, unlike CompletableFuture.join this can be
+     * interrupted. The requests still outstanding are cancelled when the
+     * executor is shut down.
+     */
+    private static <T> T join(CompletableFuture<T> future) throws InterruptedException
+    {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            future.cancel(true);
+            throw ex;
+        } catch (ExecutionException ex) {
+            Exceptions.printStackTrace(ex.getCause());
+            return null;
+        } catch (CancellationException ex) {
+            return null;
+        }
+    }
+    
+    private JSONObject getSubAnalyses(String analysisId)
+    {
+        return get(String.format("%s/analyses/%s/sub-analyses", apiBase, analysisId));
+    }
+    
+    private JSONObject getSubAnalysisMetadata(String analysisId, String subAnalysisId)
+    {
+        return get(String.format("%s/analyses/%s/sub-analyses/%s/metadata", apiBase, analysisId, subAnalysisId));
     }
     
+    private JSONObject getSubAnalysisCodeReuse(String analysisId, String subAnalysisId)
+    {
+        return get(String.format("%s/analyses/%s/sub-analyses/%s/code-reuse", apiBase, analysisId, subAnalysisId));
+    }
+    
+    /**
+     * Fetch the sub-analyses of every completed analysis, then the metadata
+     * and code reuse of each sub-analysis, all concurrently.
+     */
+    private void fetchSubAnalyses(List<Analysis> analyses, ExecutorService executor) throws InterruptedException
+    {
+        final Map<Analysis, CompletableFuture<JSONObject>> lists = new LinkedHashMap<>();
+        for (Analysis analysis : analyses)
+        {
+            if (analysis.result != null)
+            {
+                JSONObject r = (JSONObject)analysis.result.get("result");
+                final String analysisId = r == null ? null : (String)r.get("analysis_id");
+                if (analysisId != null)
+                {
+                    lists.put(analysis, CompletableFuture.supplyAsync(() -> getSubAnalyses(analysisId), executor));
+                }
+            }
+        }
+        
+        for (Map.Entry<Analysis, CompletableFuture<JSONObject>> entry : lists.entrySet())
+        {
+            Analysis analysis = entry.getKey();
+            JSONObject sa = join(entry.getValue());
+            if (sa == null || sa.get("sub_analyses") == null)
+            {
+                continue;
+            }
+            final String analysisId = (String)((JSONObject)analysis.result.get("result")).get("analysis_id");
+            for (Object a : (JSONArray)sa.get("sub_analyses"))
+            {
+                JSONObject subAnalysis = (JSONObject)a;
+                final String subAnalysisId = (String)subAnalysis.get("sub_analysis_id");
+                analysis.subAnalyses.add(new SubAnalysis(subAnalysis,
+                        CompletableFuture.supplyAsync(() -> getSubAnalysisMetadata(analysisId, subAnalysisId), executor),
+                        CompletableFuture.supplyAsync(() -> getSubAnalysisCodeReuse(analysisId, subAnalysisId), executor)));
+            }
+        }
+    }
     
     private void getToken(String apiKey)
     {
         String url = String.format("%s/get-access-token", apiBase);
         JSONObject body = new JSONObject();
         body.put("api_key", apiKey);
-        ProxySelector ps = ConstellationHttpProxySelector.getDefault();
-        try {
-            List<Proxy> proxies = ps.select(new URI(apiBase));
-            for (Proxy proxy : proxies) {
-                HttpClientBuilder clientBuilder = HttpClients.custom();
-                if (proxy.type() != Proxy.Type.DIRECT) {
-                    String h = proxy.address().toString();
-                    String addr = null;
-                    Integer port = null;
-                    if (h.contains(":")) {
-                        addr = h.split(":")[0];
-                        addr = addr.split("/")[0];
-                        port = Integer.parseInt(h.split(":")[1]);
-                    } else {
-                        addr = h;
-                    }
-                    if (port != null) {
-                        clientBuilder.setProxy(new HttpHost(addr, port));
-                    } else {
-                        clientBuilder.setProxy(new HttpHost(addr));
-                    }
-                }
-                CloseableHttpClient client = clientBuilder.build();
-
-                HttpPost post = new HttpPost(url);
-                post.setEntity(new StringEntity(body.toJSONString()));
-                post.setHeader("Accept", "application/json");
-                post.setHeader("Content-type", "application/json");
-
-                CloseableHttpResponse resp;
-                try {
-                    resp = client.execute(post);
-                    if (resp.getStatusLine().getStatusCode() == 200) {
-                        JSONParser parser = new JSONParser();
-                        JSONObject o = (JSONObject)parser.parse(EntityUtils.toString(resp.getEntity()));
-                        token = (String)o.get("result");
-                    }
-                } catch (IOException ex) {
-                    ex.printStackTrace();
-                } catch (ParseException ex) {
-                    Exceptions.printStackTrace(ex);
+        
+        Response resp = post(url, body);
+        if (resp != null && resp.statusCode == 200 && resp.body != null)
+        {
+            token = (String)resp.body.get("result");
+        }
+    }
+    
+    private void drawAnalysis(Analysis analysis, RecordStore results) throws InterruptedException
+    {
+        final String identifier = analysis.identifier;
+        final String type = analysis.type;
+        
+        JSONObject r = (JSONObject)analysis.result.get("result");
+        String verdict = (String)r.get("verdict");
+        String subVerdict = (String)r.get("sub_verdict");
+        String analysisTime = (String)r.get("analysis_time");
+        String familyName = (String)r.get("family_name");
+        String analysisUrl = (String)r.get("analysis_url");
+
+        results.add();
+        results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, identifier);
+        results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, type);
+        results.set(GraphRecordStoreUtilities.SOURCE + CyberConcept.VertexAttribute.VERDICT, verdict);
+        results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.COMMENT, subVerdict);
+        results.set(GraphRecordStoreUtilities.SOURCE + ContentConcept.VertexAttribute.URL, analysisUrl);
+        results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.COMMENT, subVerdict);
+        results.set(GraphRecordStoreUtilities.SOURCE + CyberConcept.VertexAttribute.ANALYSIS_TIME, TemporalFormatting.completeZonedDateTimeString(analysisTime));
+
+        results.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, familyName);
+        results.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, CyberConcept.VertexType.CODE_FAMILY);
+
+        HashMap<Long, String> pidToDisplayName = new HashMap<>();
+        HashMap<String, Long> md5ToPid = new HashMap<>();
+        HashMap<Long, Long> pidToPPid = new HashMap<>();
+
+        for (SubAnalysis sub : analysis.subAnalyses)
+        {
+            JSONObject subAnalysis = sub.subAnalysis;
+            String source = (String)subAnalysis.get("source");
+
+            JSONObject subAnalysisMetadata = join(sub.metadata);
+            if (subAnalysisMetadata == null)
+            {
+                continue;
+            }
+
+            String md5 = (String)subAnalysisMetadata.get("md5");
+            String sha1 = (String)subAnalysisMetadata.get("sha1");
+            String sha256 = (String)subAnalysisMetadata.get("sha256");
+
+            String ssdeep = (String)subAnalysisMetadata.get("ssdeep");
+            String architecture = (String)subAnalysisMetadata.get("architecture");
+            Long size = (Long)subAnalysisMetadata.get("size_in_bytes");
+            String fileType = (String)subAnalysisMetadata.get("file_type");
+            String company = (String)subAnalysisMetadata.get("company");
+            String product = (String)subAnalysisMetadata.get("product");
+            String productVersion = (String)subAnalysisMetadata.get("product_version");
+            String originalFilename = (String)subAnalysisMetadata.get("original_filename");
+            String compilationTimestamp = (String)subAnalysisMetadata.get("compilation_timestamp");
+
+            results.add();
+            results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, md5);
+            results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.MD5);
+            results.set(GraphRecordStoreUtilities.SOURCE + CyberConcept.VertexAttribute.SHA1, sha1);
+            results.set(GraphRecordStoreUtilities.SOURCE + CyberConcept.VertexAttribute.SHA256, sha256);
+            results.set(GraphRecordStoreUtilities.SOURCE + CyberConcept.VertexAttribute.SSDEEP, ssdeep);
+            results.set(GraphRecordStoreUtilities.SOURCE + CyberConcept.VertexAttribute.SIZE, size);
+            results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.SOURCE, source);
+            results.set(GraphRecordStoreUtilities.SOURCE + "Architecture", architecture);
+            results.set(GraphRecordStoreUtilities.SOURCE + "File Type", fileType);
+            results.set(GraphRecordStoreUtilities.SOURCE + "Company", company);
+            results.set(GraphRecordStoreUtilities.SOURCE + "Product", product);
+            results.set(GraphRecordStoreUtilities.SOURCE + "Product Version", productVersion);
+            results.set(GraphRecordStoreUtilities.SOURCE + "Original Filename", originalFilename);
+            results.set(GraphRecordStoreUtilities.SOURCE + "Compilation Timestamp", compilationTimestamp);
+
+            if (subAnalysis.containsKey("extraction_info"))
+            {
+                JSONObject extractionInfo = (JSONObject)subAnalysis.get("extraction_info");
+                String collectedFrom = (String)extractionInfo.get("collected_from");
+                JSONArray processes = (JSONArray)extractionInfo.get("processes");
+                for (Object p : processes)
+                {
+                    JSONObject process = (JSONObject)p;
+                    Long parentProcessId = (Long)process.get("parent_process_id");
+                    Long processId = (Long)process.get("process_id");
+                    md5ToPid.put(md5, processId);
+                    pidToPPid.put(processId, parentProcessId);
+                    String processPath = (String)process.get("process_path");
+                    String modulePath = (String)process.get("module_path");
+
+                    String displayName = String.format("%s %s", processPath, processId);
+
+                    results.add();
+                    results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, md5);
+                    results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.MD5);
+                    results.set(GraphRecordStoreUtilities.SOURCE + "Module Path", modulePath);
+                    results.set(GraphRecordStoreUtilities.SOURCE + "Collect From", collectedFrom);
+
+                    pidToDisplayName.put(processId, displayName);
+                }   
+            } 
+
+            JSONObject codeReuse = join(sub.codeReuse);
+            if (codeReuse != null)
+            {
+                JSONArray families = (JSONArray)codeReuse.get("families");
+                for (Object f : families)
+                {
+                    JSONObject family = (JSONObject)f;
+                    results.add();
+                    results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, md5);
+                    results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.MD5);
+                    results.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, (String)family.get("family_name"));
+                    results.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, CyberConcept.VertexType.CODE_FAMILY);
+                    results.set(GraphRecordStoreUtilities.DESTINATION + CyberConcept.VertexAttribute.FAMILY_TYPE, (String)family.get("family_type"));
+                    results.set(GraphRecordStoreUtilities.TRANSACTION + AnalyticConcept.TransactionAttribute.COUNT, (Long)family.get("reused_gene_count"));
                 }
             }
-        } catch (URISyntaxException ex) {
-            Exceptions.printStackTrace(ex);
-        } catch (UnsupportedEncodingException ex) {
-            Exceptions.printStackTrace(ex);
+
+        }
+        for (String md5 : md5ToPid.keySet())
+        {
+            Long pid = md5ToPid.get(md5);
+            String displayName = pidToDisplayName.get(pid);
+            results.add();
+            results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, md5);
+            results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.MD5);
+
+            results.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, displayName);
+            results.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, CyberConcept.VertexType.PROCESS);
+        }
+
+        for (Long pid : pidToPPid.keySet())
+        {
+            Long ppid = pidToPPid.get(pid);
+            String displayName = pidToDisplayName.get(ppid);
+            if (displayName != null)
+            {
+                results.add();
+                results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, displayName);
+                results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, CyberConcept.VertexType.PROCESS);
+
+                results.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, pidToDisplayName.get(pid));
+                results.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, CyberConcept.VertexType.PROCESS);
+            }
+            else
+            {
+                results.add();
+                results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, identifier);
+                results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, type);
+
+                results.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, pidToDisplayName.get(pid));
+                results.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, CyberConcept.VertexType.PROCESS);
+            }
         }
     }
 
@@ -431,180 +571,74 @@ public class IntezerPlugin extends RecordStoreQueryPlugin implements DataAccessP
         }
 
         query.reset();
-        final Map<String, PluginParameter<?>> params = parameters.getParameters();
         
-        if (token == null)
+        try
         {
-            getToken(apiKey);
             if (token == null)
             {
-                // failed to get the token
+                getToken(apiKey);
+                if (token == null)
+                {
+                    // failed to get the token
+                    return results;
+                }
+            }
+        
+            final Map<String, Analysis> hashes = new LinkedHashMap<>();
+            while (query.next()) {
+                String identifier = query.get(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER);
+                String type = query.get(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE);
+                if (type.equals(AnalyticConcept.VertexType.HASH.toString())
+                        || type.equals(AnalyticConcept.VertexType.MD5.toString())
+                        || type.equals(AnalyticConcept.VertexType.SHA256.toString())          
+                        || type.equals(AnalyticConcept.VertexType.SHA1.toString())) {
+                    hashes.putIfAbsent(identifier, new Analysis(identifier, type));
+                }
+            }
+            if (hashes.isEmpty())
+            {
                 return results;
             }
-        }
+            final List<Analysis> analyses = new ArrayList<>(hashes.values());
         
-        while (query.next()) {
-            String identifier = query.get(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER);
-            String type = query.get(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE);
-            if (type.equals(AnalyticConcept.VertexType.HASH.toString())
-                    || type.equals(AnalyticConcept.VertexType.MD5.toString())
-                    || type.equals(AnalyticConcept.VertexType.SHA256.toString())          
-                    || type.equals(AnalyticConcept.VertexType.SHA1.toString())) {
-
-                JSONObject o = analyseByHash(identifier);
-                
-                // now get the sub analysis results
-                JSONObject r = (JSONObject)o.get("result");
-                String verdict = (String)r.get("verdict");
-                String subVerdict = (String)r.get("sub_verdict");
-                String analysisTime = (String)r.get("analysis_time");
-                String familyName = (String)r.get("family_name");
-                String analysisId = (String)r.get("analysis_id");
-                String analysisUrl = (String)r.get("analysis_url");
-                
-                results.add();
-                results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, identifier);
-                results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, type);
-                results.set(GraphRecordStoreUtilities.SOURCE + CyberConcept.VertexAttribute.VERDICT, verdict);
-                results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.COMMENT, subVerdict);
-                results.set(GraphRecordStoreUtilities.SOURCE + ContentConcept.VertexAttribute.URL, analysisUrl);
-                results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.COMMENT, subVerdict);
-                results.set(GraphRecordStoreUtilities.SOURCE + CyberConcept.VertexAttribute.ANALYSIS_TIME, TemporalFormatting.completeZonedDateTimeString(analysisTime));
-                
-                results.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, familyName);
-                results.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, CyberConcept.VertexType.CODE_FAMILY);
-                
-                HashMap<Long, String> pidToDisplayName = new HashMap<>();
-                HashMap<String, Long> md5ToPid = new HashMap<>();
-                HashMap<Long, Long> pidToPPid = new HashMap<>();
-                
-                JSONObject sa = getSubAnalyses(analysisId);
-                
-                
-                JSONArray subAnalyses = (JSONArray)sa.get("sub_analyses");
-                for (Object a : subAnalyses)
+            final ExecutorService executor = Executors.newFixedThreadPool(CONCURRENCY);
+            try
+            {
+                // submit everything up front so the analyses run together
+                final List<CompletableFuture<String>> submissions = new ArrayList<>();
+                for (Analysis analysis : analyses)
                 {
-                    JSONObject subAnalysis = (JSONObject)a;
-                    String source = (String)subAnalysis.get("source");
-                    String subAnalysisId = (String)subAnalysis.get("sub_analysis_id");
-                                        
-                    JSONObject subAnalysisMetadata = getSubAnalysisMetadata(analysisId, subAnalysisId);
-                    
-                    String md5 = (String)subAnalysisMetadata.get("md5");
-                    String sha1 = (String)subAnalysisMetadata.get("sha1");
-                    String sha256 = (String)subAnalysisMetadata.get("sha256");
-                                        
-                    String ssdeep = (String)subAnalysisMetadata.get("ssdeep");
-                    String architecture = (String)subAnalysisMetadata.get("architecture");
-                    Long size = (Long)subAnalysisMetadata.get("size_in_bytes");
-                    String fileType = (String)subAnalysisMetadata.get("file_type");
-                    String company = (String)subAnalysisMetadata.get("company");
-                    String product = (String)subAnalysisMetadata.get("product");
-                    String productVersion = (String)subAnalysisMetadata.get("product_version");
-                    String originalFilename = (String)subAnalysisMetadata.get("original_filename");
-                    String compilationTimestamp = (String)subAnalysisMetadata.get("compilation_timestamp");
-                    
-                    results.add();
-                    results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, md5);
-                    results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.MD5);
-                    results.set(GraphRecordStoreUtilities.SOURCE + CyberConcept.VertexAttribute.SHA1, sha1);
-                    results.set(GraphRecordStoreUtilities.SOURCE + CyberConcept.VertexAttribute.SHA256, sha256);
-                    results.set(GraphRecordStoreUtilities.SOURCE + CyberConcept.VertexAttribute.SSDEEP, ssdeep);
-                    results.set(GraphRecordStoreUtilities.SOURCE + CyberConcept.VertexAttribute.SIZE, size);
-                    results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.SOURCE, source);
-                    results.set(GraphRecordStoreUtilities.SOURCE + "Architecture", architecture);
-                    results.set(GraphRecordStoreUtilities.SOURCE + "File Type", fileType);
-                    results.set(GraphRecordStoreUtilities.SOURCE + "Company", company);
-                    results.set(GraphRecordStoreUtilities.SOURCE + "Product", product);
-                    results.set(GraphRecordStoreUtilities.SOURCE + "Product Version", productVersion);
-                    results.set(GraphRecordStoreUtilities.SOURCE + "Original Filename", originalFilename);
-                    results.set(GraphRecordStoreUtilities.SOURCE + "Compilation Timestamp", compilationTimestamp);
-
-                    if (subAnalysis.containsKey("extraction_info"))
-                    {
-                        JSONObject extractionInfo = (JSONObject)subAnalysis.get("extraction_info");
-                        String collectedFrom = (String)extractionInfo.get("collected_from");
-                        JSONArray processes = (JSONArray)extractionInfo.get("processes");
-                        for (Object p : processes)
-                        {
-                            JSONObject process = (JSONObject)p;
-                            Long parentProcessId = (Long)process.get("parent_process_id");
-                            Long processId = (Long)process.get("process_id");
-                            md5ToPid.put(md5, processId);
-                            pidToPPid.put(processId, parentProcessId);
-                            String processPath = (String)process.get("process_path");
-                            String modulePath = (String)process.get("module_path");
-                            
-                            String displayName = String.format("%s %s", processPath, processId);
-                            
-                            results.add();
-                            results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, md5);
-                            results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.MD5);
-                            results.set(GraphRecordStoreUtilities.SOURCE + "Module Path", modulePath);
-                            results.set(GraphRecordStoreUtilities.SOURCE + "Collect From", collectedFrom);
-                            
-                            pidToDisplayName.put(processId, displayName);
-                        }   
-                    } 
-                    
-                    JSONObject codeReuse = getSubAnalysisCodeReuse(analysisId, subAnalysisId);
-                    if (codeReuse != null)
-                    {
-                        JSONArray families = (JSONArray)codeReuse.get("families");
-                        for (Object f : families)
-                        {
-                            JSONObject family = (JSONObject)f;
-                            results.add();
-                            results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, md5);
-                            results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.MD5);
-                            results.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, (String)family.get("family_name"));
-                            results.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, CyberConcept.VertexType.CODE_FAMILY);
-                            results.set(GraphRecordStoreUtilities.DESTINATION + CyberConcept.VertexAttribute.FAMILY_TYPE, (String)family.get("family_type"));
-                            results.set(GraphRecordStoreUtilities.TRANSACTION + AnalyticConcept.TransactionAttribute.COUNT, (Long)family.get("reused_gene_count"));
-                        }
-                    }
-                    
+                    submissions.add(CompletableFuture.supplyAsync(() -> analyseByHash(analysis.identifier), executor));
                 }
-                for (String md5 : md5ToPid.keySet())
+                for (int i = 0; i < analyses.size(); i++)
                 {
-                    Long pid = md5ToPid.get(md5);
-                    String displayName = pidToDisplayName.get(pid);
-                    results.add();
-                    results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, md5);
-                    results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.MD5);
-
-                    results.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, displayName);
-                    results.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, CyberConcept.VertexType.PROCESS);
+                    analyses.get(i).resultUrl = join(submissions.get(i));
                 }
-                
-                for (Long pid : pidToPPid.keySet())
+            
+                pollResults(analyses, executor, interaction);
+                fetchSubAnalyses(analyses, executor);
+            
+                for (Analysis analysis : analyses)
                 {
-                    Long ppid = pidToPPid.get(pid);
-                    String displayName = pidToDisplayName.get(ppid);
-                    if (displayName != null)
+                    if (analysis.result != null && analysis.result.get("result") != null)
                     {
-                        results.add();
-                        results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, displayName);
-                        results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, CyberConcept.VertexType.PROCESS);
-
-                        results.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, pidToDisplayName.get(pid));
-                        results.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, CyberConcept.VertexType.PROCESS);
-                    }
-                    else
-                    {
-                        results.add();
-                        results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, identifier);
-                        results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, type);
-
-                        results.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, pidToDisplayName.get(pid));
-                        results.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, CyberConcept.VertexType.PROCESS);
+                        drawAnalysis(analysis, results);
                     }
                 }
-                
-                
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+            finally
+            {
+                executor.shutdownNow();
             }
         }
-        
+        finally
+        {
+            closeClient();
+        }
         
         return results;
     }
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2010-2020 Australian Signals Directorate
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package au.gov.asd.acsc.constellation.dataaccess.cyber.plugins.maxmind;
+
+import com.maxmind.geoip2.DatabaseReader;
+import com.maxmind.geoip2.exception.GeoIp2Exception;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+
+/**
+ * A database reader that answers IPv4 addresses from a {@link NetworkCache}
+ * once any address in the same MaxMind block has been looked up.
+ * <p>
+ * The cached response is shared by every address in the block, so only the
+ * fields describing the block should be read from it; the ip address traits
+ * belong to the first address looked up.
+ */
+final class CachedDatabase {
+
+    @FunctionalInterface
+    interface Lookup<T> {
+
+        T apply(DatabaseReader reader, InetAddress address) throws IOException, GeoIp2Exception;
+    }
+
+    private final DatabaseReader reader;
+    private final MaxmindNetworks networks;
+    private final NetworkCache<Object> cache = new NetworkCache<>();
+
+    CachedDatabase(final MaxmindDatabases.Handle handle) {
+        this.reader = handle.getReader();
+        this.networks = handle.getNetworks();
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> T lookup(final InetAddress address, final Lookup<T> lookup) throws IOException, GeoIp2Exception {
+        if (networks == null || !(address instanceof Inet4Address)) {
+            return lookup.apply(reader, address);
+        }
+
+        final byte[] raw = address.getAddress();
+        final long ip = ((0xFFL & raw[0]) << 24) | ((0xFFL & raw[1]) << 16) | ((0xFFL & raw[2]) << 8) | (0xFFL & raw[3]);
+        final Object cached = cache.get(ip);
+        if (cached != null) {
+            return (T) cached;
+        }
+
+        final T response = lookup.apply(reader, address);
+        final int prefixLength = networks.getPrefixLength(address);
+        if (response != null && prefixLength >= 0) {
+            cache.put(ip, prefixLength, response);
+        }
+        return response;
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2010-2020 Australian Signals Directorate
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package au.gov.asd.acsc.constellation.dataaccess.cyber.plugins.maxmind;
+
+import au.gov.asd.acsc.constellation.schema.cyberschema.concept.CyberConcept;
+import au.gov.asd.tac.constellation.graph.processing.GraphRecordStore;
+import au.gov.asd.tac.constellation.graph.processing.GraphRecordStoreUtilities;
+import au.gov.asd.tac.constellation.graph.processing.RecordStore;
+import au.gov.asd.tac.constellation.graph.schema.analytic.concept.AnalyticConcept;
+import au.gov.asd.tac.constellation.graph.schema.visual.concept.VisualConcept;
+import au.gov.asd.tac.constellation.plugins.Plugin;
+import au.gov.asd.tac.constellation.plugins.PluginException;
+import au.gov.asd.tac.constellation.plugins.PluginInteraction;
+import au.gov.asd.tac.constellation.plugins.PluginNotificationLevel;
+import au.gov.asd.tac.constellation.plugins.parameters.PluginParameter;
+import au.gov.asd.tac.constellation.plugins.parameters.PluginParameters;
+import au.gov.asd.tac.constellation.plugins.parameters.types.BooleanParameterType;
+import au.gov.asd.tac.constellation.plugins.parameters.types.BooleanParameterType.BooleanParameterValue;
+import au.gov.asd.tac.constellation.views.dataaccess.DataAccessPlugin;
+import au.gov.asd.tac.constellation.views.dataaccess.DataAccessPluginCoreType;
+import au.gov.asd.tac.constellation.views.dataaccess.templates.RecordStoreQueryPlugin;
+import com.maxmind.geoip2.DatabaseReader;
+import com.maxmind.geoip2.exception.AddressNotFoundException;
+import com.maxmind.geoip2.exception.GeoIp2Exception;
+import com.maxmind.geoip2.model.IspResponse;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import org.openide.util.NbBundle.Messages;
+import org.openide.util.lookup.ServiceProvider;
+import org.openide.util.lookup.ServiceProviders;
+
+/**
+ * Groups the selected IP addresses by autonomous system using the offline
+ * MaxMind ISP database.
+ * <p>
+ * Every IP is looked up in a single pass and the ASN and organisation
+ * vertices are built from running totals, so each appears once in the
+ * results however many addresses belong to it.
+ */
+@ServiceProviders({
+    @ServiceProvider(service = DataAccessPlugin.class)
+    ,
+    @ServiceProvider(service = Plugin.class)
+})
+@Messages("MaxmindAsnPlugin=MaxMind ASN Aggregation")
+public class MaxmindAsnPlugin extends RecordStoreQueryPlugin implements DataAccessPlugin {
+
+    public static final String LINK_IPS_PARAMETER_ID = PluginParameter.buildId(MaxmindAsnPlugin.class, "linkIps");
+    public static final String ORGANISATIONS_PARAMETER_ID = PluginParameter.buildId(MaxmindAsnPlugin.class, "organisations");
+
+    private static final String ASN_TRANSACTION = "Autonomous System";
+    private static final String ORGANISATION_TRANSACTION = "Organisation";
+
+    @Override
+    public String getType() {
+        return DataAccessPluginCoreType.ENRICHMENT;
+    }
+
+    @Override
+    public int getPosition() {
+        return Integer.MAX_VALUE - 10;
+    }
+
+    @Override
+    public String getDescription() {
+        return "Group IP addresses by ASN and ISP using the MaxMind ISP database";
+    }
+
+    @Override
+    public PluginParameters createParameters() {
+        final PluginParameters params = new PluginParameters();
+
+        final PluginParameter<BooleanParameterValue> linkIps = BooleanParameterType.build(LINK_IPS_PARAMETER_ID);
+        linkIps.setName("Link IP Addresses");
+        linkIps.setDescription("Link each IP address to its ASN, otherwise only the ASN vertices and their counts are added");
+        linkIps.setBooleanValue(true);
+        params.addParameter(linkIps);
+
+        final PluginParameter<BooleanParameterValue> organisations = BooleanParameterType.build(ORGANISATIONS_PARAMETER_ID);
+        organisations.setName("Organisations");
+        organisations.setDescription("Link each ASN to the organisations its IP addresses are assigned to");
+        organisations.setBooleanValue(true);
+        params.addParameter(organisations);
+
+        return params;
+    }
+
+    /**
+     * The running totals for one autonomous system.
+     */
+    private static class AsnTotals {
+
+        private final String organisation;
+        private int count = 0;
+        private final Map<String, Integer> organisations = new HashMap<>();
+
+        AsnTotals(final String organisation) {
+            this.organisation = organisation;
+        }
+    }
+
+    private static boolean isIP(final String type) {
+        return type != null && (type.equals(AnalyticConcept.VertexType.IPV4.toString())
+                || type.equals(AnalyticConcept.VertexType.IPV6.toString())
+                || type.equals(AnalyticConcept.VertexType.IP_ADDRESS.toString()));
+    }
+
+    private static String getAsnIdentifier(final int asn) {
+        return "AS" + asn;
+    }
+
+    @Override
+    protected RecordStore query(final RecordStore query, final PluginInteraction interaction, final PluginParameters parameters) throws PluginException {
+        final RecordStore results = new GraphRecordStore();
+
+        if (!MaxmindDatabases.isConfigured(MaxmindDatabases.Database.ISP)) {
+            interaction.notify(PluginNotificationLevel.FATAL, "The ISP DB location has not been set.\nPlease update this at Setup > Options > CONSTELLATION > ACSC");
+            return results;
+        }
+
+        if (query.size() == 0) {
+            return results;
+        }
+
+        final MaxmindDatabases.Handle handle;
+        try {
+            handle = MaxmindDatabases.getHandle(MaxmindDatabases.Database.ISP);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            interaction.notify(PluginNotificationLevel.FATAL, "Unable to open the ISP DB file.");
+            return results;
+        }
+        if (handle == null) {
+            return results;
+        }
+        try {
+            final CachedDatabase isp = new CachedDatabase(handle);
+
+            final Map<String, PluginParameter<?>> params = parameters.getParameters();
+            final boolean linkIps = params.get(LINK_IPS_PARAMETER_ID).getBooleanValue();
+            final boolean linkOrganisations = params.get(ORGANISATIONS_PARAMETER_ID).getBooleanValue();
+
+            final Map<Integer, AsnTotals> totals = new TreeMap<>();
+            final Set<InetAddress> seen = new HashSet<>();
+            int failed = 0;
+            String firstError = null;
+
+            query.reset();
+            while (query.next()) {
+                final String identifier = query.get(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER);
+                final String type = query.get(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE);
+                if (!isIP(type)) {
+                    continue;
+                }
+
+                final InetAddress address;
+                try {
+                    address = InetAddress.getByName(identifier);
+                } catch (UnknownHostException ex) {
+                    continue;
+                }
+                // an address selected more than once, or as vertices of different
+                // types, is still linked but only counted once
+                final boolean first = seen.add(address);
+
+                final IspResponse response;
+                try {
+                    response = isp.lookup(address, DatabaseReader::isp);
+                } catch (AddressNotFoundException ex) {
+                    continue;
+                } catch (IOException | GeoIp2Exception ex) {
+                    if (first) {
+                        failed++;
+                        if (firstError == null) {
+                            firstError = String.format("%s: %s", identifier, ex.getMessage());
+                        }
+                    }
+                    continue;
+                }
+
+                final Integer asn = response.getAutonomousSystemNumber();
+                if (asn == null) {
+                    continue;
+                }
+
+                final AsnTotals asnTotals = totals.computeIfAbsent(asn, k -> new AsnTotals(response.getAutonomousSystemOrganization()));
+                final String organisation = response.getOrganization();
+                if (first) {
+                    asnTotals.count++;
+                    if (organisation != null && !organisation.isEmpty()) {
+                        asnTotals.organisations.merge(organisation, 1, Integer::sum);
+                    }
+                }
+
+                if (linkIps) {
+                    results.add();
+                    results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, identifier);
+                    results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, type);
+                    results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.ISP, response.getIsp());
+                    results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.ORGANISATION, organisation);
+                    results.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, getAsnIdentifier(asn));
+                    results.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, MaxmindConcept.VertexType.AUTONOMOUS_SYSTEM);
+                    results.set(GraphRecordStoreUtilities.TRANSACTION + AnalyticConcept.TransactionAttribute.TYPE, ASN_TRANSACTION);
+                }
+            }
+
+            final Map<String, Integer> organisationCounts = new HashMap<>();
+            for (final Map.Entry<Integer, AsnTotals> entry : totals.entrySet()) {
+                final String asn = getAsnIdentifier(entry.getKey());
+                final AsnTotals asnTotals = entry.getValue();
+
+                results.add();
+                results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, asn);
+                results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, MaxmindConcept.VertexType.AUTONOMOUS_SYSTEM);
+                results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.ASN, entry.getKey().toString());
+                results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.ASN_ORGANISATION, asnTotals.organisation);
+                results.set(GraphRecordStoreUtilities.SOURCE + CyberConcept.VertexAttribute.COUNT, asnTotals.count);
+
+                if (linkOrganisations) {
+                    for (final Map.Entry<String, Integer> organisation : asnTotals.organisations.entrySet()) {
+                        organisationCounts.merge(organisation.getKey(), organisation.getValue(), Integer::sum);
+
+                        results.add();
+                        results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, asn);
+                        results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, MaxmindConcept.VertexType.AUTONOMOUS_SYSTEM);
+                        results.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, organisation.getKey());
+                        results.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.ORGANISATION);
+                        results.set(GraphRecordStoreUtilities.TRANSACTION + AnalyticConcept.TransactionAttribute.TYPE, ORGANISATION_TRANSACTION);
+                        results.set(GraphRecordStoreUtilities.TRANSACTION + CyberConcept.TransactionAttribute.DESCRIPTION, String.format("%d IP addresses", organisation.getValue()));
+                    }
+                }
+            }
+
+            for (final Map.Entry<String, Integer> organisation : organisationCounts.entrySet()) {
+                results.add();
+                results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, organisation.getKey());
+                results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.ORGANISATION);
+                results.set(GraphRecordStoreUtilities.SOURCE + CyberConcept.VertexAttribute.COUNT, organisation.getValue());
+            }
+
+            if (failed > 0) {
+                interaction.notify(PluginNotificationLevel.WARNING, String.format("Unable to look up %d IP addresses, the first was %s", failed, firstError));
+            }
+        } finally {
+            handle.close();
+        }
+
+        return results;
+    }
+}
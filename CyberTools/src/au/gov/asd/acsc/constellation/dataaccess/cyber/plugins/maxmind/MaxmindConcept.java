@@ -21,6 +21,8 @@ import au.gov.asd.tac.constellation.graph.attribute.StringAttributeDescription;
 import au.gov.asd.tac.constellation.graph.schema.analytic.concept.AnalyticConcept;
 import au.gov.asd.tac.constellation.graph.schema.attribute.SchemaAttribute;
 import au.gov.asd.tac.constellation.graph.schema.concept.SchemaConcept;
+import au.gov.asd.tac.constellation.graph.schema.type.SchemaVertexType;
+import au.gov.asd.tac.constellation.utilities.icon.AnalyticIconProvider;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
@@ -36,6 +38,16 @@ public class MaxmindConcept extends SchemaConcept {
         return "Maxmind";
     }
 
+    public static class VertexType {
+
+        private VertexType() {
+        }
+
+        public static final SchemaVertexType AUTONOMOUS_SYSTEM = new SchemaVertexType.Builder("Autonomous System")
+                .setForegroundIcon(AnalyticIconProvider.INTERNET)
+                .build();
+    }
+
     public static class VertexAttribute {
 
         private VertexAttribute() {
@@ -105,6 +117,13 @@ public class MaxmindConcept extends SchemaConcept {
                 .build();
     }
 
+    @Override
+    public List<SchemaVertexType> getSchemaVertexTypes() {
+        final List<SchemaVertexType> schemaVertexTypes = new ArrayList<>();
+        schemaVertexTypes.add(VertexType.AUTONOMOUS_SYSTEM);
+        return schemaVertexTypes;
+    }
+
     @Override
     public Collection<SchemaAttribute> getSchemaAttributes() {
         final List<SchemaAttribute> schemaAttributes = new ArrayList<>();
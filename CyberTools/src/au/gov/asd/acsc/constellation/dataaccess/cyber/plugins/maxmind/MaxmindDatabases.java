@@ -0,0 +1,217 @@
+/*
+ * Copyright 2010-2020 Australian Signals Directorate
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package au.gov.asd.acsc.constellation.dataaccess.cyber.plugins.maxmind;
+
+import au.gov.asd.acsc.constellation.preferences.ACSCPreferenceKeys;
+import com.maxmind.db.CHMCache;
+import com.maxmind.db.Reader;
+import com.maxmind.geoip2.DatabaseReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.prefs.Preferences;
+import org.openide.util.NbPreferences;
+
+/**
+ * Holds one {@link DatabaseReader} for each configured MaxMind database,
+ * shared by every plugin run and thread.
+ * <p>
+ * Readers are memory mapped and use a node cache, so once open a lookup does
+ * no file IO. Each call to {@link #getHandle(Database)} checks the configured
+ * path, and at most every few seconds the file's size and modification time,
+ * and swaps in a new reader if either the preference or the file has changed.
+ * <p>
+ * Handles are counted while in use and must be closed when a run is done with
+ * them. A replaced reader is closed once the last run using it closes its
+ * handle.
+ */
+public final class MaxmindDatabases {
+
+    public enum Database {
+        CITY(ACSCPreferenceKeys.MAXMIND_CITY_DIR, "City"),
+        ANONYMOUS(ACSCPreferenceKeys.MAXMIND_ANONYMOUS_DIR, "Anonymous"),
+        ISP(ACSCPreferenceKeys.MAXMIND_ISP_DIR, "ISP"),
+        DOMAIN(ACSCPreferenceKeys.MAXMIND_DOMAIN_DIR, "Domain"),
+        CONNECTION_TYPE(ACSCPreferenceKeys.MAXMIND_CONNECTION_TYPE_DIR, "Connection Type");
+
+        private final String preference;
+        private final String label;
+
+        private Database(final String preference, final String label) {
+            this.preference = preference;
+            this.label = label;
+        }
+
+        public String getPreference() {
+            return preference;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    /**
+     * An open database, with the search tree used to find the network block
+     * of an address. Close it once when finished with it.
+     */
+    public static final class Handle implements Closeable {
+
+        private final String path;
+        private final long lastModified;
+        private final long length;
+        private final DatabaseReader reader;
+        private final MaxmindNetworks networks;
+
+        // guarded by DATABASES
+        private long checked;
+        private int users = 0;
+        private boolean retired = false;
+
+        Handle(final String path, final File file, final DatabaseReader reader, final MaxmindNetworks networks) {
+            this.path = path;
+            this.lastModified = file.lastModified();
+            this.length = file.length();
+            this.reader = reader;
+            this.networks = networks;
+            this.checked = System.nanoTime();
+        }
+
+        boolean isCurrent(final String path, final File file) {
+            if (!this.path.equals(path)) {
+                return false;
+            }
+            final long now = System.nanoTime();
+            if (now - checked < CHECK_INTERVAL) {
+                return true;
+            }
+            checked = now;
+            return lastModified == file.lastModified() && length == file.length();
+        }
+
+        private void retire() {
+            retired = true;
+            closeIfUnused();
+        }
+
+        private void closeIfUnused() {
+            if (retired && users == 0) {
+                try {
+                    reader.close();
+                } catch (IOException ex) {
+                    LOGGER.log(Level.WARNING, String.format("Unable to close %s", path), ex);
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (DATABASES) {
+                if (users > 0) {
+                    users--;
+                }
+                closeIfUnused();
+            }
+        }
+
+        public DatabaseReader getReader() {
+            return reader;
+        }
+
+        /**
+         * The search tree of the database.
+         *
+         * @return the networks, or null if the search tree could not be read.
+         */
+        MaxmindNetworks getNetworks() {
+            return networks;
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(MaxmindDatabases.class.getName());
+
+    // how long a file is trusted not to have changed before it is checked again
+    private static final long CHECK_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+
+    private static final Map<Database, Handle> DATABASES = new EnumMap<>(Database.class);
+
+    private MaxmindDatabases() {
+    }
+
+    /**
+     * Whether a path has been set for the database.
+     *
+     * @param database the database.
+     * @return true if the database has been configured.
+     */
+    public static boolean isConfigured(final Database database) {
+        final String path = getPath(database);
+        return path != null && !path.isEmpty();
+    }
+
+    /**
+     * The configured database, opening or reloading it if required. The
+     * handle must be closed when the caller is finished with it.
+     *
+     * @param database the database.
+     * @return the database, or null if no path has been set for it.
+     * @throws IOException if the database could not be opened.
+     */
+    public static Handle getHandle(final Database database) throws IOException {
+        final String path = getPath(database);
+        if (path == null || path.isEmpty()) {
+            return null;
+        }
+
+        final File file = new File(path);
+        synchronized (DATABASES) {
+            final Handle open = DATABASES.get(database);
+            if (open != null && open.isCurrent(path, file)) {
+                open.users++;
+                return open;
+            }
+
+            final DatabaseReader reader = new DatabaseReader.Builder(file)
+                    .fileMode(Reader.FileMode.MEMORY_MAPPED)
+                    .withCache(new CHMCache())
+                    .build();
+            MaxmindNetworks networks = null;
+            try {
+                networks = MaxmindNetworks.open(file);
+            } catch (IOException ex) {
+                // lookups still work, they just can't be cached by network
+                LOGGER.log(Level.WARNING, String.format("Unable to read the search tree of %s", path), ex);
+            }
+            final Handle handle = new Handle(path, file, reader, networks);
+            handle.users++;
+            DATABASES.put(database, handle);
+            if (open != null) {
+                open.retire();
+            }
+            return handle;
+        }
+    }
+
+    private static String getPath(final Database database) {
+        final Preferences prefs = NbPreferences.forModule(ACSCPreferenceKeys.class);
+        return prefs.get(database.getPreference(), null);
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2010-2020 Australian Signals Directorate
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package au.gov.asd.acsc.constellation.dataaccess.cyber.plugins.maxmind;
+
+import com.maxmind.db.InvalidDatabaseException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Finds the network block an address belongs to by walking the search tree
+ * of a MaxMind DB file.
+ * <p>
+ * The geoip2 and maxmind-db versions we ship do not report the network a
+ * record was found in, so this reads just enough of the file format to work
+ * it out. The file is memory mapped and only read with absolute gets, so a
+ * single instance can be shared between threads.
+ */
+final class MaxmindNetworks {
+
+    private static final byte[] METADATA_START = {(byte) 0xAB, (byte) 0xCD, (byte) 0xEF,
+        'M', 'a', 'x', 'M', 'i', 'n', 'd', '.', 'c', 'o', 'm'};
+
+    private static final int TYPE_EXTENDED = 0;
+    private static final int TYPE_POINTER = 1;
+    private static final int TYPE_MAP = 7;
+    private static final int TYPE_ARRAY = 11;
+    private static final int TYPE_CONTAINER = 12;
+    private static final int TYPE_END_MARKER = 13;
+    private static final int TYPE_BOOLEAN = 14;
+
+    private final ByteBuffer buffer;
+    private final int nodeCount;
+    private final int recordSize;
+    private final int ipVersion;
+    private final int ipv4Start;
+
+    private MaxmindNetworks(final ByteBuffer buffer, final int nodeCount, final int recordSize, final int ipVersion) throws InvalidDatabaseException {
+        this.buffer = buffer;
+        this.nodeCount = nodeCount;
+        this.recordSize = recordSize;
+        this.ipVersion = ipVersion;
+
+        if (recordSize != 24 && recordSize != 28 && recordSize != 32) {
+            throw new InvalidDatabaseException("Unsupported record size " + recordSize);
+        }
+        if ((long) nodeCount * recordSize / 4 > buffer.capacity()) {
+            throw new InvalidDatabaseException("The search tree is larger than the file");
+        }
+
+        // ipv4 addresses live under ::/96 in an ipv6 database
+        int node = 0;
+        if (ipVersion == 6) {
+            for (int i = 0; i < 96 && node < nodeCount; i++) {
+                node = readNode(node, 0);
+            }
+        }
+        this.ipv4Start = node;
+    }
+
+    /**
+     * Map the search tree of a MaxMind DB file.
+     *
+     * @param file the .mmdb file.
+     * @return the networks of the file.
+     * @throws IOException if the file could not be read or is not a MaxMind
+     * DB file.
+     */
+    static MaxmindNetworks open(final File file) throws IOException {
+        final ByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).asReadOnlyBuffer();
+        }
+
+        final Cursor cursor = new Cursor(findMetadata(buffer));
+        long nodeCount = -1;
+        long recordSize = -1;
+        long ipVersion = -1;
+        final int[] control = readControl(buffer, cursor);
+        if (control[0] != TYPE_MAP) {
+            throw new InvalidDatabaseException("The metadata is not a map");
+        }
+        for (int i = 0; i < control[1]; i++) {
+            final String key = readString(buffer, cursor);
+            switch (key) {
+                case "node_count":
+                    nodeCount = readUnsigned(buffer, cursor);
+                    break;
+                case "record_size":
+                    recordSize = readUnsigned(buffer, cursor);
+                    break;
+                case "ip_version":
+                    ipVersion = readUnsigned(buffer, cursor);
+                    break;
+                default:
+                    skip(buffer, cursor);
+                    break;
+            }
+        }
+        if (nodeCount < 0 || recordSize < 0 || (ipVersion != 4 && ipVersion != 6)) {
+            throw new InvalidDatabaseException("The metadata is missing the search tree description");
+        }
+        return new MaxmindNetworks(buffer, (int) nodeCount, (int) recordSize, (int) ipVersion);
+    }
+
+    /**
+     * The prefix length of the block containing the address.
+     *
+     * @param address the address to look up.
+     * @return the prefix length, relative to the address family, or -1 if the
+     * address is not in the database.
+     * @throws InvalidDatabaseException if the search tree is corrupt.
+     */
+    int getPrefixLength(final InetAddress address) throws InvalidDatabaseException {
+        final byte[] raw = address.getAddress();
+        if (raw.length == 16 && ipVersion == 4) {
+            return -1;
+        }
+
+        final int bitCount = raw.length * 8;
+        int node = raw.length == 4 ? ipv4Start : 0;
+        int depth = 0;
+        while (depth < bitCount && node < nodeCount) {
+            final int bit = 1 & ((0xFF & raw[depth / 8]) >> 7 - (depth % 8));
+            node = readNode(node, bit);
+            depth++;
+        }
+
+        if (node == nodeCount) {
+            return -1;
+        }
+        if (node > nodeCount) {
+            return depth;
+        }
+        throw new InvalidDatabaseException("The search tree is deeper than the address");
+    }
+
+    private int readNode(final int node, final int index) throws InvalidDatabaseException {
+        final int base = node * recordSize / 4;
+        final long value;
+        switch (recordSize) {
+            case 24:
+                value = readBytes(base + index * 3, 3);
+                break;
+            case 28:
+                final int middle = 0xFF & buffer.get(base + 3);
+                if (index == 0) {
+                    value = ((long) (middle & 0xF0) << 20) | readBytes(base, 3);
+                } else {
+                    value = ((long) (middle & 0x0F) << 24) | readBytes(base + 4, 3);
+                }
+                break;
+            default:
+                value = readBytes(base + index * 4, 4);
+                break;
+        }
+        if (value > Integer.MAX_VALUE) {
+            throw new InvalidDatabaseException("The search tree points outside the file");
+        }
+        return (int) value;
+    }
+
+    private long readBytes(final int offset, final int length) {
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            value = (value << 8) | (0xFF & buffer.get(offset + i));
+        }
+        return value;
+    }
+
+    private static final class Cursor {
+
+        private int position;
+
+        Cursor(final int position) {
+            this.position = position;
+        }
+    }
+
+    private static int findMetadata(final ByteBuffer buffer) throws InvalidDatabaseException {
+        // the marker is near the end of the file, the last occurrence wins
+        for (int start = buffer.capacity() - METADATA_START.length; start >= 0; start--) {
+            boolean found = true;
+            for (int i = 0; i < METADATA_START.length; i++) {
+                if (buffer.get(start + i) != METADATA_START[i]) {
+                    found = false;
+                    break;
+                }
+            }
+            if (found) {
+                return start + METADATA_START.length;
+            }
+        }
+        throw new InvalidDatabaseException("Could not find the MaxMind DB metadata");
+    }
+
+    /**
+     * Read a field's control byte.
+     *
+     * @return the type and size of the field.
+     */
+    private static int[] readControl(final ByteBuffer buffer, final Cursor cursor) throws InvalidDatabaseException {
+        final int control = 0xFF & buffer.get(cursor.position++);
+        int type = control >>> 5;
+        if (type == TYPE_EXTENDED) {
+            type = 7 + (0xFF & buffer.get(cursor.position++));
+        }
+        if (type == TYPE_POINTER) {
+            throw new InvalidDatabaseException("Unexpected pointer in the metadata");
+        }
+
+        int size = control & 0x1F;
+        if (size >= 29) {
+            final int length = size - 28;
+            int extra = 0;
+            for (int i = 0; i < length; i++) {
+                extra = (extra << 8) | (0xFF & buffer.get(cursor.position++));
+            }
+            size = size == 29 ? 29 + extra : size == 30 ? 285 + extra : 65821 + extra;
+        }
+        return new int[]{type, size};
+    }
+
+    private static String readString(final ByteBuffer buffer, final Cursor cursor) throws InvalidDatabaseException {
+        final int[] control = readControl(buffer, cursor);
+        final byte[] bytes = new byte[control[1]];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(cursor.position++);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long readUnsigned(final ByteBuffer buffer, final Cursor cursor) throws InvalidDatabaseException {
+        final int[] control = readControl(buffer, cursor);
+        if (control[1] > 8) {
+            throw new InvalidDatabaseException("Unexpected integer size in the metadata");
+        }
+        long value = 0;
+        for (int i = 0; i < control[1]; i++) {
+            value = (value << 8) | (0xFF & buffer.get(cursor.position++));
+        }
+        return value;
+    }
+
+    private static void skip(final ByteBuffer buffer, final Cursor cursor) throws InvalidDatabaseException {
+        final int[] control = readControl(buffer, cursor);
+        switch (control[0]) {
+            case TYPE_MAP:
+                for (int i = 0; i < control[1] * 2; i++) {
+                    skip(buffer, cursor);
+                }
+                break;
+            case TYPE_ARRAY:
+                for (int i = 0; i < control[1]; i++) {
+                    skip(buffer, cursor);
+                }
+                break;
+            case TYPE_BOOLEAN:
+            case TYPE_CONTAINER:
+            case TYPE_END_MARKER:
+                // the value is held in the control byte
+                break;
+            default:
+                cursor.position += control[1];
+                break;
+        }
+    }
+}
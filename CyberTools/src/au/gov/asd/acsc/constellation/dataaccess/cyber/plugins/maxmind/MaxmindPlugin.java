@@ -26,13 +26,18 @@ import au.gov.asd.tac.constellation.plugins.Plugin;
 import au.gov.asd.tac.constellation.plugins.PluginException;
 import au.gov.asd.tac.constellation.plugins.PluginInteraction;
 import au.gov.asd.tac.constellation.plugins.PluginNotificationLevel;
+import au.gov.asd.tac.constellation.plugins.parameters.PluginParameter;
 import au.gov.asd.tac.constellation.plugins.parameters.PluginParameters;
+import au.gov.asd.tac.constellation.plugins.parameters.types.BooleanParameterType;
+import au.gov.asd.tac.constellation.plugins.parameters.types.BooleanParameterType.BooleanParameterValue;
 import au.gov.asd.tac.constellation.security.proxy.ConstellationHttpProxySelector;
 import au.gov.asd.tac.constellation.views.dataaccess.DataAccessPlugin;
 import au.gov.asd.tac.constellation.views.dataaccess.DataAccessPluginCoreType;
 import au.gov.asd.tac.constellation.views.dataaccess.templates.RecordStoreQueryPlugin;
+import com.google.common.collect.Lists;
 import com.maxmind.geoip2.DatabaseReader;
 import com.maxmind.geoip2.WebServiceClient;
+import com.maxmind.geoip2.exception.AddressNotFoundException;
 import com.maxmind.geoip2.exception.AuthenticationException;
 import com.maxmind.geoip2.exception.GeoIp2Exception;
 import com.maxmind.geoip2.model.AnonymousIpResponse;
@@ -46,7 +51,6 @@ import com.maxmind.geoip2.record.Location;
 import com.maxmind.geoip2.record.Postal;
 import com.maxmind.geoip2.record.Subdivision;
 import com.maxmind.geoip2.record.Traits;
-import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.Proxy;
@@ -54,7 +58,14 @@ import java.net.ProxySelector;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 import java.util.prefs.Preferences;
 import org.openide.util.Exceptions;
@@ -74,6 +85,12 @@ public class MaxmindPlugin extends RecordStoreQueryPlugin implements DataAccessP
 
     private static final Logger LOGGER = Logger.getLogger(MaxmindPlugin.class.getName());
 
+    public static final String FORCE_PARAMETER_ID = PluginParameter.buildId(MaxmindPlugin.class, "force");
+
+    // below this many addresses per thread it is not worth splitting the work
+    private static final int MIN_PARTITION_SIZE = 1000;
+    private static final int MAX_REPORTED_ERRORS = 10;
+
     @Override
     public String getType() {
         return DataAccessPluginCoreType.ENRICHMENT;
@@ -92,120 +109,249 @@ public class MaxmindPlugin extends RecordStoreQueryPlugin implements DataAccessP
     @Override
     public PluginParameters createParameters() {
         final PluginParameters params = new PluginParameters();
+
+        final PluginParameter<BooleanParameterValue> force = BooleanParameterType.build(FORCE_PARAMETER_ID);
+        force.setName("Overwrite Existing");
+        force.setDescription("Look up IP addresses that already have a country");
+        force.setBooleanValue(false);
+        params.addParameter(force);
+
         return params;
     }
 
-    private void queryDBs(final RecordStore query, final PluginInteraction interaction, RecordStore results, String city, String anon, String isp, String domain, String connectionType) {
-        query.reset();
-
-        DatabaseReader cityClient = null;
-        DatabaseReader anonClient = null;
-        DatabaseReader ispClient = null;
-        DatabaseReader domainClient = null;
-        DatabaseReader connectionTypeClient = null;
+    private MaxmindDatabases.Handle getDatabase(final MaxmindDatabases.Database database, final PluginInteraction interaction) throws IOException {
         try {
-            File cityDB = new File(city);
-            cityClient = new DatabaseReader.Builder(cityDB).build();
+            return MaxmindDatabases.getHandle(database);
         } catch (IOException ex) {
             ex.printStackTrace();
-            interaction.notify(PluginNotificationLevel.FATAL, "Unable to open the City DB file.");
-            return;
+            interaction.notify(PluginNotificationLevel.FATAL, String.format("Unable to open the %s DB file.", database.getLabel()));
+            throw ex;
         }
-        if (anon != null && !anon.isEmpty()) {
-            try {
-                File db = new File(city);
-                anonClient = new DatabaseReader.Builder(db).build();
-            } catch (IOException ex) {
-                interaction.notify(PluginNotificationLevel.FATAL, "Unable to open the Anonymous DB file.");
-                return;
+    }
+
+    /**
+     * The databases for a single run, any but the City database may be null.
+     */
+    private static class Databases {
+
+        private MaxmindDatabases.Handle city;
+        private MaxmindDatabases.Handle anon;
+        private MaxmindDatabases.Handle isp;
+        private MaxmindDatabases.Handle domain;
+        private MaxmindDatabases.Handle connectionType;
+
+        void close() {
+            for (final MaxmindDatabases.Handle handle : new MaxmindDatabases.Handle[]{city, anon, isp, domain, connectionType}) {
+                if (handle != null) {
+                    handle.close();
+                }
             }
         }
-        if (isp != null && !isp.isEmpty()) {
+    }
+
+    /**
+     * A worker's view of the databases, each answering repeat lookups in the
+     * same network block from its own cache.
+     */
+    private static class CachedDatabases {
+
+        private final CachedDatabase city;
+        private final CachedDatabase anon;
+        private final CachedDatabase isp;
+        private final CachedDatabase domain;
+        private final CachedDatabase connectionType;
+
+        CachedDatabases(final Databases databases) {
+            city = new CachedDatabase(databases.city);
+            anon = databases.anon == null ? null : new CachedDatabase(databases.anon);
+            isp = databases.isp == null ? null : new CachedDatabase(databases.isp);
+            domain = databases.domain == null ? null : new CachedDatabase(databases.domain);
+            connectionType = databases.connectionType == null ? null : new CachedDatabase(databases.connectionType);
+        }
+    }
+
+    private static class Target {
+
+        private final String identifier;
+        private final String type;
+
+        Target(final String identifier, final String type) {
+            this.identifier = identifier;
+            this.type = type;
+        }
+    }
+
+    private static boolean isIP(String type) {
+        return type != null && (type.equals(AnalyticConcept.VertexType.IPV4.toString())
+                || type.equals(AnalyticConcept.VertexType.IPV6.toString())
+                || type.equals(AnalyticConcept.VertexType.IP_ADDRESS.toString()));
+    }
+
+    /**
+     * The selected IP addresses, skipping those that already have a country
+     * unless forced.
+     */
+    private List<Target> getTargets(final RecordStore query, final boolean force) {
+        final List<Target> targets = new ArrayList<>();
+        query.reset();
+        while (query.next()) {
+            String identifier = query.get(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER);
+            String type = query.get(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE);
+            if (!isIP(type)) {
+                continue;
+            }
+            if (!force) {
+                String country = query.get(GraphRecordStoreUtilities.SOURCE + SpatialConcept.VertexAttribute.COUNTRY);
+                if (country != null && !country.isEmpty()) {
+                    continue;
+                }
+            }
+            targets.add(new Target(identifier, type));
+        }
+        return targets;
+    }
+
+    private void queryDBs(final List<Target> targets, final PluginInteraction interaction, RecordStore results) {
+        final Databases databases = new Databases();
+        try {
             try {
-                File db = new File(isp);
-                ispClient = new DatabaseReader.Builder(db).build();
+                databases.city = getDatabase(MaxmindDatabases.Database.CITY, interaction);
+                databases.anon = getDatabase(MaxmindDatabases.Database.ANONYMOUS, interaction);
+                databases.isp = getDatabase(MaxmindDatabases.Database.ISP, interaction);
+                databases.domain = getDatabase(MaxmindDatabases.Database.DOMAIN, interaction);
+                databases.connectionType = getDatabase(MaxmindDatabases.Database.CONNECTION_TYPE, interaction);
             } catch (IOException ex) {
-                interaction.notify(PluginNotificationLevel.FATAL, "Unable to open the ISP DB file.");
                 return;
             }
-        }
-        if (domain != null && !domain.isEmpty()) {
-            try {
 
-                File db = new File(domain);
-                domainClient = new DatabaseReader.Builder(db).build();
-            } catch (IOException ex) {
-                interaction.notify(PluginNotificationLevel.FATAL, "Unable to open the Domain DB file.");
+            if (targets.isEmpty()) {
                 return;
             }
-        }
-        if (connectionType != null && !connectionType.isEmpty()) {
+
+            // the readers are thread safe, so split the addresses across the cores
+            // and merge each partition's records on this thread
+            final int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), targets.size() / MIN_PARTITION_SIZE));
+            final int partitionSize = (targets.size() + threads - 1) / threads;
+            final Queue<String> errors = new ConcurrentLinkedQueue<>();
+            final ExecutorService executor = Executors.newFixedThreadPool(threads);
             try {
+                final List<Future<RecordStore>> futures = new ArrayList<>();
+                for (final List<Target> partition : Lists.partition(targets, partitionSize)) {
+                    futures.add(executor.submit(() -> lookupPartition(partition, databases, errors)));
+                }
 
-                File db = new File(connectionType);
-                connectionTypeClient = new DatabaseReader.Builder(db).build();
-            } catch (IOException ex) {
-                interaction.notify(PluginNotificationLevel.FATAL, "Unable to open the Connection Type DB file.");
+                interaction.setProgress(0, futures.size(), String.format("Geolocating %d IP addresses", targets.size()), true);
+                int done = 0;
+                for (final Future<RecordStore> future : futures) {
+                    results.add(future.get());
+                    interaction.setProgress(++done, futures.size(), String.format("Geolocating %d IP addresses", targets.size()), true);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
                 return;
+            } catch (ExecutionException ex) {
+                Exceptions.printStackTrace(ex);
+                interaction.notify(PluginNotificationLevel.ERROR, String.format("Exception querying the MaxMind DB files: %s", ex.getCause().getMessage()));
+                return;
+            } finally {
+                executor.shutdownNow();
+            }
+
+            if (!errors.isEmpty()) {
+                final List<String> shown = new ArrayList<>();
+                for (final String error : errors) {
+                    if (shown.size() == MAX_REPORTED_ERRORS) {
+                        shown.add("...");
+                        break;
+                    }
+                    shown.add(error);
+                }
+                interaction.notify(PluginNotificationLevel.WARNING, String.format("Unable to look up %d IP addresses:\n%s", errors.size(), String.join("\n", shown)));
             }
+        } finally {
+            // a replaced reader is closed once no run is using it
+            databases.close();
         }
+    }
 
-        while (query.next()) {
+    private RecordStore lookupPartition(final List<Target> partition, final Databases databases, final Queue<String> errors) {
+        final RecordStore results = new GraphRecordStore();
+        final CachedDatabases cached = new CachedDatabases(databases);
+        for (final Target target : partition) {
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
             try {
-                String identifier = query.get(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER);
-                String type = query.get(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE);
-
-                if (type.equals(AnalyticConcept.VertexType.IPV4.toString())
-                        || type.equals(AnalyticConcept.VertexType.IPV6.toString())
-                        || type.equals(AnalyticConcept.VertexType.IP_ADDRESS.toString())) {
-                    InetAddress ipAddress = null;
-                    try {
-                        ipAddress = InetAddress.getByName(identifier);
-                    } catch (UnknownHostException ex) {
-                        // is invalid ip address, just skip.
-                    }
-                    if (ipAddress != null) {
-                        CityResponse cityResponse = cityClient.city(ipAddress);
-                        drawCityResponse(identifier, type, cityResponse, results);
-
-                        if (anonClient != null) {
-                            AnonymousIpResponse anonResponse = anonClient.anonymousIp(ipAddress);
-                            results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.IS_ANONYMOUS, anonResponse.isAnonymous());
-                            results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.IS_ANONYMOUS_VPN, anonResponse.isAnonymousVpn());
-                            results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.IS_HOSTING_PROVIDER, anonResponse.isHostingProvider());
-                            results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.IS_PUBLIC_PROXY, anonResponse.isPublicProxy());
-                            results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.IS_TOR_EXIT_NODE, anonResponse.isTorExitNode());
-                        }
+                lookupDBs(target.identifier, target.type, InetAddress.getByName(target.identifier), cached, results);
+            } catch (UnknownHostException ex) {
+                // is invalid ip address, just skip.
+            } catch (IOException | GeoIp2Exception ex) {
+                errors.add(String.format("%s: %s", target.identifier, ex.getMessage()));
+            }
+        }
+        return results;
+    }
 
-                        if (ispClient != null) {
-                            IspResponse ispResponse = ispClient.isp(ipAddress);
-                            results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.ISP, ispResponse.getIsp());
-                            results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.ORGANISATION, ispResponse.getOrganization());
-                            results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.ASN_ORGANISATION, ispResponse.getAutonomousSystemOrganization());
-                            results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.ASN, ispResponse.getAutonomousSystemNumber().toString());
-                        }
+    /**
+     * Look up a single database, an address it has no entry for does not stop
+     * the others from being looked up.
+     *
+     * @return the response, or null if the database was not loaded or has no
+     * entry for the address, such as a private address.
+     */
+    private static <T> T lookupDB(final CachedDatabase database, final InetAddress ipAddress, final CachedDatabase.Lookup<T> lookup) throws IOException, GeoIp2Exception {
+        if (database == null) {
+            return null;
+        }
+        try {
+            return database.lookup(ipAddress, lookup);
+        } catch (AddressNotFoundException ex) {
+            return null;
+        }
+    }
 
-                        if (domainClient != null) {
-                            DomainResponse domainResponse = domainClient.domain(ipAddress);
-                            results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.DOMAIN, domainResponse.getDomain());
-                        }
+    private void lookupDBs(String identifier, String type, InetAddress ipAddress, CachedDatabases databases, RecordStore results) throws IOException, GeoIp2Exception {
+        CityResponse cityResponse = lookupDB(databases.city, ipAddress, DatabaseReader::city);
+        AnonymousIpResponse anonResponse = lookupDB(databases.anon, ipAddress, DatabaseReader::anonymousIp);
+        IspResponse ispResponse = lookupDB(databases.isp, ipAddress, DatabaseReader::isp);
+        DomainResponse domainResponse = lookupDB(databases.domain, ipAddress, DatabaseReader::domain);
+        ConnectionTypeResponse connectionTypeResponse = lookupDB(databases.connectionType, ipAddress, DatabaseReader::connectionType);
+        if (cityResponse == null && anonResponse == null && ispResponse == null && domainResponse == null && connectionTypeResponse == null) {
+            // not in any database
+            return;
+        }
 
-                        if (connectionTypeClient != null) {
-                            ConnectionTypeResponse connectionTypeResponse = connectionTypeClient.connectionType(ipAddress);
-                            if (connectionTypeResponse.getConnectionType() != null)
-                            {
-                                results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.CONNECTION_TYPE, connectionTypeResponse.getConnectionType().toString());
-                            }
-                        }
-                    }
-                }
-            } catch (IOException ex) {
-                interaction.notify(PluginNotificationLevel.ERROR, String.format("Exception querying the MaxMind API: %s", ex.getMessage()));
-                return;
-            } catch (GeoIp2Exception ex) {
-                interaction.notify(PluginNotificationLevel.ERROR, ex.getMessage());
-                Exceptions.printStackTrace(ex);
-                return;
+        if (cityResponse != null) {
+            drawCityResponse(identifier, type, cityResponse, results);
+        } else {
+            results.add();
+            results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, identifier);
+            results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, type);
+        }
+
+        if (anonResponse != null) {
+            results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.IS_ANONYMOUS, anonResponse.isAnonymous());
+            results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.IS_ANONYMOUS_VPN, anonResponse.isAnonymousVpn());
+            results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.IS_HOSTING_PROVIDER, anonResponse.isHostingProvider());
+            results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.IS_PUBLIC_PROXY, anonResponse.isPublicProxy());
+            results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.IS_TOR_EXIT_NODE, anonResponse.isTorExitNode());
+        }
+
+        if (ispResponse != null) {
+            results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.ISP, ispResponse.getIsp());
+            results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.ORGANISATION, ispResponse.getOrganization());
+            results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.ASN_ORGANISATION, ispResponse.getAutonomousSystemOrganization());
+            results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.ASN, ispResponse.getAutonomousSystemNumber().toString());
+        }
+
+        if (domainResponse != null) {
+            results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.DOMAIN, domainResponse.getDomain());
+        }
+
+        if (connectionTypeResponse != null) {
+            if (connectionTypeResponse.getConnectionType() != null)
+            {
+                results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.CONNECTION_TYPE, connectionTypeResponse.getConnectionType().toString());
             }
         }
     }
@@ -234,60 +380,54 @@ public class MaxmindPlugin extends RecordStoreQueryPlugin implements DataAccessP
         results.set(GraphRecordStoreUtilities.SOURCE + SpatialConcept.VertexAttribute.ACCURACY, location.getAccuracyRadius());
     }
 
-    private void queryAPI(final RecordStore query, final PluginInteraction interaction, RecordStore results, String userId, String apiKey) {
-        query.reset();
+    private void queryAPI(final List<Target> targets, final PluginInteraction interaction, RecordStore results, String userId, String apiKey) {
 
         ProxySelector ps = ConstellationHttpProxySelector.getDefault();
         try {
             List<Proxy> proxies = ps.select(new URI("https://geoip.maxmind.com"));
             for (Proxy proxy : proxies) {
                 try (WebServiceClient client = new WebServiceClient.Builder(Integer.parseInt(userId), apiKey).proxy(proxy).build()) {
-                    while (query.next()) {
-                        String identifier = query.get(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER);
-                        String type = query.get(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE);
-                        if (type.equals(AnalyticConcept.VertexType.IPV4.toString())
-                                || type.equals(AnalyticConcept.VertexType.IPV6.toString())
-                                || type.equals(AnalyticConcept.VertexType.IP_ADDRESS.toString())) {
-
-                            try {
-                                InetAddress ipAddress = InetAddress.getByName(identifier);
-
-                                CityResponse response = client.city(ipAddress);
-                                drawCityResponse(identifier, type, response, results);
-
-                                Traits traits = response.getTraits();
-                                if (traits != null) {
-                                    if (traits.getConnectionType() != null) {
-                                        results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.CONNECTION_TYPE, traits.getConnectionType().toString());
-                                    }
-                                    results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.IS_ANONYMOUS, traits.isAnonymous());
-                                    results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.IS_ANONYMOUS_PROXY, traits.isAnonymousProxy());
-                                    results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.IS_ANONYMOUS_VPN, traits.isAnonymousVpn());
-                                    results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.IS_HOSTING_PROVIDER, traits.isHostingProvider());
-                                    results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.IS_LEGITIMATE_PROXY, traits.isLegitimateProxy());
-                                    results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.IS_PUBLIC_PROXY, traits.isPublicProxy());
-                                    results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.IS_TOR_EXIT_NODE, traits.isTorExitNode());
-
-                                    results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.DOMAIN, traits.getDomain());
-                                    results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.ISP, traits.getIsp());
-                                    results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.ORGANISATION, traits.getOrganization());
-                                    results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.ASN_ORGANISATION, traits.getAutonomousSystemOrganization());
-                                    results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.ASN, traits.getAutonomousSystemNumber().toString());
+                    for (Target target : targets) {
+                        String identifier = target.identifier;
+                        String type = target.type;
+                        try {
+                            InetAddress ipAddress = InetAddress.getByName(identifier);
+
+                            CityResponse response = client.city(ipAddress);
+                            drawCityResponse(identifier, type, response, results);
+
+                            Traits traits = response.getTraits();
+                            if (traits != null) {
+                                if (traits.getConnectionType() != null) {
+                                    results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.CONNECTION_TYPE, traits.getConnectionType().toString());
                                 }
-                            } catch (AuthenticationException ex) {
-                                interaction.notify(PluginNotificationLevel.ERROR, "Failed to authenticate to the MaxMind API, please check your credentials.");
-                                return;
-                            } catch (UnknownHostException ex) {
-                                interaction.notify(PluginNotificationLevel.ERROR, "Unable to contact the MaxMind API, please check your network connectivity and proxy settings.");
-                                return;
-                            } catch (IOException ex) {
-                                interaction.notify(PluginNotificationLevel.ERROR, String.format("Exception querying the MaxMind API: %s", ex.getMessage()));
-                                return;
-                            } catch (GeoIp2Exception ex) {
-                                interaction.notify(PluginNotificationLevel.ERROR, ex.getMessage());
-                                Exceptions.printStackTrace(ex);
-                                return;
+                                results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.IS_ANONYMOUS, traits.isAnonymous());
+                                results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.IS_ANONYMOUS_PROXY, traits.isAnonymousProxy());
+                                results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.IS_ANONYMOUS_VPN, traits.isAnonymousVpn());
+                                results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.IS_HOSTING_PROVIDER, traits.isHostingProvider());
+                                results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.IS_LEGITIMATE_PROXY, traits.isLegitimateProxy());
+                                results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.IS_PUBLIC_PROXY, traits.isPublicProxy());
+                                results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.IS_TOR_EXIT_NODE, traits.isTorExitNode());
+
+                                results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.DOMAIN, traits.getDomain());
+                                results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.ISP, traits.getIsp());
+                                results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.ORGANISATION, traits.getOrganization());
+                                results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.ASN_ORGANISATION, traits.getAutonomousSystemOrganization());
+                                results.set(GraphRecordStoreUtilities.SOURCE + MaxmindConcept.VertexAttribute.ASN, traits.getAutonomousSystemNumber().toString());
                             }
+                        } catch (AuthenticationException ex) {
+                            interaction.notify(PluginNotificationLevel.ERROR, "Failed to authenticate to the MaxMind API, please check your credentials.");
+                            return;
+                        } catch (UnknownHostException ex) {
+                            interaction.notify(PluginNotificationLevel.ERROR, "Unable to contact the MaxMind API, please check your network connectivity and proxy settings.");
+                            return;
+                        } catch (IOException ex) {
+                            interaction.notify(PluginNotificationLevel.ERROR, String.format("Exception querying the MaxMind API: %s", ex.getMessage()));
+                            return;
+                        } catch (GeoIp2Exception ex) {
+                            interaction.notify(PluginNotificationLevel.ERROR, ex.getMessage());
+                            Exceptions.printStackTrace(ex);
+                            return;
                         }
                     }
                 } catch (IOException ex) {
@@ -309,13 +449,9 @@ public class MaxmindPlugin extends RecordStoreQueryPlugin implements DataAccessP
         final Preferences prefs = NbPreferences.forModule(ACSCPreferenceKeys.class);
         final String apiKey = prefs.get(ACSCPreferenceKeys.MAXMIND_LICENCEKEY, null);
         final String userId = prefs.get(ACSCPreferenceKeys.MAXMIND_USERID, null);
-        final String cityDir = prefs.get(ACSCPreferenceKeys.MAXMIND_CITY_DIR, null);
-        final String anonDir = prefs.get(ACSCPreferenceKeys.MAXMIND_ANONYMOUS_DIR, null);
-        final String ispDir = prefs.get(ACSCPreferenceKeys.MAXMIND_ISP_DIR, null);
-        final String domainDir = prefs.get(ACSCPreferenceKeys.MAXMIND_DOMAIN_DIR, null);
-        final String connectionTypeDir = prefs.get(ACSCPreferenceKeys.MAXMIND_CONNECTION_TYPE_DIR, null);
+        final boolean offline = MaxmindDatabases.isConfigured(MaxmindDatabases.Database.CITY);
 
-        if ((apiKey == null || apiKey.isEmpty() || userId == null || userId.isEmpty()) && (cityDir == null || cityDir.isEmpty())) {
+        if ((apiKey == null || apiKey.isEmpty() || userId == null || userId.isEmpty()) && !offline) {
             interaction.notify(PluginNotificationLevel.FATAL, "The User Id and API key/DB locations have not been set.\nPlease update these at Setup > Options > CONSTELLATION > ACSC");
             return results;
         }
@@ -323,10 +459,12 @@ public class MaxmindPlugin extends RecordStoreQueryPlugin implements DataAccessP
         if (query.size() == 0) {
             return results;
         }
-        if (cityDir != null && !cityDir.isEmpty()) {
-            queryDBs(query, interaction, results, cityDir, anonDir, ispDir, domainDir, connectionTypeDir);
+        final boolean force = parameters.getParameters().get(FORCE_PARAMETER_ID).getBooleanValue();
+        final List<Target> targets = getTargets(query, force);
+        if (offline) {
+            queryDBs(targets, interaction, results);
         } else {
-            queryAPI(query, interaction, results, userId, apiKey);
+            queryAPI(targets, interaction, results, userId, apiKey);
         }
 
         return results;
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2010-2020 Australian Signals Directorate
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package au.gov.asd.acsc.constellation.dataaccess.cyber.plugins.maxmind;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Maps IPv4 network blocks to a value. Blocks from a MaxMind search tree
+ * never overlap, so they are kept in a tree keyed by their first address and
+ * the block containing an address is the floor entry.
+ * <p>
+ * Blocks are added as addresses are looked up, in no particular order, so a
+ * tree is used to keep each insert logarithmic rather than shifting a sorted
+ * array.
+ * <p>
+ * Not thread safe, each worker keeps its own.
+ *
+ * @param <V> the value held for each block.
+ */
+final class NetworkCache<V> {
+
+    private static final class Block<V> {
+
+        private final long end;
+        private final V value;
+
+        Block(final long end, final V value) {
+            this.end = end;
+            this.value = value;
+        }
+    }
+
+    private final TreeMap<Long, Block<V>> blocks = new TreeMap<>();
+
+    /**
+     * The value for the block containing the address.
+     *
+     * @param address the address as an unsigned 32 bit value.
+     * @return the value, or null if no block containing the address has been
+     * added.
+     */
+    V get(final long address) {
+        final Map.Entry<Long, Block<V>> entry = blocks.floorEntry(address);
+        if (entry != null && address <= entry.getValue().end) {
+            return entry.getValue().value;
+        }
+        return null;
+    }
+
+    /**
+     * Add the block containing an address.
+     *
+     * @param address any address in the block, as an unsigned 32 bit value.
+     * @param prefixLength the prefix length of the block.
+     * @param value the value for the block.
+     */
+    void put(final long address, final int prefixLength, final V value) {
+        final long mask = prefixLength == 0 ? 0 : (0xFFFFFFFFL << (32 - prefixLength)) & 0xFFFFFFFFL;
+        final long start = address & mask;
+        final long end = start | (~mask & 0xFFFFFFFFL);
+        blocks.put(start, new Block<>(end, value));
+    }
+
+    int size() {
+        return blocks.size();
+    }
+}
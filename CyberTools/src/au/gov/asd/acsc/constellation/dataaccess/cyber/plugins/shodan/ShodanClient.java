@@ -15,99 +15,204 @@
  */
 package au.gov.asd.acsc.constellation.dataaccess.cyber.plugins.shodan;
 
+import au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment.EnrichmentEndpoints;
+import au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment.EnrichmentHttpClients;
+import au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment.RateLimit;
+import au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment.RequestPacer;
 import au.gov.asd.tac.constellation.plugins.PluginInteraction;
 import au.gov.asd.tac.constellation.plugins.PluginNotificationLevel;
-import au.gov.asd.tac.constellation.security.proxy.ConstellationHttpProxySelector;
+import java.io.Closeable;
 import java.io.IOException;
-import java.net.Proxy;
-import java.net.ProxySelector;
-import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.List;
-import org.apache.http.HttpHost;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
-public class ShodanClient 
+public class ShodanClient implements Closeable
 {
+    private static final Logger LOGGER = Logger.getLogger(ShodanClient.class.getName());
+    
     String apiKey = null;
-    String apiBase = "https://api.shodan.io";
+    String apiBase = EnrichmentEndpoints.getBaseUrl("shodan", "https://api.shodan.io");
+    
+    /**
+     * Receives each page of search results as it arrives.
+     */
+    @FunctionalInterface
+    public interface PageConsumer
+    {
+        void accept(JSONArray matches) throws InterruptedException;
+    }
+    
+    // the API allows one request per second
+    private static final RequestPacer PACER = new RequestPacer(new RateLimit(1, 1, TimeUnit.SECONDS));
+    private static final int PAGE_SIZE = 100;
+    private static final int RETRIES = 10;
+    private static final int MAX_CONNECTIONS = 4;
+    
+    private CloseableHttpClient client = null;
+    private final AtomicBoolean failed = new AtomicBoolean(false);
+    
+    /**
+     * Whether the API key was rejected, after which no more requests are
+     * made.
+     */
+    public boolean isFailed()
+    {
+        return failed.get();
+    }
+    
+    /**
+     * A single client shared by every request, pooled so pages can be
+     * fetched ahead.
+     */
+    private synchronized CloseableHttpClient getClient() throws URISyntaxException
+    {
+        if (client == null)
+        {
+            client = EnrichmentHttpClients.builder(apiBase)
+                    .setMaxConnTotal(MAX_CONNECTIONS)
+                    .setMaxConnPerRoute(MAX_CONNECTIONS)
+                    .build();
+        }
+        return client;
+    }
     
-    private JSONObject query(String query, PluginInteraction interaction)
+    /**
+     * Wait for the next request slot, shared by every client.
+     */
+    private static void acquire() throws InterruptedException
+    {
+        PACER.acquire();
+    }
+    
+    /**
+     * Fetch a single page of a search, retrying failed requests.
+     * 
+     * @return the page, or null if the search should be abandoned.
+     */
+    private JSONObject getPage(String query, int page, PluginInteraction interaction) throws InterruptedException
     {
-        int page = 0;
-        JSONObject res = null;
         int retry = 0;
-        while (true && retry < 10)
+        while (retry < RETRIES && !failed.get())
         {
-            page++;
+            acquire();
             JSONObject out = query(query, page, interaction);
+            if (failed.get())
+            {
+                return null;
+            }
             
-            if (out != null)
+            if (out != null && out.has("error"))
             {
-                if (out.has("error"))
+                if (((String)out.get("error")).contains("Insufficient query credits"))
                 {
-                    if (((String)out.get("error")).contains("Insufficient query credits"))
-                    {
-                        interaction.notify(PluginNotificationLevel.FATAL, "Insufficient query credits, please upgrade your API plan or wait for the monthly limit to reset");
-                        return res;
-                    }
-                    else
-                    {
-                        try {
-                            Thread.sleep(5000);
-                        } catch (InterruptedException ex) {
-                            return null;
-                        }
-                    }
+                    interaction.notify(PluginNotificationLevel.FATAL, "Insufficient query credits, please upgrade your API plan or wait for the monthly limit to reset");
+                    return null;
                 }
-                else if (out.has("matches"))
+            }
+            else if (out != null)
+            {
+                return out;
+            }
+            Thread.sleep(5000);
+            retry++;
+        }
+        return null;
+    }
+    
+    /**
+     * Run a search, handing each page of matches to the consumer in order as
+     * soon as it arrives. After the first page the remaining pages are
+     * fetched ahead, up to the given number at a time, so only those pages
+     * are held in memory.
+     * 
+     * @return false if the search failed.
+     */
+    public boolean search(String query, int concurrency, PageConsumer consumer, PluginInteraction interaction) throws InterruptedException
+    {
+        final String url = String.format("%s%s?query=%s", apiBase,"/shodan/host/search", query);
+        JSONObject first = getPage(url, 1, interaction);
+        if (first == null)
+        {
+            return false;
+        }
+        if (!first.has("matches"))
+        {
+            return true;
+        }
+        
+        JSONArray matches = first.getJSONArray("matches");
+        consumer.accept(matches);
+        final int pages = (first.optInt("total", 0) + PAGE_SIZE - 1) / PAGE_SIZE;
+        if (matches.length() < PAGE_SIZE || pages <= 1)
+        {
+            return true;
+        }
+        
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, concurrency));
+        try
+        {
+            final Deque<Future<JSONObject>> window = new ArrayDeque<>();
+            int next = 2;
+            while (next <= pages && window.size() < concurrency)
+            {
+                final int page = next++;
+                window.add(executor.submit(() -> getPage(url, page, interaction)));
+            }
+            while (!window.isEmpty())
+            {
+                JSONObject out;
+                try
                 {
-
-                    JSONArray arr = out.getJSONArray("matches");
-
-                    if (res == null)
-                    {
-                        res = out;
-                    }
-                    else
-                    {    
-                        
-                        for (Object o : arr)
-                        {
-                            res.getJSONArray("matches").put(o);
-                        }
-                    }
-
-                    if (arr.length() < 100 || out.getInt("total") < 100)
-                    {
-                        break;
-                    }
+                    out = window.poll().get();
                 }
-                else
+                catch (ExecutionException ex)
                 {
-                    return out;
+                    LOGGER.log(Level.WARNING, "Failed to fetch a page of Shodan results", ex.getCause());
+                    out = null;
                 }
-            }
-            else
-            {
-                try {
-                    Thread.sleep(5000);
-                } catch (InterruptedException ex) {
-                    return null;
+                if (out == null)
+                {
+                    return false;
+                }
+                if (!out.has("matches"))
+                {
+                    return true;
+                }
+                matches = out.getJSONArray("matches");
+                consumer.accept(matches);
+                if (matches.length() < PAGE_SIZE)
+                {
+                    return true;
+                }
+                if (next <= pages)
+                {
+                    final int page = next++;
+                    window.add(executor.submit(() -> getPage(url, page, interaction)));
                 }
-                retry++;
             }
-               
         }
-        return res;
-        
+        finally
+        {
+            executor.shutdownNow();
+        }
+        return true;
     }
     
     private JSONObject query(String query, Integer page, PluginInteraction interaction)
@@ -127,66 +232,36 @@ public class ShodanClient
             c += String.format("&page=%s", page);
         }
         
-        try {
-            ProxySelector sel = ConstellationHttpProxySelector.getDefault();
-            List<Proxy> proxies = sel.select(new URI(query));
-            for (Proxy proxy : proxies) {
-                HttpClientBuilder clientBuilder = HttpClients.custom();
-                if (proxy.type() != Proxy.Type.DIRECT) {
-                    String h = proxy.address().toString();
-                    String addr = null;
-                    Integer port = null;
-                    if (h.contains(":")) {
-                        addr = h.split(":")[0];
-                        addr = addr.split("/")[0];
-                        port = Integer.parseInt(h.split(":")[1]);
-                    } else {
-                        addr = h;
-                    }
-                    if (port != null) {
-                        clientBuilder.setProxy(new HttpHost(addr, port));
-                    } else {
-                        clientBuilder.setProxy(new HttpHost(addr));
-                    }
-                }
-                CloseableHttpClient client = clientBuilder.build();
-                HttpGet get = new HttpGet(query + c);
-                CloseableHttpResponse resp;
-                try {
-                    resp = client.execute(get);
-                } catch (IOException ex) {
-                    if (interaction != null) {
-                        interaction.notify(PluginNotificationLevel.FATAL, "Failed to query the Shodan web service " + ex.getMessage());
-                    }
-                    return null;
-                }
-
-                try {
-                    if (resp.getStatusLine().getStatusCode() == 200) {
-                        String answer = EntityUtils.toString(resp.getEntity());
-                        result = new JSONObject(answer);
-                    }
-                    else if (resp.getStatusLine().getStatusCode() == 401) { // unauthorised
-                        String answer = EntityUtils.toString(resp.getEntity());
-                        result = new JSONObject(answer);
-                    }
-                    else {
-                        return null;
-                    }
-                } catch (IOException ex) {
-                    if (interaction != null) {
-                        interaction.notify(PluginNotificationLevel.FATAL, "Could not read from the Shodan web service.");
-                    }
-                    return null;
-                } catch (org.apache.http.ParseException ex) {
-                    ex.printStackTrace();
-                    return null;
+        final HttpGet get = new HttpGet(query + c);
+        try (CloseableHttpResponse resp = getClient().execute(get)) {
+            final int code = resp.getStatusLine().getStatusCode();
+            if (code == 200) {
+                String answer = EntityUtils.toString(resp.getEntity());
+                result = new JSONObject(answer);
+            }
+            else if (code == 401 || code == 403) {
+                // the key can't be used, so stop every request
+                EntityUtils.consumeQuietly(resp.getEntity());
+                if (failed.compareAndSet(false, true) && interaction != null) {
+                    interaction.notify(PluginNotificationLevel.FATAL, "Unauthorised, please check the Shodan API key.");
                 }
-                break;
+                return null;
+            }
+            else {
+                EntityUtils.consumeQuietly(resp.getEntity());
+                return null;
             }
-
         } catch (URISyntaxException ex) {
-            ex.printStackTrace();
+            LOGGER.log(Level.SEVERE, "Invalid Shodan url", ex);
+            return null;
+        } catch (IOException ex) {
+            if (interaction != null) {
+                interaction.notify(PluginNotificationLevel.FATAL, "Failed to query the Shodan web service " + ex.getMessage());
+            }
+            return null;
+        } catch (org.apache.http.ParseException | org.json.JSONException ex) {
+            LOGGER.log(Level.WARNING, "Could not parse the Shodan web service response", ex);
+            return null;
         }
         return result;
     }
@@ -196,15 +271,105 @@ public class ShodanClient
         this.apiKey = apiKey;
     }
     
-    public JSONObject search(String query, PluginInteraction interaction)
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if (client != null)
+        {
+            client.close();
+            client = null;
+        }
+    }
+    
+    /**
+     * Look up each address with /shodan/host/{ip}, which does not use query
+     * credits. Up to the given number of lookups are made at a time and each
+     * response is handed to the consumer in order as soon as it arrives.
+     * Addresses Shodan has no information for are skipped.
+     * 
+     * @return false if the lookups were interrupted or the API key was
+     * rejected.
+     */
+    public boolean hosts(Collection<String> ips, int concurrency, PageConsumer consumer, PluginInteraction interaction) throws InterruptedException
+    {
+        final Iterator<String> remaining = ips.iterator();
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, concurrency));
+        try
+        {
+            final Deque<Future<JSONObject>> window = new ArrayDeque<>();
+            while (remaining.hasNext() && window.size() < concurrency)
+            {
+                final String ip = remaining.next();
+                window.add(executor.submit(() -> host(ip, interaction)));
+            }
+            while (!window.isEmpty())
+            {
+                if (failed.get())
+                {
+                    // already reported when the key was rejected
+                    return false;
+                }
+                JSONObject out = null;
+                try
+                {
+                    out = window.poll().get();
+                }
+                catch (ExecutionException ex)
+                {
+                    LOGGER.log(Level.WARNING, "Failed to look up a host on Shodan", ex.getCause());
+                }
+                if (out != null && out.has("data"))
+                {
+                    final JSONArray banners = out.getJSONArray("data");
+                    for (Object o : banners)
+                    {
+                        final JSONObject banner = (JSONObject) o;
+                        if (!banner.has("ip_str") && out.has("ip_str"))
+                        {
+                            banner.put("ip_str", out.get("ip_str"));
+                        }
+                    }
+                    consumer.accept(banners);
+                }
+                if (remaining.hasNext())
+                {
+                    final String ip = remaining.next();
+                    window.add(executor.submit(() -> host(ip, interaction)));
+                }
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        return !Thread.currentThread().isInterrupted();
+    }
+    
+    private JSONObject host(String ip, PluginInteraction interaction) throws InterruptedException
     {
-        return query(String.format("%s%s?query=%s", apiBase,"/shodan/host/search", query), interaction);
+        if (failed.get())
+        {
+            return null;
+        }
+        acquire();
+        final JSONObject out = query(String.format("%s/shodan/host/%s", apiBase, ip), null, interaction);
+        if (out == null || out.has("error"))
+        {
+            return null;
+        }
+        return out;
     }
     
     public Integer searchCount(String query, PluginInteraction interaction)
     {
         Integer o = null;
         
+        try {
+            acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
         JSONObject countObj = query(String.format("%s%s?query=%s", apiBase,"/shodan/host/count", query), null, interaction);
         if (countObj != null)
         {
@@ -38,12 +38,18 @@ import au.gov.asd.tac.constellation.utilities.temporal.TemporalFormatting;
 import au.gov.asd.tac.constellation.views.dataaccess.DataAccessPlugin;
 import au.gov.asd.tac.constellation.views.dataaccess.DataAccessPluginCoreType;
 import au.gov.asd.tac.constellation.views.dataaccess.templates.RecordStoreQueryPlugin;
+import com.google.common.collect.Lists;
 import com.google.common.net.UrlEscapers;
+import java.io.IOException;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.prefs.Preferences;
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -60,6 +66,8 @@ import org.openide.util.lookup.ServiceProviders;
 @Messages("ShodanPlugin=Shodan")
 public class ShodanPlugin extends RecordStoreQueryPlugin implements DataAccessPlugin {
 
+    private static final Logger LOGGER = Logger.getLogger(ShodanPlugin.class.getName());
+
     @Override
     public String getType() {
         return DataAccessPluginCoreType.ENRICHMENT;
@@ -77,6 +85,13 @@ public class ShodanPlugin extends RecordStoreQueryPlugin implements DataAccessPl
     
     public static final String ADHOC_PARAMETER = PluginParameter.buildId(ShodanPlugin.class, "adhoc");
     public static final String SHOW_TAGS_PARAMETER = PluginParameter.buildId(ShodanPlugin.class, "showTags");
+    public static final String SKIP_COUNT_PARAMETER = PluginParameter.buildId(ShodanPlugin.class, "skipCount");
+    public static final String BATCH_PARAMETER = PluginParameter.buildId(ShodanPlugin.class, "batch");
+    
+    // pages fetched ahead of the one being drawn
+    private static final int SEARCH_CONCURRENCY = 3;
+    // values packed into a single filter when batching the selection
+    private static final int FILTER_BATCH_SIZE = 50;
 
     @Override
     public PluginParameters createParameters() {
@@ -90,6 +105,18 @@ public class ShodanPlugin extends RecordStoreQueryPlugin implements DataAccessPl
         showTags.setBooleanValue(false);
         params.addParameter(showTags);
         
+        final PluginParameter<BooleanParameterType.BooleanParameterValue> skipCount = BooleanParameterType.build(SKIP_COUNT_PARAMETER);
+        skipCount.setName("Skip Count");
+        skipCount.setDescription("Search without first checking the number of results, this may use query credits on searches with no results");
+        skipCount.setBooleanValue(false);
+        params.addParameter(skipCount);
+        
+        final PluginParameter<BooleanParameterType.BooleanParameterValue> batch = BooleanParameterType.build(BATCH_PARAMETER);
+        batch.setName("Batch Selection");
+        batch.setDescription("Look up selected IP addresses directly and combine selected host names and certificate serials into shared searches");
+        batch.setBooleanValue(false);
+        params.addParameter(batch);
+        
         return params;
     }
     
@@ -601,28 +628,104 @@ public class ShodanPlugin extends RecordStoreQueryPlugin implements DataAccessPl
        }
     }
     
-    private boolean runQuery(String query, boolean showTags, ShodanClient client, RecordStore results, PluginInteraction interaction)
+    private boolean runQuery(String query, boolean showTags, boolean skipCount, ShodanClient client, RecordStore results, PluginInteraction interaction)
     {
-        Integer resultCount = client.searchCount(query, interaction);
-
-        if (resultCount != null && resultCount > 0 )
+        if (!skipCount)
         {
-            JSONObject res = client.search(query, interaction);
-            if (res != null)
+            Integer resultCount = client.searchCount(query, interaction);
+            if (resultCount == null || resultCount <= 0)
             {
-                JSONArray matches = res.getJSONArray("matches");
+                return !client.isFailed();
+            }
+        }
+
+        try
+        {
+            return client.search(query, SEARCH_CONCURRENCY, matches -> {
                 for (Object o : matches)
                 {
                     JSONObject p = (JSONObject)o;
                     drawResults(p, showTags, results);
-                } 
+                }
+            }, interaction);
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Query the whole selection at once. IP addresses of any type are looked
+     * up in parallel with the host endpoint, while host names and certificate
+     * serials are packed into comma separated filters. Each match carries its
+     * own address and host names, so it is drawn against the vertices it
+     * belongs to.
+     */
+    private void runBatch(RecordStore query, boolean showTags, boolean skipCount, ShodanClient client, RecordStore results, PluginInteraction interaction)
+    {
+        final Set<String> ips = new LinkedHashSet<>();
+        final Set<String> hostnames = new LinkedHashSet<>();
+        final Set<String> serials = new LinkedHashSet<>();
+        
+        query.reset();
+        while (query.next()) {
+            String identifier = query.get(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER);
+            String type = query.get(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE);
+            if (identifier == null || type == null)
+            {
+                continue;
             }
-            else
+            
+            if (type.equals(AnalyticConcept.VertexType.IPV4.toString())
+                    || type.equals(AnalyticConcept.VertexType.IPV6.toString())
+                    || type.equals(AnalyticConcept.VertexType.IP_ADDRESS.toString())) 
             {
-                return false;
+                ips.add(identifier);
+            }
+            else if (type.equals(AnalyticConcept.VertexType.HOST_NAME.toString())) 
+            {
+                hostnames.add(identifier);
+            }
+            else if (type.equals(CyberConcept.VertexType.CERTIFICATE.toString())) 
+            {
+                serials.add(identifier);
+            }
+        }
+        
+        try
+        {
+            if (!ips.isEmpty() && !client.hosts(ips, SEARCH_CONCURRENCY, banners -> {
+                for (Object o : banners)
+                {
+                    drawResults((JSONObject)o, showTags, results);
+                }
+            }, interaction))
+            {
+                return;
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        
+        for (List<String> values : Lists.partition(new ArrayList<>(hostnames), FILTER_BATCH_SIZE))
+        {
+            if (!runQuery(String.format("hostname:%s", String.join(",", values)), showTags, skipCount, client, results, interaction))
+            {
+                return;
+            }
+        }
+        for (List<String> values : Lists.partition(new ArrayList<>(serials), FILTER_BATCH_SIZE))
+        {
+            if (!runQuery(String.format("ssl.cert.serial:%s", String.join(",", values)), showTags, skipCount, client, results, interaction))
+            {
+                return;
             }
         }
-        return true;
     }
 
     @Override
@@ -642,51 +745,61 @@ public class ShodanPlugin extends RecordStoreQueryPlugin implements DataAccessPl
         }
         
         
-        ShodanClient client = new ShodanClient(APIKey);
-        
-        
-        final Map<String, PluginParameter<?>> params = parameters.getParameters();
-        String q = params.get(ADHOC_PARAMETER).getStringValue();
-        boolean showTags = params.get(SHOW_TAGS_PARAMETER).getBooleanValue();
-        
-        if (q != null && !q.isEmpty())
-        {
-            runQuery(UrlEscapers.urlFormParameterEscaper().escape(q), showTags, client, results, interaction);
-        }
-        else
+        try (ShodanClient client = new ShodanClient(APIKey))
         {
-            if (query.size() == 0) {
-                return results;
+            final Map<String, PluginParameter<?>> params = parameters.getParameters();
+            String q = params.get(ADHOC_PARAMETER).getStringValue();
+            boolean showTags = params.get(SHOW_TAGS_PARAMETER).getBooleanValue();
+            boolean skipCount = params.get(SKIP_COUNT_PARAMETER).getBooleanValue();
+            boolean batch = params.get(BATCH_PARAMETER).getBooleanValue();
+        
+            if (q != null && !q.isEmpty())
+            {
+                runQuery(UrlEscapers.urlFormParameterEscaper().escape(q), showTags, skipCount, client, results, interaction);
+            }
+            else if (batch)
+            {
+                runBatch(query, showTags, skipCount, client, results, interaction);
             }
+            else
+            {
+                if (query.size() == 0) {
+                    return results;
+                }
 
-            query.reset();
-            while (query.next()) {
-                String identifier = query.get(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER);
-                String type = query.get(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE);
+                query.reset();
+                while (query.next()) {
+                    String identifier = query.get(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER);
+                    String type = query.get(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE);
                 
-                String search = null;
-                if (type.equals(AnalyticConcept.VertexType.IPV4.toString())) 
-                {
-                     search = String.format("ip:%s",identifier);
-                }
-                else if (type.equals(AnalyticConcept.VertexType.HOST_NAME.toString())) 
-                {
-                    search = String.format("hostname:%s",identifier);
-                }
-                else if (type.equals(CyberConcept.VertexType.CERTIFICATE.toString())) 
-                {
-                    search = String.format("ssl.cert.serial:%s",identifier);
-                }
+                    String search = null;
+                    if (type.equals(AnalyticConcept.VertexType.IPV4.toString())) 
+                    {
+                         search = String.format("ip:%s",identifier);
+                    }
+                    else if (type.equals(AnalyticConcept.VertexType.HOST_NAME.toString())) 
+                    {
+                        search = String.format("hostname:%s",identifier);
+                    }
+                    else if (type.equals(CyberConcept.VertexType.CERTIFICATE.toString())) 
+                    {
+                        search = String.format("ssl.cert.serial:%s",identifier);
+                    }
                 
-                if (search != null)
-                {
-                    if (!runQuery(search, showTags, client, results, interaction))
+                    if (search != null)
                     {
-                        break;
+                        if (!runQuery(search, showTags, skipCount, client, results, interaction))
+                        {
+                            break;
+                        }
                     }
                 }
             }
         }
+        catch (IOException ex)
+        {
+            LOGGER.log(Level.WARNING, "Failed to close the Shodan client", ex);
+        }
 
         return results;
     }
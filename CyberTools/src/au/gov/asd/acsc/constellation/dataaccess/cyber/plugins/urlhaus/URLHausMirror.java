@@ -0,0 +1,350 @@
+/*
+ * Copyright 2010-2020 Australian Signals Directorate
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package au.gov.asd.acsc.constellation.dataaccess.cyber.plugins.urlhaus;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * A read only, memory mapped index of the URLhaus URL and payload dumps.
+ * <p>
+ * The file holds each dump row once, followed by one sorted key table per
+ * {@link Section}. A lookup is a binary search of the key table followed by
+ * reading the rows it points to, so nothing is parsed up front and the file
+ * is only paged in as it is used. Only absolute reads are made on the mapped
+ * buffer, so an instance can be shared between threads.
+ * <p>
+ * The layout is written by {@link URLHausMirrorBuilder}:
+ * <pre>
+ * header   int magic, int version, long generated, int end of the rows,
+ *          int row count, then an int offset and int count for each section
+ * rows     byte field count, then each field as an unsigned short length
+ *          and UTF-8 bytes
+ * sections the entries, each a key, an int row count and the offsets of
+ *          its rows, followed by the offsets of the entries in key order
+ * </pre>
+ * Offsets are ints, so a mirror is limited to 2GB.
+ * <p>
+ * A mapped file can't be replaced on Windows until the mapping is garbage
+ * collected, so each refresh writes a new generation of the mirror next to
+ * the mirror file, and the mirror file itself only holds the name of the
+ * current generation.
+ */
+public final class URLHausMirror {
+
+    static final int MAGIC = 0x55484958; // UHIX
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 24 + Section.values().length * 8;
+
+    /* the mirror file names a generation, it is never this large */
+    private static final int MAX_POINTER_LENGTH = 1024;
+
+    /**
+     * The keys rows can be looked up by.
+     */
+    public enum Section {
+        /**
+         * URL rows by host name or IP address.
+         */
+        HOST,
+        /**
+         * Payload rows by md5.
+         */
+        MD5,
+        /**
+         * Payload rows by sha256.
+         */
+        SHA256,
+        /**
+         * Payload rows by malware signature.
+         */
+        SIGNATURE
+    }
+
+    // the fields of a url row
+    public static final int URL_ID = 0;
+    public static final int URL_DATE_ADDED = 1;
+    public static final int URL_URL = 2;
+    public static final int URL_STATUS = 3;
+    public static final int URL_LAST_ONLINE = 4;
+    public static final int URL_THREAT = 5;
+    public static final int URL_TAGS = 6;
+    static final int URL_FIELDS = 7;
+
+    // the fields of a payload row
+    public static final int PAYLOAD_FIRST_SEEN = 0;
+    public static final int PAYLOAD_URL = 1;
+    public static final int PAYLOAD_FILE_TYPE = 2;
+    public static final int PAYLOAD_MD5 = 3;
+    public static final int PAYLOAD_SHA256 = 4;
+    public static final int PAYLOAD_SIGNATURE = 5;
+    static final int PAYLOAD_FIELDS = 6;
+
+    private static final Object LOCK = new Object();
+    private static URLHausMirror open = null;
+
+    private final File file;
+    private final long lastModified;
+    private final long length;
+    private final ByteBuffer buffer;
+    private final long generated;
+    private final int rowsEnd;
+    private final int rowCount;
+    private final int[] sectionOffsets = new int[Section.values().length];
+    private final int[] sectionCounts = new int[Section.values().length];
+
+    private URLHausMirror(final File file) throws IOException {
+        this.file = file;
+        this.lastModified = file.lastModified();
+        this.length = file.length();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException(String.format("The URLhaus mirror %s is too large to map", file));
+        }
+        try (final RandomAccessFile raf = new RandomAccessFile(file, "r"); final FileChannel channel = raf.getChannel()) {
+            // checked before mapping, so a file that is not used is never
+            // mapped and can still be replaced
+            if (length < HEADER_SIZE || raf.readInt() != MAGIC) {
+                throw new IOException(String.format("%s is not a URLhaus mirror", file));
+            }
+            if (raf.readInt() != VERSION) {
+                throw new IOException(String.format("The URLhaus mirror %s was written by a different version, please refresh it", file));
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        }
+        generated = buffer.getLong(8);
+        rowsEnd = buffer.getInt(16);
+        rowCount = buffer.getInt(20);
+        for (final Section section : Section.values()) {
+            final int at = 24 + section.ordinal() * 8;
+            sectionOffsets[section.ordinal()] = buffer.getInt(at);
+            sectionCounts[section.ordinal()] = buffer.getInt(at + 4);
+        }
+    }
+
+    /**
+     * Where the mirror is kept, the acsc.urlhaus.mirror system property can
+     * point it somewhere else, for example a shared drive.
+     *
+     * @return the mirror file.
+     */
+    public static File getDefaultFile() {
+        final String path = System.getProperty("acsc.urlhaus.mirror");
+        if (path != null && !path.isEmpty()) {
+            return new File(path);
+        }
+        final String home = System.getProperty("netbeans.user", System.getProperty("user.home"));
+        return new File(new File(home, "urlhaus"), "urlhaus.idx");
+    }
+
+    /**
+     * The mirror at the default location, opening or reloading it if the
+     * file has changed.
+     *
+     * @return the mirror, or null if it has not been built.
+     * @throws IOException if the mirror could not be read.
+     */
+    public static URLHausMirror get() throws IOException {
+        final File file = getDefaultFile();
+        if (!file.isFile()) {
+            return null;
+        }
+        synchronized (LOCK) {
+            final File generation = resolve(file);
+            if (open == null || !open.isCurrent(generation)) {
+                // a replaced mirror is released when it is garbage collected,
+                // its file is deleted by a later refresh
+                open = new URLHausMirror(generation);
+            }
+            return open;
+        }
+    }
+
+    /**
+     * The generation a mirror file names.
+     *
+     * @param file the mirror file.
+     * @return the generation, or the file itself if it is a mirror rather
+     * than the name of one.
+     * @throws IOException if the file could not be read.
+     */
+    static File resolve(final File file) throws IOException {
+        final String name;
+        try (final RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.length() >= 4 && raf.readInt() == MAGIC) {
+                return file;
+            }
+            if (raf.length() > MAX_POINTER_LENGTH) {
+                throw new IOException(String.format("%s is not a URLhaus mirror", file));
+            }
+            final byte[] bytes = new byte[(int) raf.length()];
+            raf.seek(0);
+            raf.readFully(bytes);
+            name = new String(bytes, StandardCharsets.UTF_8).trim();
+        }
+        // generations are always next to the mirror file
+        if (name.isEmpty() || name.indexOf('/') >= 0 || name.indexOf('\\') >= 0) {
+            throw new IOException(String.format("%s is not a URLhaus mirror", file));
+        }
+        return new File(file.getAbsoluteFile().getParentFile(), name);
+    }
+
+    /**
+     * Open a mirror file directly, without sharing it.
+     *
+     * @param file the mirror file.
+     * @return the mirror.
+     * @throws IOException if the file is not a mirror.
+     */
+    static URLHausMirror open(final File file) throws IOException {
+        return new URLHausMirror(file);
+    }
+
+    private boolean isCurrent(final File file) {
+        return this.file.equals(file) && lastModified == file.lastModified() && length == file.length();
+    }
+
+    /**
+     * When the newest dump in the mirror was imported.
+     *
+     * @return milliseconds since the epoch.
+     */
+    public long getGenerated() {
+        return generated;
+    }
+
+    /**
+     * The number of distinct keys in a section.
+     *
+     * @param section the section.
+     * @return the key count.
+     */
+    public int size(final Section section) {
+        return sectionCounts[section.ordinal()];
+    }
+
+    /**
+     * The rows for a key.
+     *
+     * @param section the section to search.
+     * @param key the host, hash or signature, case is ignored.
+     * @return the rows, empty if there are none.
+     */
+    public List<String[]> lookup(final Section section, final String key) {
+        final byte[] target = normalise(key).getBytes(StandardCharsets.UTF_8);
+        final int table = sectionOffsets[section.ordinal()];
+        int low = 0;
+        int high = sectionCounts[section.ordinal()] - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int entry = buffer.getInt(table + mid * 4);
+            final int cmp = compareKey(entry, target);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return readRows(entry + 2 + target.length);
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * The number of rows in the mirror.
+     *
+     * @return the row count.
+     */
+    int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Visit every row once, in the order they were written, whether or not
+     * any section has a key for it.
+     *
+     * @param consumer receives the rows.
+     */
+    void forEachRow(final Consumer<String[]> consumer) {
+        int at = HEADER_SIZE;
+        while (at < rowsEnd) {
+            consumer.accept(readRow(at));
+            at = skipRow(at);
+        }
+    }
+
+    static String normalise(final String key) {
+        return key.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private int compareKey(final int entry, final byte[] target) {
+        final int keyLength = Short.toUnsignedInt(buffer.getShort(entry));
+        final int n = Math.min(keyLength, target.length);
+        for (int i = 0; i < n; i++) {
+            final int cmp = Integer.compare(Byte.toUnsignedInt(buffer.get(entry + 2 + i)), Byte.toUnsignedInt(target[i]));
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(keyLength, target.length);
+    }
+
+    private List<String[]> readRows(final int at) {
+        final int count = buffer.getInt(at);
+        final List<String[]> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            rows.add(readRow(buffer.getInt(at + 4 + i * 4)));
+        }
+        return rows;
+    }
+
+    private String[] readRow(int at) {
+        final String[] row = new String[Byte.toUnsignedInt(buffer.get(at++))];
+        for (int i = 0; i < row.length; i++) {
+            final int fieldLength = Short.toUnsignedInt(buffer.getShort(at));
+            at += 2;
+            final byte[] bytes = new byte[fieldLength];
+            final ByteBuffer view = buffer.duplicate();
+            view.position(at);
+            view.get(bytes);
+            at += fieldLength;
+            row[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return row;
+    }
+
+    private int skipRow(int at) {
+        final int fieldCount = Byte.toUnsignedInt(buffer.get(at++));
+        for (int i = 0; i < fieldCount; i++) {
+            at += 2 + Short.toUnsignedInt(buffer.getShort(at));
+        }
+        return at;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("URLHausMirror[%s, %s]", file, Arrays.toString(sectionCounts));
+    }
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright 2010-2020 Australian Signals Directorate
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package au.gov.asd.acsc.constellation.dataaccess.cyber.plugins.urlhaus;
+
+import au.gov.asd.acsc.constellation.dataaccess.cyber.plugins.urlhaus.URLHausMirror.Section;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Merges URLhaus dumps into a {@link URLHausMirror} file.
+ * <p>
+ * Both the URL dump (id, dateadded, url, url_status, last_online, threat,
+ * tags, ...) and the payload dump (firstseen, url, file_type, md5, sha256,
+ * signature) are read, as plain CSV or zipped, and told apart by their
+ * number of columns. URL rows are keyed by their id and payload rows by
+ * their sha256 and url, so importing a recent dump over an existing mirror
+ * replaces the rows it repeats and adds the rest.
+ */
+final class URLHausMirrorBuilder {
+
+    private static final int MAX_FIELD_LENGTH = 0xFFFF;
+
+    private final Map<String, String[]> urls = new LinkedHashMap<>();
+    private final Map<String, String[]> payloads = new LinkedHashMap<>();
+
+    /**
+     * Start from the rows of an existing mirror.
+     *
+     * @param mirror the mirror.
+     */
+    void load(final URLHausMirror mirror) {
+        // every row, including those without a host or hash to key them by
+        mirror.forEachRow(row -> {
+            if (row.length == URLHausMirror.URL_FIELDS) {
+                urls.put(row[URLHausMirror.URL_ID], row);
+            } else if (row.length == URLHausMirror.PAYLOAD_FIELDS) {
+                payloads.put(payloadKey(row), row);
+            }
+        });
+    }
+
+    int getUrlCount() {
+        return urls.size();
+    }
+
+    int getPayloadCount() {
+        return payloads.size();
+    }
+
+    /**
+     * Import a URL or payload dump.
+     *
+     * @param file the dump, as CSV or a zip of CSV files.
+     * @return the number of rows read.
+     * @throws IOException if the file could not be read.
+     */
+    int importDump(final File file) throws IOException {
+        try (final InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            in.mark(4);
+            final boolean zipped = in.read() == 'P' && in.read() == 'K';
+            in.reset();
+            if (!zipped) {
+                return importCsv(in);
+            }
+
+            int count = 0;
+            final ZipInputStream zip = new ZipInputStream(in);
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (!entry.isDirectory()) {
+                    count += importCsv(zip);
+                }
+            }
+            return count;
+        }
+    }
+
+    private int importCsv(final InputStream in) throws IOException {
+        int count = 0;
+        // not closed, the stream may be a zip entry
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            final List<String> fields = parseCsvLine(line);
+            if (fields.size() >= 8 && isNumber(fields.get(0))) {
+                final String[] row = fields.subList(0, URLHausMirror.URL_FIELDS).toArray(new String[0]);
+                urls.put(row[URLHausMirror.URL_ID], row);
+                count++;
+            } else if (fields.size() == URLHausMirror.PAYLOAD_FIELDS) {
+                final String[] row = fields.toArray(new String[0]);
+                payloads.put(payloadKey(row), row);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static String payloadKey(final String[] row) {
+        return URLHausMirror.normalise(row[URLHausMirror.PAYLOAD_SHA256]) + " " + row[URLHausMirror.PAYLOAD_URL];
+    }
+
+    private static boolean isNumber(final String value) {
+        if (value.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (!Character.isDigit(value.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Split a CSV line, allowing quoted fields with doubled quotes.
+     */
+    static List<String> parseCsvLine(final String line) {
+        final List<String> fields = new ArrayList<>();
+        final StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString().trim());
+        return fields;
+    }
+
+    /**
+     * The host of a url, without user info or port.
+     *
+     * @param url the url.
+     * @return the lower case host, or null if there isn't one.
+     */
+    static String getHost(final String url) {
+        int start = url.indexOf("://");
+        start = start < 0 ? 0 : start + 3;
+        int end = start;
+        while (end < url.length() && "/?#".indexOf(url.charAt(end)) < 0) {
+            end++;
+        }
+        String host = url.substring(start, end);
+        final int at = host.lastIndexOf('@');
+        if (at >= 0) {
+            host = host.substring(at + 1);
+        }
+        if (host.startsWith("[")) {
+            final int close = host.indexOf(']');
+            host = close > 0 ? host.substring(1, close) : host.substring(1);
+        } else {
+            final int colon = host.indexOf(':');
+            if (colon >= 0) {
+                host = host.substring(0, colon);
+            }
+        }
+        host = URLHausMirror.normalise(host);
+        return host.isEmpty() ? null : host;
+    }
+
+    /**
+     * Write the mirror as a new generation next to the mirror file, then
+     * point the mirror file at it. The generation being read is never
+     * written over, so readers never see a partial file and a mapped file
+     * never has to be replaced.
+     *
+     * @param target the mirror file.
+     * @throws IOException if the mirror could not be written.
+     */
+    void write(final File target) throws IOException {
+        final File dir = target.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException(String.format("Unable to create %s", dir));
+        }
+        long generated = System.currentTimeMillis();
+        File generation;
+        while ((generation = new File(dir, String.format("%s.%d", target.getName(), generated))).exists()) {
+            generated++;
+        }
+        writeGeneration(generation, generated);
+
+        final File pointer = new File(dir, target.getName() + ".tmp");
+        Files.write(pointer.toPath(), generation.getName().getBytes(StandardCharsets.UTF_8));
+        try {
+            Files.move(pointer.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(pointer.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        // earlier generations still mapped can't be deleted on Windows, they
+        // are tried again on the next refresh
+        final File[] files = dir == null ? null : dir.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                if (!file.equals(generation) && isGeneration(target, file)) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    private static boolean isGeneration(final File target, final File file) {
+        final String prefix = target.getName() + ".";
+        return file.getName().startsWith(prefix) && isNumber(file.getName().substring(prefix.length()));
+    }
+
+    private void writeGeneration(final File file, final long generated) throws IOException {
+
+        final Map<Section, Map<String, List<Integer>>> keys = new EnumMap<>(Section.class);
+        for (final Section section : Section.values()) {
+            keys.put(section, new HashMap<>());
+        }
+        final int[] sectionOffsets = new int[Section.values().length];
+        final int[] sectionCounts = new int[Section.values().length];
+
+        final int rowsEnd;
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.write(new byte[URLHausMirror.HEADER_SIZE]);
+
+            for (final String[] row : urls.values()) {
+                final int offset = writeRow(out, row);
+                addKey(keys.get(Section.HOST), getHost(row[URLHausMirror.URL_URL]), offset);
+            }
+            for (final String[] row : payloads.values()) {
+                final int offset = writeRow(out, row);
+                addKey(keys.get(Section.MD5), row[URLHausMirror.PAYLOAD_MD5], offset);
+                addKey(keys.get(Section.SHA256), row[URLHausMirror.PAYLOAD_SHA256], offset);
+                if (!"None".equals(row[URLHausMirror.PAYLOAD_SIGNATURE])) {
+                    addKey(keys.get(Section.SIGNATURE), row[URLHausMirror.PAYLOAD_SIGNATURE], offset);
+                }
+            }
+            rowsEnd = position(out);
+
+            for (final Section section : Section.values()) {
+                final List<byte[]> sorted = new ArrayList<>();
+                for (final String key : keys.get(section).keySet()) {
+                    sorted.add(key.getBytes(StandardCharsets.UTF_8));
+                }
+                sorted.sort(Arrays::compareUnsigned);
+
+                final int[] entries = new int[sorted.size()];
+                for (int i = 0; i < entries.length; i++) {
+                    final byte[] key = sorted.get(i);
+                    final List<Integer> rows = keys.get(section).get(new String(key, StandardCharsets.UTF_8));
+                    entries[i] = position(out);
+                    out.writeShort(key.length);
+                    out.write(key);
+                    out.writeInt(rows.size());
+                    for (final int row : rows) {
+                        out.writeInt(row);
+                    }
+                }
+                // the entries are no longer needed once written
+                keys.get(section).clear();
+
+                sectionOffsets[section.ordinal()] = position(out);
+                sectionCounts[section.ordinal()] = entries.length;
+                for (final int entry : entries) {
+                    out.writeInt(entry);
+                }
+            }
+            position(out);
+        }
+
+        try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.writeInt(URLHausMirror.MAGIC);
+            raf.writeInt(URLHausMirror.VERSION);
+            raf.writeLong(generated);
+            raf.writeInt(rowsEnd);
+            raf.writeInt(urls.size() + payloads.size());
+            for (final Section section : Section.values()) {
+                raf.writeInt(sectionOffsets[section.ordinal()]);
+                raf.writeInt(sectionCounts[section.ordinal()]);
+            }
+        }
+    }
+
+    private static void addKey(final Map<String, List<Integer>> keys, final String key, final int offset) {
+        if (key == null) {
+            return;
+        }
+        final String normalised = URLHausMirror.normalise(key);
+        if (!normalised.isEmpty() && normalised.getBytes(StandardCharsets.UTF_8).length <= MAX_FIELD_LENGTH) {
+            keys.computeIfAbsent(normalised, k -> new ArrayList<>(1)).add(offset);
+        }
+    }
+
+    private static int writeRow(final DataOutputStream out, final String[] row) throws IOException {
+        final int offset = position(out);
+        out.writeByte(row.length);
+        for (final String field : row) {
+            byte[] bytes = (field == null ? "" : field).getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > MAX_FIELD_LENGTH) {
+                bytes = Arrays.copyOf(bytes, MAX_FIELD_LENGTH);
+            }
+            out.writeShort(bytes.length);
+            out.write(bytes);
+        }
+        return offset;
+    }
+
+    private static int position(final DataOutputStream out) throws IOException {
+        // size() stops counting at Integer.MAX_VALUE
+        if (out.size() == Integer.MAX_VALUE) {
+            throw new IOException("The URLhaus mirror is larger than 2GB");
+        }
+        return out.size();
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2010-2020 Australian Signals Directorate
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package au.gov.asd.acsc.constellation.dataaccess.cyber.plugins.urlhaus;
+
+import au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment.EnrichmentEndpoints;
+import au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment.EnrichmentHttpClients;
+import au.gov.asd.tac.constellation.graph.processing.GraphRecordStore;
+import au.gov.asd.tac.constellation.graph.processing.RecordStore;
+import au.gov.asd.tac.constellation.plugins.Plugin;
+import au.gov.asd.tac.constellation.plugins.PluginException;
+import au.gov.asd.tac.constellation.plugins.PluginInteraction;
+import au.gov.asd.tac.constellation.plugins.PluginNotificationLevel;
+import au.gov.asd.tac.constellation.plugins.parameters.PluginParameter;
+import au.gov.asd.tac.constellation.plugins.parameters.PluginParameters;
+import au.gov.asd.tac.constellation.plugins.parameters.types.BooleanParameterType;
+import au.gov.asd.tac.constellation.plugins.parameters.types.FileParameterType;
+import au.gov.asd.tac.constellation.plugins.parameters.types.FileParameterType.FileParameterValue;
+import au.gov.asd.tac.constellation.views.dataaccess.DataAccessPlugin;
+import au.gov.asd.tac.constellation.views.dataaccess.DataAccessPluginCoreType;
+import au.gov.asd.tac.constellation.views.dataaccess.templates.RecordStoreQueryPlugin;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.openide.util.NbBundle.Messages;
+import org.openide.util.lookup.ServiceProvider;
+import org.openide.util.lookup.ServiceProviders;
+
+/**
+ * Builds or refreshes the local mirror of the URLhaus dumps used by the
+ * offline mode of {@link URLHausPlugin}.
+ * <p>
+ * Without a full refresh the recent URL dump is merged into the existing
+ * mirror. The payload dump is only published in full, so payloads are
+ * refreshed by a full refresh or by importing a payload dump. Dumps copied
+ * from another machine can be imported instead of downloading, so
+ * workstations without network access can keep a mirror.
+ */
+@ServiceProviders({
+    @ServiceProvider(service = DataAccessPlugin.class)
+    ,
+    @ServiceProvider(service = Plugin.class)
+})
+@Messages("URLHausMirrorPlugin=URLhaus Mirror")
+public class URLHausMirrorPlugin extends RecordStoreQueryPlugin implements DataAccessPlugin {
+
+    public static final String FULL_PARAMETER_ID = PluginParameter.buildId(URLHausMirrorPlugin.class, "full");
+    public static final String URL_DUMP_PARAMETER_ID = PluginParameter.buildId(URLHausMirrorPlugin.class, "urlDump");
+    public static final String PAYLOAD_DUMP_PARAMETER_ID = PluginParameter.buildId(URLHausMirrorPlugin.class, "payloadDump");
+
+    private final String downloadBase = EnrichmentEndpoints.getBaseUrl("urlhaus-downloads", "https://urlhaus.abuse.ch/downloads");
+
+    @Override
+    public String getType() {
+        return DataAccessPluginCoreType.ENRICHMENT;
+    }
+
+    @Override
+    public int getPosition() {
+        return Integer.MAX_VALUE - 9;
+    }
+
+    @Override
+    public String getDescription() {
+        return "Download or import the URLhaus dumps for offline lookups";
+    }
+
+    @Override
+    public PluginParameters createParameters() {
+        final PluginParameters params = new PluginParameters();
+
+        final PluginParameter<BooleanParameterType.BooleanParameterValue> full = BooleanParameterType.build(FULL_PARAMETER_ID);
+        full.setName("Full Refresh");
+        full.setDescription("Rebuild the mirror from the full dumps rather than merging the recent URL dump into it");
+        full.setBooleanValue(false);
+        params.addParameter(full);
+
+        final PluginParameter<FileParameterValue> urlDump = FileParameterType.build(URL_DUMP_PARAMETER_ID);
+        urlDump.setName("URL Dump");
+        urlDump.setDescription("Import this URL dump instead of downloading one");
+        FileParameterType.setKind(urlDump, FileParameterType.FileParameterKind.OPEN);
+        params.addParameter(urlDump);
+
+        final PluginParameter<FileParameterValue> payloadDump = FileParameterType.build(PAYLOAD_DUMP_PARAMETER_ID);
+        payloadDump.setName("Payload Dump");
+        payloadDump.setDescription("Import this payload dump instead of downloading one");
+        FileParameterType.setKind(payloadDump, FileParameterType.FileParameterKind.OPEN);
+        params.addParameter(payloadDump);
+
+        return params;
+    }
+
+    @Override
+    protected RecordStore query(final RecordStore query, final PluginInteraction interaction, final PluginParameters parameters) throws PluginException {
+        final RecordStore results = new GraphRecordStore();
+        final boolean full = parameters.getParameters().get(FULL_PARAMETER_ID).getBooleanValue();
+        final String urlDump = parameters.getParameters().get(URL_DUMP_PARAMETER_ID).getStringValue();
+        final String payloadDump = parameters.getParameters().get(PAYLOAD_DUMP_PARAMETER_ID).getStringValue();
+
+        final URLHausMirrorBuilder builder = new URLHausMirrorBuilder();
+        boolean merge = !full;
+        if (merge) {
+            try {
+                final URLHausMirror existing = URLHausMirror.get();
+                if (existing != null) {
+                    builder.load(existing);
+                } else {
+                    merge = false;
+                }
+            } catch (IOException ex) {
+                interaction.notify(PluginNotificationLevel.WARNING, "The existing URLhaus mirror could not be read and will be rebuilt. " + ex.getMessage());
+                merge = false;
+            }
+        }
+
+        final List<File> downloads = new ArrayList<>();
+        try {
+            final List<File> dumps = new ArrayList<>();
+            if (urlDump != null && !urlDump.isEmpty()) {
+                dumps.add(new File(urlDump));
+            }
+            if (payloadDump != null && !payloadDump.isEmpty()) {
+                dumps.add(new File(payloadDump));
+            }
+            if (dumps.isEmpty()) {
+                // nothing to merge into means starting from the full dumps
+                final List<String> urls = new ArrayList<>();
+                if (merge) {
+                    urls.add(String.format("%s/csv_recent/", downloadBase));
+                } else {
+                    urls.add(String.format("%s/csv/", downloadBase));
+                    urls.add(String.format("%s/payloads/", downloadBase));
+                }
+                for (final String url : urls) {
+                    interaction.setProgress(downloads.size(), urls.size() * 2, "Downloading " + url, true);
+                    final File file = download(url);
+                    downloads.add(file);
+                    dumps.add(file);
+                }
+            }
+
+            for (final File dump : dumps) {
+                interaction.setProgress(0, 0, "Importing " + dump.getName(), true);
+                builder.importDump(dump);
+            }
+
+            interaction.setProgress(0, 0, "Writing the URLhaus mirror", true);
+            final File target = URLHausMirror.getDefaultFile();
+            builder.write(target);
+            interaction.notify(PluginNotificationLevel.INFO, String.format("The URLhaus mirror at %s holds %d URLs and %d payloads", target, builder.getUrlCount(), builder.getPayloadCount()));
+        } catch (IOException | URISyntaxException ex) {
+            interaction.notify(PluginNotificationLevel.FATAL, "Failed to refresh the URLhaus mirror. " + ex.getMessage());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (final File file : downloads) {
+                file.delete();
+            }
+        }
+
+        return results;
+    }
+
+    private File download(final String url) throws IOException, URISyntaxException {
+        final File file = File.createTempFile("urlhaus", ".dump");
+        try (final CloseableHttpClient client = EnrichmentHttpClients.create(url);
+                final CloseableHttpResponse resp = client.execute(new HttpGet(url))) {
+            if (resp.getStatusLine().getStatusCode() != 200) {
+                file.delete();
+                throw new IOException(String.format("%s returned %s", url, resp.getStatusLine().getReasonPhrase()));
+            }
+            try (final OutputStream out = new FileOutputStream(file)) {
+                resp.getEntity().writeTo(out);
+            }
+        }
+        return file;
+    }
+}
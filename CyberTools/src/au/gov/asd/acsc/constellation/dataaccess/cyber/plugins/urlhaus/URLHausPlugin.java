@@ -15,6 +15,7 @@
  */
 package au.gov.asd.acsc.constellation.dataaccess.cyber.plugins.urlhaus;
 
+import au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment.EnrichmentEndpoints;
 import au.gov.asd.acsc.constellation.schema.cyberschema.concept.CyberConcept;
 import au.gov.asd.tac.constellation.graph.processing.GraphRecordStore;
 import au.gov.asd.tac.constellation.graph.processing.GraphRecordStoreUtilities;
@@ -26,7 +27,9 @@ import au.gov.asd.tac.constellation.plugins.Plugin;
 import au.gov.asd.tac.constellation.plugins.PluginException;
 import au.gov.asd.tac.constellation.plugins.PluginInteraction;
 import au.gov.asd.tac.constellation.plugins.PluginNotificationLevel;
+import au.gov.asd.tac.constellation.plugins.parameters.PluginParameter;
 import au.gov.asd.tac.constellation.plugins.parameters.PluginParameters;
+import au.gov.asd.tac.constellation.plugins.parameters.types.BooleanParameterType;
 import au.gov.asd.tac.constellation.security.proxy.ConstellationHttpProxySelector;
 import au.gov.asd.tac.constellation.utilities.temporal.TemporalFormatting;
 import au.gov.asd.tac.constellation.views.dataaccess.DataAccessPlugin;
@@ -81,14 +84,22 @@ public class URLHausPlugin extends RecordStoreQueryPlugin implements DataAccessP
         return "URLhaus";
     }
 
+    public static final String OFFLINE_PARAMETER_ID = PluginParameter.buildId(URLHausPlugin.class, "offline");
+
     @Override
     public PluginParameters createParameters() {
         final PluginParameters params = new PluginParameters();
         
+        final PluginParameter<BooleanParameterType.BooleanParameterValue> offline = BooleanParameterType.build(OFFLINE_PARAMETER_ID);
+        offline.setName("Use Offline Mirror");
+        offline.setDescription("Answer lookups from the local mirror of the URLhaus dumps, built with URLhaus Mirror, instead of the web service");
+        offline.setBooleanValue(false);
+        params.addParameter(offline);
+        
         return params;
     }
     
-    private String apiBase = "https://urlhaus-api.abuse.ch";
+    private String apiBase = EnrichmentEndpoints.getBaseUrl("urlhaus", "https://urlhaus-api.abuse.ch");
     
     private JSONObject query(String url, String body, final PluginInteraction interaction)
     {
@@ -184,6 +195,112 @@ public class URLHausPlugin extends RecordStoreQueryPlugin implements DataAccessP
         return result;
     }
 
+    /**
+     * Build a host response from the mirror, shaped like the web service
+     * response. The dumps don't include the blacklist entries.
+     */
+    private JSONObject mirrorHost(URLHausMirror mirror, String host)
+    {
+        JSONObject result = new JSONObject();
+        List<String[]> rows = mirror.lookup(URLHausMirror.Section.HOST, host);
+        if (rows.isEmpty())
+        {
+            result.put("query_status", "no_results");
+            return result;
+        }
+        String firstSeen = null;
+        for (String[] row : rows)
+        {
+            firstSeen = earliest(firstSeen, row[URLHausMirror.URL_DATE_ADDED]);
+        }
+        result.put("query_status", "ok");
+        result.put("firstseen", firstSeen);
+        result.put("url_count", String.valueOf(rows.size()));
+        return result;
+    }
+    
+    private JSONObject mirrorPayload(URLHausMirror mirror, String hash, String type)
+    {
+        JSONObject result = new JSONObject();
+        List<String[]> rows = mirror.lookup(type.equals(AnalyticConcept.VertexType.MD5.toString()) ? URLHausMirror.Section.MD5 : URLHausMirror.Section.SHA256, hash);
+        if (rows.isEmpty())
+        {
+            result.put("query_status", "no_results");
+            return result;
+        }
+        String[] first = rows.get(0);
+        String firstSeen = null;
+        String lastSeen = null;
+        JSONArray urls = new JSONArray();
+        for (String[] row : rows)
+        {
+            firstSeen = earliest(firstSeen, row[URLHausMirror.PAYLOAD_FIRST_SEEN]);
+            lastSeen = latest(lastSeen, row[URLHausMirror.PAYLOAD_FIRST_SEEN]);
+            JSONObject url = new JSONObject();
+            url.put("url", row[URLHausMirror.PAYLOAD_URL]);
+            urls.add(url);
+        }
+        result.put("query_status", "ok");
+        result.put("firstseen", firstSeen);
+        result.put("lastseen", lastSeen);
+        result.put("md5_hash", first[URLHausMirror.PAYLOAD_MD5].toLowerCase());
+        result.put("sha256_hash", first[URLHausMirror.PAYLOAD_SHA256].toLowerCase());
+        result.put("file_type", first[URLHausMirror.PAYLOAD_FILE_TYPE]);
+        result.put("signature", getSignature(first));
+        result.put("url_count", String.valueOf(rows.size()));
+        result.put("urls", urls);
+        return result;
+    }
+    
+    private JSONObject mirrorSignature(URLHausMirror mirror, String signature)
+    {
+        JSONObject result = new JSONObject();
+        List<String[]> rows = mirror.lookup(URLHausMirror.Section.SIGNATURE, signature);
+        if (rows.isEmpty())
+        {
+            result.put("query_status", "no_results");
+            return result;
+        }
+        String firstSeen = null;
+        String lastSeen = null;
+        JSONArray urls = new JSONArray();
+        for (String[] row : rows)
+        {
+            firstSeen = earliest(firstSeen, row[URLHausMirror.PAYLOAD_FIRST_SEEN]);
+            lastSeen = latest(lastSeen, row[URLHausMirror.PAYLOAD_FIRST_SEEN]);
+            JSONObject url = new JSONObject();
+            url.put("url", row[URLHausMirror.PAYLOAD_URL]);
+            url.put("md5_hash", row[URLHausMirror.PAYLOAD_MD5].toLowerCase());
+            url.put("sha256_hash", row[URLHausMirror.PAYLOAD_SHA256].toLowerCase());
+            url.put("file_type", row[URLHausMirror.PAYLOAD_FILE_TYPE]);
+            url.put("firstseen", row[URLHausMirror.PAYLOAD_FIRST_SEEN]);
+            url.put("lastseen", row[URLHausMirror.PAYLOAD_FIRST_SEEN]);
+            urls.add(url);
+        }
+        result.put("query_status", "ok");
+        result.put("firstseen", firstSeen);
+        result.put("lastseen", lastSeen);
+        result.put("urls", urls);
+        return result;
+    }
+    
+    private static String getSignature(String[] row)
+    {
+        String signature = row[URLHausMirror.PAYLOAD_SIGNATURE];
+        return signature.isEmpty() || signature.equals("None") ? null : signature;
+    }
+    
+    // the dump timestamps are "yyyy-MM-dd HH:mm:ss" so they sort as strings
+    private static String earliest(String current, String value)
+    {
+        return current == null || (!value.isEmpty() && value.compareTo(current) < 0) ? value : current;
+    }
+    
+    private static String latest(String current, String value)
+    {
+        return current == null || value.compareTo(current) > 0 ? value : current;
+    }
+
     @Override
     protected RecordStore query(final RecordStore query, final PluginInteraction interaction, final PluginParameters parameters) throws PluginException {
 
@@ -192,6 +309,23 @@ public class URLHausPlugin extends RecordStoreQueryPlugin implements DataAccessP
             return results;
         }
 
+        final boolean offline = parameters.getParameters().get(OFFLINE_PARAMETER_ID).getBooleanValue();
+        URLHausMirror mirror = null;
+        if (offline)
+        {
+            try {
+                mirror = URLHausMirror.get();
+            } catch (IOException ex) {
+                interaction.notify(PluginNotificationLevel.FATAL, "Failed to open the URLhaus mirror. " + ex.getMessage());
+                return results;
+            }
+            if (mirror == null)
+            {
+                interaction.notify(PluginNotificationLevel.FATAL, "The URLhaus mirror has not been built, run URLhaus Mirror to download or import the dumps.");
+                return results;
+            }
+        }
+
         query.reset();
         int i= 0;
         try
@@ -205,7 +339,7 @@ public class URLHausPlugin extends RecordStoreQueryPlugin implements DataAccessP
                 if (type.equals(AnalyticConcept.VertexType.HOST_NAME.toString()) ||
                     type.equals(AnalyticConcept.VertexType.IPV4.toString())) 
                 {
-                    JSONObject res = queryHost(identifier, interaction);
+                    JSONObject res = offline ? mirrorHost(mirror, identifier) : queryHost(identifier, interaction);
                     if (res != null)
                     {
                         String status = (String)res.get("query_status");
@@ -214,8 +348,8 @@ public class URLHausPlugin extends RecordStoreQueryPlugin implements DataAccessP
                             String firstSeen = ((String)res.get("firstseen")).replace(" UTC", "");
                             int urlCount = Integer.parseInt((String)res.get("url_count"));
                             JSONObject blacklists = (JSONObject)res.get("blacklists");
-                            String spamhaus = (String)blacklists.get("spamhaus_dbl");
-                            String surbl = (String)blacklists.get("surbl");
+                            String spamhaus = blacklists == null ? null : (String)blacklists.get("spamhaus_dbl");
+                            String surbl = blacklists == null ? null : (String)blacklists.get("surbl");
 
                             results.add();
                             results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, identifier);
@@ -228,14 +362,17 @@ public class URLHausPlugin extends RecordStoreQueryPlugin implements DataAccessP
                         }
                         else if (status.equalsIgnoreCase("invalid_host") || status.equalsIgnoreCase("no_results"))
                         {
-                           results.set(GraphRecordStoreUtilities.SOURCE + URLHausConcept.VertexAttribute.HAS_ENTRY, false); 
+                            results.add();
+                            results.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, identifier);
+                            results.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, type);
+                            results.set(GraphRecordStoreUtilities.SOURCE + URLHausConcept.VertexAttribute.HAS_ENTRY, false); 
                         }
                     }
                 }
                 else if (type.equals(AnalyticConcept.VertexType.MD5.toString()) ||
                     type.equals(AnalyticConcept.VertexType.SHA256.toString())) 
                 {
-                    JSONObject res = queryPayload(identifier, type, interaction);
+                    JSONObject res = offline ? mirrorPayload(mirror, identifier, type) : queryPayload(identifier, type, interaction);
                     if (res != null)
                     {
                         String status = (String)res.get("query_status");
@@ -319,7 +456,7 @@ public class URLHausPlugin extends RecordStoreQueryPlugin implements DataAccessP
                 }
                 else if (type.equals(CyberConcept.VertexType.CODE_FAMILY.toString())) 
                 {
-                    JSONObject res = querySignature(identifier, interaction);
+                    JSONObject res = offline ? mirrorSignature(mirror, identifier) : querySignature(identifier, interaction);
                     if (res != null)
                     {
                         String status = (String)res.get("query_status");
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2010-2020 Australian Signals Directorate
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package au.gov.asd.acsc.constellation.dataaccess.cyber.plugins.virustotal;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Walks a paged VirusTotal collection one page at a time by following
+ * meta.cursor, so only the current page is held in memory.
+ * <p>
+ * Paging stops once the page that reaches the limit has been returned. The
+ * cursor of the next unread page is available from {@link #getCursor()} and
+ * can be handed to a new pager to resume where this one stopped.
+ */
+class VirusTotalPager implements Iterator<JSONArray> {
+
+    interface PageSource {
+
+        /**
+         * Fetch a single page.
+         *
+         * @param url the collection url.
+         * @param cursor the cursor of the page to fetch, or null for the first
+         * page.
+         * @return the page, or whether the request should be retried or
+         * failed.
+         */
+        VirusTotalResponse getPage(String url, String cursor);
+    }
+
+    private static final int RETRIES = 2;
+
+    private final PageSource source;
+    private final String url;
+    private final int limit;
+
+    private String cursor;
+    private int count = 0;
+    private boolean started = false;
+    private boolean failed = false;
+    private JSONArray next = null;
+
+    VirusTotalPager(final PageSource source, final String url, final String cursor, final int limit) {
+        this.source = source;
+        this.url = url;
+        this.cursor = cursor;
+        this.limit = limit;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            next = fetch();
+        }
+        return next != null;
+    }
+
+    @Override
+    public JSONArray next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final JSONArray page = next;
+        next = null;
+        return page;
+    }
+
+    /**
+     * The cursor of the next unread page.
+     *
+     * @return the cursor, or null if the collection has been read to the end.
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    /**
+     * Whether paging stopped because a request failed.
+     *
+     * @return true if a request failed.
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    private JSONArray fetch() {
+        if (failed || count >= limit || (started && cursor == null) || Thread.currentThread().isInterrupted()) {
+            return null;
+        }
+
+        VirusTotalResponse r = source.getPage(url, cursor);
+        int retry = 0;
+        while (r.isRetry() && retry < RETRIES) {
+            r = source.getPage(url, cursor);
+            retry++;
+        }
+        if (r.getBody() == null) {
+            failed = true;
+            return null;
+        }
+        started = true;
+
+        final JSONObject res = r.getBody();
+        cursor = null;
+        final JSONObject meta = (JSONObject) res.get("meta");
+        if (meta != null) {
+            final String c = (String) meta.get("cursor");
+            if (c != null && !c.isEmpty()) {
+                cursor = c;
+            }
+        }
+
+        final Object data = res.get("data");
+        if (!(data instanceof JSONArray) || ((JSONArray) data).isEmpty()) {
+            cursor = null;
+            return null;
+        }
+        final JSONArray page = (JSONArray) data;
+        count += page.size();
+        return page;
+    }
+}
@@ -15,6 +15,9 @@
  */
 package au.gov.asd.acsc.constellation.dataaccess.cyber.plugins.virustotal;
 
+import au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment.BatchLookup;
+import au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment.BatchLookups;
+import au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment.SingleFlight;
 import au.gov.asd.acsc.constellation.preferences.ACSCPreferenceKeys;
 import au.gov.asd.acsc.constellation.schema.cyberschema.concept.CyberConcept;
 import au.gov.asd.tac.constellation.graph.processing.GraphRecordStore;
@@ -31,6 +34,8 @@ import au.gov.asd.tac.constellation.plugins.PluginNotificationLevel;
 import au.gov.asd.tac.constellation.plugins.parameters.PluginParameter;
 import au.gov.asd.tac.constellation.plugins.parameters.PluginParameters;
 import au.gov.asd.tac.constellation.plugins.parameters.types.BooleanParameterType;
+import au.gov.asd.tac.constellation.plugins.parameters.types.IntegerParameterType;
+import au.gov.asd.tac.constellation.plugins.parameters.types.IntegerParameterType.IntegerParameterValue;
 import au.gov.asd.tac.constellation.plugins.parameters.types.MultiChoiceParameterType;
 import au.gov.asd.tac.constellation.security.proxy.ConstellationHttpProxySelector;
 import au.gov.asd.tac.constellation.utilities.temporal.TemporalFormatting;
@@ -46,8 +51,19 @@ import java.net.URISyntaxException;
 import java.time.Instant;
 import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import java.util.prefs.Preferences;
 import org.apache.http.HttpHost;
 import org.apache.http.client.methods.CloseableHttpResponse;
@@ -78,6 +94,15 @@ public class VirusTotalPlugin extends RecordStoreQueryPlugin implements DataAcce
     private String VT_API_KEY = null;
     boolean isEnabled = true;
 
+    private static final int DEFAULT_RELATIONSHIP_LIMIT = 200;
+    private static final int RELATIONSHIP_THREADS = 4;
+    // a request given up on because the run was cancelled has failed
+    private static final SingleFlight<VirusTotalResponse> REQUESTS = new SingleFlight<>(VirusTotalResponse.FAILED);
+    private static final List<String> RELATIONSHIPS = Arrays.asList("contacted_domains", "contacted_ips", "communicating_files", "downloaded_files");
+    // hashes joined into one intelligence search, kept small so the url stays short
+    private static final int HASH_BATCH_SIZE = 25;
+    private static final List<String> HASH_KEYS = Arrays.asList("md5", "sha1", "sha256");
+
     public VirusTotalPlugin() {
 
     }
@@ -104,6 +129,8 @@ public class VirusTotalPlugin extends RecordStoreQueryPlugin implements DataAcce
 
     public static final String SHOW_AV_RESULTS_PARAMETER = PluginParameter.buildId(VirusTotalPlugin.class, "showAVResults");
     public static final String HASH_PIVOTS_PARAMETER_ID = PluginParameter.buildId(VirusTotalPlugin.class, "hashPivots");
+    public static final String RELATIONSHIP_LIMIT_PARAMETER_ID = PluginParameter.buildId(VirusTotalPlugin.class, "relationshipLimit");
+    public static final String RESUME_PARAMETER_ID = PluginParameter.buildId(VirusTotalPlugin.class, "resume");
 
     @Override
     public PluginParameters createParameters() {
@@ -130,15 +157,40 @@ public class VirusTotalPlugin extends RecordStoreQueryPlugin implements DataAcce
         MultiChoiceParameterType.setChoices(hashPivotOptions, new ArrayList<>());
         params.addParameter(hashPivotOptions);
 
+        final PluginParameter<IntegerParameterValue> relationshipLimit = IntegerParameterType.build(RELATIONSHIP_LIMIT_PARAMETER_ID);
+        relationshipLimit.setName("Relationship Limit");
+        relationshipLimit.setDescription("Stop paging a search or relationship once this many objects have been fetched");
+        IntegerParameterType.setMinimum(relationshipLimit, 1);
+        relationshipLimit.setIntegerValue(DEFAULT_RELATIONSHIP_LIMIT);
+        params.addParameter(relationshipLimit);
+
+        final PluginParameter<BooleanParameterType.BooleanParameterValue> resume = BooleanParameterType.build(RESUME_PARAMETER_ID);
+        resume.setName("Resume Relationships");
+        resume.setDescription("Continue paging relationships from where the previous run stopped");
+        resume.setBooleanValue(false);
+        params.addParameter(resume);
+
         return params;
     }
 
-    private Object getQuery(String query, PluginInteraction interaction)
+    private VirusTotalResponse getQuery(String query, PluginInteraction interaction)
     {
         return getQuery(query, interaction, null);
     }
     
-    private Object getQuery(String query, PluginInteraction interaction, String cursor) {
+    /**
+     * Fetch a single page of a VirusTotal response. Collections are not
+     * followed past the requested page, use a {@link VirusTotalPager} to walk
+     * them.
+     * <p>
+     * Identical requests running at the same time, from pivots, relationship
+     * threads or other graphs, share a single call to VirusTotal.
+     */
+    private VirusTotalResponse getQuery(String query, PluginInteraction interaction, String cursor) {
+        return REQUESTS.get(cursor == null ? query : query + "#" + cursor, () -> fetchQuery(query, interaction, cursor));
+    }
+    
+    private VirusTotalResponse fetchQuery(String query, PluginInteraction interaction, String cursor) {
         JSONParser parser = new JSONParser();
         JSONObject obj = null;
         String c = "";
@@ -155,126 +207,108 @@ public class VirusTotalPlugin extends RecordStoreQueryPlugin implements DataAcce
             
         }
 
-        try {
-            ProxySelector sel = ConstellationHttpProxySelector.getDefault();
-            List<Proxy> proxies = sel.select(new URI(query));
-            for (Proxy proxy : proxies) {
-                HttpClientBuilder clientBuilder = HttpClients.custom();
-                if (proxy.type() != Proxy.Type.DIRECT) {
-                    String h = proxy.address().toString();
-                    String addr = null;
-                    Integer port = null;
-                    if (h.contains(":")) {
-                        addr = h.split(":")[0];
-                        addr = addr.split("/")[0];
-                        port = Integer.parseInt(h.split(":")[1]);
-                    } else {
-                        addr = h;
-                    }
-                    if (port != null) {
-                        clientBuilder.setProxy(new HttpHost(addr, port));
-                    } else {
-                        clientBuilder.setProxy(new HttpHost(addr));
+        request:
+        while (true) {
+            try {
+                ProxySelector sel = ConstellationHttpProxySelector.getDefault();
+                List<Proxy> proxies = sel.select(new URI(query));
+                for (Proxy proxy : proxies) {
+                    HttpClientBuilder clientBuilder = HttpClients.custom();
+                    if (proxy.type() != Proxy.Type.DIRECT) {
+                        String h = proxy.address().toString();
+                        String addr = null;
+                        Integer port = null;
+                        if (h.contains(":")) {
+                            addr = h.split(":")[0];
+                            addr = addr.split("/")[0];
+                            port = Integer.parseInt(h.split(":")[1]);
+                        } else {
+                            addr = h;
+                        }
+                        if (port != null) {
+                            clientBuilder.setProxy(new HttpHost(addr, port));
+                        } else {
+                            clientBuilder.setProxy(new HttpHost(addr));
+                        }
                     }
-                }
-                try (CloseableHttpClient client = clientBuilder.build())
-                {
-                    HttpGet get = new HttpGet(query + c);
-                    get.addHeader("x-apikey", VT_API_KEY);
-                    try (CloseableHttpResponse resp = client.execute(get))
+                    try (CloseableHttpClient client = clientBuilder.build())
                     {
-                        if (resp.getStatusLine().getStatusCode() == 200) {
-                            String answer = EntityUtils.toString(resp.getEntity());
-                            try {
-                                obj = (JSONObject)parser.parse(answer);
-                                if (obj.containsKey("meta"))
-
-                                {
-                                    JSONObject meta = (JSONObject)obj.get("meta");
-                                    if (meta.containsKey("cursor"))
-                                    {
-                                        cursor = (String)meta.get("cursor");
-
-                                        if (cursor != null && !cursor.isEmpty())
-                                        {
-                                            JSONObject o1 = (JSONObject)getQuery(query, interaction, cursor);
-                                            JSONArray a1 = (JSONArray)obj.get("data");
-                                            if (o1 != null && o1.containsKey("data"))
-                                            {
-                                                JSONArray a2 = (JSONArray)o1.get("data");
-                                                a1.addAll(a2);
-                                            }
-                                            obj.put("data", a1);
-                                        }
+                        HttpGet get = new HttpGet(query + c);
+                        get.addHeader("x-apikey", VT_API_KEY);
+                        try (CloseableHttpResponse resp = client.execute(get))
+                        {
+                            if (resp.getStatusLine().getStatusCode() == 200) {
+                                String answer = EntityUtils.toString(resp.getEntity());
+                                try {
+                                    obj = (JSONObject)parser.parse(answer);
+                                } catch (ParseException ex) {
+                                    if (interaction != null) {
+                                        interaction.notify(PluginNotificationLevel.FATAL, "Could not parse the VirusTotal web service response");
                                     }
+                                    return VirusTotalResponse.FAILED;
+                                }
+                            } 
+                            else if (resp.getStatusLine().getStatusCode() == 204)
+                            {
+                                try {
+                                    Thread.sleep(2000);
+                                } catch (InterruptedException ex) {
+                                    Thread.currentThread().interrupt();
+                                    return VirusTotalResponse.FAILED;
                                 }
+                                continue request;
+                            }
+                            else if (resp.getStatusLine().getStatusCode() == 404)
+                            {
+                                JSONObject notFound = new JSONObject();
+                                notFound.put("response_code", 0);
 
-                            } catch (ParseException ex) {
+                                return VirusTotalResponse.of(notFound);
+                            }
+                            else if (resp.getStatusLine().getStatusCode() == 401)
+                            {
+                                interaction.notify(PluginNotificationLevel.FATAL, "Authentication error, please check your API key.");
+                                return VirusTotalResponse.FAILED;
+                            }
+                            else if (resp.getStatusLine().getStatusCode() == 429)
+                            {
+                                interaction.notify(PluginNotificationLevel.FATAL, "Too many requests or quota exceeded.");
+                                return VirusTotalResponse.FAILED;
+                            }
+                            else if (resp.getStatusLine().getStatusCode() == 403)
+                            {
+                                interaction.notify(PluginNotificationLevel.FATAL, "Unable to perform this action.");
+                                return VirusTotalResponse.FAILED;
+                            }
+                            else {
                                 if (interaction != null) {
-                                    interaction.notify(PluginNotificationLevel.FATAL, "Could not parse the VirusTotal web service response");
+                                    interaction.notify(PluginNotificationLevel.FATAL, "Could not access the VirusTotal web service error code " + resp.getStatusLine().getStatusCode());
                                 }
-                                return Boolean.FALSE;
-                            }
-                        } 
-                        else if (resp.getStatusLine().getStatusCode() == 204)
-                        {
-                            try {
-                                Thread.sleep(2000);
-                            } catch (InterruptedException ex) {
-                                Exceptions.printStackTrace(ex);
+                                return VirusTotalResponse.FAILED;
                             }
-                            return getQuery(query, interaction);
-                        }
-                        else if (resp.getStatusLine().getStatusCode() == 404)
-                        {
-                            JSONObject notFound = new JSONObject();
-                            notFound.put("response_code", 0);
-
-                            return notFound;
-                        }
-                        else if (resp.getStatusLine().getStatusCode() == 401)
-                        {
-                            interaction.notify(PluginNotificationLevel.FATAL, "Authentication error, please check your API key.");
-                            return Boolean.FALSE;
-                        }
-                        else if (resp.getStatusLine().getStatusCode() == 429)
-                        {
-                            interaction.notify(PluginNotificationLevel.FATAL, "Too many requests or quota exceeded.");
-                            return Boolean.FALSE;
-                        }
-                        else if (resp.getStatusLine().getStatusCode() == 403)
-                        {
-                            interaction.notify(PluginNotificationLevel.FATAL, "Unable to perform this action.");
-                            return Boolean.FALSE;
-                        }
-                        else {
+                        } catch (IOException ex) {
+                            ex.printStackTrace();
                             if (interaction != null) {
-                                interaction.notify(PluginNotificationLevel.FATAL, "Could not access the VirusTotal web service error code " + resp.getStatusLine().getStatusCode());
+                                interaction.notify(PluginNotificationLevel.FATAL, "Could not read from the VirusTotal web service.");
                             }
-                            return Boolean.FALSE;
+                            return VirusTotalResponse.FAILED;
+                        } catch (org.apache.http.ParseException ex) {
+                            Exceptions.printStackTrace(ex);
+                            return VirusTotalResponse.RETRY;
                         }
-                    } catch (IOException ex) {
-                        ex.printStackTrace();
-                        if (interaction != null) {
-                            interaction.notify(PluginNotificationLevel.FATAL, "Could not read from the VirusTotal web service.");
-                        }
-                        return Boolean.FALSE;
-                    } catch (org.apache.http.ParseException ex) {
-                        Exceptions.printStackTrace(ex);
-                        return null;
+                        break;
+                    }
+                    catch (IOException ex)
+                    {
+                        
                     }
-                    break;
-                }
-                catch (IOException ex)
-                {
-                    
                 }
-            }
 
-        } catch (URISyntaxException ex) {
-            Exceptions.printStackTrace(ex);
+            } catch (URISyntaxException ex) {
+                Exceptions.printStackTrace(ex);
+            }
+            return VirusTotalResponse.of(obj);
         }
-        return obj;
     }
     
     private Hash drawHash(String end, GraphRecordStore result, JSONObject hash, boolean showAVResults)
@@ -378,87 +412,225 @@ public class VirusTotalPlugin extends RecordStoreQueryPlugin implements DataAcce
         return ret;
     }
 
-    private Hash queryHash(String hashValue, String hashType, GraphRecordStore result, boolean showAVResults, PluginInteraction interaction) {
-        String url = String.format("%s/api/v3/intelligence/search?query=%s&limit=300", VT_URL, UrlEscapers.urlFormParameterEscaper().escape(hashValue));
-        Object r = getQuery(url, interaction);
-        int count = 0;
-        Hash ret = null;
+    /**
+     * A selected hash waiting to be searched for.
+     */
+    private static class HashTarget {
 
-        while (r == null && !(r instanceof Boolean) && count < 2) {
-            r = getQuery(url, interaction);
-            count++;
+        private final String type;
+        private final Map<String, String> cursors;
+
+        HashTarget(final String type, final Map<String, String> cursors) {
+            this.type = type;
+            this.cursors = cursors;
         }
-        if (r == null || r instanceof Boolean) {
-            return null;
+    }
+
+    private static class Relationship {
+
+        private final String name;
+        private final String url;
+        private final String cursor;
+        private final Consumer<JSONObject> drawer;
+
+        Relationship(final String name, final String url, final String cursor, final Consumer<JSONObject> drawer) {
+            this.name = name;
+            this.url = url;
+            this.cursor = cursor;
+            this.drawer = drawer;
         }
-        JSONObject res = (JSONObject) r;
-     
-        boolean added = false;
-        JSONArray data = (JSONArray)res.get("data");
-        for (Object o : data)
-        {
-            added = true;
-            JSONObject element = (JSONObject)o;
-            
-            result.add();
-            ret = drawHash(GraphRecordStoreUtilities.SOURCE, result, element, showAVResults);
-            
-            if (!ret.getMd5().equalsIgnoreCase(hashValue))
-            {
-                result.add();
-                result.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, hashValue);
-                result.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, hashType);
-                result.set(GraphRecordStoreUtilities.SOURCE + VirusTotalConcept.VertexAttribute.HAS_VIRUS_TOTAL_ENTRY, true);
+    }
 
-                result.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, ret.getMd5());
-                result.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.MD5);
-                result.set(GraphRecordStoreUtilities.DESTINATION + VirusTotalConcept.VertexAttribute.HAS_VIRUS_TOTAL_ENTRY, true);
-                result.set(GraphRecordStoreUtilities.TRANSACTION + AnalyticConcept.TransactionAttribute.TYPE, AnalyticConcept.TransactionType.SIMILARITY);
-                
-            }
+    private static String getCursorAttribute(final String relationship) {
+        return String.format("VirusTotal %s Cursor", relationship);
+    }
 
-            // now draw the domains
-            url = String.format("%s/api/v3/files/%s/contacted_domains", VT_URL, UrlEscapers.urlFormParameterEscaper().escape(hashValue));
-            Object d = getQuery(url, interaction);
-            count = 0;
+    /**
+     * Pages the relationships and searches of a single run, so the limit and
+     * the threads the relationships are read on are fixed for the run.
+     */
+    private final class RelationshipReader {
 
-            while (r == null && !(r instanceof Boolean) && count < 2) {
-                r = getQuery(url, interaction);
-                count++;
+        private final PluginInteraction interaction;
+        private final int limit;
+        private final ExecutorService executor;
+
+        RelationshipReader(final PluginInteraction interaction, final int limit, final ExecutorService executor) {
+            this.interaction = interaction;
+            this.limit = limit;
+            this.executor = executor;
+        }
+
+        VirusTotalPager getPager(final String url, final String cursor) {
+            return getPager(url, cursor, limit);
+        }
+
+        VirusTotalPager getPager(final String url, final String cursor, final int limit) {
+            return new VirusTotalPager((u, c) -> getQuery(u, interaction, c), url, cursor, limit);
+        }
+
+        /**
+         * Page through each relationship of a vertex concurrently, drawing
+         * every page as it arrives. The cursor left by each relationship is
+         * stored on the vertex so a later run can resume from it, an empty
+         * cursor means the relationship was read to the end.
+         */
+        void queryRelationships(final String identifier, final String type, final List<Relationship> relationships, final GraphRecordStore result) {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (final Relationship relationship : relationships) {
+                if (relationship.cursor != null && relationship.cursor.isEmpty()) {
+                    // resuming and there is nothing left to read
+                    continue;
+                }
+                futures.add(executor.submit(() -> queryRelationship(identifier, type, relationship, result)));
             }
-            if (r != null && !(r instanceof Boolean)) {
-                JSONArray domains = (JSONArray)((JSONObject) d).get("data");
-                for (Object d1 : domains)
-                {
-                    JSONObject domain = (JSONObject)d1;
-                    result.add();
-                    result.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, ret.getMd5());
-                    result.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.MD5);
+            for (final Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException ex) {
+                    futures.forEach(f -> f.cancel(true));
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException ex) {
+                    Exceptions.printStackTrace(ex);
+                }
+            }
+        }
 
-                    drawDomain(GraphRecordStoreUtilities.DESTINATION, result, domain);
+        private void queryRelationship(final String identifier, final String type, final Relationship relationship, final GraphRecordStore result) {
+            final VirusTotalPager pager = getPager(relationship.url, relationship.cursor);
+            while (pager.hasNext()) {
+                final JSONArray page = pager.next();
+                synchronized (result) {
+                    for (Object o : page) {
+                        relationship.drawer.accept((JSONObject) o);
+                    }
                 }
             }
+            if (!pager.isFailed() && !Thread.currentThread().isInterrupted()) {
+                synchronized (result) {
+                    result.add();
+                    result.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, identifier);
+                    result.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, type);
+                    result.set(GraphRecordStoreUtilities.SOURCE + getCursorAttribute(relationship.name), pager.getCursor() == null ? "" : pager.getCursor());
+                }
+            }
+        }
+    }
+
+    private Relationship getHashRelationship(final String name, final String url, final String identifier, final String type, final String transactionType, final boolean showAVResults, final Map<String, String> cursors, final GraphRecordStore result) {
+        return new Relationship(name, url, cursors.get(name), hash -> {
+            result.add();
+            result.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, identifier);
+            result.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, type);
+            result.set(GraphRecordStoreUtilities.SOURCE + VirusTotalConcept.VertexAttribute.HAS_VIRUS_TOTAL_ENTRY, true);
 
-            url = String.format("%s/api/v3/files/%s/contacted_ips", VT_URL, UrlEscapers.urlFormParameterEscaper().escape(hashValue));
-            d = getQuery(url, interaction);
-            count = 0;
+            drawHash(GraphRecordStoreUtilities.DESTINATION, result, hash, showAVResults);
+            result.set(GraphRecordStoreUtilities.TRANSACTION + VisualConcept.TransactionAttribute.COLOR, "Blue");
+            result.set(GraphRecordStoreUtilities.TRANSACTION + AnalyticConcept.TransactionAttribute.TYPE, transactionType);
+            result.set(GraphRecordStoreUtilities.TRANSACTION + GraphRecordStoreUtilities.COMPLETE_WITH_SCHEMA_KEY, "false");
+        });
+    }
 
-            while (r == null && !(r instanceof Boolean) && count < 2) {
-                r = getQuery(url, interaction);
-                count++;
+    /**
+     * Whether a file found by a search is the one a hash was searched for.
+     */
+    private static boolean isFile(final String hashValue, final JSONObject file) {
+        final JSONObject attributes = (JSONObject) file.get("attributes");
+        if (attributes == null) {
+            return false;
+        }
+        for (final String key : HASH_KEYS) {
+            if (hashValue.equalsIgnoreCase((String) attributes.get(key))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds files by hash, several hashes to an intelligence search by joining
+     * them with OR. The files found are matched back to the hash searched for
+     * by their md5, sha1 or sha256.
+     */
+    private BatchLookup<List<JSONObject>> getHashLookup(final RelationshipReader reader) {
+        return new BatchLookup<List<JSONObject>>() {
+            @Override
+            public int getMaximumBatchSize() {
+                return HASH_BATCH_SIZE;
             }
-            if (r != null && !(r instanceof Boolean)) {
-                JSONArray ips = (JSONArray)((JSONObject) d).get("data");
-                for (Object d1 : ips)
-                {
-                    JSONObject ip = (JSONObject)d1;
 
+            @Override
+            public Map<String, List<JSONObject>> lookupBatch(final Collection<String> hashes) {
+                final String search = String.join(" OR ", hashes);
+                final String url = String.format("%s/api/v3/intelligence/search?query=%s&limit=300", VT_URL, UrlEscapers.urlFormParameterEscaper().escape(search));
+                // the limit applies to each hash, as it did when they were searched one at a time
+                final VirusTotalPager pager = reader.getPager(url, null, reader.limit * hashes.size());
+                final Map<String, List<JSONObject>> files = new HashMap<>();
+                while (pager.hasNext()) {
+                    for (final Object o : pager.next()) {
+                        final JSONObject file = (JSONObject) o;
+                        for (final String hash : hashes) {
+                            if (isFile(hash, file)) {
+                                files.computeIfAbsent(hash, k -> new ArrayList<>()).add(file);
+                            }
+                        }
+                    }
+                }
+                return pager.isFailed() ? null : files;
+            }
+        };
+    }
+
+    private Hash drawHashFiles(String hashValue, String hashType, List<JSONObject> files, GraphRecordStore result, boolean showAVResults, Map<String, String> cursors, RelationshipReader reader) {
+        Hash ret = null;
+
+        boolean added = false;
+        if (files != null)
+        {
+            for (JSONObject element : files)
+            {
+                added = true;
+
+                result.add();
+                ret = drawHash(GraphRecordStoreUtilities.SOURCE, result, element, showAVResults);
+
+                if (!ret.getMd5().equalsIgnoreCase(hashValue))
+                {
                     result.add();
-                    result.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, ret.getMd5());
-                    result.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.MD5);
+                    result.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, hashValue);
+                    result.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, hashType);
+                    result.set(GraphRecordStoreUtilities.SOURCE + VirusTotalConcept.VertexAttribute.HAS_VIRUS_TOTAL_ENTRY, true);
+
+                    result.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, ret.getMd5());
+                    result.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.MD5);
+                    result.set(GraphRecordStoreUtilities.DESTINATION + VirusTotalConcept.VertexAttribute.HAS_VIRUS_TOTAL_ENTRY, true);
+                    result.set(GraphRecordStoreUtilities.TRANSACTION + AnalyticConcept.TransactionAttribute.TYPE, AnalyticConcept.TransactionType.SIMILARITY);
 
-                    drawIP(GraphRecordStoreUtilities.DESTINATION, result, ip);
                 }
+
+                // now draw the domains and ips
+                final String md5 = ret.getMd5();
+                final List<Relationship> relationships = new ArrayList<>();
+                relationships.add(new Relationship("contacted_domains",
+                        String.format("%s/api/v3/files/%s/contacted_domains?limit=40", VT_URL, UrlEscapers.urlFormParameterEscaper().escape(hashValue)),
+                        cursors.get("contacted_domains"), domain -> {
+                            result.add();
+                            result.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, md5);
+                            result.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.MD5);
+
+                            drawDomain(GraphRecordStoreUtilities.DESTINATION, result, domain);
+                        }));
+                relationships.add(new Relationship("contacted_ips",
+                        String.format("%s/api/v3/files/%s/contacted_ips?limit=40", VT_URL, UrlEscapers.urlFormParameterEscaper().escape(hashValue)),
+                        cursors.get("contacted_ips"), ip -> {
+                            result.add();
+                            result.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, md5);
+                            result.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.MD5);
+
+                            drawIP(GraphRecordStoreUtilities.DESTINATION, result, ip);
+                        }));
+                reader.queryRelationships(hashValue, hashType, relationships, result);
             }
         } 
         if (!added) {
@@ -508,30 +680,16 @@ public class VirusTotalPlugin extends RecordStoreQueryPlugin implements DataAcce
         result.set(end + VirusTotalConcept.VertexAttribute.HAS_VIRUS_TOTAL_ENTRY, true);
     }
     
-    private void pivotVHash(String md5, String vhash, boolean showAVResults, GraphRecordStore result, PluginInteraction interaction) {
-        String url = String.format("%s/api/v3/intelligence/search?query=vhash:%s&limit=300", VT_URL, UrlEscapers.urlFormParameterEscaper().escape(String.format("\"%s\"",vhash) ) );
-        Object r = getQuery(url, interaction);
-        int count = 0;
+    private void pivot(String md5, String search, String transactionType, boolean showAVResults, GraphRecordStore result, RelationshipReader reader) {
+        String url = String.format("%s/api/v3/intelligence/search?query=%s&limit=300", VT_URL, search);
+        final VirusTotalPager pager = reader.getPager(url, null);
 
-        while (r == null && !(r instanceof Boolean) && count < 2) {
-            r = getQuery(url, interaction);
-            count++;
-        }
-        if (r == null || r instanceof Boolean) {
-            return;
-        }
-        JSONArray data = (JSONArray)((JSONObject)r).get("data");
-        if (data.isEmpty()) 
-        {
-            result.add();
-            result.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, md5);
-            result.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.MD5);
-            result.set(GraphRecordStoreUtilities.SOURCE + VirusTotalConcept.VertexAttribute.HAS_VIRUS_TOTAL_ENTRY, false);
-        }
-        else
+        boolean added = false;
+        while (pager.hasNext())
         {
-            for (Object a : data)
+            for (Object a : pager.next())
             {
+                added = true;
                 JSONObject h = (JSONObject)a;
                 result.add();
                 result.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, md5);
@@ -540,139 +698,71 @@ public class VirusTotalPlugin extends RecordStoreQueryPlugin implements DataAcce
 
                 drawHash(GraphRecordStoreUtilities.DESTINATION, result, h, showAVResults);
                 result.set(GraphRecordStoreUtilities.TRANSACTION + VisualConcept.TransactionAttribute.COLOR, "Blue");
-                result.set(GraphRecordStoreUtilities.TRANSACTION + AnalyticConcept.TransactionAttribute.TYPE, "vHash match");
+                result.set(GraphRecordStoreUtilities.TRANSACTION + AnalyticConcept.TransactionAttribute.TYPE, transactionType);
                 result.set(GraphRecordStoreUtilities.TRANSACTION + GraphRecordStoreUtilities.COMPLETE_WITH_SCHEMA_KEY, "false");   
             }
         }
-    }
-    
-    private void pivotImpHash(String md5, String imphash, boolean showAVResults, GraphRecordStore result, PluginInteraction interaction) {
-        String url = String.format("%s/api/v3/intelligence/search?query=imphash:%s&limit=300", VT_URL, UrlEscapers.urlFormParameterEscaper().escape(String.format("\"%s\"",imphash) ) );
-        Object r = getQuery(url, interaction);
-        int count = 0;
-
-        while (r == null && !(r instanceof Boolean) && count < 2) {
-            r = getQuery(url, interaction);
-            count++;
-        }
-        if (r == null || r instanceof Boolean) {
-            return;
-        }
-        JSONArray data = (JSONArray)((JSONObject)r).get("data");
-        if (data.isEmpty()) 
+        if (!added && !pager.isFailed()) 
         {
             result.add();
             result.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, md5);
             result.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.MD5);
             result.set(GraphRecordStoreUtilities.SOURCE + VirusTotalConcept.VertexAttribute.HAS_VIRUS_TOTAL_ENTRY, false);
         }
-        else
-        {
-            for (Object a : data)
-            {
-                JSONObject h = (JSONObject)a;
-                result.add();
-                result.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, md5);
-                result.set(GraphRecordStoreUtilities.SOURCE + VirusTotalConcept.VertexAttribute.HAS_VIRUS_TOTAL_ENTRY, true);
-                result.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.MD5);
-
-                drawHash(GraphRecordStoreUtilities.DESTINATION, result, h, showAVResults);
-                result.set(GraphRecordStoreUtilities.TRANSACTION + VisualConcept.TransactionAttribute.COLOR, "Blue");
-                result.set(GraphRecordStoreUtilities.TRANSACTION + AnalyticConcept.TransactionAttribute.TYPE, "imphash match");
-                result.set(GraphRecordStoreUtilities.TRANSACTION + GraphRecordStoreUtilities.COMPLETE_WITH_SCHEMA_KEY, "false");   
-            }
-        }
     }
     
-    private void pivotSSDeep(String md5, String ssdeep, boolean showAVResults, GraphRecordStore result, PluginInteraction interaction) {
-        String url = String.format("%s/api/v3/intelligence/search?query=ssdeep:%%22%s+40%%22&limit=300", VT_URL, UrlEscapers.urlFormParameterEscaper().escape(String.format("%s",ssdeep) ) );
-        Object r = getQuery(url, interaction);
-        int count = 0;
-
-        while (r == null && !(r instanceof Boolean) && count < 2) {
-            r = getQuery(url, interaction);
-            count++;
-        }
-        if (r == null || r instanceof Boolean) {
-            return;
-        }
-        JSONArray data = (JSONArray)((JSONObject)r).get("data");
-        if (data.isEmpty()) 
+    private void pivotHash(Hash hash, List<String> pivots, boolean showAVResults, GraphRecordStore result, RelationshipReader reader) {
+        if (pivots.contains("ssdeep") && hash.getSsdeep() != null)
         {
-            result.add();
-            result.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, md5);
-            result.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.MD5);
-            result.set(GraphRecordStoreUtilities.SOURCE + VirusTotalConcept.VertexAttribute.HAS_VIRUS_TOTAL_ENTRY, false);
+            pivotSSDeep(hash.getMd5(), hash.getSsdeep(), showAVResults, result, reader);
         }
-        else
+        if (pivots.contains("vHash") && hash.getVhash() != null)
         {
-            for (Object a : data)
-            {
-                JSONObject h = (JSONObject)a;
-                result.add();
-                result.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, md5);
-                result.set(GraphRecordStoreUtilities.SOURCE + VirusTotalConcept.VertexAttribute.HAS_VIRUS_TOTAL_ENTRY, true);
-                result.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.MD5);
-
-                drawHash(GraphRecordStoreUtilities.DESTINATION, result, h, showAVResults);
-                result.set(GraphRecordStoreUtilities.TRANSACTION + VisualConcept.TransactionAttribute.COLOR, "Blue");
-                result.set(GraphRecordStoreUtilities.TRANSACTION + AnalyticConcept.TransactionAttribute.TYPE, "ssdeep match");
-                result.set(GraphRecordStoreUtilities.TRANSACTION + GraphRecordStoreUtilities.COMPLETE_WITH_SCHEMA_KEY, "false");   
-            }
+            pivotVHash(hash.getMd5(), hash.getVhash(), showAVResults, result, reader);
         }
-    }
-    
-    private void pivotSimilarTo(String md5, boolean showAVResults, GraphRecordStore result, PluginInteraction interaction) {
-        String url = String.format("%s/api/v3/intelligence/search?query=similar-to:%s&limit=300", VT_URL, UrlEscapers.urlFormParameterEscaper().escape(md5) );
-        Object r = getQuery(url, interaction);
-        int count = 0;
-
-        while (r == null && !(r instanceof Boolean) && count < 2) {
-            r = getQuery(url, interaction);
-            count++;
-        }
-        if (r == null || r instanceof Boolean) {
-            return;
-        }
-        JSONArray data = (JSONArray)((JSONObject)r).get("data");
-        if (data.isEmpty()) 
+        if (pivots.contains("imphash") && hash.getImphash() != null)
         {
-            result.add();
-            result.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, md5);
-            result.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.MD5);
-            result.set(GraphRecordStoreUtilities.SOURCE + VirusTotalConcept.VertexAttribute.HAS_VIRUS_TOTAL_ENTRY, false);
+            pivotImpHash(hash.getMd5(), hash.getImphash(), showAVResults, result, reader);
         }
-        else
+        if (pivots.contains("Similar to") && hash.getImphash() != null)
         {
-            for (Object a : data)
-            {
-                JSONObject h = (JSONObject)a;
-                result.add();
-                result.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, md5);
-                result.set(GraphRecordStoreUtilities.SOURCE + VirusTotalConcept.VertexAttribute.HAS_VIRUS_TOTAL_ENTRY, true);
-                result.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.MD5);
-
-                drawHash(GraphRecordStoreUtilities.DESTINATION, result, h, showAVResults);
-                result.set(GraphRecordStoreUtilities.TRANSACTION + VisualConcept.TransactionAttribute.COLOR, "Blue");
-                result.set(GraphRecordStoreUtilities.TRANSACTION + AnalyticConcept.TransactionAttribute.TYPE, "Similar to match");
-                result.set(GraphRecordStoreUtilities.TRANSACTION + GraphRecordStoreUtilities.COMPLETE_WITH_SCHEMA_KEY, "false");   
-            }
+            pivotSimilarTo(hash.getMd5(), showAVResults, result, reader);
         }
     }
     
-    private void queryDomain(String domain, GraphRecordStore result, boolean showAVResults, PluginInteraction interaction) {
+    private void pivotVHash(String md5, String vhash, boolean showAVResults, GraphRecordStore result, RelationshipReader reader) {
+        String search = String.format("vhash:%s", UrlEscapers.urlFormParameterEscaper().escape(String.format("\"%s\"",vhash) ) );
+        pivot(md5, search, "vHash match", showAVResults, result, reader);
+    }
+    
+    private void pivotImpHash(String md5, String imphash, boolean showAVResults, GraphRecordStore result, RelationshipReader reader) {
+        String search = String.format("imphash:%s", UrlEscapers.urlFormParameterEscaper().escape(String.format("\"%s\"",imphash) ) );
+        pivot(md5, search, "imphash match", showAVResults, result, reader);
+    }
+    
+    private void pivotSSDeep(String md5, String ssdeep, boolean showAVResults, GraphRecordStore result, RelationshipReader reader) {
+        String search = String.format("ssdeep:%%22%s+40%%22", UrlEscapers.urlFormParameterEscaper().escape(String.format("%s",ssdeep) ) );
+        pivot(md5, search, "ssdeep match", showAVResults, result, reader);
+    }
+    
+    private void pivotSimilarTo(String md5, boolean showAVResults, GraphRecordStore result, RelationshipReader reader) {
+        String search = String.format("similar-to:%s", UrlEscapers.urlFormParameterEscaper().escape(md5) );
+        pivot(md5, search, "Similar to match", showAVResults, result, reader);
+    }
+    
+    private void queryDomain(String domain, GraphRecordStore result, boolean showAVResults, Map<String, String> cursors, RelationshipReader reader) {
         String url = String.format("%s/api/v3/domains/%s", VT_URL, UrlEscapers.urlFormParameterEscaper().escape(domain));
-        Object r = getQuery(url, interaction);
+        VirusTotalResponse r = getQuery(url, reader.interaction);
         int count = 0;
 
-        while (r == null && !(r instanceof Boolean) && count < 2) {
-            r = getQuery(url, interaction);
+        while (r.isRetry() && count < 2) {
+            r = getQuery(url, reader.interaction);
             count++;
         }
-        if (r == null || r instanceof Boolean) {
+        if (r.getBody() == null) {
             return;
         }
-        JSONObject data = (JSONObject)((JSONObject)r).get("data");
+        JSONObject data = (JSONObject)r.getBody().get("data");
         
         if (data==null) 
         {
@@ -724,86 +814,32 @@ public class VirusTotalPlugin extends RecordStoreQueryPlugin implements DataAcce
             result.set(GraphRecordStoreUtilities.SOURCE + VirusTotalConcept.VertexAttribute.UNDETECTED_COUNT, (Long)lastAnalysisStats.get("undetected"));
         
             // now draw the relationships
-            url = String.format("%s/api/v3/domains/%s/communicating_files?limit=40", VT_URL, UrlEscapers.urlFormParameterEscaper().escape(domain));
-            r = getQuery(url, interaction);
-            count = 0;
-
-            while (r == null && !(r instanceof Boolean) && count < 2) {
-                r = getQuery(url, interaction);
-                count++;
-            }
-            if (r == null || r instanceof Boolean) {
-                return;
-            }
-            JSONArray data1 = (JSONArray)((JSONObject)r).get("data");
-
-            if (!data1.isEmpty()) 
-            {
-
-                for (Object a : data1)
-                {
-                    JSONObject hash = (JSONObject)a;
-
-                    result.add();
-                    result.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, domain);
-                    result.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.HOST_NAME);
-                    result.set(GraphRecordStoreUtilities.SOURCE + VirusTotalConcept.VertexAttribute.HAS_VIRUS_TOTAL_ENTRY, true);
-
-                    drawHash(GraphRecordStoreUtilities.DESTINATION, result, hash, showAVResults);
-                    result.set(GraphRecordStoreUtilities.TRANSACTION + VisualConcept.TransactionAttribute.COLOR, "Blue");
-                    result.set(GraphRecordStoreUtilities.TRANSACTION + AnalyticConcept.TransactionAttribute.TYPE, AnalyticConcept.TransactionType.COMMUNICATION);
-                    result.set(GraphRecordStoreUtilities.TRANSACTION + GraphRecordStoreUtilities.COMPLETE_WITH_SCHEMA_KEY, "false");   
-                }
-            }
-            
-            url = String.format("%s/api/v3/domains/%s/downloaded_files?limit=40", VT_URL, UrlEscapers.urlFormParameterEscaper().escape(domain));
-            r = getQuery(url, interaction);
-            count = 0;
-
-            while (r == null && !(r instanceof Boolean) && count < 2) {
-                r = getQuery(url, interaction);
-                count++;
-            }
-            if (r == null || r instanceof Boolean) {
-                return;
-            }
-             data1 = (JSONArray)((JSONObject)r).get("data");
-
-            if (!data1.isEmpty()) 
-            {
-
-                for (Object a : data1)
-                {
-                    JSONObject hash = (JSONObject)a;
-
-                    result.add();
-                    result.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, domain);
-                    result.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, AnalyticConcept.VertexType.HOST_NAME);
-                    result.set(GraphRecordStoreUtilities.SOURCE + VirusTotalConcept.VertexAttribute.HAS_VIRUS_TOTAL_ENTRY, true);
-
-                    drawHash(GraphRecordStoreUtilities.DESTINATION, result, hash, showAVResults);
-                    result.set(GraphRecordStoreUtilities.TRANSACTION + VisualConcept.TransactionAttribute.COLOR, "Blue");
-                    result.set(GraphRecordStoreUtilities.TRANSACTION + AnalyticConcept.TransactionAttribute.TYPE, "Downloaded");
-                    result.set(GraphRecordStoreUtilities.TRANSACTION + GraphRecordStoreUtilities.COMPLETE_WITH_SCHEMA_KEY, "false");   
-                }
-            }
+            final String type = AnalyticConcept.VertexType.HOST_NAME.getName();
+            final List<Relationship> relationships = new ArrayList<>();
+            relationships.add(getHashRelationship("communicating_files",
+                    String.format("%s/api/v3/domains/%s/communicating_files?limit=40", VT_URL, UrlEscapers.urlFormParameterEscaper().escape(domain)),
+                    domain, type, AnalyticConcept.TransactionType.COMMUNICATION.getName(), showAVResults, cursors, result));
+            relationships.add(getHashRelationship("downloaded_files",
+                    String.format("%s/api/v3/domains/%s/downloaded_files?limit=40", VT_URL, UrlEscapers.urlFormParameterEscaper().escape(domain)),
+                    domain, type, "Downloaded", showAVResults, cursors, result));
+            reader.queryRelationships(domain, type, relationships, result);
         }
     }
     
-    private void queryIP(String ip, String type, GraphRecordStore result, boolean showAVResults, PluginInteraction interaction) {
+    private void queryIP(String ip, String type, GraphRecordStore result, boolean showAVResults, Map<String, String> cursors, RelationshipReader reader) {
         
         String url = String.format("%s/api/v3/ip_addresses/%s", VT_URL, UrlEscapers.urlFormParameterEscaper().escape(ip));
-        Object r = getQuery(url, interaction);
+        VirusTotalResponse r = getQuery(url, reader.interaction);
         int count = 0;
 
-        while (r == null && !(r instanceof Boolean) && count < 2) {
-            r = getQuery(url, interaction);
+        while (r.isRetry() && count < 2) {
+            r = getQuery(url, reader.interaction);
             count++;
         }
-        if (r == null || r instanceof Boolean) {
+        if (r.getBody() == null) {
             return;
         }
-        JSONObject data = (JSONObject)((JSONObject)r).get("data");
+        JSONObject data = (JSONObject)r.getBody().get("data");
         
         if (data==null) 
         {
@@ -838,74 +874,15 @@ public class VirusTotalPlugin extends RecordStoreQueryPlugin implements DataAcce
             result.set(GraphRecordStoreUtilities.SOURCE + VirusTotalConcept.VertexAttribute.TYPE_UNSUPPORTED_COUNT, (Long)lastAnalysisStats.get("type-unsupported"));
             result.set(GraphRecordStoreUtilities.SOURCE + VirusTotalConcept.VertexAttribute.UNDETECTED_COUNT, (Long)lastAnalysisStats.get("undetected"));
         
-            
-            // communicating files.
-            url = String.format("%s/api/v3/ip_addresses/%s/communicating_files", VT_URL, UrlEscapers.urlFormParameterEscaper().escape(ip));
-            r = getQuery(url, interaction);
-            count = 0;
-
-            while (r == null && !(r instanceof Boolean) && count < 2) {
-                r = getQuery(url, interaction);
-                count++;
-            }
-            if (r == null || r instanceof Boolean) {
-                return;
-            }
-
-            JSONArray data1 = (JSONArray)((JSONObject)r).get("data");
-
-            if (!data1.isEmpty()) 
-            {
-
-                for (Object a : data1)
-                {
-                    JSONObject hash = (JSONObject)a;
-
-                    result.add();
-                    result.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, ip);
-                    result.set(GraphRecordStoreUtilities.SOURCE + VirusTotalConcept.VertexAttribute.HAS_VIRUS_TOTAL_ENTRY, true);
-                    result.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, type);
-
-                    drawHash(GraphRecordStoreUtilities.DESTINATION, result, hash, showAVResults);
-                    result.set(GraphRecordStoreUtilities.TRANSACTION + VisualConcept.TransactionAttribute.COLOR, "Blue");
-                    result.set(GraphRecordStoreUtilities.TRANSACTION + AnalyticConcept.TransactionAttribute.TYPE, AnalyticConcept.TransactionType.COMMUNICATION);
-                    result.set(GraphRecordStoreUtilities.TRANSACTION + GraphRecordStoreUtilities.COMPLETE_WITH_SCHEMA_KEY, "false");   
-                }
-            }
-            
-            // downloaded files.
-            url = String.format("%s/api/v3/ip_addresses/%s/downloaded_files", VT_URL, UrlEscapers.urlFormParameterEscaper().escape(ip));
-            r = getQuery(url, interaction);
-            count = 0;
-
-            while (r == null && !(r instanceof Boolean) && count < 2) {
-                r = getQuery(url, interaction);
-                count++;
-            }
-            if (r == null || r instanceof Boolean) {
-                return;
-            }
-
-            data1 = (JSONArray)((JSONObject)r).get("data");
-
-            if (!data1.isEmpty()) 
-            {
-
-                for (Object a : data1)
-                {
-                    JSONObject hash = (JSONObject)a;
-
-                    result.add();
-                    result.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, ip);
-                    result.set(GraphRecordStoreUtilities.SOURCE + VirusTotalConcept.VertexAttribute.HAS_VIRUS_TOTAL_ENTRY, true);
-                    result.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, type);
-
-                    drawHash(GraphRecordStoreUtilities.DESTINATION, result, hash, showAVResults);
-                    result.set(GraphRecordStoreUtilities.TRANSACTION + VisualConcept.TransactionAttribute.COLOR, "Blue");
-                    result.set(GraphRecordStoreUtilities.TRANSACTION + AnalyticConcept.TransactionAttribute.TYPE, "Downloaded");
-                    result.set(GraphRecordStoreUtilities.TRANSACTION + GraphRecordStoreUtilities.COMPLETE_WITH_SCHEMA_KEY, "false");   
-                }
-            }
+            // communicating and downloaded files.
+            final List<Relationship> relationships = new ArrayList<>();
+            relationships.add(getHashRelationship("communicating_files",
+                    String.format("%s/api/v3/ip_addresses/%s/communicating_files?limit=40", VT_URL, UrlEscapers.urlFormParameterEscaper().escape(ip)),
+                    ip, type, AnalyticConcept.TransactionType.COMMUNICATION.getName(), showAVResults, cursors, result));
+            relationships.add(getHashRelationship("downloaded_files",
+                    String.format("%s/api/v3/ip_addresses/%s/downloaded_files?limit=40", VT_URL, UrlEscapers.urlFormParameterEscaper().escape(ip)),
+                    ip, type, "Downloaded", showAVResults, cursors, result));
+            reader.queryRelationships(ip, type, relationships, result);
         }
     }
 
@@ -940,57 +917,80 @@ public class VirusTotalPlugin extends RecordStoreQueryPlugin implements DataAcce
         boolean showAVResults = params.get(SHOW_AV_RESULTS_PARAMETER).getBooleanValue();
         final MultiChoiceParameterType.MultiChoiceParameterValue hashPivots = parameters.getMultiChoiceValue(HASH_PIVOTS_PARAMETER_ID);
         List<String> pivots = hashPivots.getChoices();
+        final int relationshipLimit = params.get(RELATIONSHIP_LIMIT_PARAMETER_ID).getIntegerValue();
+        boolean resume = params.get(RESUME_PARAMETER_ID).getBooleanValue();
         
         query.reset();
 
+        final ExecutorService executor = Executors.newFixedThreadPool(RELATIONSHIP_THREADS);
+        final RelationshipReader reader = new RelationshipReader(interaction, relationshipLimit, executor);
         int i = 0;
-        while (query.next()) {
-            try {
-                int id = Integer.parseInt(query.get(GraphRecordStoreUtilities.SOURCE + GraphRecordStoreUtilities.ID));
-                String label = query.get(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.LABEL);
-                String type = label.substring(label.lastIndexOf('<') + 1, label.lastIndexOf('>'));
-                String searchValue = query.get(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER);
-                
-                interaction.setProgress(i, query.size(), "Querying on " + searchValue, true);
-
-                if (type.equalsIgnoreCase(AnalyticConcept.VertexType.HASH.toString())
-                        || type.equalsIgnoreCase(AnalyticConcept.VertexType.MD5.getName())
-                        || type.equalsIgnoreCase(AnalyticConcept.VertexType.SHA1.getName())
-                        || type.equalsIgnoreCase(AnalyticConcept.VertexType.SHA256.getName())) {
-                    Hash hash = queryHash(searchValue, type, result, showAVResults, interaction);
-                    
-                    if (hash != null && pivots.size() > 0)
+        // the same indicator is often selected on several rows, only query it once
+        final Set<String> queried = new HashSet<>();
+        final Map<String, HashTarget> hashes = new LinkedHashMap<>();
+        try {
+            while (query.next()) {
+                try {
+                    int id = Integer.parseInt(query.get(GraphRecordStoreUtilities.SOURCE + GraphRecordStoreUtilities.ID));
+                    String label = query.get(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.LABEL);
+                    String type = label.substring(label.lastIndexOf('<') + 1, label.lastIndexOf('>'));
+                    String searchValue = query.get(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER);
+                    if (!queried.add(type.toLowerCase() + ":" + searchValue))
                     {
-                        if (pivots.contains("ssdeep") && hash.getSsdeep() != null)
-                        {
-                            pivotSSDeep(hash.getMd5(), hash.getSsdeep(), showAVResults, result, interaction);
-                        }
-                        if (pivots.contains("vHash") && hash.getVhash() != null)
-                        {
-                            pivotVHash(hash.getMd5(), hash.getVhash(), showAVResults, result, interaction);
-                        }
-                        if (pivots.contains("imphash") && hash.getImphash() != null)
-                        {
-                            pivotImpHash(hash.getMd5(), hash.getImphash(), showAVResults, result, interaction);
-                        }
-                        if (pivots.contains("Similar to") && hash.getImphash() != null)
+                        continue;
+                    }
+
+                    interaction.setProgress(i, query.size(), "Querying on " + searchValue, true);
+
+                    final Map<String, String> cursors = new HashMap<>();
+                    if (resume)
+                    {
+                        for (String relationship : RELATIONSHIPS)
                         {
-                            pivotSimilarTo(hash.getMd5(), showAVResults, result, interaction);
+                            cursors.put(relationship, query.get(GraphRecordStoreUtilities.SOURCE + getCursorAttribute(relationship)));
                         }
                     }
+
+                    if (type.equalsIgnoreCase(AnalyticConcept.VertexType.HASH.toString())
+                            || type.equalsIgnoreCase(AnalyticConcept.VertexType.MD5.getName())
+                            || type.equalsIgnoreCase(AnalyticConcept.VertexType.SHA1.getName())
+                            || type.equalsIgnoreCase(AnalyticConcept.VertexType.SHA256.getName())) {
+                        // searched for together once every row has been read
+                        hashes.putIfAbsent(searchValue, new HashTarget(type, cursors));
+                    }
+                    else if (type.equalsIgnoreCase(AnalyticConcept.VertexType.HOST_NAME.getName())) {
+                        queryDomain(searchValue, result, showAVResults, cursors, reader);
+                    }
+                    else if (type.equalsIgnoreCase(AnalyticConcept.VertexType.IPV4.getName()) ||
+                            type.equalsIgnoreCase(AnalyticConcept.VertexType.IPV6.getName()) ||
+                            type.equalsIgnoreCase(AnalyticConcept.VertexType.IP_ADDRESS.getName())) {
+                        queryIP(searchValue, type, result, showAVResults, cursors, reader);
+                    }
+
+                } catch (InterruptedException ex) {
+                    Exceptions.printStackTrace(ex);
                 }
-                else if (type.equalsIgnoreCase(AnalyticConcept.VertexType.HOST_NAME.getName())) {
-                    queryDomain(searchValue, result, showAVResults, interaction);
-                }
-                else if (type.equalsIgnoreCase(AnalyticConcept.VertexType.IPV4.getName()) ||
-                        type.equalsIgnoreCase(AnalyticConcept.VertexType.IPV6.getName()) ||
-                        type.equalsIgnoreCase(AnalyticConcept.VertexType.IP_ADDRESS.getName())) {
-                    queryIP(searchValue, type, result, showAVResults, interaction);
-                }
-                
-            } catch (InterruptedException ex) {
-                Exceptions.printStackTrace(ex);
             }
+
+            if (!hashes.isEmpty()) {
+                interaction.setProgress(0, hashes.size(), String.format("Querying VirusTotal for %d hashes", hashes.size()), true);
+                final int[] done = {0};
+                BatchLookups.lookup(getHashLookup(reader), hashes.keySet(), (batch, files) -> {
+                    for (final String hashValue : batch) {
+                        final HashTarget target = hashes.get(hashValue);
+                        final Hash hash = drawHashFiles(hashValue, target.type, files.get(hashValue), result, showAVResults, target.cursors, reader);
+                        if (hash != null && pivots.size() > 0) {
+                            pivotHash(hash, pivots, showAVResults, result, reader);
+                        }
+                    }
+                    done[0] += batch.size();
+                    interaction.setProgress(done[0], hashes.size(), String.format("Querying VirusTotal for %d hashes", hashes.size()), true);
+                });
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
         }
         return result;
     }
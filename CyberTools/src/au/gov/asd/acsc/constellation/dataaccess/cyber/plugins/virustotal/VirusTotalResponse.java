@@ -0,0 +1,62 @@
+/*
+ * Copyright 2010-2020 Australian Signals Directorate
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package au.gov.asd.acsc.constellation.dataaccess.cyber.plugins.virustotal;
+
+import org.json.simple.JSONObject;
+
+/**
+ * The outcome of a single VirusTotal request: the parsed response, a request
+ * that should be retried, or a request that failed and should not be.
+ */
+final class VirusTotalResponse {
+
+    static final VirusTotalResponse RETRY = new VirusTotalResponse(null);
+    static final VirusTotalResponse FAILED = new VirusTotalResponse(null);
+
+    private final JSONObject body;
+
+    private VirusTotalResponse(final JSONObject body) {
+        this.body = body;
+    }
+
+    /**
+     * A parsed response, a null body is treated as a request to retry.
+     *
+     * @param body the parsed response.
+     * @return the response.
+     */
+    static VirusTotalResponse of(final JSONObject body) {
+        return body == null ? RETRY : new VirusTotalResponse(body);
+    }
+
+    boolean isRetry() {
+        return this == RETRY;
+    }
+
+    boolean isFailed() {
+        return this == FAILED;
+    }
+
+    /**
+     * The parsed response.
+     *
+     * @return the response, or null if the request is to be retried or
+     * failed.
+     */
+    JSONObject getBody() {
+        return body;
+    }
+}
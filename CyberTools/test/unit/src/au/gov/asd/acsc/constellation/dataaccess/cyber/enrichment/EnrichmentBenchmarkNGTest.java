@@ -0,0 +1,277 @@
+/*
+ * Copyright 2010-2020 Australian Signals Directorate
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment;
+
+import au.gov.asd.acsc.constellation.dataaccess.cyber.plugins.crowdstrike.CrowdstrikePlugin;
+import au.gov.asd.acsc.constellation.dataaccess.cyber.plugins.domaintools.DomainToolsPlugin;
+import au.gov.asd.acsc.constellation.dataaccess.cyber.plugins.greynoise.GreyNoisePlugin;
+import au.gov.asd.acsc.constellation.dataaccess.cyber.plugins.intezer.IntezerPlugin;
+import au.gov.asd.acsc.constellation.dataaccess.cyber.plugins.shodan.ShodanPlugin;
+import au.gov.asd.acsc.constellation.dataaccess.cyber.plugins.urlhaus.URLHausPlugin;
+import au.gov.asd.acsc.constellation.dataaccess.cyber.plugins.virustotal.VirusTotalPlugin;
+import au.gov.asd.acsc.constellation.preferences.ACSCPreferenceKeys;
+import au.gov.asd.acsc.constellation.schema.cyberschema.CyberSchemaFactory;
+import au.gov.asd.tac.constellation.graph.StoreGraph;
+import au.gov.asd.tac.constellation.graph.schema.SchemaFactoryUtilities;
+import au.gov.asd.tac.constellation.graph.schema.analytic.concept.AnalyticConcept;
+import au.gov.asd.tac.constellation.graph.schema.type.SchemaVertexType;
+import au.gov.asd.tac.constellation.graph.schema.visual.concept.VisualConcept;
+import au.gov.asd.tac.constellation.plugins.Plugin;
+import au.gov.asd.tac.constellation.plugins.PluginException;
+import au.gov.asd.tac.constellation.plugins.PluginExecution;
+import au.gov.asd.tac.constellation.plugins.parameters.PluginParameters;
+import au.gov.asd.tac.constellation.plugins.parameters.types.MultiChoiceParameterType;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import java.util.prefs.Preferences;
+import java.util.stream.Collectors;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.openide.util.NbPreferences;
+import org.testng.SkipException;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Throughput and latency of each enrichment plugin's query, run against
+ * {@link MockEnrichmentServer} rather than the real services.
+ * <p>
+ * The benchmarks only run when acsc.enrichment.benchmark is set to true. The
+ * stub can be tuned with these system properties, all prefixed with
+ * acsc.enrichment.benchmark.:
+ * <pre>
+ * vertices     the vertices selected for each run, default 20
+ * runs         the measured runs of each plugin, default 3
+ * latency.min  the shortest response delay in milliseconds, default 20
+ * latency.max  the longest response delay in milliseconds, default 80
+ * rate.429     the share of requests throttled, default 0.02
+ * rate.204     the share of requests answered with no content, default 0
+ * padding      the bytes added to each JSON object response, default 0
+ * </pre>
+ */
+public class EnrichmentBenchmarkNGTest {
+
+    private static final Logger LOGGER = Logger.getLogger(EnrichmentBenchmarkNGTest.class.getName());
+
+    private static final String PREFIX = "acsc.enrichment.benchmark.";
+    private static final String KEY = "benchmark";
+
+    private final Map<String, String> preferences = new HashMap<>();
+    private MockEnrichmentServer server;
+    private int vertices;
+    private int runs;
+
+    @BeforeClass
+    public void setUpClass() throws IOException {
+        if (!Boolean.getBoolean("acsc.enrichment.benchmark")) {
+            throw new SkipException("Set acsc.enrichment.benchmark to true to run the enrichment benchmarks");
+        }
+        vertices = Integer.getInteger(PREFIX + "vertices", 20);
+        runs = Integer.getInteger(PREFIX + "runs", 3);
+
+        server = new MockEnrichmentServer()
+                .setLatency(Long.getLong(PREFIX + "latency.min", 20), Long.getLong(PREFIX + "latency.max", 80), TimeUnit.MILLISECONDS)
+                .setTooManyRequestsRate(Double.parseDouble(System.getProperty(PREFIX + "rate.429", "0.02")))
+                .setNoContentRate(Double.parseDouble(System.getProperty(PREFIX + "rate.204", "0")))
+                .setPaddingSize(Integer.getInteger(PREFIX + "padding", 0))
+                .start();
+
+        // the quick endpoint answers for every ip asked about at once
+        final String quick = MockEnrichmentServer.getRecording("greynoise-quick.json");
+        server.route("GET", "/v2/noise/multi/quick", 200, request -> Arrays.stream(request.getParameter("ips").split(","))
+                .map(ip -> quick.trim().replace("${ip}", ip))
+                .collect(Collectors.joining(",", "[", "]")))
+                .replay("GET", "/v2/noise/context/([^/]+)", 200, "greynoise-context.json")
+                .replay("GET", "/shodan/host/count", 200, "shodan-count.json")
+                .replay("GET", "/shodan/host/search", 200, "shodan-search.json")
+                .replay("GET", "/shodan/host/([^/]+)", 200, "shodan-host.json")
+                .replay("GET", "/api/v3/ip_addresses/([^/]+)", 200, "virustotal-ip.json")
+                .replay("GET", "/api/v3/domains/([^/]+)", 200, "virustotal-domain.json")
+                .replay("GET", "/api/v3/(ip_addresses|domains)/[^/]+/[a-z_]+", 200, "virustotal-files.json")
+                .replay("POST", "/v1/host/", 200, "urlhaus-host.json")
+                .replay("GET", "/v1/([^/]+)/whois/parsed", 200, "domaintools-whois.json")
+                .replay("GET", "/v1/([^/]+)/", 200, "domaintools-profile.json")
+                .replay("GET", "/indicator/v2/search/indicator", 200, "crowdstrike-indicators.json")
+                .replay("GET", "/(reports|actors)/queries/[a-z]+/v1", 200, "crowdstrike-ids.json")
+                .replay("GET", "/reports/entities/reports/v1", 200, "crowdstrike-reports.json")
+                .replay("GET", "/actors/entities/actors/v1", 200, "crowdstrike-actors.json")
+                .replay("POST", "/api/v2-0/get-access-token", 200, "intezer-token.json")
+                .replay("POST", "/api/v2-0/analyze-by-hash", 201, "intezer-analyze.json")
+                .replay("GET", "/api/v2-0/analyses/([^/]+)", 200, "intezer-analysis.json")
+                .replay("GET", "/api/v2-0/analyses/[^/]+/sub-analyses", 200, "intezer-sub-analyses.json")
+                .replay("GET", "/api/v2-0/analyses/[^/]+/sub-analyses/[^/]+/metadata", 200, "intezer-metadata.json")
+                .replay("GET", "/api/v2-0/analyses/[^/]+/sub-analyses/[^/]+/code-reuse", 200, "intezer-code-reuse.json");
+
+        server.point("greynoise", "")
+                .point("shodan", "")
+                .point("urlhaus", "")
+                .point("domaintools", "/v1")
+                .point("crowdstrike", "")
+                .point("intezer", "/api/v2-0");
+
+        setPreference(ACSCPreferenceKeys.VIRUS_TOTAL_URL, server.getUrl());
+        setPreference(ACSCPreferenceKeys.VIRUS_TOTAL_API_KEY, KEY);
+        setPreference(ACSCPreferenceKeys.GREYNOISE_API_KEY, KEY);
+        setPreference(ACSCPreferenceKeys.SHODAN_API_KEY, KEY);
+        setPreference(ACSCPreferenceKeys.DOMAINTOOLS_API_KEY, KEY);
+        setPreference(ACSCPreferenceKeys.DOMAINTOOLS_USERNAME, KEY);
+        setPreference(ACSCPreferenceKeys.CROWDSTRIKE_SECRET, KEY);
+        setPreference(ACSCPreferenceKeys.CROWDSTRIKE_USERNAME, KEY);
+        setPreference(ACSCPreferenceKeys.INTEZER_API_KEY, KEY);
+    }
+
+    @AfterClass
+    public void tearDownClass() {
+        final Preferences prefs = NbPreferences.forModule(ACSCPreferenceKeys.class);
+        for (final Map.Entry<String, String> preference : preferences.entrySet()) {
+            if (preference.getValue() == null) {
+                prefs.remove(preference.getKey());
+            } else {
+                prefs.put(preference.getKey(), preference.getValue());
+            }
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    private void setPreference(final String key, final String value) {
+        final Preferences prefs = NbPreferences.forModule(ACSCPreferenceKeys.class);
+        preferences.putIfAbsent(key, prefs.get(key, null));
+        prefs.put(key, value);
+    }
+
+    @Test
+    public void benchmarkGreyNoise() throws InterruptedException, PluginException {
+        benchmark("GreyNoise", GreyNoisePlugin::new, Collections.emptyMap(), AnalyticConcept.VertexType.IPV4, this::ip);
+    }
+
+    @Test
+    public void benchmarkGreyNoiseContext() throws InterruptedException, PluginException {
+        benchmark("GreyNoise context", GreyNoisePlugin::new, Collections.singletonMap(GreyNoisePlugin.DETAILED_PARAMETER, true), AnalyticConcept.VertexType.IPV4, this::ip);
+    }
+
+    @Test
+    public void benchmarkShodan() throws InterruptedException, PluginException {
+        benchmark("Shodan", ShodanPlugin::new, Collections.emptyMap(), AnalyticConcept.VertexType.IPV4, this::ip);
+    }
+
+    @Test
+    public void benchmarkVirusTotal() throws InterruptedException, PluginException {
+        benchmark("VirusTotal", VirusTotalPlugin::new, Collections.emptyMap(), AnalyticConcept.VertexType.IPV4, this::ip);
+    }
+
+    @Test
+    public void benchmarkURLHaus() throws InterruptedException, PluginException {
+        benchmark("URLhaus", URLHausPlugin::new, Collections.emptyMap(), AnalyticConcept.VertexType.HOST_NAME, this::host);
+    }
+
+    @Test
+    public void benchmarkDomainTools() throws InterruptedException, PluginException {
+        final PluginParameters parameters = new DomainToolsPlugin().createParameters();
+        MultiChoiceParameterType.setChoices(parameters.getParameters().get(DomainToolsPlugin.QUERY_PARAMETER_ID), Arrays.asList("Profile", "Whois"));
+        final Map<String, Object> values = new HashMap<>();
+        values.put(DomainToolsPlugin.QUERY_PARAMETER_ID, parameters.getMultiChoiceValue(DomainToolsPlugin.QUERY_PARAMETER_ID));
+        // the stub has no rate limit to respect
+        values.put(DomainToolsPlugin.QUERY_RATE_PARAMETER_ID, 60000);
+        benchmark("DomainTools", DomainToolsPlugin::new, values, AnalyticConcept.VertexType.HOST_NAME, this::host);
+    }
+
+    @Test
+    public void benchmarkCrowdstrike() throws InterruptedException, PluginException {
+        benchmark("CrowdStrike", CrowdstrikePlugin::new, Collections.emptyMap(), AnalyticConcept.VertexType.IPV4, this::ip);
+    }
+
+    @Test
+    public void benchmarkIntezer() throws InterruptedException, PluginException {
+        benchmark("Intezer", IntezerPlugin::new, Collections.emptyMap(), AnalyticConcept.VertexType.SHA256, this::sha256);
+    }
+
+    /*
+     * every run selects identifiers not seen before, so caches only help
+     * within a run
+     */
+    private int run = 0;
+
+    private String ip(final int i) {
+        return String.format("198.%d.%d.%d", 18 + run / 256, run % 256, i % 256);
+    }
+
+    private String host(final int i) {
+        return String.format("host%d-%d.example.com", run, i);
+    }
+
+    private String sha256(final int i) {
+        return String.format("%032x%032x", run, i);
+    }
+
+    /**
+     * Run a plugin once to warm up, then measure the given number of runs.
+     */
+    private void benchmark(final String name, final Supplier<Plugin> plugin, final Map<String, Object> parameters, final SchemaVertexType type, final IntFunction<String> identifier) throws InterruptedException, PluginException {
+        final List<Long> times = new ArrayList<>();
+        for (int i = 0; i <= runs; i++) {
+            run++;
+            final StoreGraph graph = new StoreGraph(SchemaFactoryUtilities.getSchemaFactory(CyberSchemaFactory.CYBER_SCHEMA_ID).createSchema());
+            final int identifierAttribute = VisualConcept.VertexAttribute.IDENTIFIER.ensure(graph);
+            final int typeAttribute = AnalyticConcept.VertexAttribute.TYPE.ensure(graph);
+            final int selectedAttribute = VisualConcept.VertexAttribute.SELECTED.ensure(graph);
+            for (int v = 0; v < vertices; v++) {
+                final int vertex = graph.addVertex();
+                graph.setStringValue(identifierAttribute, vertex, identifier.apply(v));
+                graph.setObjectValue(typeAttribute, vertex, type);
+                graph.setBooleanValue(selectedAttribute, vertex, true);
+            }
+
+            server.reset();
+            PluginExecution execution = PluginExecution.withPlugin(plugin.get());
+            for (final Map.Entry<String, Object> parameter : parameters.entrySet()) {
+                execution = execution.withParameter(parameter.getKey(), parameter.getValue());
+            }
+            final long start = System.nanoTime();
+            execution.executeNow(graph);
+            final long elapsed = System.nanoTime() - start;
+
+            assertTrue(server.getRequestCount() > 0, name + " made no requests");
+            assertEquals(server.getUnmatchedCount(), 0, name + " made requests the stub has no recording for");
+            if (i == 0) {
+                LOGGER.info(String.format("%s warm up: %d ms", name, TimeUnit.NANOSECONDS.toMillis(elapsed)));
+                continue;
+            }
+            times.add(elapsed);
+            LOGGER.info(String.format("%s run %d: %d vertices in %d ms, %.1f vertices/s, %d requests, %d throttled, %d no content, peak concurrency %d, %d KB",
+                    name, i, vertices, TimeUnit.NANOSECONDS.toMillis(elapsed), vertices * 1e9 / elapsed,
+                    server.getRequestCount(), server.getTooManyRequestsCount(), server.getNoContentCount(),
+                    server.getPeakConcurrency(), server.getBytesSent() / 1024));
+        }
+
+        Collections.sort(times);
+        final long mean = times.stream().mapToLong(Long::longValue).sum() / times.size();
+        LOGGER.info(String.format("%s: min %d ms, mean %d ms, max %d ms per %d vertices, %.1f ms per vertex",
+                name, TimeUnit.NANOSECONDS.toMillis(times.get(0)), TimeUnit.NANOSECONDS.toMillis(mean),
+                TimeUnit.NANOSECONDS.toMillis(times.get(times.size() - 1)), vertices, mean / 1e6 / vertices));
+    }
+}
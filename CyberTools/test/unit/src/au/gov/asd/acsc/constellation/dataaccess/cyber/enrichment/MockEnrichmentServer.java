@@ -0,0 +1,448 @@
+/*
+ * Copyright 2010-2020 Australian Signals Directorate
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package au.gov.asd.acsc.constellation.dataaccess.cyber.enrichment;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A local HTTP stub that replays recorded enrichment service responses, so
+ * the plugins can be run and measured without using real API quota.
+ * <p>
+ * Each route matches a method and a path pattern. Recorded responses are
+ * read from the responses folder next to this class, and
+ * <code>${1}</code> or <code>${name}</code> in them are replaced by the
+ * matching path group or request parameter. Every response is delayed by
+ * the configured latency, and a share of requests can be answered with a 429
+ * or 204 instead.
+ */
+public class MockEnrichmentServer implements AutoCloseable {
+
+    /**
+     * Builds the body of a response.
+     */
+    public interface Responder {
+
+        String respond(Request request) throws IOException;
+    }
+
+    /**
+     * A request that matched a route.
+     */
+    public static final class Request {
+
+        private final Matcher path;
+        private final Map<String, String> parameters;
+
+        private Request(final Matcher path, final Map<String, String> parameters) {
+            this.path = path;
+            this.parameters = parameters;
+        }
+
+        /**
+         * A group of the route's path pattern.
+         *
+         * @param group the group number.
+         * @return the decoded group.
+         */
+        public String getGroup(final int group) {
+            return decode(path.group(group));
+        }
+
+        /**
+         * A query or form parameter.
+         *
+         * @param name the parameter name.
+         * @return the value, or null if it was not sent.
+         */
+        public String getParameter(final String name) {
+            return parameters.get(name);
+        }
+    }
+
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\$\\{([A-Za-z0-9_]+)\\}");
+
+    private final List<Route> routes = new ArrayList<>();
+    private final Map<String, String> properties = new HashMap<>();
+    private final Random random = new Random(0);
+
+    private long minimumLatency = 0;
+    private long maximumLatency = 0;
+    private double tooManyRequestsRate = 0;
+    private double noContentRate = 0;
+    private int paddingSize = 0;
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger tooManyRequests = new AtomicInteger();
+    private final AtomicInteger noContent = new AtomicInteger();
+    private final AtomicInteger unmatched = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger peakActive = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * Delay every response by a random time in a range.
+     *
+     * @param minimum the shortest delay.
+     * @param maximum the longest delay.
+     * @param unit the unit of the delays.
+     * @return this server.
+     */
+    public MockEnrichmentServer setLatency(final long minimum, final long maximum, final TimeUnit unit) {
+        minimumLatency = unit.toMillis(minimum);
+        maximumLatency = Math.max(minimumLatency, unit.toMillis(maximum));
+        return this;
+    }
+
+    /**
+     * @param rate the share of requests answered with a 429, from 0 to 1.
+     * @return this server.
+     */
+    public MockEnrichmentServer setTooManyRequestsRate(final double rate) {
+        tooManyRequestsRate = rate;
+        return this;
+    }
+
+    /**
+     * @param rate the share of requests answered with a 204, from 0 to 1.
+     * @return this server.
+     */
+    public MockEnrichmentServer setNoContentRate(final double rate) {
+        noContentRate = rate;
+        return this;
+    }
+
+    /**
+     * Pad each JSON object response with a field of this many bytes, so
+     * larger payloads can be measured with the same recordings.
+     *
+     * @param size the padding in bytes.
+     * @return this server.
+     */
+    public MockEnrichmentServer setPaddingSize(final int size) {
+        paddingSize = size;
+        return this;
+    }
+
+    /**
+     * Answer matching requests with a recorded response.
+     *
+     * @param method the HTTP method.
+     * @param path a pattern matching the whole request path.
+     * @param status the status code to answer with.
+     * @param resource the name of the recording in the responses folder.
+     * @return this server.
+     */
+    public MockEnrichmentServer replay(final String method, final String path, final int status, final String resource) {
+        final String recording = getRecording(resource);
+        return route(method, path, status, request -> fill(recording, request));
+    }
+
+    /**
+     * Answer matching requests with a generated response.
+     *
+     * @param method the HTTP method.
+     * @param path a pattern matching the whole request path.
+     * @param status the status code to answer with.
+     * @param responder builds the response body.
+     * @return this server.
+     */
+    public MockEnrichmentServer route(final String method, final String path, final int status, final Responder responder) {
+        routes.add(new Route(method, Pattern.compile(path), status, responder));
+        return this;
+    }
+
+    /**
+     * Read a recording from the responses folder.
+     *
+     * @param resource the name of the recording.
+     * @return the recording.
+     */
+    public static String getRecording(final String resource) {
+        try (final InputStream in = MockEnrichmentServer.class.getResourceAsStream("responses/" + resource)) {
+            if (in == null) {
+                throw new IllegalArgumentException("No recorded response " + resource);
+            }
+            return new String(readAll(in), StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            throw new IllegalArgumentException("Unable to read recorded response " + resource, ex);
+        }
+    }
+
+    /**
+     * Replace the placeholders in a recording with the values of a request.
+     *
+     * @param recording the recording.
+     * @param request the request.
+     * @return the response body.
+     */
+    public static String fill(final String recording, final Request request) {
+        final Matcher matcher = PLACEHOLDER.matcher(recording);
+        final StringBuffer filled = new StringBuffer();
+        while (matcher.find()) {
+            final String name = matcher.group(1);
+            final String value = name.chars().allMatch(Character::isDigit) ? request.getGroup(Integer.parseInt(name)) : request.getParameter(name);
+            matcher.appendReplacement(filled, Matcher.quoteReplacement(value == null ? "" : value));
+        }
+        matcher.appendTail(filled);
+        return filled.toString();
+    }
+
+    /**
+     * Start listening on a free local port.
+     *
+     * @return this server.
+     * @throws IOException if the server could not be started.
+     */
+    public MockEnrichmentServer start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+        return this;
+    }
+
+    /**
+     * @return the base url of the server.
+     */
+    public String getUrl() {
+        return String.format("http://%s:%d", server.getAddress().getHostString(), server.getAddress().getPort());
+    }
+
+    /**
+     * Point a provider at this server, see {@link EnrichmentEndpoints}. The
+     * provider's clients must be created after this is called.
+     *
+     * @param provider the provider key, such as greynoise.
+     * @param path the path the provider's base url ends with, if any.
+     * @return this server.
+     */
+    public MockEnrichmentServer point(final String provider, final String path) {
+        final String property = String.format("acsc.enrichment.%s.url", provider);
+        properties.putIfAbsent(property, System.getProperty(property));
+        System.setProperty(property, getUrl() + path);
+        return this;
+    }
+
+    /**
+     * Clear the counts, so each run can be measured on its own.
+     */
+    public void reset() {
+        requests.set(0);
+        tooManyRequests.set(0);
+        noContent.set(0);
+        unmatched.set(0);
+        peakActive.set(0);
+        bytes.set(0);
+    }
+
+    public int getRequestCount() {
+        return requests.get();
+    }
+
+    public int getTooManyRequestsCount() {
+        return tooManyRequests.get();
+    }
+
+    public int getNoContentCount() {
+        return noContent.get();
+    }
+
+    /**
+     * @return the number of requests that matched no route, answered with a
+     * 404.
+     */
+    public int getUnmatchedCount() {
+        return unmatched.get();
+    }
+
+    /**
+     * @return the most requests that were being answered at once.
+     */
+    public int getPeakConcurrency() {
+        return peakActive.get();
+    }
+
+    /**
+     * @return the number of response bytes sent.
+     */
+    public long getBytesSent() {
+        return bytes.get();
+    }
+
+    @Override
+    public void close() {
+        for (final Map.Entry<String, String> property : properties.entrySet()) {
+            if (property.getValue() == null) {
+                System.clearProperty(property.getKey());
+            } else {
+                System.setProperty(property.getKey(), property.getValue());
+            }
+        }
+        properties.clear();
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        peakActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+        try {
+            requests.incrementAndGet();
+            final byte[] body = readAll(exchange.getRequestBody());
+            final long latency;
+            final double roll;
+            synchronized (random) {
+                latency = minimumLatency + (maximumLatency > minimumLatency ? (long) (random.nextDouble() * (maximumLatency - minimumLatency)) : 0);
+                roll = random.nextDouble();
+            }
+            if (latency > 0) {
+                Thread.sleep(latency);
+            }
+
+            if (roll < tooManyRequestsRate) {
+                tooManyRequests.incrementAndGet();
+                exchange.getResponseHeaders().add("Retry-After", "1");
+                send(exchange, 429, null);
+                return;
+            }
+            if (roll < tooManyRequestsRate + noContentRate) {
+                noContent.incrementAndGet();
+                send(exchange, 204, null);
+                return;
+            }
+
+            final String path = exchange.getRequestURI().getRawPath();
+            for (final Route route : routes) {
+                final Matcher matcher = route.path.matcher(path);
+                if (route.method.equalsIgnoreCase(exchange.getRequestMethod()) && matcher.matches()) {
+                    final Map<String, String> parameters = new HashMap<>();
+                    parseParameters(exchange.getRequestURI().getRawQuery(), parameters);
+                    final String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+                    if (contentType != null && contentType.startsWith("application/x-www-form-urlencoded")) {
+                        parseParameters(new String(body, StandardCharsets.UTF_8), parameters);
+                    }
+                    send(exchange, route.status, pad(route.responder.respond(new Request(matcher, parameters))));
+                    return;
+                }
+            }
+            unmatched.incrementAndGet();
+            send(exchange, 404, null);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            active.decrementAndGet();
+            exchange.close();
+        }
+    }
+
+    private String pad(final String response) {
+        if (paddingSize <= 0 || !response.startsWith("{")) {
+            return response;
+        }
+        final char[] padding = new char[paddingSize];
+        Arrays.fill(padding, 'x');
+        final String rest = response.substring(1).trim();
+        return String.format("{\"padding\":\"%s\"%s%s", new String(padding), rest.equals("}") ? "" : ",", rest);
+    }
+
+    private void send(final HttpExchange exchange, final int status, final String response) throws IOException {
+        if (response == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        final byte[] content = response.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, content.length);
+        try (final OutputStream out = exchange.getResponseBody()) {
+            out.write(content);
+        }
+        bytes.addAndGet(content.length);
+    }
+
+    private static void parseParameters(final String encoded, final Map<String, String> parameters) {
+        if (encoded == null || encoded.isEmpty()) {
+            return;
+        }
+        for (final String pair : encoded.split("&")) {
+            final int equals = pair.indexOf('=');
+            if (equals > 0) {
+                parameters.putIfAbsent(decode(pair.substring(0, equals)), decode(pair.substring(equals + 1)));
+            }
+        }
+    }
+
+    private static String decode(final String value) {
+        try {
+            return URLDecoder.decode(value, StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static byte[] readAll(final InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static final class Route {
+
+        private final String method;
+        private final Pattern path;
+        private final int status;
+        private final Responder responder;
+
+        private Route(final String method, final Pattern path, final int status, final Responder responder) {
+            this.method = method;
+            this.path = path;
+            this.status = status;
+            this.responder = responder;
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2010-2020 Australian Signals Directorate
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package au.gov.asd.acsc.constellation.dataaccess.cyber.plugins.maxmind;
+
+import com.maxmind.db.InvalidDatabaseException;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import static org.testng.Assert.assertEquals;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Prefix lengths found by {@link MaxmindNetworks} in small MaxMind DB files
+ * written by the test, covering each record size and the edges of the IPv4
+ * and IPv6 address ranges.
+ */
+public class MaxmindNetworksNGTest {
+
+    private static final byte[] METADATA_START = {(byte) 0xAB, (byte) 0xCD, (byte) 0xEF,
+        'M', 'a', 'x', 'M', 'i', 'n', 'd', '.', 'c', 'o', 'm'};
+
+    private final List<File> files = new ArrayList<>();
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        for (final File file : files) {
+            Files.deleteIfExists(file.toPath());
+        }
+        files.clear();
+    }
+
+    @DataProvider
+    public Object[][] recordSizes() {
+        return new Object[][]{{24}, {28}, {32}};
+    }
+
+    @Test(dataProvider = "recordSizes")
+    public void testIpv4(final int recordSize) throws IOException {
+        final MaxmindNetworks networks = open(4, recordSize, "10.0.0.0/8", "192.168.1.0/24", "1.2.3.4/32");
+
+        assertEquals(networks.getPrefixLength(address("10.0.0.0")), 8);
+        assertEquals(networks.getPrefixLength(address("10.255.255.255")), 8);
+        assertEquals(networks.getPrefixLength(address("192.168.1.77")), 24);
+        assertEquals(networks.getPrefixLength(address("1.2.3.4")), 32);
+        assertEquals(networks.getPrefixLength(address("1.2.3.5")), -1);
+        assertEquals(networks.getPrefixLength(address("192.168.2.1")), -1);
+        assertEquals(networks.getPrefixLength(address("255.255.255.255")), -1);
+    }
+
+    @Test
+    public void testIpv4HalfRange() throws IOException {
+        final MaxmindNetworks networks = open(4, 24, "128.0.0.0/1");
+
+        assertEquals(networks.getPrefixLength(address("128.0.0.0")), 1);
+        assertEquals(networks.getPrefixLength(address("255.255.255.255")), 1);
+        assertEquals(networks.getPrefixLength(address("127.255.255.255")), -1);
+        assertEquals(networks.getPrefixLength(address("0.0.0.0")), -1);
+    }
+
+    @Test
+    public void testIpv6InIpv4Database() throws IOException {
+        final MaxmindNetworks networks = open(4, 24, "10.0.0.0/8");
+
+        assertEquals(networks.getPrefixLength(address("2001:db8::1")), -1);
+    }
+
+    @Test(dataProvider = "recordSizes")
+    public void testIpv6(final int recordSize) throws IOException {
+        final MaxmindNetworks networks = open(6, recordSize, "2001:db8::/32", "::1/128", "8000::/1", "10.0.0.0/8", "203.0.113.7/32");
+
+        assertEquals(networks.getPrefixLength(address("2001:db8::")), 32);
+        assertEquals(networks.getPrefixLength(address("2001:db8:ffff:ffff:ffff:ffff:ffff:ffff")), 32);
+        assertEquals(networks.getPrefixLength(address("2001:db9::")), -1);
+        assertEquals(networks.getPrefixLength(address("::1")), 128);
+        assertEquals(networks.getPrefixLength(address("::2")), -1);
+        assertEquals(networks.getPrefixLength(address("ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff")), 1);
+    }
+
+    @Test(dataProvider = "recordSizes")
+    public void testIpv4InIpv6Database(final int recordSize) throws IOException {
+        final MaxmindNetworks networks = open(6, recordSize, "2001:db8::/32", "10.0.0.0/8", "203.0.113.7/32");
+
+        // ipv4 prefix lengths are relative to the ipv4 address
+        assertEquals(networks.getPrefixLength(address("10.1.2.3")), 8);
+        assertEquals(networks.getPrefixLength(address("203.0.113.7")), 32);
+        assertEquals(networks.getPrefixLength(address("203.0.113.8")), -1);
+        assertEquals(networks.getPrefixLength(address("::a01:203")), 104);
+    }
+
+    @Test
+    public void testIpv6DatabaseWithoutIpv4() throws IOException {
+        final MaxmindNetworks networks = open(6, 24, "2001:db8::/32");
+
+        assertEquals(networks.getPrefixLength(address("10.1.2.3")), -1);
+        assertEquals(networks.getPrefixLength(address("2001:db8::1")), 32);
+    }
+
+    @Test(expectedExceptions = InvalidDatabaseException.class)
+    public void testUnsupportedRecordSize() throws IOException {
+        final File file = temp();
+        Files.write(file.toPath(), database(4, 24, 20, "10.0.0.0/8"));
+        MaxmindNetworks.open(file);
+    }
+
+    @Test(expectedExceptions = InvalidDatabaseException.class)
+    public void testMissingMetadata() throws IOException {
+        final File file = temp();
+        Files.write(file.toPath(), new byte[1024]);
+        MaxmindNetworks.open(file);
+    }
+
+    private static InetAddress address(final String address) throws IOException {
+        return InetAddress.getByName(address);
+    }
+
+    private File temp() throws IOException {
+        final File file = File.createTempFile("networks", ".mmdb");
+        files.add(file);
+        return file;
+    }
+
+    private MaxmindNetworks open(final int ipVersion, final int recordSize, final String... networks) throws IOException {
+        final File file = temp();
+        Files.write(file.toPath(), database(ipVersion, recordSize, recordSize, networks));
+        return MaxmindNetworks.open(file);
+    }
+
+    private static final class Node {
+
+        private final Node[] children = new Node[2];
+        private final boolean[] data = new boolean[2];
+    }
+
+    /**
+     * A MaxMind DB file holding the networks, each pointing at an empty map.
+     * IPv4 networks are placed under ::/96 in an IPv6 database.
+     */
+    private static byte[] database(final int ipVersion, final int recordSize, final int declaredRecordSize, final String... networks) throws IOException {
+        final Node root = new Node();
+        for (final String network : networks) {
+            final String[] parts = network.split("/");
+            byte[] raw = InetAddress.getByName(parts[0]).getAddress();
+            int prefixLength = Integer.parseInt(parts[1]);
+            if (raw.length == 4 && ipVersion == 6) {
+                final byte[] mapped = new byte[16];
+                System.arraycopy(raw, 0, mapped, 12, 4);
+                raw = mapped;
+                prefixLength += 96;
+            }
+            Node node = root;
+            for (int depth = 0; depth < prefixLength - 1; depth++) {
+                final int bit = bit(raw, depth);
+                if (node.children[bit] == null) {
+                    node.children[bit] = new Node();
+                }
+                node = node.children[bit];
+            }
+            node.data[bit(raw, prefixLength - 1)] = true;
+        }
+
+        // number the nodes breadth first, the root is node 0
+        final List<Node> nodes = new ArrayList<>();
+        final Map<Node, Integer> ids = new IdentityHashMap<>();
+        final Queue<Node> queue = new ArrayDeque<>();
+        queue.add(root);
+        while (!queue.isEmpty()) {
+            final Node node = queue.remove();
+            ids.put(node, nodes.size());
+            nodes.add(node);
+            for (final Node child : node.children) {
+                if (child != null) {
+                    queue.add(child);
+                }
+            }
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final int nodeCount = nodes.size();
+        for (final Node node : nodes) {
+            final long[] records = new long[2];
+            for (int i = 0; i < 2; i++) {
+                if (node.children[i] != null) {
+                    records[i] = ids.get(node.children[i]);
+                } else if (node.data[i]) {
+                    // the data section starts after a 16 byte separator
+                    records[i] = nodeCount + 16;
+                } else {
+                    records[i] = nodeCount;
+                }
+            }
+            switch (recordSize) {
+                case 24:
+                    writeBytes(out, records[0], 3);
+                    writeBytes(out, records[1], 3);
+                    break;
+                case 28:
+                    writeBytes(out, records[0], 3);
+                    out.write((int) (((records[0] >> 24) & 0x0F) << 4 | ((records[1] >> 24) & 0x0F)));
+                    writeBytes(out, records[1], 3);
+                    break;
+                default:
+                    writeBytes(out, records[0], 4);
+                    writeBytes(out, records[1], 4);
+                    break;
+            }
+        }
+        out.write(new byte[16]);
+        // the data section, a single empty map
+        out.write(0xE0);
+
+        out.write(METADATA_START);
+        out.write(0xE0 | 9);
+        // fields the parser has to skip over
+        writeString(out, "binary_format_major_version");
+        writeUnsigned(out, 5, 2, 2);
+        writeString(out, "binary_format_minor_version");
+        writeUnsigned(out, 5, 0, 2);
+        writeString(out, "build_epoch");
+        out.write(8);
+        out.write(9 - 7);
+        writeBytes(out, 1600000000L, 8);
+        writeString(out, "database_type");
+        writeString(out, "Test-ISP");
+        writeString(out, "languages");
+        out.write(0x01);
+        out.write(11 - 7);
+        writeString(out, "en");
+        writeString(out, "description");
+        out.write(0xE0 | 1);
+        writeString(out, "en");
+        writeString(out, "A test database");
+        // then the fields it reads
+        writeString(out, "node_count");
+        writeUnsigned(out, 6, nodeCount, 4);
+        writeString(out, "record_size");
+        writeUnsigned(out, 5, declaredRecordSize, 2);
+        writeString(out, "ip_version");
+        writeUnsigned(out, 5, ipVersion, 2);
+        return out.toByteArray();
+    }
+
+    private static int bit(final byte[] raw, final int depth) {
+        return 1 & ((0xFF & raw[depth / 8]) >> 7 - (depth % 8));
+    }
+
+    private static void writeBytes(final ByteArrayOutputStream out, final long value, final int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            out.write((int) (0xFF & (value >> (8 * i))));
+        }
+    }
+
+    private static void writeString(final ByteArrayOutputStream out, final String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.write(2 << 5 | bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeUnsigned(final ByteArrayOutputStream out, final int type, final long value, final int length) {
+        out.write(type << 5 | length);
+        writeBytes(out, value, length);
+    }
+}
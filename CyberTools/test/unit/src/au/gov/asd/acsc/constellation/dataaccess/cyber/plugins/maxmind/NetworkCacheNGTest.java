@@ -0,0 +1,89 @@
+/*
+ * Copyright 2010-2020 Australian Signals Directorate
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package au.gov.asd.acsc.constellation.dataaccess.cyber.plugins.maxmind;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import org.testng.annotations.Test;
+
+/**
+ * Finding the cached block containing an address.
+ */
+public class NetworkCacheNGTest {
+
+    private static long ip(final int a, final int b, final int c, final int d) {
+        return ((long) a << 24) | (b << 16) | (c << 8) | d;
+    }
+
+    @Test
+    public void testBlockEdges() {
+        final NetworkCache<String> cache = new NetworkCache<>();
+        cache.put(ip(10, 1, 2, 3), 8, "ten");
+        cache.put(ip(192, 168, 1, 200), 24, "home");
+        cache.put(ip(1, 2, 3, 4), 32, "host");
+
+        assertEquals(cache.size(), 3);
+        assertEquals(cache.get(ip(10, 0, 0, 0)), "ten");
+        assertEquals(cache.get(ip(10, 255, 255, 255)), "ten");
+        assertNull(cache.get(ip(11, 0, 0, 0)));
+        assertNull(cache.get(ip(9, 255, 255, 255)));
+        assertEquals(cache.get(ip(192, 168, 1, 0)), "home");
+        assertEquals(cache.get(ip(192, 168, 1, 255)), "home");
+        assertNull(cache.get(ip(192, 168, 2, 0)));
+        assertEquals(cache.get(ip(1, 2, 3, 4)), "host");
+        assertNull(cache.get(ip(1, 2, 3, 5)));
+        assertNull(cache.get(ip(1, 2, 3, 3)));
+    }
+
+    @Test
+    public void testWholeRange() {
+        final NetworkCache<String> cache = new NetworkCache<>();
+        cache.put(ip(255, 255, 255, 255), 1, "upper");
+
+        assertNull(cache.get(ip(127, 255, 255, 255)));
+        assertEquals(cache.get(ip(128, 0, 0, 0)), "upper");
+        assertEquals(cache.get(ip(255, 255, 255, 255)), "upper");
+
+        final NetworkCache<String> all = new NetworkCache<>();
+        all.put(ip(1, 1, 1, 1), 0, "all");
+        assertEquals(all.get(ip(0, 0, 0, 0)), "all");
+        assertEquals(all.get(ip(255, 255, 255, 255)), "all");
+    }
+
+    @Test
+    public void testReplace() {
+        final NetworkCache<String> cache = new NetworkCache<>();
+        cache.put(ip(10, 0, 0, 1), 24, "first");
+        cache.put(ip(10, 0, 0, 2), 24, "second");
+
+        assertEquals(cache.size(), 1);
+        assertEquals(cache.get(ip(10, 0, 0, 99)), "second");
+    }
+
+    @Test
+    public void testManyBlocks() {
+        final NetworkCache<Integer> cache = new NetworkCache<>();
+        // added out of order, as lookups would
+        for (int i = 0; i < 4096; i++) {
+            final int block = (int) ((i * 2654435761L) % 4096);
+            cache.put(ip(10, block >> 4, (block & 0xF) << 4, 1), 28, block);
+        }
+        assertEquals(cache.size(), 4096);
+        for (int block = 0; block < 4096; block++) {
+            assertEquals(cache.get(ip(10, block >> 4, (block & 0xF) << 4, 15)), Integer.valueOf(block));
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2010-2020 Australian Signals Directorate
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package au.gov.asd.acsc.constellation.stix.exportstix;
+
+import au.gov.asd.tac.constellation.graph.Graph;
+import au.gov.asd.tac.constellation.graph.manager.GraphManager;
+import au.gov.asd.tac.constellation.plugins.PluginExecutor;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import javafx.application.Platform;
+import javafx.stage.FileChooser;
+import org.openide.awt.ActionID;
+import org.openide.awt.ActionReference;
+import org.openide.awt.ActionReferences;
+import org.openide.awt.ActionRegistration;
+import org.openide.util.NbBundle.Messages;
+
+@ActionID(
+        category = "File",
+        id = "au.gov.asd.acsc.constellation.stix.exportstix.ExportStixFileAction")
+@ActionRegistration(
+        displayName = "#CTL_ExportStixFileAction", iconBase = "au/gov/asd/acsc/constellation/schema/cyberschema/icons/oasis_icon.png")
+@ActionReferences({
+    @ActionReference(path = "Menu/File/Export", position = 0)
+})
+@Messages("CTL_ExportStixFileAction=Export STIX...")
+public final class ExportStixFileAction implements ActionListener {
+
+    @Override
+    public void actionPerformed(final ActionEvent e) {
+        final Graph graph = GraphManager.getDefault().getActiveGraph();
+        if (graph == null) {
+            return;
+        }
+        Platform.runLater(() -> {
+            final FileChooser chooser = new FileChooser();
+            chooser.setTitle("Export STIX");
+            chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("STIX 2 file", "*.json"));
+            File file = chooser.showSaveDialog(null);
+            if (file != null) {
+                if (!file.getName().toLowerCase().endsWith(".json")) {
+                    file = new File(file.getPath() + ".json");
+                }
+                PluginExecutor.startWith(ExportStixFilePlugin.class.getName())
+                        .set(ExportStixFilePlugin.FILEPATH_PARAMETER_ID, file.getPath())
+                        .executeLater(graph);
+            }
+        });
+    }
+}
@@ -0,0 +1,624 @@
+/*
+ * Copyright 2010-2020 Australian Signals Directorate
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package au.gov.asd.acsc.constellation.stix.exportstix;
+
+import au.gov.asd.acsc.constellation.stix.schema.StixTypes;
+import au.gov.asd.tac.constellation.graph.Graph;
+import au.gov.asd.tac.constellation.graph.GraphElementType;
+import au.gov.asd.tac.constellation.graph.GraphReadMethods;
+import au.gov.asd.tac.constellation.graph.schema.analytic.concept.AnalyticConcept;
+import au.gov.asd.tac.constellation.graph.schema.analytic.concept.ContentConcept;
+import au.gov.asd.tac.constellation.graph.schema.analytic.concept.SpatialConcept;
+import au.gov.asd.tac.constellation.graph.schema.analytic.concept.TemporalConcept;
+import au.gov.asd.tac.constellation.graph.schema.type.SchemaTransactionType;
+import au.gov.asd.tac.constellation.graph.schema.type.SchemaVertexType;
+import au.gov.asd.tac.constellation.graph.schema.visual.concept.VisualConcept;
+import au.gov.asd.tac.constellation.plugins.Plugin;
+import au.gov.asd.tac.constellation.plugins.PluginException;
+import au.gov.asd.tac.constellation.plugins.PluginInteraction;
+import au.gov.asd.tac.constellation.plugins.PluginNotificationLevel;
+import au.gov.asd.tac.constellation.plugins.parameters.PluginParameter;
+import au.gov.asd.tac.constellation.plugins.parameters.PluginParameters;
+import au.gov.asd.tac.constellation.plugins.parameters.types.BooleanParameterType;
+import au.gov.asd.tac.constellation.plugins.parameters.types.BooleanParameterType.BooleanParameterValue;
+import au.gov.asd.tac.constellation.plugins.parameters.types.FileParameterType;
+import au.gov.asd.tac.constellation.plugins.parameters.types.FileParameterType.FileParameterValue;
+import au.gov.asd.tac.constellation.plugins.templates.SimpleReadPlugin;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import javafx.stage.FileChooser.ExtensionFilter;
+import org.openide.util.NbBundle;
+import org.openide.util.lookup.ServiceProvider;
+import org.openide.util.lookup.ServiceProviders;
+
+/**
+ * Export the vertices and transactions of a graph as a STIX 2.1 bundle.
+ * <p>
+ * Vertices whose type has a STIX equivalent become SDOs or SCOs and
+ * transactions between them become relationships. The bundle is written
+ * with a streaming generator as the graph is read, so no JSON tree is built
+ * however large the graph is.
+ */
+@ServiceProviders({
+    @ServiceProvider(service = Plugin.class)
+})
+@NbBundle.Messages("ExportStixFilePlugin=Export STIX File")
+public class ExportStixFilePlugin extends SimpleReadPlugin {
+
+    public static final String FILEPATH_PARAMETER_ID = PluginParameter.buildId(ExportStixFilePlugin.class, "path");
+    public static final String SELECTED_ONLY_PARAMETER_ID = PluginParameter.buildId(ExportStixFilePlugin.class, "selectedOnly");
+
+    private static final String SPEC_VERSION = "2.1";
+    private static final int PROGRESS_INTERVAL = 1000;
+
+    /**
+     * The namespace STIX 2.1 defines for deterministic observable ids.
+     */
+    private static final UUID SCO_NAMESPACE = UUID.fromString("00abedb4-aa42-466c-9c01-fed23315a9b7");
+
+    /**
+     * Domain objects are also given name-based ids, so exporting the same
+     * graph twice gives the same ids and re-imports only pick up changes.
+     */
+    private static final UUID SDO_NAMESPACE = uuid5(SCO_NAMESPACE, "au.gov.asd.acsc.constellation.stix");
+
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+    private static final DateTimeFormatter CONSTELLATION_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS xxx['['VV']']");
+
+    private enum Kind {
+        STRING, LIST, INTEGER, BOOLEAN, TIMESTAMP
+    }
+
+    private static final class Property {
+
+        private final String attribute;
+        private final String name;
+        private final Kind kind;
+
+        private Property(final String attribute, final String name, final Kind kind) {
+            this.attribute = attribute;
+            this.name = name;
+            this.kind = kind;
+        }
+    }
+
+    /* The attributes written back to stix properties, the reverse of the importer's mappings */
+    private static final List<Property> PROPERTIES = new ArrayList<>();
+
+    /* The property holding an observable's identifier, by stix type */
+    private static final Map<String, String> OBSERVABLE_KEYS = new HashMap<>();
+
+    static {
+        PROPERTIES.add(new Property(ContentConcept.VertexAttribute.DESCRIPTION.getName(), "description", Kind.STRING));
+        PROPERTIES.add(new Property(ContentConcept.VertexAttribute.CONTENT.getName(), "content", Kind.STRING));
+        PROPERTIES.add(new Property("Abstract", "abstract", Kind.STRING));
+        PROPERTIES.add(new Property("Summary", "summary", Kind.STRING));
+        PROPERTIES.add(new Property("Opinion", "opinion", Kind.STRING));
+        PROPERTIES.add(new Property("Explanation", "explanation", Kind.STRING));
+        PROPERTIES.add(new Property("Objective", "objective", Kind.STRING));
+        PROPERTIES.add(new Property("Context", "context", Kind.STRING));
+        PROPERTIES.add(new Property("Pattern", "pattern", Kind.STRING));
+        PROPERTIES.add(new Property("Pattern type", "pattern_type", Kind.STRING));
+        PROPERTIES.add(new Property("Pattern version", "pattern_version", Kind.STRING));
+        PROPERTIES.add(new Property("Identity type", "identity_class", Kind.STRING));
+        PROPERTIES.add(new Property("Contact Information", "contact_information", Kind.STRING));
+        PROPERTIES.add(new Property("Primary Motivation", "primary_motivation", Kind.STRING));
+        PROPERTIES.add(new Property("Sophistication", "sophistication", Kind.STRING));
+        PROPERTIES.add(new Property("Tool Version", "tool_version", Kind.STRING));
+        PROPERTIES.add(new Property("Product", "product", Kind.STRING));
+        PROPERTIES.add(new Property("Vendor", "vendor", Kind.STRING));
+        PROPERTIES.add(new Property("Version", "version", Kind.STRING));
+        PROPERTIES.add(new Property("Result", "result", Kind.STRING));
+        PROPERTIES.add(new Property("MIME Type", "mime_type", Kind.STRING));
+        PROPERTIES.add(new Property("Street", "street_address", Kind.STRING));
+        PROPERTIES.add(new Property("City", "city", Kind.STRING));
+        PROPERTIES.add(new Property("State", "administrative_area", Kind.STRING));
+        PROPERTIES.add(new Property("Postal code", "postal_code", Kind.STRING));
+        PROPERTIES.add(new Property("Region", "region", Kind.STRING));
+        PROPERTIES.add(new Property(SpatialConcept.VertexAttribute.COUNTRY.getName(), "country", Kind.STRING));
+        PROPERTIES.add(new Property("Aliases", "aliases", Kind.LIST));
+        PROPERTIES.add(new Property("Labels", "labels", Kind.LIST));
+        PROPERTIES.add(new Property("Goals", "goals", Kind.LIST));
+        PROPERTIES.add(new Property("Roles", "roles", Kind.LIST));
+        PROPERTIES.add(new Property("Sectors", "sectors", Kind.LIST));
+        PROPERTIES.add(new Property("Malware Types", "malware_types", Kind.LIST));
+        PROPERTIES.add(new Property("Tool Types", "tool_types", Kind.LIST));
+        PROPERTIES.add(new Property("Threat Actor Types", "threat_actor_types", Kind.LIST));
+        PROPERTIES.add(new Property("Report Types", "report_types", Kind.LIST));
+        PROPERTIES.add(new Property("Indicator Types", "indicator_types", Kind.LIST));
+        PROPERTIES.add(new Property("Infrastructure Types", "infrastructure_types", Kind.LIST));
+        PROPERTIES.add(new Property("Personal Motivations", "personal_motivations", Kind.LIST));
+        PROPERTIES.add(new Property("Secondary motivations", "secondary_motivations", Kind.LIST));
+        PROPERTIES.add(new Property("Capabilities", "capabilities", Kind.LIST));
+        PROPERTIES.add(new Property("Architectures", "architecture_execution_envs", Kind.LIST));
+        PROPERTIES.add(new Property("Protocols", "protocols", Kind.LIST));
+        PROPERTIES.add(new Property("Confidence", "confidence", Kind.INTEGER));
+        PROPERTIES.add(new Property("Revoked", "revoked", Kind.BOOLEAN));
+        PROPERTIES.add(new Property("Is malware family", "is_family", Kind.BOOLEAN));
+        PROPERTIES.add(new Property("Published", "published", Kind.TIMESTAMP));
+        PROPERTIES.add(new Property("Valid from", "valid_from", Kind.TIMESTAMP));
+        PROPERTIES.add(new Property("Valid until", "valid_until", Kind.TIMESTAMP));
+        PROPERTIES.add(new Property(TemporalConcept.VertexAttribute.FIRST_SEEN.getName(), "first_seen", Kind.TIMESTAMP));
+        PROPERTIES.add(new Property(TemporalConcept.VertexAttribute.LAST_SEEN.getName(), "last_seen", Kind.TIMESTAMP));
+
+        OBSERVABLE_KEYS.put("ipv4-addr", "value");
+        OBSERVABLE_KEYS.put("ipv6-addr", "value");
+        OBSERVABLE_KEYS.put("domain-name", "value");
+        OBSERVABLE_KEYS.put("url", "value");
+        OBSERVABLE_KEYS.put("email-addr", "value");
+        OBSERVABLE_KEYS.put("mac-addr", "value");
+        OBSERVABLE_KEYS.put("autonomous-system", "number");
+        OBSERVABLE_KEYS.put("directory", "path");
+        OBSERVABLE_KEYS.put("file", "name");
+        OBSERVABLE_KEYS.put("mutex", "name");
+        OBSERVABLE_KEYS.put("software", "name");
+        OBSERVABLE_KEYS.put("user-account", "user_id");
+        OBSERVABLE_KEYS.put("windows-registry-key", "key");
+        OBSERVABLE_KEYS.put("x509-certificate", "serial_number");
+        OBSERVABLE_KEYS.put("email-message", "subject");
+        OBSERVABLE_KEYS.put("process", "command_line");
+    }
+
+    @Override
+    public PluginParameters createParameters() {
+        final PluginParameters params = new PluginParameters();
+
+        final PluginParameter<FileParameterValue> filePathParam = FileParameterType.build(FILEPATH_PARAMETER_ID);
+        filePathParam.setName("File to write");
+        filePathParam.setDescription("File to write");
+        FileParameterType.setKind(filePathParam, FileParameterType.FileParameterKind.SAVE);
+        FileParameterType.setFileFilters(filePathParam, new ExtensionFilter("STIX 2 file", "*.json"));
+        params.addParameter(filePathParam);
+
+        final PluginParameter<BooleanParameterValue> selectedOnlyParam = BooleanParameterType.build(SELECTED_ONLY_PARAMETER_ID);
+        selectedOnlyParam.setName("Selected Only");
+        selectedOnlyParam.setDescription("Only export the selected vertices and the transactions between them");
+        params.addParameter(selectedOnlyParam);
+
+        return params;
+    }
+
+    /**
+     * The attribute ids of everything written for each element, looked up
+     * once per export.
+     */
+    private static final class Attributes {
+
+        private int identifier;
+        private int type;
+        private int selected;
+        private int created;
+        private int modified;
+        private final int[] properties = new int[PROPERTIES.size()];
+        private int transactionType;
+        private int transactionSelected;
+        private int transactionDescription;
+
+        private Attributes(final GraphReadMethods graph) {
+            identifier = VisualConcept.VertexAttribute.IDENTIFIER.get(graph);
+            type = AnalyticConcept.VertexAttribute.TYPE.get(graph);
+            selected = VisualConcept.VertexAttribute.SELECTED.get(graph);
+            created = graph.getAttribute(GraphElementType.VERTEX, TemporalConcept.VertexAttribute.CREATED.getName());
+            modified = graph.getAttribute(GraphElementType.VERTEX, TemporalConcept.VertexAttribute.MODIFIED.getName());
+            for (int i = 0; i < properties.length; i++) {
+                properties[i] = graph.getAttribute(GraphElementType.VERTEX, PROPERTIES.get(i).attribute);
+            }
+            transactionType = AnalyticConcept.TransactionAttribute.TYPE.get(graph);
+            transactionSelected = VisualConcept.TransactionAttribute.SELECTED.get(graph);
+            transactionDescription = graph.getAttribute(GraphElementType.TRANSACTION, ContentConcept.TransactionAttribute.DESCRIPTION.getName());
+        }
+    }
+
+    @Override
+    protected void read(final GraphReadMethods graph, final PluginInteraction interaction, final PluginParameters parameters) throws InterruptedException, PluginException {
+        final String filepath = parameters.getParameters().get(FILEPATH_PARAMETER_ID).getStringValue();
+        final boolean selectedOnly = parameters.getParameters().get(SELECTED_ONLY_PARAMETER_ID).getBooleanValue();
+        if (filepath == null || filepath.isBlank()) {
+            interaction.notify(PluginNotificationLevel.FATAL, "No file to export to.");
+            return;
+        }
+
+        final Attributes attributes = new Attributes(graph);
+        if (attributes.identifier == Graph.NOT_FOUND || attributes.type == Graph.NOT_FOUND) {
+            interaction.notify(PluginNotificationLevel.FATAL, "The graph has no Identifier or Type attribute to export.");
+            return;
+        }
+
+        final String now = TIMESTAMP_FORMAT.format(ZonedDateTime.now(ZoneOffset.UTC));
+        final int vertexCount = graph.getVertexCount();
+        final int transactionCount = graph.getTransactionCount();
+        int objects = 0;
+        int relationships = 0;
+        int skipped = 0;
+
+        // the stix id of each exported vertex, by vertex id, so transactions
+        // and observed data can refer to objects written before or after them
+        final String[] ids = new String[graph.getVertexCapacity()];
+        for (int position = 0; position < vertexCount; position++) {
+            final int vertex = graph.getVertex(position);
+            if (!selectedOnly || attributes.selected == Graph.NOT_FOUND || graph.getBooleanValue(attributes.selected, vertex)) {
+                ids[vertex] = getId(graph, vertex, attributes);
+                if (ids[vertex] == null) {
+                    skipped++;
+                }
+            }
+        }
+        // vertices merged into one object, and parallel transactions of the
+        // same type merged into one relationship, are only written once
+        final Set<String> written = new HashSet<>();
+
+        final JsonFactory factory = new JsonFactory();
+        try (final JsonGenerator generator = factory.createGenerator(new File(filepath), JsonEncoding.UTF8)) {
+            generator.useDefaultPrettyPrinter();
+            generator.writeStartObject();
+            generator.writeStringField("type", "bundle");
+            generator.writeStringField("id", "bundle--" + UUID.randomUUID());
+            generator.writeArrayFieldStart("objects");
+
+            for (int position = 0; position < vertexCount; position++) {
+                final int vertex = graph.getVertex(position);
+                if (ids[vertex] != null && written.add(ids[vertex])) {
+                    writeVertex(graph, vertex, ids, attributes, now, generator);
+                    objects++;
+                }
+                if (position % PROGRESS_INTERVAL == 0) {
+                    checkInterrupted();
+                    interaction.setProgress(position, vertexCount + transactionCount, "Exporting STIX objects", true);
+                }
+            }
+
+            for (int position = 0; position < transactionCount; position++) {
+                final int transaction = graph.getTransaction(position);
+                final String source = ids[graph.getTransactionSourceVertex(transaction)];
+                final String target = ids[graph.getTransactionDestinationVertex(transaction)];
+                if (source != null && target != null && writeRelationship(graph, transaction, source, target, written, attributes, now, generator)) {
+                    relationships++;
+                }
+                if (position % PROGRESS_INTERVAL == 0) {
+                    checkInterrupted();
+                    interaction.setProgress(vertexCount + position, vertexCount + transactionCount, "Exporting STIX relationships", true);
+                }
+            }
+
+            generator.writeEndArray();
+            generator.writeEndObject();
+        } catch (final IOException ex) {
+            interaction.notify(PluginNotificationLevel.ERROR, String.format("Unable to write %s: %s", filepath, ex.getMessage()));
+            return;
+        }
+
+        final String message = String.format("Exported %d STIX objects and %d relationships to %s", objects, relationships, filepath);
+        interaction.notify(PluginNotificationLevel.INFO, skipped == 0 ? message : String.format("%s, %d vertices have no STIX type and were left out", message, skipped));
+    }
+
+    private static void checkInterrupted() throws InterruptedException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    /**
+     * The stix id a vertex is exported with. Observable ids are derived from
+     * their identifying property as STIX 2.1 specifies, and other objects
+     * from their type and identifier, so the same vertex has the same id
+     * every time it is exported.
+     *
+     * @return the id, or null if the vertex has no STIX equivalent.
+     */
+    private static String getId(final GraphReadMethods graph, final int vertex, final Attributes attributes) {
+        final String identifier = graph.getStringValue(attributes.identifier, vertex);
+        final SchemaVertexType vertexType = graph.getObjectValue(attributes.type, vertex);
+        final String type = StixTypes.getStixType(vertexType);
+        // relationships and sightings are drawn as vertices on import but
+        // cannot be rebuilt from a vertex alone
+        if (identifier == null || identifier.isEmpty() || type == null || "relationship".equals(type) || "sighting".equals(type)) {
+            return null;
+        }
+
+        if (!StixTypes.isObservable(type)) {
+            return type + "--" + uuid5(SDO_NAMESPACE, type + ":" + identifier);
+        }
+        final String algorithm = StixTypes.getHashAlgorithm(vertexType);
+        final String key = OBSERVABLE_KEYS.getOrDefault(type, "name");
+        final Long number = "number".equals(key) ? getNumber(identifier) : null;
+        final String contributing;
+        if (algorithm != null) {
+            contributing = String.format("{\"hashes\":{\"%s\":\"%s\"}}", algorithm, quote(identifier));
+        } else if (number != null) {
+            contributing = String.format("{\"number\":%d}", number);
+        } else {
+            contributing = String.format("{\"%s\":\"%s\"}", "number".equals(key) ? "name" : key, quote(identifier));
+        }
+        return type + "--" + uuid5(SCO_NAMESPACE, contributing);
+    }
+
+    private static Long getNumber(final String identifier) {
+        try {
+            return Long.valueOf(identifier.replaceFirst("(?i)^AS", ""));
+        } catch (final NumberFormatException ex) {
+            // not a number, left as the name
+            return null;
+        }
+    }
+
+    private static void writeVertex(final GraphReadMethods graph, final int vertex, final String[] ids, final Attributes attributes, final String now, final JsonGenerator generator) throws IOException {
+        final String id = ids[vertex];
+        final String identifier = graph.getStringValue(attributes.identifier, vertex);
+        final SchemaVertexType vertexType = graph.getObjectValue(attributes.type, vertex);
+        final String type = StixTypes.getStixType(vertexType);
+
+        final Set<String> written = new HashSet<>();
+        final String created = getTimestamp(graph, attributes.created, vertex, now);
+        if (StixTypes.isObservable(type)) {
+            final String algorithm = StixTypes.getHashAlgorithm(vertexType);
+            final String key = algorithm != null ? "hashes" : OBSERVABLE_KEYS.getOrDefault(type, "name");
+            final Long number = "number".equals(key) ? getNumber(identifier) : null;
+
+            generator.writeStartObject();
+            generator.writeStringField("type", type);
+            generator.writeStringField("spec_version", SPEC_VERSION);
+            generator.writeStringField("id", id);
+            if (algorithm != null) {
+                generator.writeObjectFieldStart("hashes");
+                generator.writeStringField(algorithm, identifier);
+                generator.writeEndObject();
+            } else if (number != null) {
+                generator.writeNumberField("number", number);
+            } else {
+                generator.writeStringField("number".equals(key) ? "name" : key, identifier);
+            }
+            written.add(key);
+        } else {
+            generator.writeStartObject();
+            generator.writeStringField("type", type);
+            generator.writeStringField("spec_version", SPEC_VERSION);
+            generator.writeStringField("id", id);
+            generator.writeStringField("created", created);
+            generator.writeStringField("modified", getModified(graph, vertex, attributes, now));
+            generator.writeStringField("name", identifier);
+            Collections.addAll(written, "created", "modified", "name");
+
+            // properties a valid object of the type must have
+            switch (type) {
+                case "indicator":
+                    writeDefault(graph, vertex, attributes, "pattern_type", "stix", written, generator);
+                    writeDefault(graph, vertex, attributes, "valid_from", created, written, generator);
+                    break;
+                case "report":
+                    writeDefault(graph, vertex, attributes, "published", created, written, generator);
+                    break;
+                case "observed-data":
+                    generator.writeStringField("first_observed", created);
+                    generator.writeStringField("last_observed", created);
+                    generator.writeNumberField("number_observed", 1);
+                    writeObjectRefs(graph, vertex, ids, generator);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        for (int i = 0; i < PROPERTIES.size(); i++) {
+            if (attributes.properties[i] != Graph.NOT_FOUND && !written.contains(PROPERTIES.get(i).name)) {
+                writeProperty(graph, vertex, attributes.properties[i], PROPERTIES.get(i), written, generator);
+            }
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * Observed data refers to the exported observables it is linked to.
+     */
+    private static void writeObjectRefs(final GraphReadMethods graph, final int vertex, final String[] ids, final JsonGenerator generator) throws IOException {
+        final Set<String> refs = new LinkedHashSet<>();
+        for (int position = 0; position < graph.getVertexNeighbourCount(vertex); position++) {
+            final String ref = ids[graph.getVertexNeighbour(vertex, position)];
+            if (ref != null && StixTypes.isObservable(ref.substring(0, ref.indexOf("--")))) {
+                refs.add(ref);
+            }
+        }
+        if (refs.isEmpty()) {
+            return;
+        }
+        generator.writeArrayFieldStart("object_refs");
+        for (final String ref : refs) {
+            generator.writeString(ref);
+        }
+        generator.writeEndArray();
+    }
+
+    private static void writeDefault(final GraphReadMethods graph, final int vertex, final Attributes attributes, final String name, final String value, final Set<String> written, final JsonGenerator generator) throws IOException {
+        for (int i = 0; i < PROPERTIES.size(); i++) {
+            if (PROPERTIES.get(i).name.equals(name) && attributes.properties[i] != Graph.NOT_FOUND) {
+                writeProperty(graph, vertex, attributes.properties[i], PROPERTIES.get(i), written, generator);
+            }
+        }
+        if (!written.contains(name)) {
+            generator.writeStringField(name, value);
+            written.add(name);
+        }
+    }
+
+    private static void writeProperty(final GraphReadMethods graph, final int element, final int attribute, final Property property, final Set<String> written, final JsonGenerator generator) throws IOException {
+        final Object value = graph.getObjectValue(attribute, element);
+        if (value == null || (value instanceof String && ((String) value).isBlank())) {
+            return;
+        }
+        switch (property.kind) {
+            case LIST:
+                generator.writeArrayFieldStart(property.name);
+                for (final String item : value.toString().split(",")) {
+                    if (!item.isBlank()) {
+                        generator.writeString(item.trim());
+                    }
+                }
+                generator.writeEndArray();
+                break;
+            case INTEGER:
+                try {
+                    generator.writeNumberField(property.name, value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString().trim()));
+                } catch (final NumberFormatException ex) {
+                    return;
+                }
+                break;
+            case BOOLEAN:
+                generator.writeBooleanField(property.name, value instanceof Boolean ? (Boolean) value : Boolean.parseBoolean(value.toString().trim()));
+                break;
+            case TIMESTAMP:
+                final String timestamp = toTimestamp(value);
+                if (timestamp == null) {
+                    return;
+                }
+                generator.writeStringField(property.name, timestamp);
+                break;
+            default:
+                generator.writeStringField(property.name, value.toString());
+                break;
+        }
+        written.add(property.name);
+    }
+
+    /**
+     * Write a transaction as a relationship. The id is derived from the
+     * ends and relationship type, and the timestamps from the ends, so an
+     * unchanged graph exports the same relationships every time.
+     *
+     * @return false if an identical relationship was already written.
+     */
+    private static boolean writeRelationship(final GraphReadMethods graph, final int transaction, final String source, final String target, final Set<String> written, final Attributes attributes, final String now, final JsonGenerator generator) throws IOException {
+        String relationshipType = "related-to";
+        if (attributes.transactionType != Graph.NOT_FOUND) {
+            final SchemaTransactionType transactionType = graph.getObjectValue(attributes.transactionType, transaction);
+            if (transactionType != null) {
+                // relationship types are lower case and hyphenated
+                final String name = transactionType.getName().trim().toLowerCase().replaceAll("[^a-z0-9]+", "-").replaceAll("^-|-$", "");
+                if (!name.isEmpty()) {
+                    relationshipType = name;
+                }
+            }
+        }
+
+        final String id = "relationship--" + uuid5(SDO_NAMESPACE, String.format("relationship:%s:%s:%s", source, relationshipType, target));
+        if (!written.add(id)) {
+            return false;
+        }
+        // the later of the ends, which are timestamped as they were
+        // imported, or the time of export if neither is
+        final String sourceModified = getModified(graph, graph.getTransactionSourceVertex(transaction), attributes, null);
+        final String targetModified = getModified(graph, graph.getTransactionDestinationVertex(transaction), attributes, null);
+        final String modified;
+        if (sourceModified == null || targetModified == null) {
+            modified = sourceModified != null ? sourceModified : targetModified != null ? targetModified : now;
+        } else {
+            // timestamps of the same format compare as strings
+            modified = sourceModified.compareTo(targetModified) >= 0 ? sourceModified : targetModified;
+        }
+
+        generator.writeStartObject();
+        generator.writeStringField("type", "relationship");
+        generator.writeStringField("spec_version", SPEC_VERSION);
+        generator.writeStringField("id", id);
+        generator.writeStringField("created", modified);
+        generator.writeStringField("modified", modified);
+        generator.writeStringField("relationship_type", relationshipType);
+        generator.writeStringField("source_ref", source);
+        generator.writeStringField("target_ref", target);
+        if (attributes.transactionDescription != Graph.NOT_FOUND) {
+            final String description = graph.getStringValue(attributes.transactionDescription, transaction);
+            if (description != null && !description.isBlank()) {
+                generator.writeStringField("description", description);
+            }
+        }
+        generator.writeEndObject();
+        return true;
+    }
+
+    private static String getModified(final GraphReadMethods graph, final int vertex, final Attributes attributes, final String now) {
+        return getTimestamp(graph, attributes.modified, vertex, getTimestamp(graph, attributes.created, vertex, now));
+    }
+
+    private static String getTimestamp(final GraphReadMethods graph, final int attribute, final int element, final String defaultValue) {
+        if (attribute == Graph.NOT_FOUND) {
+            return defaultValue;
+        }
+        final String timestamp = toTimestamp(graph.getObjectValue(attribute, element));
+        return timestamp != null ? timestamp : defaultValue;
+    }
+
+    /**
+     * Format a datetime attribute value as a STIX timestamp. Values may be
+     * datetimes or, for attributes added by the importer, strings.
+     */
+    private static String toTimestamp(final Object value) {
+        if (value instanceof ZonedDateTime) {
+            return TIMESTAMP_FORMAT.format(((ZonedDateTime) value).withZoneSameInstant(ZoneOffset.UTC));
+        }
+        if (value instanceof String && !((String) value).isBlank()) {
+            final String text = ((String) value).trim();
+            for (final DateTimeFormatter format : new DateTimeFormatter[]{DateTimeFormatter.ISO_ZONED_DATE_TIME, CONSTELLATION_FORMAT}) {
+                try {
+                    return TIMESTAMP_FORMAT.format(ZonedDateTime.parse(text, format).withZoneSameInstant(ZoneOffset.UTC));
+                } catch (final DateTimeParseException ex) {
+                    // try the next format
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String quote(final String value) {
+        return new String(JsonStringEncoder.getInstance().quoteAsString(value));
+    }
+
+    /**
+     * A name-based (version 5) UUID, as STIX 2.1 uses for observable ids.
+     */
+    private static UUID uuid5(final UUID namespace, final String name) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (final NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        digest.update(ByteBuffer.allocate(16).putLong(namespace.getMostSignificantBits()).putLong(namespace.getLeastSignificantBits()).array());
+        final byte[] hash = digest.digest(name.getBytes(StandardCharsets.UTF_8));
+        hash[6] = (byte) ((hash[6] & 0x0f) | 0x50);
+        hash[8] = (byte) ((hash[8] & 0x3f) | 0x80);
+        final ByteBuffer buffer = ByteBuffer.wrap(hash, 0, 16);
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2010-2020 Australian Signals Directorate
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package au.gov.asd.acsc.constellation.stix.importstix;
+
+import au.gov.asd.acsc.constellation.stix.schema.StixTypes;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.json.simple.JSONObject;
+
+/**
+ * A compact index of the objects in a STIX bundle file, built by the first
+ * pass of {@link StixBundleReader}. It keeps only the id, type, name, modified
+ * time and file offset of each object, so references can be resolved without retaining the
+ * objects themselves.
+ * <p>
+ * Indexes of several bundles can be merged into one, so references between
+ * bundles resolve. An index can also be written to disk and read back for a
+ * bundle that has not changed; entries read back without a bundle file can
+ * resolve references but cannot be loaded in full.
+ */
+final class StixBundleIndex {
+
+    private static final int MAGIC = 0x53495849;
+    private static final int VERSION = 3;
+
+    static final class Entry {
+
+        private final String type;
+        private final String name;
+        private final String hashAlgorithm;
+        private final String modified;
+        private final long offset;
+        private final StixBundleReader reader;
+
+        private Entry(final String type, final String name, final String hashAlgorithm, final String modified, final long offset, final StixBundleReader reader) {
+            this.type = type;
+            this.name = name;
+            this.hashAlgorithm = hashAlgorithm;
+            this.modified = modified;
+            this.offset = offset;
+            this.reader = reader;
+        }
+
+        String getType() {
+            return type;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        /**
+         * @return the algorithm of the hash an unnamed file is labelled by,
+         * or null if the name is not a hash.
+         */
+        String getHashAlgorithm() {
+            return hashAlgorithm;
+        }
+
+        String getModified() {
+            return modified;
+        }
+
+        long getOffset() {
+            return offset;
+        }
+    }
+
+    private final StixBundleReader reader;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Map<String, String> types = new HashMap<>();
+    private String type;
+    private String specVersion;
+    private String objectSpecVersion;
+
+    /**
+     * Create an empty index.
+     *
+     * @param reader the bundle the entries are in, or null if the entries
+     * are merged from other indexes or have no file to load from.
+     */
+    StixBundleIndex(final StixBundleReader reader) {
+        this.reader = reader;
+    }
+
+    void put(final String id, final String type, final String name, final String modified, final long offset) {
+        put(id, type, name, null, modified, offset);
+    }
+
+    void put(final String id, final String type, final String name, final String hashAlgorithm, final String modified, final long offset) {
+        entries.put(id, new Entry(intern(type), name, intern(hashAlgorithm), modified, offset, reader));
+    }
+
+    /**
+     * Add every entry of another index, replacing entries with the same id.
+     *
+     * @param other the index to merge.
+     */
+    void putAll(final StixBundleIndex other) {
+        for (final Map.Entry<String, Entry> e : other.entries.entrySet()) {
+            final Entry entry = e.getValue();
+            entries.put(e.getKey(), new Entry(intern(entry.type), entry.name, entry.hashAlgorithm, entry.modified, entry.offset, entry.reader));
+        }
+    }
+
+    private String intern(final String type) {
+        return type == null ? null : types.computeIfAbsent(type, k -> k);
+    }
+
+    /**
+     * Look up an object by id.
+     *
+     * @param id the STIX id, may be null.
+     * @return the entry, or null if the bundle has no such object.
+     */
+    Entry get(final String id) {
+        return id == null ? null : entries.get(id);
+    }
+
+    /**
+     * Read the whole of an indexed object back from its bundle file.
+     *
+     * @param id the STIX id, may be null.
+     * @return the object, or null if there is no such object or its bundle
+     * file is not part of this import.
+     * @throws IOException if the file cannot be read.
+     */
+    JSONObject load(final String id) throws IOException {
+        final Entry entry = get(id);
+        return entry == null || entry.reader == null ? null : entry.reader.read(entry.offset);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    Map<String, Entry> getEntries() {
+        return Collections.unmodifiableMap(entries);
+    }
+
+    String getType() {
+        return type;
+    }
+
+    void setType(final String type) {
+        this.type = type;
+    }
+
+    /**
+     * The bundle's spec_version. STIX 2.1 bundles have none, so the version
+     * of the objects in the bundle is used instead.
+     *
+     * @return the version, or null if neither the bundle nor its objects have
+     * one.
+     */
+    String getSpecVersion() {
+        return specVersion != null ? specVersion : objectSpecVersion;
+    }
+
+    void setSpecVersion(final String specVersion) {
+        this.specVersion = specVersion;
+    }
+
+    void setObjectSpecVersion(final String specVersion) {
+        if (objectSpecVersion == null) {
+            objectSpecVersion = specVersion;
+        }
+    }
+
+    void write(final DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeString(out, type);
+        writeString(out, getSpecVersion());
+        out.writeInt(entries.size());
+        for (final Map.Entry<String, Entry> e : entries.entrySet()) {
+            writeString(out, e.getKey());
+            writeString(out, e.getValue().type);
+            writeString(out, e.getValue().name);
+            writeString(out, e.getValue().hashAlgorithm);
+            writeString(out, e.getValue().modified);
+            out.writeLong(e.getValue().offset);
+        }
+    }
+
+    /**
+     * Read an index written by {@link #write(DataOutput)}.
+     *
+     * @param in the input.
+     * @param reader the bundle the entries are in, or null.
+     * @return the index.
+     * @throws IOException if the input cannot be read or is not an index.
+     */
+    static StixBundleIndex read(final DataInput in, final StixBundleReader reader) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a STIX index file");
+        }
+        final StixBundleIndex index = new StixBundleIndex(reader);
+        index.setType(readString(in));
+        index.setSpecVersion(readString(in));
+        final int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            final String id = readString(in);
+            final String type = readString(in);
+            final String name = readString(in);
+            final String hashAlgorithm = readString(in);
+            final String modified = readString(in);
+            index.put(id, type, name, hashAlgorithm, modified, in.readLong());
+        }
+        return index;
+    }
+
+    /**
+     * The hash an object without a name or value is labelled by, such as a
+     * file known only by its hashes. Only algorithms with a vertex type are
+     * considered, and the same hash is picked whatever order the dictionary
+     * is in.
+     *
+     * @param hashes the object's hashes dictionary, algorithm to value.
+     * @return the algorithm and value, or null if there are no hashes.
+     */
+    static String[] getLabelHash(final Map<?, ?> hashes) {
+        String[] label = null;
+        for (final Map.Entry<?, ?> e : hashes.entrySet()) {
+            if (e.getKey() instanceof String && e.getValue() instanceof String
+                    && StixTypes.getHashType((String) e.getKey()) != null
+                    && (label == null || ((String) e.getKey()).compareTo(label[0]) < 0)) {
+                label = new String[]{(String) e.getKey(), (String) e.getValue()};
+            }
+        }
+        return label;
+    }
+
+    static void writeString(final DataOutput out, final String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    static String readString(final DataInput in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
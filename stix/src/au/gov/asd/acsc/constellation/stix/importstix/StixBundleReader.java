@@ -0,0 +1,261 @@
+/*
+ * Copyright 2010-2020 Australian Signals Directorate
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package au.gov.asd.acsc.constellation.stix.importstix;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Streams the objects of a STIX 2.x bundle file with the Jackson streaming
+ * parser, so a bundle never has to be held in memory as a whole.
+ * <p>
+ * {@link #index()} makes a cheap first pass that records the id, type, name,
+ * modified time and file offset of every object. {@link #stream(ObjectVisitor)} then makes a
+ * second pass that hands each object to a visitor as a json-simple object,
+ * one at a time. Objects referenced through the index can be read back on
+ * their own with {@link #read(long)}.
+ */
+final class StixBundleReader {
+
+    interface ObjectVisitor {
+
+        void visit(JSONObject object) throws IOException, InterruptedException;
+    }
+
+    private interface Handler {
+
+        void property(String name, String value);
+
+        void object(JsonParser parser, long offset) throws IOException, InterruptedException;
+    }
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private final File file;
+
+    StixBundleReader(final File file) {
+        this.file = file;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * First pass: index every object in the bundle by id without building the
+     * objects themselves.
+     *
+     * @return the index.
+     * @throws IOException if the file cannot be read or is not valid JSON.
+     * @throws InterruptedException if the thread is interrupted.
+     */
+    StixBundleIndex index() throws IOException, InterruptedException {
+        final StixBundleIndex index = new StixBundleIndex(this);
+        walk(new Handler() {
+            @Override
+            public void property(final String name, final String value) {
+                if ("type".equals(name)) {
+                    index.setType(value);
+                } else if ("spec_version".equals(name)) {
+                    index.setSpecVersion(value);
+                }
+            }
+
+            @Override
+            public void object(final JsonParser parser, final long offset) throws IOException {
+                String id = null;
+                String type = null;
+                String name = null;
+                String modified = null;
+                String value = null;
+                String specVersion = null;
+                Map<String, String> hashes = null;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    final String field = parser.getCurrentName();
+                    final JsonToken token = parser.nextToken();
+                    if ("hashes".equals(field) && token == JsonToken.START_OBJECT) {
+                        hashes = new HashMap<>();
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            final String algorithm = parser.getCurrentName();
+                            if (parser.nextToken() == JsonToken.VALUE_STRING) {
+                                hashes.put(algorithm, parser.getText());
+                            } else {
+                                parser.skipChildren();
+                            }
+                        }
+                    } else if (token == JsonToken.VALUE_STRING) {
+                        switch (field) {
+                            case "id":
+                                id = parser.getText();
+                                break;
+                            case "type":
+                                type = parser.getText();
+                                break;
+                            case "name":
+                                name = parser.getText();
+                                break;
+                            case "modified":
+                                modified = parser.getText();
+                                break;
+                            case "value":
+                                value = parser.getText();
+                                break;
+                            case "spec_version":
+                                specVersion = parser.getText();
+                                break;
+                            default:
+                                break;
+                        }
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                if (specVersion != null) {
+                    index.setObjectSpecVersion(specVersion);
+                }
+                if (id != null) {
+                    // observables have a value rather than a name, and files
+                    // may only have hashes
+                    final String[] hash = name == null && value == null && hashes != null ? StixBundleIndex.getLabelHash(hashes) : null;
+                    if (hash != null) {
+                        index.put(id, type, hash[1], hash[0], modified, offset);
+                    } else {
+                        index.put(id, type, name != null ? name : value, modified, offset);
+                    }
+                }
+            }
+        });
+        return index;
+    }
+
+    /**
+     * Second pass: hand every object in the bundle to the visitor in file
+     * order.
+     *
+     * @param visitor the visitor.
+     * @throws IOException if the file cannot be read or is not valid JSON.
+     * @throws InterruptedException if the thread is interrupted.
+     */
+    void stream(final ObjectVisitor visitor) throws IOException, InterruptedException {
+        walk(new Handler() {
+            @Override
+            public void property(final String name, final String value) {
+                // bundle properties are read by the first pass
+            }
+
+            @Override
+            public void object(final JsonParser parser, final long offset) throws IOException, InterruptedException {
+                visitor.visit((JSONObject) readValue(parser));
+            }
+        });
+    }
+
+    /**
+     * Read the single object that starts at the given byte offset.
+     *
+     * @param offset the offset recorded by the first pass.
+     * @return the object.
+     * @throws IOException if the file cannot be read or is not valid JSON.
+     */
+    JSONObject read(final long offset) throws IOException {
+        try (final FileInputStream in = new FileInputStream(file)) {
+            in.getChannel().position(offset);
+            try (final JsonParser parser = FACTORY.createParser(in)) {
+                if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    throw new JsonParseException(parser, "No STIX object at offset " + offset);
+                }
+                return (JSONObject) readValue(parser);
+            }
+        }
+    }
+
+    private void walk(final Handler handler) throws IOException, InterruptedException {
+        try (final JsonParser parser = FACTORY.createParser(file)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Expected a JSON object at the root of the file");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = parser.getCurrentName();
+                final JsonToken value = parser.nextToken();
+                if ("objects".equals(field) && value == JsonToken.START_ARRAY) {
+                    JsonToken token;
+                    while ((token = parser.nextToken()) != JsonToken.END_ARRAY && token != null) {
+                        if (Thread.currentThread().isInterrupted()) {
+                            throw new InterruptedException();
+                        }
+                        if (token == JsonToken.START_OBJECT) {
+                            handler.object(parser, parser.getTokenLocation().getByteOffset());
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                } else if (value == JsonToken.VALUE_STRING) {
+                    handler.property(field, parser.getText());
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+    }
+
+    /**
+     * Build the value at the current token the way json-simple would parse
+     * it: objects as JSONObject, arrays as JSONArray, integers as Long and
+     * decimals as Double.
+     */
+    @SuppressWarnings("unchecked")
+    private static Object readValue(final JsonParser parser) throws IOException {
+        switch (parser.currentToken()) {
+            case START_OBJECT:
+                final JSONObject object = new JSONObject();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    final String field = parser.getCurrentName();
+                    parser.nextToken();
+                    object.put(field, readValue(parser));
+                }
+                return object;
+            case START_ARRAY:
+                final JSONArray array = new JSONArray();
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    array.add(readValue(parser));
+                }
+                return array;
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+                return parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER ? parser.getBigIntegerValue() : parser.getLongValue();
+            case VALUE_NUMBER_FLOAT:
+                return parser.getDoubleValue();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_NULL:
+                return null;
+            default:
+                throw new JsonParseException(parser, "Unexpected token " + parser.currentToken());
+        }
+    }
+}
@@ -15,8 +15,11 @@
  */
 package au.gov.asd.acsc.constellation.stix.importstix;
 
-import au.gov.asd.acsc.constellation.schema.cyberschema.concept.CyberConcept;
 import au.gov.asd.acsc.constellation.stix.schema.STIXConcept;
+import au.gov.asd.acsc.constellation.stix.schema.StixTypes;
+import au.gov.asd.tac.constellation.graph.Graph;
+import au.gov.asd.tac.constellation.graph.GraphReadMethods;
+import au.gov.asd.tac.constellation.graph.GraphWriteMethods;
 import au.gov.asd.tac.constellation.graph.processing.GraphRecordStore;
 import au.gov.asd.tac.constellation.graph.processing.GraphRecordStoreUtilities;
 import au.gov.asd.tac.constellation.graph.processing.RecordStore;
@@ -38,19 +41,36 @@ import au.gov.asd.tac.constellation.plugins.parameters.types.FileParameterType;
 import au.gov.asd.tac.constellation.plugins.parameters.types.FileParameterType.FileParameterValue;
 import au.gov.asd.tac.constellation.utilities.temporal.TemporalFormatting;
 import au.gov.asd.tac.constellation.views.dataaccess.templates.RecordStoreQueryPlugin;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import javafx.stage.FileChooser.ExtensionFilter;
 import org.apache.commons.lang3.StringUtils;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
 import org.openide.util.Exceptions;
 import org.openide.util.NbBundle;
 import org.openide.util.lookup.ServiceProvider;
@@ -73,161 +93,204 @@ public class StixFileImporterPlugin extends RecordStoreQueryPlugin  {
 
     public static final String FILEPATH_PARAMETER_ID = PluginParameter.buildId(StixFileImporterPlugin.class, "path");
     public static final String SHOW_REFERENCES_PARAMETER_ID = PluginParameter.buildId(StixFileImporterPlugin.class, "showReferences");
+    public static final String SKIP_UNCHANGED_PARAMETER_ID = PluginParameter.buildId(StixFileImporterPlugin.class, "skipUnchanged");
+    public static final String MARK_REMOVED_PARAMETER_ID = PluginParameter.buildId(StixFileImporterPlugin.class, "markRemoved");
     
-    /* These HashMaps contain the common mappings from the stix json to the attribute names in constellation */
-    private HashMap<String, String> stringListMappings = new HashMap<>();
-    private HashMap<String, String> integerMappings = new HashMap<>();
-    private HashMap<String, String> booleanMappings = new HashMap<>();
-    private HashMap<String, String> timestampMappings = new HashMap<>();
-    private HashMap<String, String> stringMappings = new HashMap<>();
+    private static final int SHARD_SIZE = 1000;
+    private static final int MAX_REPORTED_ERRORS = 10;
     
-    public StixFileImporterPlugin()
-    {
-        super();
-        
-        stringListMappings.put("languages","Languages");
-        stringListMappings.put("implementation_languages","Languages");
-        stringListMappings.put("protocols","Protocols");
-        stringListMappings.put("tool_types","Tool Types");
-        stringListMappings.put("personal_motivations","Personal Motivations");
-        stringListMappings.put("threat_actor_types","Threat Actor Types");
-        stringListMappings.put("report_types","Report Types");
-        stringListMappings.put("authors","Authors");
-        stringListMappings.put("modules","Modules");
-        stringListMappings.put("capabilities","Capabilities");
-        stringListMappings.put("architecture_execution_envs","Architectures");
-        stringListMappings.put("malware_types","Malware Types");
-        stringListMappings.put("secondary_motivations","Secondary motivations");
-        stringListMappings.put("goals","Goals");
-        stringListMappings.put("infrastructure_types","Infrastructure Types");
-        stringListMappings.put("indicator_types","Indicator Types");
-        stringListMappings.put("sectors","Sectors");
-        stringListMappings.put("roles","Roles");
-        stringListMappings.put("aliases","Aliases");
-        stringListMappings.put("labels","Labels");
-
-        integerMappings.put("number_of_subkeys","Number of subkeys");
-        integerMappings.put("subject_public_key_exponent","Subject public key exponent");
-        integerMappings.put("dst_packets","Destination Packets");
-        integerMappings.put("src_packets","Source Packets");
-        integerMappings.put("dst_byte_count","Destination byte count");
-        integerMappings.put("src_byte_count","Source byte count");
-        integerMappings.put("dst_port","Destination port");
-        integerMappings.put("src_port","Source port");
-        integerMappings.put("size","Size");
-        integerMappings.put("number","Number");
-        integerMappings.put("confidence","Confidence");
-
-        booleanMappings.put("is_self_signed","Is self signed");
-        booleanMappings.put("is_disabled","Is disabled");
-        booleanMappings.put("can_escalate_privs","Can escalate privs");
-        booleanMappings.put("is_privileged","Is Privileged");
-        booleanMappings.put("is_service_account","Is Service Account");
-        booleanMappings.put("is_hidden","Is hidden");
-        booleanMappings.put("is_active","Is active");
-        booleanMappings.put("is_multipart","Is multipart");
-        booleanMappings.put("is_family","Is malware family");
-        booleanMappings.put("revoked","Revoked");
-
-        timestampMappings.put("validity_not_after","Validity not after");
-        timestampMappings.put("validity_not_before","Validity not before");
-        timestampMappings.put("valid_from","Valid from");
-        timestampMappings.put("valid_until","Valid until");
-        timestampMappings.put("modified_time",TemporalConcept.VertexAttribute.MODIFIED.getName());
-        timestampMappings.put("account_last_login","Account last login");
-        timestampMappings.put("account_first_login","Account first login");
-        timestampMappings.put("credential_last_changed","Credential last changed");
-        timestampMappings.put("account_expires","Account expires");
-        timestampMappings.put("object_modified",TemporalConcept.VertexAttribute.MODIFIED.getName());
-        timestampMappings.put("modified",TemporalConcept.VertexAttribute.MODIFIED.getName());
-        timestampMappings.put("account_created",TemporalConcept.VertexAttribute.CREATED.getName());
-        timestampMappings.put("created",TemporalConcept.VertexAttribute.CREATED.getName());
-        timestampMappings.put("created_time",TemporalConcept.VertexAttribute.CREATED.getName());
-        timestampMappings.put("date",TemporalConcept.VertexAttribute.DATETIME.getName());
-        timestampMappings.put("atime","Accessed Time");
-        timestampMappings.put("mtime",TemporalConcept.VertexAttribute.MODIFIED.getName());
-        timestampMappings.put("ctime",TemporalConcept.VertexAttribute.CREATED.getName());
-        timestampMappings.put("stop_time",TemporalConcept.VertexAttribute.END_TIME.getName());
-        timestampMappings.put("start_time",TemporalConcept.VertexAttribute.START_TIME.getName());
-        timestampMappings.put("published", "Published");
-        timestampMappings.put("last_observed",TemporalConcept.VertexAttribute.LAST_SEEN.getName());
-        timestampMappings.put("last_seen",TemporalConcept.VertexAttribute.LAST_SEEN.getName());
-        timestampMappings.put("first_observed",TemporalConcept.VertexAttribute.FIRST_SEEN.getName());
-        timestampMappings.put("first_seen",TemporalConcept.VertexAttribute.FIRST_SEEN.getName());
-        timestampMappings.put("analysis_ended","Analysis ended");
-        timestampMappings.put("analysis_started","Analysis started");
-        timestampMappings.put("submitted","Submitted");
-        
-        stringMappings.put("subject","Subject");
-        stringMappings.put("issuer","Issuer");
-        stringMappings.put("signature_algorithm","Signature algorithm");
-        stringMappings.put("serial_number","Serial Number");
-        stringMappings.put("subject_public_key_algorithm","Subject public key algorithm");
-        stringMappings.put("subject_public_key_modulus","Subject public key modulus");
-        stringMappings.put("key","Key");
-        stringMappings.put("definition_type","Definition type");
-        stringMappings.put("account_type","Account type");
-        stringMappings.put("account_login","Account Login");
-        stringMappings.put("credential","Credential");
-        stringMappings.put("user_id","User Id");
-        stringMappings.put("vendor","Vendor");
-        stringMappings.put("swid","Software Id");
-        stringMappings.put("cpe","Common Platform Enumeration");
-        stringMappings.put("command_line","Command line");
-        stringMappings.put("cwd","Current working directory");
-        stringMappings.put("pid","Process Id");
-        stringMappings.put("magic_number_hex","Magic Number");
-        stringMappings.put("name_enc","Name encoding");
-        stringMappings.put("content_disposition","Content Disposition");
-        stringMappings.put("body","Body");
-        stringMappings.put("subject","Subject");
-        stringMappings.put("message_id","Message Id");
-        stringMappings.put("content_type","Content Type");
-        stringMappings.put("display_name","Display name");
-        stringMappings.put("value","Value");
-        stringMappings.put("path_enc","Path encoding");
-        stringMappings.put("path","Path");
-        stringMappings.put("rir","Regional Internet Registry");
-        stringMappings.put("decryption_key","Decryption key");
-        stringMappings.put("encryption_algorithm","Encryption algorithm");
-        stringMappings.put("url","URL");
-        stringMappings.put("payload_bin","Base64 Payload Binary");
-        stringMappings.put("mime_type","MIME Type");
-        stringMappings.put("summary","Summary");
-        stringMappings.put("relationship_type","Relationship type");
-        stringMappings.put("tool_version","Tool Version");
-        stringMappings.put("sophistication","Sophistication");
-        stringMappings.put("opinion","Opinion");
-        stringMappings.put("explanation","Explanation");
-        stringMappings.put("number_observed","Number observed");
-        stringMappings.put("content",ContentConcept.VertexAttribute.CONTENT.getName());
-        stringMappings.put("abstract","Abstract");
-        stringMappings.put("result","Result");
-        stringMappings.put("result_name","Result Name");
-        stringMappings.put("analysis_definition_version","Analysis definition version");
-        stringMappings.put("analysis_engine_version","Analysis engine version");
-        stringMappings.put("configuration_version","Configuration version");
-        stringMappings.put("version","Version");
-        stringMappings.put("product","Product");
-        stringMappings.put("postal_code", "Postal code");
-        stringMappings.put("street_address","Street");
-        stringMappings.put("city","City");
-        stringMappings.put("administrative_area","State");
-        stringMappings.put("country",SpatialConcept.VertexAttribute.COUNTRY.getName());
-        stringMappings.put("region","Region");
-        stringMappings.put("primary_motivation","Primary Motivation");
-        stringMappings.put("resource_llevel","Resource level");
-        stringMappings.put("pattern_version","Pattern version");
-        stringMappings.put("pattern_type","Pattern type");
-        stringMappings.put("pattern","Pattern");
-        stringMappings.put("contact_information","Contact Information");
-        stringMappings.put("identity_class","Identity type");
-        stringMappings.put("context","Context");
-        stringMappings.put("action","Action");
-        stringMappings.put("objective","Objective");
-        stringMappings.put("description", ContentConcept.VertexAttribute.DESCRIPTION.getName());
-        stringMappings.put("lang","Language");
-                
+    /* What the graph had imported before, read from the graph before the query */
+    private StixManifest graphManifest;
+    /* The vertices and transactions in the graph that objects may have been drawn as */
+    private Set<String> graphElements;
+    /* What the graph will have imported, written to the graph along with the objects */
+    private StixManifest updatedManifest;
+    
+    @FunctionalInterface
+    private interface PropertySetter
+    {
+        void set(RecordStore result, String end, Object value);
+    }
+    
+    /* The common mappings from the stix json to the attribute names in constellation, each compiled to a typed setter */
+    private static final Map<String, PropertySetter> PROPERTY_SETTERS = new HashMap<>();
+    
+    static
+    {
+        mapStringList("languages","Languages");
+        mapStringList("implementation_languages","Languages");
+        mapStringList("protocols","Protocols");
+        mapStringList("tool_types","Tool Types");
+        mapStringList("personal_motivations","Personal Motivations");
+        mapStringList("threat_actor_types","Threat Actor Types");
+        mapStringList("report_types","Report Types");
+        mapStringList("authors","Authors");
+        mapStringList("modules","Modules");
+        mapStringList("capabilities","Capabilities");
+        mapStringList("architecture_execution_envs","Architectures");
+        mapStringList("malware_types","Malware Types");
+        mapStringList("secondary_motivations","Secondary motivations");
+        mapStringList("goals","Goals");
+        mapStringList("infrastructure_types","Infrastructure Types");
+        mapStringList("indicator_types","Indicator Types");
+        mapStringList("sectors","Sectors");
+        mapStringList("roles","Roles");
+        mapStringList("aliases","Aliases");
+        mapStringList("labels","Labels");
+
+        mapInteger("number_of_subkeys","Number of subkeys");
+        mapInteger("subject_public_key_exponent","Subject public key exponent");
+        mapInteger("dst_packets","Destination Packets");
+        mapInteger("src_packets","Source Packets");
+        mapInteger("dst_byte_count","Destination byte count");
+        mapInteger("src_byte_count","Source byte count");
+        mapInteger("dst_port","Destination port");
+        mapInteger("src_port","Source port");
+        mapInteger("size","Size");
+        mapInteger("number","Number");
+        mapInteger("confidence","Confidence");
+
+        mapBoolean("is_self_signed","Is self signed");
+        mapBoolean("is_disabled","Is disabled");
+        mapBoolean("can_escalate_privs","Can escalate privs");
+        mapBoolean("is_privileged","Is Privileged");
+        mapBoolean("is_service_account","Is Service Account");
+        mapBoolean("is_hidden","Is hidden");
+        mapBoolean("is_active","Is active");
+        mapBoolean("is_multipart","Is multipart");
+        mapBoolean("is_family","Is malware family");
+        mapBoolean("revoked","Revoked");
+
+        mapTimestamp("validity_not_after","Validity not after");
+        mapTimestamp("validity_not_before","Validity not before");
+        mapTimestamp("valid_from","Valid from");
+        mapTimestamp("valid_until","Valid until");
+        mapTimestamp("modified_time",TemporalConcept.VertexAttribute.MODIFIED.getName());
+        mapTimestamp("account_last_login","Account last login");
+        mapTimestamp("account_first_login","Account first login");
+        mapTimestamp("credential_last_changed","Credential last changed");
+        mapTimestamp("account_expires","Account expires");
+        mapTimestamp("object_modified",TemporalConcept.VertexAttribute.MODIFIED.getName());
+        mapTimestamp("modified",TemporalConcept.VertexAttribute.MODIFIED.getName());
+        mapTimestamp("account_created",TemporalConcept.VertexAttribute.CREATED.getName());
+        mapTimestamp("created",TemporalConcept.VertexAttribute.CREATED.getName());
+        mapTimestamp("created_time",TemporalConcept.VertexAttribute.CREATED.getName());
+        mapTimestamp("date",TemporalConcept.VertexAttribute.DATETIME.getName());
+        mapTimestamp("atime","Accessed Time");
+        mapTimestamp("mtime",TemporalConcept.VertexAttribute.MODIFIED.getName());
+        mapTimestamp("ctime",TemporalConcept.VertexAttribute.CREATED.getName());
+        mapTimestamp("stop_time",TemporalConcept.VertexAttribute.END_TIME.getName());
+        mapTimestamp("start_time",TemporalConcept.VertexAttribute.START_TIME.getName());
+        mapTimestamp("published", "Published");
+        mapTimestamp("last_observed",TemporalConcept.VertexAttribute.LAST_SEEN.getName());
+        mapTimestamp("last_seen",TemporalConcept.VertexAttribute.LAST_SEEN.getName());
+        mapTimestamp("first_observed",TemporalConcept.VertexAttribute.FIRST_SEEN.getName());
+        mapTimestamp("first_seen",TemporalConcept.VertexAttribute.FIRST_SEEN.getName());
+        mapTimestamp("analysis_ended","Analysis ended");
+        mapTimestamp("analysis_started","Analysis started");
+        mapTimestamp("submitted","Submitted");
+
+        mapString("subject","Subject");
+        mapString("issuer","Issuer");
+        mapString("signature_algorithm","Signature algorithm");
+        mapString("serial_number","Serial Number");
+        mapString("subject_public_key_algorithm","Subject public key algorithm");
+        mapString("subject_public_key_modulus","Subject public key modulus");
+        mapString("key","Key");
+        mapString("definition_type","Definition type");
+        mapString("account_type","Account type");
+        mapString("account_login","Account Login");
+        mapString("credential","Credential");
+        mapString("user_id","User Id");
+        mapString("vendor","Vendor");
+        mapString("swid","Software Id");
+        mapString("cpe","Common Platform Enumeration");
+        mapString("command_line","Command line");
+        mapString("cwd","Current working directory");
+        mapString("pid","Process Id");
+        mapString("magic_number_hex","Magic Number");
+        mapString("name_enc","Name encoding");
+        mapString("content_disposition","Content Disposition");
+        mapString("body","Body");
+        mapString("message_id","Message Id");
+        mapString("content_type","Content Type");
+        mapString("display_name","Display name");
+        mapString("value","Value");
+        mapString("path_enc","Path encoding");
+        mapString("path","Path");
+        mapString("rir","Regional Internet Registry");
+        mapString("decryption_key","Decryption key");
+        mapString("encryption_algorithm","Encryption algorithm");
+        mapString("url","URL");
+        mapString("payload_bin","Base64 Payload Binary");
+        mapString("mime_type","MIME Type");
+        mapString("summary","Summary");
+        mapString("relationship_type","Relationship type");
+        mapString("tool_version","Tool Version");
+        mapString("sophistication","Sophistication");
+        mapString("opinion","Opinion");
+        mapString("explanation","Explanation");
+        mapString("number_observed","Number observed");
+        mapString("content",ContentConcept.VertexAttribute.CONTENT.getName());
+        mapString("abstract","Abstract");
+        mapString("result","Result");
+        mapString("result_name","Result Name");
+        mapString("analysis_definition_version","Analysis definition version");
+        mapString("analysis_engine_version","Analysis engine version");
+        mapString("configuration_version","Configuration version");
+        mapString("version","Version");
+        mapString("product","Product");
+        mapString("postal_code", "Postal code");
+        mapString("street_address","Street");
+        mapString("city","City");
+        mapString("administrative_area","State");
+        mapString("country",SpatialConcept.VertexAttribute.COUNTRY.getName());
+        mapString("region","Region");
+        mapString("primary_motivation","Primary Motivation");
+        mapString("resource_llevel","Resource level");
+        mapString("pattern_version","Pattern version");
+        mapString("pattern_type","Pattern type");
+        mapString("pattern","Pattern");
+        mapString("contact_information","Contact Information");
+        mapString("identity_class","Identity type");
+        mapString("context","Context");
+        mapString("action","Action");
+        mapString("objective","Objective");
+        mapString("description", ContentConcept.VertexAttribute.DESCRIPTION.getName());
+        mapString("lang","Language");
+    }
+    
+    private static void mapString(String property, String attribute)
+    {
+        PROPERTY_SETTERS.put(property, (result, end, value) -> result.set(end + attribute, (String)value));
+    }
+    
+    private static void mapTimestamp(String property, String attribute)
+    {
+        PROPERTY_SETTERS.put(property, (result, end, value) -> {
+            String dt = (String)value;
+            if (!dt.contains("."))
+            {
+                dt = dt.substring(0, 19) + ".000Z";
+            }
+            result.set(end + attribute, TemporalFormatting.completeZonedDateTimeString(dt));
+        });
+    }
+    
+    private static void mapBoolean(String property, String attribute)
+    {
+        PROPERTY_SETTERS.put(property, (result, end, value) -> result.set(end + attribute, (Boolean)value));
+    }
+    
+    private static void mapInteger(String property, String attribute)
+    {
+        // json numbers are read as Long
+        PROPERTY_SETTERS.put(property, (result, end, value) -> result.set(end + attribute, value == null ? null : ((Number)value).intValue()));
+    }
+    
+    private static void mapStringList(String property, String attribute)
+    {
+        PROPERTY_SETTERS.put(property, (result, end, value) -> result.set(end + attribute, String.join(", ", (JSONArray)value)));
     }
 
     @Override
@@ -238,190 +301,79 @@ public class StixFileImporterPlugin extends RecordStoreQueryPlugin  {
         filePathParam.setName("File to parse");
         filePathParam.setDescription("File to parse");
         FileParameterType.setKind(filePathParam, FileParameterType.FileParameterKind.OPEN);
-        FileParameterType.setFileFilters(filePathParam, new ExtensionFilter("STIX 2 file","*.json"));
+        FileParameterType.setFileFilters(filePathParam, new ExtensionFilter("STIX 2 file","*.json","*.zip"));
         params.addParameter(filePathParam);
         
         final PluginParameter<BooleanParameterValue> showReferencesParam = BooleanParameterType.build(SHOW_REFERENCES_PARAMETER_ID);
         filePathParam.setName("Show References");
         params.addParameter(showReferencesParam);
         
+        final PluginParameter<BooleanParameterValue> skipUnchangedParam = BooleanParameterType.build(SKIP_UNCHANGED_PARAMETER_ID);
+        skipUnchangedParam.setName("Skip Unchanged");
+        skipUnchangedParam.setDescription("Skip bundles and objects already imported into the graph that have not been modified since");
+        skipUnchangedParam.setBooleanValue(true);
+        params.addParameter(skipUnchangedParam);
+        
+        final PluginParameter<BooleanParameterValue> markRemovedParam = BooleanParameterType.build(MARK_REMOVED_PARAMETER_ID);
+        markRemovedParam.setName("Mark Removed Objects");
+        markRemovedParam.setDescription("Mark objects imported from the same file or folder before that are no longer in it");
+        params.addParameter(markRemovedParam);
+        
         return params;
     }
     
     private boolean isObject(JSONObject obj)
     {
-       if ( !((String)obj.getOrDefault("type", "")).equalsIgnoreCase("relationship") )
-       {
-           return true;
-       }
-       return false;
+       return isObject((String)obj.getOrDefault("type", ""));
+    }
+    
+    private boolean isObject(String type)
+    {
+       return !"relationship".equalsIgnoreCase(type);
     }
     
     private String getVertexType(String type)
     {
-        String r = type;
-        switch (type)
-        {
-            case "attack-pattern":
-                r = STIXConcept.VertexType.ATTACK_PATTERN.getName();
-                break;
-            case "campaign":
-                r = STIXConcept.VertexType.CAMPAIGN.getName();
-                break;
-            case "course-of-action":
-                r = STIXConcept.VertexType.COURSE_OF_ACTION.getName();
-                break;
-            case "grouping":
-                r = STIXConcept.VertexType.GROUPING.getName();
-                break;
-            case "identity":
-                r = STIXConcept.VertexType.IDENTITY.getName();
-                break;
-            case "indicator":
-                r = STIXConcept.VertexType.INDICATOR.getName();
-                break;
-            case "infrastructure":
-                r = STIXConcept.VertexType.INFRASTRUCTURE.getName();
-                break;
-            case "intrusion-set":
-                r = STIXConcept.VertexType.INTRUSION_SET.getName();
-                break;
-            case "location":
-                r = STIXConcept.VertexType.LOCATION.getName();
-                break;
-            case "malware":
-                r = STIXConcept.VertexType.MALWARE.getName();
-                break;
-            case "malware-analysis":
-                r = STIXConcept.VertexType.MALWARE_ANALYSIS.getName();
-                break;
-            case "note":
-                r = STIXConcept.VertexType.NOTE.getName();
-                break;
-            case "observed-data":
-                r = STIXConcept.VertexType.OBSERVED_DATA.getName();
-                break;
-            case "opinion":
-                r = STIXConcept.VertexType.OPINION.getName();
-                break;
-            case "relationship":
-                r = STIXConcept.VertexType.RELATIONSHIP.getName();
-                break;
-            case "report":
-                r = STIXConcept.VertexType.REPORT.getName();
-                break;
-            case "sighting":
-                r = STIXConcept.VertexType.SIGHTING.getName();
-                break;
-            case "threat-actor":
-                r = STIXConcept.VertexType.THREAT_ACTOR.getName();
-                break;
-            case "tool":
-                r = STIXConcept.VertexType.TOOL.getName();
-                break;
-            case "vulnerability":
-                r = STIXConcept.VertexType.CAMPAIGN.getName();
-                break;
-            case "artifact":
-                r = STIXConcept.VertexType.ARTIFACT.getName();
-                break;
-            case "autonomous-system":
-                r = STIXConcept.VertexType.AUTONOMOUS_SYSTEM.getName();
-                break;
-            case "directory":
-                r = STIXConcept.VertexType.DIRECTORY.getName();
-                break;
-            case "domain-name":
-                r = STIXConcept.VertexType.DOMAIN_NAME.getName();
-                break;
-            case "email-addr":
-                r = AnalyticConcept.VertexType.EMAIL_ADDRESS.getName();
-                break;
-            case "email-message":
-                r = STIXConcept.VertexType.EMAIL_MESSAGE.getName();
-                break;
-            case "file":
-                r = STIXConcept.VertexType.FILE.getName();
-                break;
-            case "ipv4-addr":
-                r = AnalyticConcept.VertexType.IPV4.getName();
-                break;
-            case "ipv6-addr":
-                r = AnalyticConcept.VertexType.IPV6.getName();
-                break;
-            case "mac-addr":
-                r = STIXConcept.VertexType.MAC_ADDRESS.getName();
-                break;
-            case "mutex":
-                r = STIXConcept.VertexType.MUTEX.getName();
-                break;
-            case "network-traffic":
-                r = STIXConcept.VertexType.NETWORK_TRAFFIC.getName();
-                break;
-            case "process":
-                r = STIXConcept.VertexType.PROCESS.getName();
-                break;
-            case "software":
-                r = STIXConcept.VertexType.SOFTWARE.getName();
-                break;
-            case "url":
-                r = AnalyticConcept.VertexType.URL.getName();
-                break;
-            case "user-account":
-                r = STIXConcept.VertexType.USER_ACCOUNT.getName();
-                break;
-            case "windows-registry-key":
-                r = STIXConcept.VertexType.WINDOWS_REGISTRY_KEY.getName();
-                break;
-            case "x509-certificate":
-                r = STIXConcept.VertexType.X509_CERTIFICATE.getName();
-                break;
-            case "language-content":
-                r = STIXConcept.VertexType.LANGUAGE.getName();
-                break;
-        }
-        
-        return r;
+        SchemaVertexType vertexType = StixTypes.getVertexType(type);
+        return vertexType != null ? vertexType.getName() : type;
+    }
+    
+    private String getVertexType(StixBundleIndex.Entry entry)
+    {
+        // a file known only by a hash is drawn as that hash
+        SchemaVertexType hashType = StixTypes.getHashType(entry.getHashAlgorithm());
+        return hashType != null ? hashType.getName() : getVertexType(entry.getType());
     }
     
      
     
-    private void drawObject(JSONObject obj, String end, HashMap<String, JSONObject> bundle, RecordStore result, boolean showReferences)
+    private void drawObject(JSONObject obj, String end, StixBundleIndex index, RecordStore result, boolean showReferences) throws IOException
     {
-        String label = (String)obj.get("name");
+        // observables have a value rather than a name, and a file may only
+        // be known by its hashes
+        String label = (String)obj.getOrDefault("name", obj.get("value"));
         String type = getVertexType((String)obj.get("type"));
+        if (label == null && obj.get("hashes") instanceof JSONObject)
+        {
+            String[] hash = StixBundleIndex.getLabelHash((JSONObject)obj.get("hashes"));
+            if (hash != null)
+            {
+                label = hash[1];
+                type = StixTypes.getHashType(hash[0]).getName();
+            }
+        }
         
         result.add();
         result.set(end + VisualConcept.VertexAttribute.IDENTIFIER, label);
         result.set(end + AnalyticConcept.VertexAttribute.TYPE, type);
         
-        for (Object k : obj.keySet())
+        for (Object e : obj.entrySet())
         {
-            String key = (String)k;
-            if (stringMappings.containsKey(key))
-            {
-                result.set(end + stringMappings.get(key), (String)obj.get(key) );
-            }
-            else if (timestampMappings.containsKey(key))
-            {
-                String dt = (String)obj.get(key);
-                if (!dt.contains("."))
-                {
-                    dt = dt.substring(0, 19) + ".000Z";
-                }
-                result.set(end + timestampMappings.get(key), TemporalFormatting.completeZonedDateTimeString(dt) );
-            }
-            else if (booleanMappings.containsKey(key))
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>)e;
+            PropertySetter setter = PROPERTY_SETTERS.get((String)entry.getKey());
+            if (setter != null)
             {
-                result.set(end + booleanMappings.get(key), (Boolean)obj.get(key) );
-            }
-            else if (integerMappings.containsKey(key))
-            {
-                result.set(end + integerMappings.get(key), (Integer)obj.get(key) );
-            }
-            else if (stringListMappings.containsKey(key))
-            {
-                result.set(end + stringListMappings.get(key), String.join(", ", (JSONArray)obj.get(key)));
+                setter.set(result, end, entry.getValue());
             }
         }
         
@@ -432,14 +384,21 @@ public class StixFileImporterPlugin extends RecordStoreQueryPlugin  {
         
         if (obj.containsKey("kill_chain_phases"))
         {
-            String out = "";
+            StringBuilder out = new StringBuilder();
             for (Object o : (JSONArray)obj.get("kill_chain_phases"))
             {
                JSONObject kcp = (JSONObject)o;
-               out += String.format("%s(%s)\n", StringUtils.capitalize( ((String)kcp.get("phase_name")).replace("-", " ")), StringUtils.capitalize(((String)kcp.get("kill_chain_name")).replace("-", " ")));
+               if (out.length() > 0)
+               {
+                   out.append('\n');
+               }
+               out.append(StringUtils.capitalize(((String)kcp.get("phase_name")).replace('-', ' ')))
+                       .append('(')
+                       .append(StringUtils.capitalize(((String)kcp.get("kill_chain_name")).replace('-', ' ')))
+                       .append(')');
             }
             
-            result.set(end + "Kill Chain Phases", out.trim() );
+            result.set(end + "Kill Chain Phases", out.toString().trim() );
         }
         if (obj.containsKey("latitude"))
         {
@@ -529,60 +488,60 @@ public class StixFileImporterPlugin extends RecordStoreQueryPlugin  {
         
         if (obj.containsKey("child_refs"))
         {
-            drawBasicLinkedNodes(label, type, "child_refs", "Child", obj, bundle, result);
+            drawBasicLinkedNodes(label, type, "child_refs", "Child", obj, index, result);
         }
         
         if (obj.containsKey("parent_ref"))
         {
-            drawBasicLinkedNode(label, type, "parent_ref", "Parent", obj, bundle, result);
+            drawBasicLinkedNode(label, type, "parent_ref", "Parent", obj, index, result);
         }
         
         if (obj.containsKey("image_ref"))
         {
-            drawBasicLinkedNode(label, type, "image_ref", "Image", obj, bundle, result);
+            drawBasicLinkedNode(label, type, "image_ref", "Image", obj, index, result);
         }
         
         if (obj.containsKey("creator_user_ref"))
         {
-            drawBasicLinkedNode(label, type, "creator_user_ref", "Creator", obj, bundle, result);
+            drawBasicLinkedNode(label, type, "creator_user_ref", "Creator", obj, index, result);
         }
         
         if (obj.containsKey("opened_connection_refs"))
         {
-            drawBasicLinkedNodes(label, type, "opened_connection_refs", "Opened Connection", obj, bundle, result);
+            drawBasicLinkedNodes(label, type, "opened_connection_refs", "Opened Connection", obj, index, result);
         }  
         
         if (obj.containsKey("encapsulated_by_ref"))
         {
-            drawBasicLinkedNode(label, type, "encapsulated_by_ref", "Encapsulated By", obj, bundle, result);
+            drawBasicLinkedNode(label, type, "encapsulated_by_ref", "Encapsulated By", obj, index, result);
         }
         
         if (obj.containsKey("encapsulates_refs"))
         {
-            drawBasicLinkedNodes(label, type, "encapsulates_refs", "Encapsulates", obj, bundle, result);
+            drawBasicLinkedNodes(label, type, "encapsulates_refs", "Encapsulates", obj, index, result);
         }  
         
         if (obj.containsKey("src_payload_ref"))
         {
-            drawBasicLinkedNode(label, type, "src_payload_ref", "Source Payload", obj, bundle, result);
+            drawBasicLinkedNode(label, type, "src_payload_ref", "Source Payload", obj, index, result);
         }
         
         if (obj.containsKey("dst_payload_ref"))
         {
-            drawBasicLinkedNode(label, type, "dst_payload_ref", "Destination Payload", obj, bundle, result);
+            drawBasicLinkedNode(label, type, "dst_payload_ref", "Destination Payload", obj, index, result);
         }
         
         if (obj.containsKey("src_ref"))
         {
-            JSONObject o1 = bundle.get((String)obj.get("src_ref"));
+            StixBundleIndex.Entry o1 = index.get((String)obj.get("src_ref"));
             if (o1 != null)
             {
                 result.add();
                 result.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, label);
                 result.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, type);
 
-                result.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, (String)o1.get("name"));
-                result.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, getVertexType((String)o1.get("type")));
+                result.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, o1.getName());
+                result.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, getVertexType(o1));
 
                 result.set(GraphRecordStoreUtilities.TRANSACTION + GraphRecordStoreUtilities.DIRECTED_KEY, true);
             }
@@ -590,15 +549,15 @@ public class StixFileImporterPlugin extends RecordStoreQueryPlugin  {
         
         if (obj.containsKey("dst_ref"))
         {
-            JSONObject o1 = bundle.get((String)obj.get("src_ref"));
+            StixBundleIndex.Entry o1 = index.get((String)obj.get("dst_ref"));
             if (o1 != null)
             {
                 result.add();
                 result.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, label);
                 result.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, type);
 
-                result.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, (String)o1.get("name"));
-                result.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, getVertexType((String)o1.get("type")));
+                result.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, o1.getName());
+                result.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, getVertexType(o1));
 
                 result.set(GraphRecordStoreUtilities.TRANSACTION + GraphRecordStoreUtilities.DIRECTED_KEY, true);
             }
@@ -608,79 +567,64 @@ public class StixFileImporterPlugin extends RecordStoreQueryPlugin  {
         {
             for (Object o : (JSONArray)obj.get("body_multipart"))
             {
-                JSONObject o1 = bundle.get((String)o);
+                // the part is drawn in full, so it is read back from the file
+                JSONObject o1 = index.load((String)o);
                 if (o1 != null)
                 {
                     result.add();
                     result.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, label);
                     result.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, type);
-                    drawObject(o1, GraphRecordStoreUtilities.DESTINATION, bundle, result, showReferences);
+                    drawObject(o1, GraphRecordStoreUtilities.DESTINATION, index, result, showReferences);
                 }
             }
         }
         if (obj.containsKey("belongs_to_refs"))
         {
-            drawBasicLinkedNodes(label, type, "belongs_to_refs", "Belongs To", obj, bundle, result);
+            drawBasicLinkedNodes(label, type, "belongs_to_refs", "Belongs To", obj, index, result);
         }        
                 
         if (obj.containsKey("resolves_to_refs"))
         {
-            drawBasicLinkedNodes(label, type, "resolves_to_refs", "Resolves To", obj, bundle, result);
+            drawBasicLinkedNodes(label, type, "resolves_to_refs", "Resolves To", obj, index, result);
         }
         
         if (obj.containsKey("raw_email_ref"))
         {
-            drawBasicLinkedNode(label, type, "raw_email_ref", "Raw Email", obj, bundle, result); 
+            drawBasicLinkedNode(label, type, "raw_email_ref", "Raw Email", obj, index, result); 
         }
         
         if (obj.containsKey("parent_directory_ref"))
         {
-            drawBasicLinkedNode(label, type, "parent_directory_ref", "Parent Directory", obj, bundle, result); 
+            drawBasicLinkedNode(label, type, "parent_directory_ref", "Parent Directory", obj, index, result); 
         }
         
         if (obj.containsKey("content_ref"))
         {
-            drawBasicLinkedNode(label, type, "content_ref", "Content", obj, bundle, result); 
+            drawBasicLinkedNode(label, type, "content_ref", "Content", obj, index, result); 
         }
         
         if (obj.containsKey("contains_refs"))
         {
-            drawBasicLinkedNodes(label, type, "contains_refs", "Contains", obj, bundle, result); 
+            drawBasicLinkedNodes(label, type, "contains_refs", "Contains", obj, index, result); 
         }
         
         if (obj.containsKey("hashes"))
         {
-            for (Object o : ((JSONObject)obj.get("hashes")).keySet() )
+            for (Object e : ((JSONObject)obj.get("hashes")).entrySet())
             {
-                JSONObject o1 = (JSONObject)o;
-                for (Object key : o1.keySet())
-                if (key != null)
+                Map.Entry<?, ?> hash = (Map.Entry<?, ?>)e;
+                if (!(hash.getValue() instanceof String) || hash.getValue().equals(label))
                 {
-                    SchemaVertexType hashType = AnalyticConcept.VertexType.HASH;
-                    switch((String)o1.get(key))
-                    {
-                        case "MD5":
-                            hashType = AnalyticConcept.VertexType.MD5;
-                            break;
-                        case "SHA-1":
-                            hashType = AnalyticConcept.VertexType.SHA1;
-                            break;
-                        case "SHA-256":
-                            hashType = AnalyticConcept.VertexType.SHA256;
-                            break;
-                        case "SHA-512":
-                            hashType = CyberConcept.VertexType.SHA512;
-                            break;
-                    }
-                    result.add();
-                    
-                    result.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, label);
-                    result.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, type);
-                    
-                    result.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, (String)o1.get(key));
-                    result.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, hashType);
-                    
+                    continue;
                 }
+                SchemaVertexType hashType = StixTypes.getHashType((String)hash.getKey());
+                result.add();
+                
+                result.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, label);
+                result.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, type);
+                
+                result.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, (String)hash.getValue());
+                result.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, hashType != null ? hashType : AnalyticConcept.VertexType.HASH);
             }
         } 
         
@@ -723,97 +667,131 @@ public class StixFileImporterPlugin extends RecordStoreQueryPlugin  {
         
         if (obj.containsKey("object_refs"))
         {
-            drawBasicLinkedNodes(label, type, "object_refs", null, obj, bundle, result); 
+            drawBasicLinkedNodes(label, type, "object_refs", null, obj, index, result); 
         }
         if (obj.containsKey("from_ref"))
         {
-            drawBasicLinkedNode(label, type, "from_ref", "From", obj, bundle, result); 
+            drawBasicLinkedNode(label, type, "from_ref", "From", obj, index, result); 
         }
         if (obj.containsKey("sender_ref"))
         {
-            drawBasicLinkedNode(label, type, "sender_ref", "Sender", obj, bundle, result); 
+            drawBasicLinkedNode(label, type, "sender_ref", "Sender", obj, index, result); 
         }
         if (obj.containsKey("object_ref"))
         {
-            drawBasicLinkedNode(label, type, "object_ref", "Object", obj, bundle, result); 
+            drawBasicLinkedNode(label, type, "object_ref", "Object", obj, index, result); 
         }
         if (obj.containsKey("to_refs"))
         {
-            drawBasicLinkedNodes(label, type, "to_refs", "To", obj, bundle, result); 
+            drawBasicLinkedNodes(label, type, "to_refs", "To", obj, index, result); 
         }
         
         if (obj.containsKey("cc_refs"))
         {
-            drawBasicLinkedNodes(label, type, "cc_refs", "CC", obj, bundle, result); 
+            drawBasicLinkedNodes(label, type, "cc_refs", "CC", obj, index, result); 
         }
         
         if (obj.containsKey("bcc_refs"))
         {
-            drawBasicLinkedNodes(label, type, "bcc_refs", "BCC", obj, bundle, result); 
+            drawBasicLinkedNodes(label, type, "bcc_refs", "BCC", obj, index, result); 
         }
         
         if (obj.containsKey("sighting_of_ref"))
         {
-            drawBasicLinkedNode(label, type, "sighting_of_ref", "Sighting", obj, bundle, result); 
+            drawBasicLinkedNode(label, type, "sighting_of_ref", "Sighting", obj, index, result); 
         }
         if (obj.containsKey("created_by_ref"))
         {
-            drawBasicLinkedNode(label, type, "created_by_ref", "Created By", obj, bundle, result); 
+            drawBasicLinkedNode(label, type, "created_by_ref", "Created By", obj, index, result); 
         }
         
         if (obj.containsKey("observed_data_refs"))
         {
-            drawBasicLinkedNodes(label, type, "observed_data_refs", "Observed Data", obj, bundle, result); 
+            drawBasicLinkedNodes(label, type, "observed_data_refs", "Observed Data", obj, index, result); 
         }
         
         if (obj.containsKey("where_sighted_refs"))
         {
-            drawBasicLinkedNodes(label, type, "where_sighted_refs", "Where Sighted", obj, bundle, result); 
+            drawBasicLinkedNodes(label, type, "where_sighted_refs", "Where Sighted", obj, index, result); 
         }
         
         if (obj.containsKey("operating_system_refs"))
         {
-            drawBasicLinkedNodes(label, type, "operating_system_refs", "Executable on", obj, bundle, result);   
+            drawBasicLinkedNodes(label, type, "operating_system_refs", "Executable on", obj, index, result);   
         }
         
         if (obj.containsKey("sample_refs"))
         {
-            drawBasicLinkedNodes(label, type, "sample_refs", "Sample", obj, bundle, result);
+            drawBasicLinkedNodes(label, type, "sample_refs", "Sample", obj, index, result);
         }
         if (obj.containsKey("host_vm_ref"))
         {
-            drawBasicLinkedNode(label, type, "host_vm_refs", "Host VM", obj, bundle, result);
+            drawBasicLinkedNode(label, type, "host_vm_refs", "Host VM", obj, index, result);
         }
         if (obj.containsKey("operating_system_ref"))
         {
-            drawBasicLinkedNode(label, type, "operating_system_ref", "Operating System", obj, bundle, result);
+            drawBasicLinkedNode(label, type, "operating_system_ref", "Operating System", obj, index, result);
         }
         if (obj.containsKey("installed_software_refs"))
         {
-            drawBasicLinkedNodes(label, type, "installed_software_refs", "Installed Software", obj, bundle, result);
+            drawBasicLinkedNodes(label, type, "installed_software_refs", "Installed Software", obj, index, result);
         }
         if (obj.containsKey("analysis_sco_refs"))
         {
-            drawBasicLinkedNodes(label, type, "analysis_sco_refs", null, obj, bundle, result);
+            drawBasicLinkedNodes(label, type, "analysis_sco_refs", null, obj, index, result);
         }
         if (obj.containsKey("sample_ref"))
         {
-            drawBasicLinkedNode(label, type, "sample_ref", "Sample", obj, bundle, result);
+            drawBasicLinkedNode(label, type, "sample_ref", "Sample", obj, index, result);
+        }
+        if (obj.containsKey("pattern") && "stix".equals(obj.getOrDefault("pattern_type", "stix")))
+        {
+            drawPatternObservables(label, type, (String)obj.get("pattern"), result);
         }
         
     }
     
-    private void drawBasicLinkedNode(String parentLabel, String parentType, String key, String transactionName, JSONObject obj, HashMap<String, JSONObject> bundle, RecordStore result)
+    /* draw the addresses, domains, urls and hashes an indicator's pattern matches, linked to the indicator */
+    private void drawPatternObservables(String parentLabel, String parentType, String pattern, RecordStore result)
+    {
+        Set<String> drawn = new HashSet<>();
+        for (StixPattern.Comparison comparison : StixPattern.parse(pattern))
+        {
+            SchemaVertexType observableType = null;
+            String property = comparison.getProperty();
+            if (property.startsWith("hashes."))
+            {
+                observableType = StixTypes.getHashType(property.substring("hashes.".length()));
+            }
+            else if ("value".equals(property) && StixTypes.isObservable(comparison.getObjectType()))
+            {
+                observableType = StixTypes.getVertexType(comparison.getObjectType());
+            }
+            
+            if (observableType != null && drawn.add(observableType.getName() + '\u0000' + comparison.getValue()))
+            {
+                result.add();
+                result.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, parentLabel);
+                result.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, parentType);
+
+                result.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, comparison.getValue());
+                result.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, observableType.getName());
+                result.set(GraphRecordStoreUtilities.TRANSACTION + AnalyticConcept.TransactionAttribute.TYPE, "Pattern");
+            }
+        }
+    }
+    
+    private void drawBasicLinkedNode(String parentLabel, String parentType, String key, String transactionName, JSONObject obj, StixBundleIndex index, RecordStore result)
     {
-        JSONObject o1 = bundle.get((String)obj.get(key));
+        StixBundleIndex.Entry o1 = index.get((String)obj.get(key));
         if (o1 != null)
         {
             result.add();
             result.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, parentLabel);
             result.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, parentType);
 
-            result.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, (String)o1.get("name"));
-            result.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, getVertexType((String)o1.get("type")));
+            result.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, o1.getName());
+            result.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, getVertexType(o1));
             if (transactionName != null)
             {
                 result.set(GraphRecordStoreUtilities.TRANSACTION + AnalyticConcept.TransactionAttribute.TYPE, transactionName);
@@ -821,19 +799,19 @@ public class StixFileImporterPlugin extends RecordStoreQueryPlugin  {
         }
     }
     
-    private void drawBasicLinkedNodes(String parentLabel, String parentType, String key, String transactionName, JSONObject obj, HashMap<String, JSONObject> bundle, RecordStore result)
+    private void drawBasicLinkedNodes(String parentLabel, String parentType, String key, String transactionName, JSONObject obj, StixBundleIndex index, RecordStore result)
     {
-        for (Object o : (JSONArray)obj.get("where_sighted_refs"))
+        for (Object o : (JSONArray)obj.get(key))
         {
-            JSONObject o1 = bundle.get((String)o);
+            StixBundleIndex.Entry o1 = index.get((String)o);
             if (o1 != null)
             {
                 result.add();
                 result.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, parentLabel);
                 result.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, parentType);
 
-                result.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, (String)o1.get("name"));
-                result.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, getVertexType((String)o1.get("type")));
+                result.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, o1.getName());
+                result.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, getVertexType(o1));
                 if (transactionName != null)
                 {
                     result.set(GraphRecordStoreUtilities.TRANSACTION + AnalyticConcept.TransactionAttribute.TYPE, transactionName);
@@ -842,29 +820,31 @@ public class StixFileImporterPlugin extends RecordStoreQueryPlugin  {
         }
     }
     
-    private void drawRelationship(JSONObject obj, HashMap<String, JSONObject> bundle, RecordStore result)
+    private void drawRelationship(JSONObject obj, StixBundleIndex index, RecordStore result)
     {
         
         String srcId = (String)obj.get("source_ref");
         String dstId = (String)obj.get("target_ref");
         
-        JSONObject src = bundle.get(srcId);
-        JSONObject dest = bundle.get(dstId);
+        StixBundleIndex.Entry src = index.get(srcId);
+        StixBundleIndex.Entry dest = index.get(dstId);
+        if (src == null)
+        {
+            return;
+        }
         
-        String srcLabel = (String)src.get("name");
-        String srcType = (String)src.get("type");
+        String srcLabel = src.getName();
 
         result.add();
         result.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, srcLabel);
-        result.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, getVertexType(srcType));
+        result.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, getVertexType(src));
         
         if (dest != null)
         {
-            String dstLabel = (String)dest.get("name");
-            String dstType = (String)dest.get("type");
+            String dstLabel = dest.getName();
             
             result.set(GraphRecordStoreUtilities.DESTINATION + VisualConcept.VertexAttribute.IDENTIFIER, dstLabel);
-            result.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, getVertexType(dstType));
+            result.set(GraphRecordStoreUtilities.DESTINATION + AnalyticConcept.VertexAttribute.TYPE, getVertexType(dest));
             
             
             result.set(GraphRecordStoreUtilities.TRANSACTION + VisualConcept.TransactionAttribute.IDENTIFIER, obj.get("id"));
@@ -890,79 +870,531 @@ public class StixFileImporterPlugin extends RecordStoreQueryPlugin  {
             {
                 result.set(GraphRecordStoreUtilities.TRANSACTION + TemporalConcept.VertexAttribute.LAST_SEEN, TemporalFormatting.completeZonedDateTimeString((String)obj.get("last_seen")) );
             }
-            if (obj.containsKey("count"))
+            // the parser gives whole numbers as Long, and producers use either name
+            final Object count = obj.containsKey("count") ? obj.get("count") : obj.get("number_observed");
+            if (count instanceof Number)
             {
-                result.set(GraphRecordStoreUtilities.TRANSACTION + "Count", (Integer)obj.get("number_observed") );
+                result.set(GraphRecordStoreUtilities.TRANSACTION + "Count", ((Number)count).intValue());
             }
         }
     }
 
-    private void drawBundle(HashMap<String, JSONObject> bundle, RecordStore result, PluginInteraction interaction, boolean showReferences)
+    private RecordStore drawShard(List<JSONObject> objects, StixBundleIndex index, boolean showReferences) throws IOException
     {
-        // first draw objects
-        for (String key : bundle.keySet())
+        final RecordStore shard = new GraphRecordStore();
+        for (JSONObject o : objects)
         {
-            JSONObject o = bundle.get(key);
             if (isObject(o))
             {
-                drawObject(o, GraphRecordStoreUtilities.SOURCE,  bundle, result, showReferences);
+                drawObject(o, GraphRecordStoreUtilities.SOURCE, index, shard, showReferences);
             }
             else
             {
-                drawRelationship(o, bundle, result);
+                drawRelationship(o, index, shard);
+            }
+        }
+        return shard;
+    }
+
+    private void mergeShard(Future<RecordStore> shard, RecordStore result) throws IOException, InterruptedException
+    {
+        try
+        {
+            result.add(shard.get());
+        }
+        catch (ExecutionException ex)
+        {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof IOException)
+            {
+                throw (IOException)cause;
+            }
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException)cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private void drawBundle(StixBundleReader reader, int total, StixBundleIndex index, StixManifest drawn, RecordStore result, PluginInteraction interaction, boolean showReferences, ExecutorService executor, int threads) throws IOException, InterruptedException
+    {
+        // each object only needs the index to be drawn, so the stream is cut
+        // into shards that are drawn into their own record stores by a pool
+        // and merged back on this thread in file order. Only a few shards are
+        // in flight at once so the bundle is never held in memory.
+        final int maxPending = threads * 2;
+        final Deque<Future<RecordStore>> pending = new ArrayDeque<>();
+        final List<JSONObject> chunk = new ArrayList<>(SHARD_SIZE);
+        final int[] merged = {0};
+        try
+        {
+            reader.stream(o -> {
+                if (drawn != null && drawn.isCurrent((String)o.get("id"), (String)o.get("modified")))
+                {
+                    // already drawn and not modified since
+                    return;
+                }
+                chunk.add(o);
+                if (chunk.size() == SHARD_SIZE)
+                {
+                    final List<JSONObject> objects = new ArrayList<>(chunk);
+                    chunk.clear();
+                    pending.add(executor.submit(() -> drawShard(objects, index, showReferences)));
+                    while (pending.size() > maxPending)
+                    {
+                        mergeShard(pending.remove(), result);
+                        merged[0] += SHARD_SIZE;
+                        interaction.setProgress(merged[0], total, String.format("Imported %d of %d STIX objects", merged[0], total), true);
+                    }
+                }
+            });
+            if (!chunk.isEmpty())
+            {
+                final List<JSONObject> objects = new ArrayList<>(chunk);
+                pending.add(executor.submit(() -> drawShard(objects, index, showReferences)));
+            }
+            while (!pending.isEmpty())
+            {
+                mergeShard(pending.remove(), result);
+                merged[0] = Math.min(total, merged[0] + SHARD_SIZE);
+                interaction.setProgress(merged[0], total, String.format("Imported %d of %d STIX objects", merged[0], total), true);
             }
         }
+        finally
+        {
+            for (Future<RecordStore> shard : pending)
+            {
+                shard.cancel(true);
+            }
+        }
+    }
+
+
+    private static final class Bundle
+    {
+        private final File file;
+        private final String hash;
+        private final StixBundleReader reader;
+        private final StixBundleIndex index;
+
+        private Bundle(File file, String hash, StixBundleReader reader, StixBundleIndex index)
+        {
+            this.file = file;
+            this.hash = hash;
+            this.reader = reader;
+            this.index = index;
+        }
+    }
+
+    private static Bundle indexBundle(File file, StixIndexStore store) throws IOException, InterruptedException
+    {
+        final String hash = StixIndexStore.hash(file);
+        final StixBundleReader reader = new StixBundleReader(file);
+        StixBundleIndex index = null;
+        try
+        {
+            index = store.readIndex(hash, reader);
+        }
+        catch (IOException ex)
+        {
+            // a damaged index is rebuilt below
+            LOGGER.log(Level.WARNING, "Unable to read the stored STIX index of " + file, ex);
+        }
+        if (index == null)
+        {
+            // first pass only indexes the objects, the second pass draws them
+            index = reader.index();
+            try
+            {
+                store.writeIndex(hash, index);
+            }
+            catch (IOException ex)
+            {
+                LOGGER.log(Level.WARNING, "Unable to store the STIX index of " + file, ex);
+            }
+        }
+        return new Bundle(file, hash, reader, index);
+    }
+
+    private static String validate(StixBundleIndex index)
+    {
+        // check type is bundle.
+        if (index.getType() == null || 
+                !index.getType().equalsIgnoreCase("bundle"))
+        {
+            return "File does not appear to be of type bundle.";
+        }
         
+        // check version
+        if (index.getSpecVersion() == null || 
+                !index.getSpecVersion().startsWith("2."))
+        {
+            return "File spec_version is not 2.x";
+        }
+        return null;
     }
 
+    private static boolean isArchive(File file)
+    {
+        return file.isFile() && file.getName().toLowerCase().endsWith(".zip");
+    }
+
+    private static boolean isBundleName(String name)
+    {
+        return name.toLowerCase().endsWith(".json");
+    }
+
+    private static List<File> listBundles(File dir) throws IOException
+    {
+        try (Stream<Path> paths = Files.walk(dir.toPath()))
+        {
+            return paths.filter(path -> Files.isRegularFile(path) && isBundleName(path.getFileName().toString()))
+                    .sorted()
+                    .map(Path::toFile)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static List<File> extractBundles(File archive, File dir) throws IOException
+    {
+        // bundles are read by offset, so they are extracted to files first
+        final List<File> files = new ArrayList<>();
+        try (ZipFile zip = new ZipFile(archive))
+        {
+            final List<? extends ZipEntry> entries = Collections.list(zip.entries());
+            entries.sort(Comparator.comparing(ZipEntry::getName));
+            for (ZipEntry entry : entries)
+            {
+                if (entry.isDirectory() || !isBundleName(entry.getName()))
+                {
+                    continue;
+                }
+                // entry names are not trusted as paths
+                final File file = new File(dir, String.format("%05d-%s", files.size(), new File(entry.getName()).getName()));
+                try (InputStream in = zip.getInputStream(entry))
+                {
+                    Files.copy(in, file.toPath());
+                }
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    private static void deleteDirectory(File dir)
+    {
+        try (Stream<Path> paths = Files.walk(dir.toPath()))
+        {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+        catch (IOException ex)
+        {
+            LOGGER.log(Level.WARNING, "Unable to delete " + dir, ex);
+        }
+    }
+
+    private static String getVertexKey(String identifier, String type)
+    {
+        return identifier + '\u0000' + type;
+    }
+
+    /**
+     * Whether an object in the manifest is still drawn in the graph. The
+     * manifest is not told when the user deletes things, so it is checked
+     * against the graph before anything is skipped.
+     */
+    private boolean isDrawn(String id, StixBundleIndex.Entry entry)
+    {
+        if (entry == null)
+        {
+            return false;
+        }
+        if (!isObject(entry.getType()))
+        {
+            return graphElements.contains(id);
+        }
+        // objects without a name are not drawn
+        return entry.getName() == null || graphElements.contains(getVertexKey(entry.getName(), getVertexType(entry)));
+    }
+
+    private static boolean isCurrent(Bundle bundle, StixManifest manifest)
+    {
+        for (Map.Entry<String, StixBundleIndex.Entry> e : bundle.index.getEntries().entrySet())
+        {
+            if (!manifest.isCurrent(e.getKey(), e.getValue().getModified()))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected void read(GraphReadMethods graph, PluginInteraction interaction, PluginParameters parameters) throws InterruptedException, PluginException
+    {
+        super.read(graph, interaction, parameters);
+        graphManifest = new StixManifest();
+        graphElements = new HashSet<>();
+        updatedManifest = null;
+        
+        final int manifestAttribute = STIXConcept.GraphAttribute.STIX_MANIFEST.get(graph);
+        final String value = manifestAttribute == Graph.NOT_FOUND ? null : graph.getStringValue(manifestAttribute, 0);
+        if (value == null || value.isEmpty())
+        {
+            return;
+        }
+        try
+        {
+            graphManifest = StixManifest.decode(value);
+        }
+        catch (IOException ex)
+        {
+            // everything is drawn again and the manifest rebuilt
+            LOGGER.log(Level.WARNING, "Unable to read the STIX manifest of the graph", ex);
+            return;
+        }
+        
+        final int identifierAttribute = VisualConcept.VertexAttribute.IDENTIFIER.get(graph);
+        final int typeAttribute = AnalyticConcept.VertexAttribute.TYPE.get(graph);
+        if (identifierAttribute != Graph.NOT_FOUND && typeAttribute != Graph.NOT_FOUND)
+        {
+            for (int position = 0; position < graph.getVertexCount(); position++)
+            {
+                final int vertex = graph.getVertex(position);
+                final SchemaVertexType type = graph.getObjectValue(typeAttribute, vertex);
+                if (type != null)
+                {
+                    graphElements.add(getVertexKey(graph.getStringValue(identifierAttribute, vertex), type.getName()));
+                }
+            }
+        }
+        final int transactionIdentifierAttribute = VisualConcept.TransactionAttribute.IDENTIFIER.get(graph);
+        if (transactionIdentifierAttribute != Graph.NOT_FOUND)
+        {
+            for (int position = 0; position < graph.getTransactionCount(); position++)
+            {
+                graphElements.add(graph.getStringValue(transactionIdentifierAttribute, graph.getTransaction(position)));
+            }
+        }
+    }
+
+    @Override
+    protected void edit(GraphWriteMethods graph, PluginInteraction interaction, PluginParameters parameters) throws InterruptedException, PluginException
+    {
+        super.edit(graph, interaction, parameters);
+        // only once the objects are in the graph, and as part of the same
+        // edit so undoing the import undoes the manifest too
+        if (updatedManifest != null)
+        {
+            final int manifestAttribute = STIXConcept.GraphAttribute.STIX_MANIFEST.ensure(graph);
+            graph.setStringValue(manifestAttribute, 0, updatedManifest.encode());
+        }
+    }
+
+    private void drawRemoved(StixBundleIndex.Entry entry, RecordStore result)
+    {
+        // removed relationships have no vertex to mark
+        if (entry == null || entry.getName() == null || !isObject(entry.getType()))
+        {
+            return;
+        }
+        result.add();
+        result.set(GraphRecordStoreUtilities.SOURCE + VisualConcept.VertexAttribute.IDENTIFIER, entry.getName());
+        result.set(GraphRecordStoreUtilities.SOURCE + AnalyticConcept.VertexAttribute.TYPE, getVertexType(entry));
+        result.set(GraphRecordStoreUtilities.SOURCE + "Removed", true);
+    }
 
     @Override
     protected RecordStore query(RecordStore query, PluginInteraction interaction, PluginParameters parameters) throws InterruptedException, PluginException {
         final RecordStore results = new GraphRecordStore();
         
-        //get parsers from object.
-        final Map<String, PluginParameter<?>> params = parameters.getParameters();
-
         final String filepath =  parameters.getParameters().get(FILEPATH_PARAMETER_ID).getStringValue();
         final boolean showReferences =  parameters.getParameters().get(SHOW_REFERENCES_PARAMETER_ID).getBooleanValue();
+        final boolean skipUnchanged =  parameters.getParameters().get(SKIP_UNCHANGED_PARAMETER_ID).getBooleanValue();
+        final boolean markRemoved =  parameters.getParameters().get(MARK_REMOVED_PARAMETER_ID).getBooleanValue();
         
-        JSONParser p = new JSONParser();
+        final File path = new File(filepath);
+        final StixIndexStore store = new StixIndexStore(StixIndexStore.getDefaultDir());
+        final int threads = Runtime.getRuntime().availableProcessors();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        File extracted = null;
         try {
-            JSONObject root = (JSONObject)p.parse(new FileReader(new File(filepath)));
-            
-            // check type is bundle.
-            if (!root.containsKey("type") || 
-                    !((String)root.get("type")).equalsIgnoreCase("bundle"))
+            final List<File> files;
+            if (path.isDirectory())
+            {
+                files = listBundles(path);
+            }
+            else if (isArchive(path))
+            {
+                extracted = Files.createTempDirectory("stix").toFile();
+                files = extractBundles(path, extracted);
+            }
+            else
+            {
+                files = List.of(path);
+            }
+            if (files.isEmpty())
             {
-                interaction.notify(PluginNotificationLevel.FATAL, "File does not appear to be of type bundle.");
+                interaction.notify(PluginNotificationLevel.FATAL, "No STIX bundles found in " + filepath);
                 return results;
             }
             
-            // check version
-            if (!root.containsKey("spec_version") || 
-                    !((String)root.get("spec_version")).startsWith("2."))
+            // index the bundles concurrently
+            final List<Future<Bundle>> indexing = new ArrayList<>();
+            for (File file : files)
+            {
+                indexing.add(executor.submit(() -> indexBundle(file, store)));
+            }
+            final List<Bundle> bundles = new ArrayList<>();
+            final List<String> errors = new ArrayList<>();
+            interaction.setProgress(0, files.size(), "Indexing STIX bundles", true);
+            for (int i = 0; i < files.size(); i++)
+            {
+                final String name = files.size() == 1 ? "" : files.get(i).getName() + ": ";
+                try
+                {
+                    final Bundle bundle = indexing.get(i).get();
+                    final String error = validate(bundle.index);
+                    if (error != null)
+                    {
+                        errors.add(name + error);
+                    }
+                    else
+                    {
+                        bundles.add(bundle);
+                    }
+                }
+                catch (ExecutionException ex)
+                {
+                    if (ex.getCause() instanceof JsonProcessingException)
+                    {
+                        errors.add(name + "File is not valid JSON: " + ((JsonProcessingException)ex.getCause()).getOriginalMessage());
+                    }
+                    else if (ex.getCause() instanceof IOException)
+                    {
+                        LOGGER.log(Level.WARNING, "Unable to index " + files.get(i), ex.getCause());
+                        errors.add(name + ex.getCause().getMessage());
+                    }
+                    else
+                    {
+                        Exceptions.printStackTrace(ex);
+                        interaction.notify(PluginNotificationLevel.ERROR, String.format("Exception indexing %s: %s", files.get(i).getName(), ex.getCause().getMessage()));
+                        return results;
+                    }
+                }
+                interaction.setProgress(i + 1, files.size(), "Indexing STIX bundles", true);
+            }
+            if (files.size() == 1 && !errors.isEmpty())
             {
-                interaction.notify(PluginNotificationLevel.FATAL, "File spec_version is not 2.x");
+                interaction.notify(PluginNotificationLevel.FATAL, errors.get(0));
                 return results;
             }
+            if (!errors.isEmpty())
+            {
+                final List<String> shown = errors.size() > MAX_REPORTED_ERRORS ? new ArrayList<>(errors.subList(0, MAX_REPORTED_ERRORS)) : errors;
+                if (shown != errors)
+                {
+                    shown.add("...");
+                }
+                interaction.notify(PluginNotificationLevel.WARNING, String.format("Unable to import %d of %d STIX bundles:\n%s", errors.size(), files.size(), String.join("\n", shown)));
+            }
+            
+            // references resolve into any bundle imported into the graph
+            // before as well as into the other bundles of this import
+            final StixManifest manifest = graphManifest != null ? graphManifest : new StixManifest();
+            final Set<String> imported = manifest.getBundles();
+            final Set<String> current = new HashSet<>();
+            for (Bundle bundle : bundles)
+            {
+                current.add(bundle.hash);
+            }
+            final StixBundleIndex index = new StixBundleIndex(null);
+            for (String hash : imported)
+            {
+                if (!current.contains(hash))
+                {
+                    try
+                    {
+                        final StixBundleIndex previous = store.readIndex(hash, null);
+                        if (previous != null)
+                        {
+                            index.putAll(previous);
+                        }
+                    }
+                    catch (IOException ex)
+                    {
+                        LOGGER.log(Level.WARNING, "Unable to read the stored STIX index " + hash, ex);
+                    }
+                }
+            }
+            for (Bundle bundle : bundles)
+            {
+                index.putAll(bundle.index);
+            }
             
-            HashMap<String, JSONObject> bundle = new HashMap<>();
+            if (graphElements != null)
+            {
+                manifest.retainPresent(id -> isDrawn(id, index.get(id)));
+            }
+            final String source = path.getAbsolutePath();
+            int skipped = 0;
+            for (Bundle bundle : bundles)
+            {
+                if (skipUnchanged && imported.contains(bundle.hash) && isCurrent(bundle, manifest))
+                {
+                    skipped++;
+                }
+                else
+                {
+                    drawBundle(bundle.reader, bundle.index.size(), index, skipUnchanged ? manifest : null, results, interaction, showReferences, executor, threads);
+                    imported.add(bundle.hash);
+                }
+                for (Map.Entry<String, StixBundleIndex.Entry> e : bundle.index.getEntries().entrySet())
+                {
+                    manifest.put(e.getKey(), e.getValue().getModified(), source);
+                }
+            }
             
-            for (Object o : (JSONArray)root.getOrDefault("objects", new JSONArray()))
+            // a bundle that failed to index would make its objects look removed
+            if (errors.isEmpty())
             {
-                JSONObject o1 = (JSONObject)o;
-                String key = (String)o1.get("id");
-                bundle.put(key, o1);
+                final Set<String> ids = new HashSet<>();
+                for (Bundle bundle : bundles)
+                {
+                    ids.addAll(bundle.index.getEntries().keySet());
+                }
+                final List<String> removed = manifest.getRemoved(source, ids);
+                for (String id : removed)
+                {
+                    manifest.remove(id);
+                    if (markRemoved)
+                    {
+                        drawRemoved(index.get(id), results);
+                    }
+                }
+                if (markRemoved && !removed.isEmpty())
+                {
+                    interaction.notify(PluginNotificationLevel.INFO, String.format("%d STIX objects have been removed from %s", removed.size(), path.getName()));
+                }
             }
             
-            drawBundle(bundle, results, interaction, showReferences);
+            updatedManifest = manifest;
+            if (skipped > 0)
+            {
+                interaction.notify(PluginNotificationLevel.INFO, String.format("Skipped %d unchanged STIX bundles", skipped));
+            }
             
-        } catch (FileNotFoundException ex) {
-            Exceptions.printStackTrace(ex);
+        } catch (JsonProcessingException ex) {
+            interaction.notify(PluginNotificationLevel.FATAL, "File is not valid JSON: " + ex.getOriginalMessage());
         } catch (IOException ex) {
             Exceptions.printStackTrace(ex);
-        } catch (ParseException ex) {
-            Exceptions.printStackTrace(ex);
+        } finally {
+            executor.shutdownNow();
+            if (extracted != null)
+            {
+                deleteDirectory(extracted);
+            }
         }
         
         return results;
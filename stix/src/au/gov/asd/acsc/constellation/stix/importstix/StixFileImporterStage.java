@@ -52,9 +52,11 @@ import javafx.scene.image.Image;
 import javafx.scene.input.KeyCode;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.GridPane;
+import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.stage.FileChooser.ExtensionFilter;
 import javafx.stage.Screen;
@@ -109,7 +111,7 @@ public class StixFileImporterStage extends Stage {
         
         graphComboBox.getSelectionModel().select(defaultDestination);
         
-        gridPane.add(new Label("STIX2 File"),0,0);
+        gridPane.add(new Label("STIX2 File or Folder"),0,0);
         TextField pathTxt = new TextField();
         gridPane.add(pathTxt, 1,0);
         Button selectBtn = new Button("..");
@@ -117,6 +119,7 @@ public class StixFileImporterStage extends Stage {
             
             FileChooser c = new FileChooser();
             c.getExtensionFilters().add(new ExtensionFilter("STIX2","*.json"));
+            c.getExtensionFilters().add(new ExtensionFilter("STIX2 archive","*.zip"));
             c.setTitle("Select STIX2 File");
             if (!pathTxt.getText().isBlank())
             {
@@ -131,7 +134,18 @@ public class StixFileImporterStage extends Stage {
                 }
             }
         });
-        gridPane.add(selectBtn, 2, 0);
+        Button selectDirBtn = new Button("Folder..");
+        selectDirBtn.setOnAction(e -> {
+            
+            DirectoryChooser c = new DirectoryChooser();
+            c.setTitle("Select Folder of STIX2 Bundles");
+            File f = c.showDialog(this);
+            if (f != null && f.isDirectory())
+            {
+                pathTxt.setText(f.getAbsolutePath());
+            }
+        });
+        gridPane.add(new HBox(5, selectBtn, selectDirBtn), 2, 0);
         
         gridPane.add(new Label("Destination"),0,1);
         gridPane.add(graphComboBox, 1, 1);
@@ -141,6 +155,17 @@ public class StixFileImporterStage extends Stage {
         gridPane.add(new Label("Show references"),0,2);
         gridPane.add(showReferencesChk, 1, 2);
         
+        CheckBox skipUnchangedChk = new CheckBox();
+        skipUnchangedChk.setSelected(true);
+        
+        gridPane.add(new Label("Skip unchanged"),0,3);
+        gridPane.add(skipUnchangedChk, 1, 3);
+        
+        CheckBox markRemovedChk = new CheckBox();
+        
+        gridPane.add(new Label("Mark removed objects"),0,4);
+        gridPane.add(markRemovedChk, 1, 4);
+        
         StixFileImporterStage s = this;
         
         Button addBtn = new Button("Parse");
@@ -153,6 +178,8 @@ public class StixFileImporterStage extends Stage {
 
                 String filepath = pathTxt.getText();
                 boolean showReferences = showReferencesChk.isSelected();
+                boolean skipUnchanged = skipUnchangedChk.isSelected();
+                boolean markRemoved = markRemovedChk.isSelected();
                 
                 if (filepath.isBlank())
                 {
@@ -180,6 +207,8 @@ public class StixFileImporterStage extends Stage {
                                 PluginExecutor.startWith(StixFileImporterPlugin.class.getName(), false)
                                         .set(StixFileImporterPlugin.FILEPATH_PARAMETER_ID, filepath)
                                         .set(StixFileImporterPlugin.SHOW_REFERENCES_PARAMETER_ID, showReferences)
+                                        .set(StixFileImporterPlugin.SKIP_UNCHANGED_PARAMETER_ID, skipUnchanged)
+                                        .set(StixFileImporterPlugin.MARK_REMOVED_PARAMETER_ID, markRemoved)
                                         .executeWriteLater(importGraph);
                                 Platform.runLater(new Runnable(){
                                     @Override
@@ -198,13 +227,15 @@ public class StixFileImporterStage extends Stage {
                     PluginExecutor.startWith(StixFileImporterPlugin.class.getName(), false)
                         .set(StixFileImporterPlugin.FILEPATH_PARAMETER_ID, filepath)
                         .set(StixFileImporterPlugin.SHOW_REFERENCES_PARAMETER_ID, showReferences)
+                        .set(StixFileImporterPlugin.SKIP_UNCHANGED_PARAMETER_ID, skipUnchanged)
+                        .set(StixFileImporterPlugin.MARK_REMOVED_PARAMETER_ID, markRemoved)
                         .executeWriteLater(importGraph);
                 }
             }
         
         });
             
-        gridPane.add(addBtn,2,4);
+        gridPane.add(addBtn,2,5);
         
         
         
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2010-2020 Australian Signals Directorate
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package au.gov.asd.acsc.constellation.stix.importstix;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The on-disk state shared by STIX imports: the id index of every bundle
+ * imported, keyed by a hash of the bundle's content. What each graph has
+ * imported is kept on the graph, see {@link StixManifest}.
+ * <p>
+ * Because the indexes are kept, references into bundles that were imported
+ * earlier, or that are skipped because they have not changed, still resolve.
+ */
+final class StixIndexStore {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final File indexDir;
+
+    StixIndexStore(final File dir) {
+        this.indexDir = new File(dir, "index");
+    }
+
+    /**
+     * Where the store is kept, the acsc.stix.store system property can point
+     * it somewhere else.
+     *
+     * @return the store directory.
+     */
+    static File getDefaultDir() {
+        final String path = System.getProperty("acsc.stix.store");
+        if (path != null && !path.isEmpty()) {
+            return new File(path);
+        }
+        final String home = System.getProperty("netbeans.user", System.getProperty("user.home"));
+        return new File(home, "stix");
+    }
+
+    /**
+     * The SHA-256 of a file's content, as hex.
+     *
+     * @param file the file.
+     * @return the hash.
+     * @throws IOException if the file cannot be read.
+     */
+    static String hash(final File file) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        try (final InputStream in = new FileInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        final StringBuilder hex = new StringBuilder();
+        for (final byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Read the stored index of a bundle.
+     *
+     * @param hash the hash of the bundle.
+     * @param reader the bundle file, or null if it is not part of this
+     * import.
+     * @return the index, or null if none is stored.
+     * @throws IOException if the index cannot be read.
+     */
+    StixBundleIndex readIndex(final String hash, final StixBundleReader reader) throws IOException {
+        final File file = new File(indexDir, hash + ".idx");
+        if (!file.isFile()) {
+            return null;
+        }
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE))) {
+            return StixBundleIndex.read(in, reader);
+        }
+    }
+
+    void writeIndex(final String hash, final StixBundleIndex index) throws IOException {
+        final File file = new File(indexDir, hash + ".idx");
+        write(file, out -> index.write(out));
+    }
+
+    private interface Writer {
+
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static void write(final File target, final Writer writer) throws IOException {
+        // other imports may read the file at the same time, so it is written
+        // to the side and moved into place
+        final File dir = target.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create " + dir);
+        }
+        final File temp = File.createTempFile(target.getName(), ".tmp", dir);
+        try {
+            try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), BUFFER_SIZE))) {
+                writer.write(out);
+            }
+            try {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+}
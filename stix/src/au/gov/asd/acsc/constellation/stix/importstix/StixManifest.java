@@ -0,0 +1,213 @@
+/*
+ * Copyright 2010-2020 Australian Signals Directorate
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package au.gov.asd.acsc.constellation.stix.importstix;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The STIX objects imported into a graph: the modified time each object had
+ * when it was last drawn, and the file or folder it was imported from.
+ * <p>
+ * A re-import only draws objects that are missing from the manifest or whose
+ * modified time has changed. Objects that were imported from the same source
+ * but are no longer in it have been removed from the feed.
+ * <p>
+ * The manifest is kept in a graph attribute, written in the same edit as the
+ * objects it lists, so it is undone, saved and loaded along with them.
+ */
+final class StixManifest {
+
+    private static final int MAGIC = 0x5349584d;
+    private static final int VERSION = 2;
+
+    private static final class Item {
+
+        private final String modified;
+        private final int source;
+
+        private Item(final String modified, final int source) {
+            this.modified = modified;
+            this.source = source;
+        }
+    }
+
+    private final List<String> sources = new ArrayList<>();
+    private final Map<String, Integer> sourceIds = new HashMap<>();
+    private final Map<String, Item> items = new HashMap<>();
+    private final Set<String> bundles = new LinkedHashSet<>();
+
+    /**
+     * Whether an object has already been drawn as it is now.
+     *
+     * @param id the STIX id.
+     * @param modified the object's modified time, may be null.
+     * @return true if the object is in the manifest with the same modified
+     * time.
+     */
+    boolean isCurrent(final String id, final String modified) {
+        final Item item = id == null ? null : items.get(id);
+        return item != null && Objects.equals(item.modified, modified);
+    }
+
+    void put(final String id, final String modified, final String source) {
+        items.put(id, new Item(modified, sourceId(source)));
+    }
+
+    /**
+     * The objects imported from a source that are no longer in it.
+     *
+     * @param source the file or folder imported.
+     * @param current the ids now in the source.
+     * @return the removed ids.
+     */
+    List<String> getRemoved(final String source, final Set<String> current) {
+        final List<String> removed = new ArrayList<>();
+        final Integer sourceId = sourceIds.get(source);
+        if (sourceId != null) {
+            for (final Map.Entry<String, Item> e : items.entrySet()) {
+                if (e.getValue().source == sourceId && !current.contains(e.getKey())) {
+                    removed.add(e.getKey());
+                }
+            }
+        }
+        return removed;
+    }
+
+    void remove(final String id) {
+        items.remove(id);
+    }
+
+    /**
+     * Forget the objects no longer in the graph, such as those the user has
+     * deleted, so they are drawn again.
+     *
+     * @param present whether an object is still in the graph.
+     */
+    void retainPresent(final Predicate<String> present) {
+        items.keySet().removeIf(id -> !present.test(id));
+    }
+
+    /**
+     * The hashes of the bundles imported into the graph.
+     *
+     * @return the hashes, in import order.
+     */
+    Set<String> getBundles() {
+        return bundles;
+    }
+
+    int size() {
+        return items.size();
+    }
+
+    private int sourceId(final String source) {
+        return sourceIds.computeIfAbsent(source, k -> {
+            sources.add(k);
+            return sources.size() - 1;
+        });
+    }
+
+    void write(final DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(sources.size());
+        for (final String source : sources) {
+            StixBundleIndex.writeString(out, source);
+        }
+        out.writeInt(items.size());
+        for (final Map.Entry<String, Item> e : items.entrySet()) {
+            StixBundleIndex.writeString(out, e.getKey());
+            StixBundleIndex.writeString(out, e.getValue().modified);
+            out.writeInt(e.getValue().source);
+        }
+        out.writeInt(bundles.size());
+        for (final String bundle : bundles) {
+            StixBundleIndex.writeString(out, bundle);
+        }
+    }
+
+    /**
+     * The manifest as the value of a string attribute.
+     *
+     * @return the manifest in Base64.
+     */
+    String encode() {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+            write(out);
+        } catch (final IOException ex) {
+            // not thrown writing to memory
+            throw new UncheckedIOException(ex);
+        }
+        return Base64.getEncoder().encodeToString(bytes.toByteArray());
+    }
+
+    static StixManifest decode(final String value) throws IOException {
+        final byte[] bytes;
+        try {
+            bytes = Base64.getDecoder().decode(value);
+        } catch (final IllegalArgumentException ex) {
+            throw new IOException("Not a STIX manifest", ex);
+        }
+        try (final DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(bytes)))) {
+            return read(in);
+        }
+    }
+
+    static StixManifest read(final DataInput in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a STIX manifest");
+        }
+        final StixManifest manifest = new StixManifest();
+        final int sourceCount = in.readInt();
+        for (int i = 0; i < sourceCount; i++) {
+            manifest.sourceId(StixBundleIndex.readString(in));
+        }
+        final int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            final String id = StixBundleIndex.readString(in);
+            final String modified = StixBundleIndex.readString(in);
+            final int source = in.readInt();
+            if (source < 0 || source >= sourceCount) {
+                throw new IOException("Not a STIX manifest");
+            }
+            manifest.items.put(id, new Item(modified, source));
+        }
+        final int bundleCount = in.readInt();
+        for (int i = 0; i < bundleCount; i++) {
+            manifest.bundles.add(StixBundleIndex.readString(in));
+        }
+        return manifest;
+    }
+}
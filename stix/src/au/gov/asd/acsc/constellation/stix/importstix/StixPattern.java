@@ -0,0 +1,356 @@
+/*
+ * Copyright 2010-2020 Australian Signals Directorate
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package au.gov.asd.acsc.constellation.stix.importstix;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Extracts the observable values an indicator's STIX pattern matches on.
+ * <p>
+ * The pattern is scanned once, left to right, without building a syntax
+ * tree or running regular expressions, which keeps the cost per indicator
+ * small on large feeds. Only comparisons that name a value outright are
+ * returned: those using = or IN that are not negated. Comparisons against
+ * ranges, regular expressions or sets, and anything outside square
+ * brackets such as WITHIN or START qualifiers, are passed over.
+ * <p>
+ * Malformed patterns are not rejected; the comparisons read before the
+ * error are returned.
+ */
+final class StixPattern {
+
+    /**
+     * A value a pattern compares an object property to.
+     */
+    static final class Comparison {
+
+        private final String objectType;
+        private final String property;
+        private final String value;
+
+        private Comparison(final String objectType, final String property, final String value) {
+            this.objectType = objectType;
+            this.property = property;
+            this.value = value;
+        }
+
+        /**
+         * @return the STIX type of the object compared, such as ipv4-addr.
+         */
+        public String getObjectType() {
+            return objectType;
+        }
+
+        /**
+         * @return the property path compared, such as value or
+         * hashes.'SHA-256', with any quotes removed.
+         */
+        public String getProperty() {
+            return property;
+        }
+
+        public String getValue() {
+            return value;
+        }
+    }
+
+    private final String pattern;
+    private final int length;
+    private final List<Comparison> comparisons = new ArrayList<>();
+    private int position = 0;
+
+    private StixPattern(final String pattern) {
+        this.pattern = pattern;
+        this.length = pattern.length();
+    }
+
+    /**
+     * Extract the values a pattern compares to.
+     *
+     * @param pattern a STIX pattern, may be null.
+     * @return the comparisons naming a value, in the order they appear.
+     */
+    static List<Comparison> parse(final String pattern) {
+        if (pattern == null || pattern.indexOf('[') < 0) {
+            return Collections.emptyList();
+        }
+        final StixPattern parser = new StixPattern(pattern);
+        parser.parsePattern();
+        return parser.comparisons;
+    }
+
+    private void parsePattern() {
+        while (position < length) {
+            final char c = pattern.charAt(position);
+            if (c == '[') {
+                position++;
+                if (!parseObservation()) {
+                    return;
+                }
+            } else if (c == '\'') {
+                // a timestamp in a START or STOP qualifier
+                if (readString() == null) {
+                    return;
+                }
+            } else {
+                position++;
+            }
+        }
+    }
+
+    /**
+     * Read the comparisons of one observation expression, up to and
+     * including its closing bracket.
+     *
+     * @return false if the pattern is malformed.
+     */
+    private boolean parseObservation() {
+        while (true) {
+            skipWhitespace();
+            if (position >= length) {
+                return false;
+            }
+            final char c = pattern.charAt(position);
+            if (c == ']') {
+                position++;
+                return true;
+            }
+            if (c == '(' || c == ')') {
+                position++;
+                continue;
+            }
+            if (matchKeyword("AND") || matchKeyword("OR")) {
+                continue;
+            }
+            if (!parseComparison()) {
+                return false;
+            }
+        }
+    }
+
+    private boolean parseComparison() {
+        final int colon = readObjectType();
+        if (colon < 0) {
+            return false;
+        }
+        final String objectType = pattern.substring(position, colon);
+        position = colon + 1;
+        final String property = readProperty();
+        if (property == null) {
+            return false;
+        }
+
+        skipWhitespace();
+        final boolean negated = matchKeyword("NOT");
+        skipWhitespace();
+        if (position >= length) {
+            return false;
+        }
+
+        if (matchKeyword("IN")) {
+            skipWhitespace();
+            if (position >= length || pattern.charAt(position) != '(') {
+                return false;
+            }
+            position++;
+            while (true) {
+                skipWhitespace();
+                if (position >= length) {
+                    return false;
+                }
+                final char c = pattern.charAt(position);
+                if (c == ')') {
+                    position++;
+                    return true;
+                }
+                if (c == ',') {
+                    position++;
+                    continue;
+                }
+                if (!readValue(negated ? null : objectType, property)) {
+                    return false;
+                }
+            }
+        }
+
+        final boolean equals;
+        final char c = pattern.charAt(position);
+        if (c == '=') {
+            equals = true;
+            position++;
+        } else if (c == '!' || c == '<' || c == '>') {
+            equals = false;
+            position++;
+            if (position < length && pattern.charAt(position) == '=') {
+                position++;
+            }
+        } else if (matchKeyword("LIKE") || matchKeyword("MATCHES") || matchKeyword("ISSUBSET") || matchKeyword("ISSUPERSET")) {
+            equals = false;
+        } else {
+            return false;
+        }
+        skipWhitespace();
+        return readValue(equals && !negated ? objectType : null, property);
+    }
+
+    /**
+     * Find the colon ending the object type at the current position.
+     *
+     * @return the index of the colon, or -1 if there is no object type here.
+     */
+    private int readObjectType() {
+        int i = position;
+        while (i < length) {
+            final char c = pattern.charAt(i);
+            if (c == ':') {
+                return i > position ? i : -1;
+            }
+            if (!(Character.isLetterOrDigit(c) || c == '-' || c == '_')) {
+                return -1;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    /**
+     * Read a property path such as hashes.'SHA-256' or
+     * extensions.'windows-pebinary-ext'.sections[*].name.
+     *
+     * @return the path with quotes removed, or null if it is malformed.
+     */
+    private String readProperty() {
+        final StringBuilder property = new StringBuilder();
+        while (position < length) {
+            final char c = pattern.charAt(position);
+            if (c == '\'') {
+                final String key = readString();
+                if (key == null) {
+                    return null;
+                }
+                property.append(key);
+            } else if (c == '[') {
+                // a list index, [*] or [n]
+                final int end = pattern.indexOf(']', position);
+                if (end < 0) {
+                    return null;
+                }
+                property.append(pattern, position, end + 1);
+                position = end + 1;
+            } else if (Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.') {
+                property.append(c);
+                position++;
+            } else {
+                break;
+            }
+        }
+        return property.length() > 0 ? property.toString() : null;
+    }
+
+    /**
+     * Read one literal, recording it if it is a string and an object type is
+     * given.
+     *
+     * @return false if the literal is malformed.
+     */
+    private boolean readValue(final String objectType, final String property) {
+        if (position >= length) {
+            return false;
+        }
+        if (pattern.charAt(position) == '\'') {
+            final String value = readString();
+            if (value == null) {
+                return false;
+            }
+            if (objectType != null && !value.isEmpty()) {
+                comparisons.add(new Comparison(objectType, property, value));
+            }
+            return true;
+        }
+
+        // numbers, booleans and t'', h'' and b'' literals, none of which
+        // name an observable
+        final int start = position;
+        while (position < length) {
+            final char c = pattern.charAt(position);
+            if (c == '\'') {
+                return readString() != null;
+            }
+            if (Character.isWhitespace(c) || c == ')' || c == ']' || c == ',') {
+                break;
+            }
+            position++;
+        }
+        return position > start;
+    }
+
+    /**
+     * Read a quoted string at the current position, undoing \' and \\
+     * escapes.
+     *
+     * @return the string, or null if it is not terminated.
+     */
+    private String readString() {
+        position++;
+        final int start = position;
+        StringBuilder escaped = null;
+        while (position < length) {
+            final char c = pattern.charAt(position);
+            if (c == '\\' && position + 1 < length) {
+                if (escaped == null) {
+                    escaped = new StringBuilder();
+                    escaped.append(pattern, start, position);
+                }
+                escaped.append(pattern.charAt(position + 1));
+                position += 2;
+            } else if (c == '\'') {
+                final String value = escaped != null ? escaped.toString() : pattern.substring(start, position);
+                position++;
+                return value;
+            } else {
+                if (escaped != null) {
+                    escaped.append(c);
+                }
+                position++;
+            }
+        }
+        return null;
+    }
+
+    private void skipWhitespace() {
+        while (position < length && Character.isWhitespace(pattern.charAt(position))) {
+            position++;
+        }
+    }
+
+    /**
+     * Consume a keyword at the current position if it is there as a whole
+     * word, ignoring case.
+     */
+    private boolean matchKeyword(final String keyword) {
+        final int end = position + keyword.length();
+        if (end > length || !pattern.regionMatches(true, position, keyword, 0, keyword.length())) {
+            return false;
+        }
+        if (end < length && (Character.isLetterOrDigit(pattern.charAt(end)) || pattern.charAt(end) == '_' || pattern.charAt(end) == ':' || pattern.charAt(end) == '-')) {
+            return false;
+        }
+        position = end;
+        return true;
+    }
+}
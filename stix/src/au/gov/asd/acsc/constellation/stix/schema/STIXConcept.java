@@ -224,10 +224,22 @@ public class STIXConcept extends SchemaConcept {
 
     }
 
+    public static class GraphAttribute {
+
+        private GraphAttribute() {
+            // ignore
+        }
+
+        public static final SchemaAttribute STIX_MANIFEST = new SchemaAttribute.Builder(GraphElementType.GRAPH, StringAttributeDescription.ATTRIBUTE_NAME, "STIX Manifest")
+                .setDescription("The STIX bundles and objects imported into the graph")
+                .build();
+    }
+
     @Override
     public Collection<SchemaAttribute> getSchemaAttributes() {
         final List<SchemaAttribute> attributes = new ArrayList<>();
         /*attributes.add(VertexAttribute.OBSERVATION_TYPE);*/
+        attributes.add(GraphAttribute.STIX_MANIFEST);
         
         return Collections.unmodifiableCollection(attributes);
     }
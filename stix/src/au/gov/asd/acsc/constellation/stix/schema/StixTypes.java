@@ -0,0 +1,182 @@
+/*
+ * Copyright 2010-2020 Australian Signals Directorate
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package au.gov.asd.acsc.constellation.stix.schema;
+
+import au.gov.asd.acsc.constellation.schema.cyberschema.concept.CyberConcept;
+import au.gov.asd.tac.constellation.graph.schema.analytic.concept.AnalyticConcept;
+import au.gov.asd.tac.constellation.graph.schema.type.SchemaVertexType;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The mapping between STIX object types and Constellation vertex types, used
+ * both ways by the STIX import and export.
+ */
+public final class StixTypes {
+
+    private static final Map<String, SchemaVertexType> VERTEX_TYPES = new HashMap<>();
+    private static final Map<String, String> STIX_TYPES = new HashMap<>();
+
+    /**
+     * Hash vertex types, exported as file objects carrying the hash.
+     */
+    private static final Map<String, String> HASH_TYPES = new HashMap<>();
+
+    /**
+     * Hash vertex types by algorithm, with the algorithm upper case and
+     * without hyphens so SHA256 and SHA-256 both match.
+     */
+    private static final Map<String, SchemaVertexType> HASH_VERTEX_TYPES = new HashMap<>();
+
+    private static final Set<String> OBSERVABLE_TYPES = new HashSet<>();
+
+    static {
+        put("attack-pattern", STIXConcept.VertexType.ATTACK_PATTERN);
+        put("campaign", STIXConcept.VertexType.CAMPAIGN);
+        put("course-of-action", STIXConcept.VertexType.COURSE_OF_ACTION);
+        put("grouping", STIXConcept.VertexType.GROUPING);
+        put("identity", STIXConcept.VertexType.IDENTITY);
+        put("indicator", STIXConcept.VertexType.INDICATOR);
+        put("infrastructure", STIXConcept.VertexType.INFRASTRUCTURE);
+        put("intrusion-set", STIXConcept.VertexType.INTRUSION_SET);
+        put("location", STIXConcept.VertexType.LOCATION);
+        put("malware", STIXConcept.VertexType.MALWARE);
+        put("malware-analysis", STIXConcept.VertexType.MALWARE_ANALYSIS);
+        put("note", STIXConcept.VertexType.NOTE);
+        put("observed-data", STIXConcept.VertexType.OBSERVED_DATA);
+        put("opinion", STIXConcept.VertexType.OPINION);
+        put("relationship", STIXConcept.VertexType.RELATIONSHIP);
+        put("report", STIXConcept.VertexType.REPORT);
+        put("sighting", STIXConcept.VertexType.SIGHTING);
+        put("threat-actor", STIXConcept.VertexType.THREAT_ACTOR);
+        put("tool", STIXConcept.VertexType.TOOL);
+        put("vulnerability", STIXConcept.VertexType.VULNERABILITY);
+        put("artifact", STIXConcept.VertexType.ARTIFACT);
+        put("autonomous-system", STIXConcept.VertexType.AUTONOMOUS_SYSTEM);
+        put("directory", STIXConcept.VertexType.DIRECTORY);
+        put("domain-name", STIXConcept.VertexType.DOMAIN_NAME);
+        put("email-addr", AnalyticConcept.VertexType.EMAIL_ADDRESS);
+        put("email-message", STIXConcept.VertexType.EMAIL_MESSAGE);
+        put("file", STIXConcept.VertexType.FILE);
+        put("ipv4-addr", AnalyticConcept.VertexType.IPV4);
+        put("ipv6-addr", AnalyticConcept.VertexType.IPV6);
+        put("mac-addr", STIXConcept.VertexType.MAC_ADDRESS);
+        put("mutex", STIXConcept.VertexType.MUTEX);
+        put("network-traffic", STIXConcept.VertexType.NETWORK_TRAFFIC);
+        put("process", STIXConcept.VertexType.PROCESS);
+        put("software", STIXConcept.VertexType.SOFTWARE);
+        put("url", AnalyticConcept.VertexType.URL);
+        put("user-account", STIXConcept.VertexType.USER_ACCOUNT);
+        put("windows-registry-key", STIXConcept.VertexType.WINDOWS_REGISTRY_KEY);
+        put("x509-certificate", STIXConcept.VertexType.X509_CERTIFICATE);
+        put("language-content", STIXConcept.VertexType.LANGUAGE);
+
+        putHash("MD5", AnalyticConcept.VertexType.MD5);
+        putHash("SHA-1", AnalyticConcept.VertexType.SHA1);
+        putHash("SHA-256", AnalyticConcept.VertexType.SHA256);
+        putHash("SHA-512", CyberConcept.VertexType.SHA512);
+
+        Collections.addAll(OBSERVABLE_TYPES, "artifact", "autonomous-system", "directory", "domain-name",
+                "email-addr", "email-message", "file", "ipv4-addr", "ipv6-addr", "mac-addr", "mutex",
+                "network-traffic", "process", "software", "url", "user-account", "windows-registry-key",
+                "x509-certificate");
+    }
+
+    private StixTypes() {
+    }
+
+    private static void put(final String stixType, final SchemaVertexType vertexType) {
+        VERTEX_TYPES.put(stixType, vertexType);
+        STIX_TYPES.putIfAbsent(vertexType.getName(), stixType);
+    }
+
+    private static void putHash(final String algorithm, final SchemaVertexType vertexType) {
+        HASH_TYPES.put(vertexType.getName(), algorithm);
+        HASH_VERTEX_TYPES.put(normaliseAlgorithm(algorithm), vertexType);
+    }
+
+    private static String normaliseAlgorithm(final String algorithm) {
+        return algorithm.replace("-", "").toUpperCase();
+    }
+
+    /**
+     * The vertex type a STIX object is drawn as.
+     *
+     * @param stixType the STIX type, may be null.
+     * @return the vertex type, or null if the STIX type is not known.
+     */
+    public static SchemaVertexType getVertexType(final String stixType) {
+        return stixType == null ? null : VERTEX_TYPES.get(stixType);
+    }
+
+    /**
+     * The STIX type a vertex is exported as. Sub-types that have no STIX type
+     * of their own are exported as their closest super-type that does.
+     *
+     * @param vertexType the vertex type, may be null.
+     * @return the STIX type, or null if the vertex type has no STIX type.
+     */
+    public static String getStixType(final SchemaVertexType vertexType) {
+        for (SchemaVertexType type = vertexType; type != null; type = type.getSuperType()) {
+            final String stixType = STIX_TYPES.get(type.getName());
+            if (stixType != null) {
+                return stixType;
+            }
+            if (HASH_TYPES.containsKey(type.getName())) {
+                return "file";
+            }
+            if (type == type.getSuperType()) {
+                break;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The STIX hash algorithm of a hash vertex type.
+     *
+     * @param vertexType the vertex type, may be null.
+     * @return the algorithm name, or null if the type is not a known hash.
+     */
+    public static String getHashAlgorithm(final SchemaVertexType vertexType) {
+        return vertexType == null ? null : HASH_TYPES.get(vertexType.getName());
+    }
+
+    /**
+     * The vertex type of a hash, such as the key of a STIX hashes
+     * dictionary.
+     *
+     * @param algorithm the hash algorithm, may be null.
+     * @return the vertex type, or null if the algorithm is not known.
+     */
+    public static SchemaVertexType getHashType(final String algorithm) {
+        return algorithm == null ? null : HASH_VERTEX_TYPES.get(normaliseAlgorithm(algorithm));
+    }
+
+    /**
+     * Whether a STIX type is a cyber observable (SCO) rather than a domain
+     * object (SDO).
+     *
+     * @param stixType the STIX type.
+     * @return true for observables.
+     */
+    public static boolean isObservable(final String stixType) {
+        return OBSERVABLE_TYPES.contains(stixType);
+    }
+}
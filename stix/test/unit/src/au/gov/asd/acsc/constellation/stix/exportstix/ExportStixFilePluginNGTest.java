@@ -0,0 +1,148 @@
+/*
+ * Copyright 2010-2020 Australian Signals Directorate
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package au.gov.asd.acsc.constellation.stix.exportstix;
+
+import au.gov.asd.acsc.constellation.schema.cyberschema.CyberSchemaFactory;
+import au.gov.asd.acsc.constellation.stix.schema.STIXConcept;
+import au.gov.asd.tac.constellation.graph.GraphReadMethods;
+import au.gov.asd.tac.constellation.graph.StoreGraph;
+import au.gov.asd.tac.constellation.graph.schema.SchemaFactoryUtilities;
+import au.gov.asd.tac.constellation.graph.schema.analytic.concept.AnalyticConcept;
+import au.gov.asd.tac.constellation.graph.schema.analytic.concept.TemporalConcept;
+import au.gov.asd.tac.constellation.graph.schema.type.SchemaVertexType;
+import au.gov.asd.tac.constellation.graph.schema.visual.concept.VisualConcept;
+import au.gov.asd.tac.constellation.plugins.PluginException;
+import au.gov.asd.tac.constellation.plugins.PluginExecution;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Export graphs as STIX bundles.
+ */
+public class ExportStixFilePluginNGTest {
+
+    private File bundle;
+
+    @BeforeMethod
+    public void setUpMethod() throws IOException {
+        bundle = File.createTempFile("stix", ".json");
+    }
+
+    @AfterMethod
+    public void tearDownMethod() {
+        bundle.delete();
+    }
+
+    private static StoreGraph newGraph() {
+        final StoreGraph graph = new StoreGraph(SchemaFactoryUtilities.getSchemaFactory(CyberSchemaFactory.CYBER_SCHEMA_ID).createSchema());
+        VisualConcept.VertexAttribute.IDENTIFIER.ensure(graph);
+        AnalyticConcept.VertexAttribute.TYPE.ensure(graph);
+        AnalyticConcept.TransactionAttribute.TYPE.ensure(graph);
+        return graph;
+    }
+
+    private static int addVertex(final StoreGraph graph, final String identifier, final SchemaVertexType type) {
+        final int vertex = graph.addVertex();
+        graph.setStringValue(VisualConcept.VertexAttribute.IDENTIFIER.get(graph), vertex, identifier);
+        graph.setObjectValue(AnalyticConcept.VertexAttribute.TYPE.get(graph), vertex, type);
+        return vertex;
+    }
+
+    private List<JSONObject> export(final StoreGraph graph) throws InterruptedException, PluginException, IOException, ParseException {
+        PluginExecution.withPlugin(new ExportStixFilePlugin())
+                .withParameter(ExportStixFilePlugin.FILEPATH_PARAMETER_ID, bundle.getAbsolutePath())
+                .executeNow((GraphReadMethods) graph);
+        try (final Reader reader = new FileReader(bundle)) {
+            final List<JSONObject> objects = new ArrayList<>();
+            for (final Object object : (JSONArray) ((JSONObject) new JSONParser().parse(reader)).get("objects")) {
+                objects.add((JSONObject) object);
+            }
+            return objects;
+        }
+    }
+
+    private static JSONObject getObject(final List<JSONObject> objects, final String type) {
+        for (final JSONObject object : objects) {
+            if (type.equals(object.get("type"))) {
+                return object;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Exporting an unchanged graph again writes the same relationships, so
+     * importing it again does not duplicate them.
+     */
+    @Test
+    public void testRelationshipsAreStable() throws InterruptedException, PluginException, IOException, ParseException {
+        final StoreGraph graph = newGraph();
+        final int malware = addVertex(graph, "Example Malware", STIXConcept.VertexType.MALWARE);
+        final int tool = addVertex(graph, "Example Tool", STIXConcept.VertexType.TOOL);
+        final int modified = TemporalConcept.VertexAttribute.MODIFIED.ensure(graph);
+        graph.setObjectValue(modified, malware, ZonedDateTime.of(2020, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC));
+        final int transactionType = AnalyticConcept.TransactionAttribute.TYPE.get(graph);
+        graph.setObjectValue(transactionType, graph.addTransaction(malware, tool, true), AnalyticConcept.TransactionType.CORRELATION);
+        graph.setObjectValue(transactionType, graph.addTransaction(malware, tool, true), AnalyticConcept.TransactionType.CORRELATION);
+
+        final List<JSONObject> first = export(graph);
+        final List<JSONObject> second = export(graph);
+
+        final JSONObject relationship = getObject(first, "relationship");
+        assertNotNull(relationship);
+        assertEquals(getObject(second, "relationship"), relationship);
+        assertEquals(relationship.get("modified"), "2020-01-01T00:00:00.000Z");
+        // parallel transactions of the same type are one relationship
+        assertEquals(first.size(), 3);
+    }
+
+    /**
+     * Observed data refers to the observables linked to it.
+     */
+    @Test
+    public void testObservedDataRefersToObservables() throws InterruptedException, PluginException, IOException, ParseException {
+        final StoreGraph graph = newGraph();
+        final int observed = addVertex(graph, "Example Observation", STIXConcept.VertexType.OBSERVED_DATA);
+        final int address = addVertex(graph, "192.0.2.1", AnalyticConcept.VertexType.IPV4);
+        graph.addTransaction(observed, address, true);
+
+        final List<JSONObject> objects = export(graph);
+
+        final JSONObject observedData = getObject(objects, "observed-data");
+        final JSONObject ipv4 = getObject(objects, "ipv4-addr");
+        assertNotNull(observedData);
+        assertNotNull(ipv4);
+        final JSONArray refs = (JSONArray) observedData.get("object_refs");
+        assertNotNull(refs);
+        assertEquals(refs.size(), 1);
+        assertEquals(refs.get(0), ipv4.get("id"));
+    }
+}
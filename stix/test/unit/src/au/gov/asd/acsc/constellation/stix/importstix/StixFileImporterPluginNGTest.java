@@ -0,0 +1,141 @@
+/*
+ * Copyright 2010-2020 Australian Signals Directorate
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package au.gov.asd.acsc.constellation.stix.importstix;
+
+import au.gov.asd.acsc.constellation.schema.cyberschema.CyberSchemaFactory;
+import au.gov.asd.acsc.constellation.stix.exportstix.ExportStixFilePlugin;
+import au.gov.asd.acsc.constellation.stix.schema.STIXConcept;
+import au.gov.asd.tac.constellation.graph.GraphElementType;
+import au.gov.asd.tac.constellation.graph.GraphReadMethods;
+import au.gov.asd.tac.constellation.graph.StoreGraph;
+import au.gov.asd.tac.constellation.graph.schema.SchemaFactoryUtilities;
+import au.gov.asd.tac.constellation.graph.schema.analytic.concept.AnalyticConcept;
+import au.gov.asd.tac.constellation.graph.schema.type.SchemaVertexType;
+import au.gov.asd.tac.constellation.graph.schema.visual.concept.VisualConcept;
+import au.gov.asd.tac.constellation.plugins.PluginException;
+import au.gov.asd.tac.constellation.plugins.PluginExecution;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNotNull;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Export a graph as a STIX bundle and import it again.
+ */
+public class StixFileImporterPluginNGTest {
+
+    private static final String MALWARE = "Example Malware";
+    private static final String SHA256 = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+
+    private File bundle;
+
+    @BeforeMethod
+    public void setUpMethod() throws IOException {
+        bundle = File.createTempFile("stix", ".json");
+    }
+
+    @AfterMethod
+    public void tearDownMethod() {
+        bundle.delete();
+    }
+
+    private static StoreGraph newGraph() {
+        return new StoreGraph(SchemaFactoryUtilities.getSchemaFactory(CyberSchemaFactory.CYBER_SCHEMA_ID).createSchema());
+    }
+
+    private static SchemaVertexType getType(final StoreGraph graph, final String identifier) {
+        final int identifierAttribute = VisualConcept.VertexAttribute.IDENTIFIER.get(graph);
+        final int typeAttribute = AnalyticConcept.VertexAttribute.TYPE.get(graph);
+        for (int position = 0; position < graph.getVertexCount(); position++) {
+            final int vertex = graph.getVertex(position);
+            if (identifier.equals(graph.getStringValue(identifierAttribute, vertex))) {
+                return graph.getObjectValue(typeAttribute, vertex);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Hash vertices are exported as files known only by their hashes, and
+     * are drawn as the same hash vertices when the bundle is imported.
+     */
+    @Test
+    public void testExportedBundleImports() throws InterruptedException, PluginException {
+        final StoreGraph graph = newGraph();
+        final int identifierAttribute = VisualConcept.VertexAttribute.IDENTIFIER.ensure(graph);
+        final int typeAttribute = AnalyticConcept.VertexAttribute.TYPE.ensure(graph);
+        final int transactionTypeAttribute = AnalyticConcept.TransactionAttribute.TYPE.ensure(graph);
+        final int malware = graph.addVertex();
+        graph.setStringValue(identifierAttribute, malware, MALWARE);
+        graph.setObjectValue(typeAttribute, malware, STIXConcept.VertexType.MALWARE);
+        final int hash = graph.addVertex();
+        graph.setStringValue(identifierAttribute, hash, SHA256);
+        graph.setObjectValue(typeAttribute, hash, AnalyticConcept.VertexType.SHA256);
+        final int transaction = graph.addTransaction(malware, hash, true);
+        graph.setObjectValue(transactionTypeAttribute, transaction, AnalyticConcept.TransactionType.CORRELATION);
+
+        PluginExecution.withPlugin(new ExportStixFilePlugin())
+                .withParameter(ExportStixFilePlugin.FILEPATH_PARAMETER_ID, bundle.getAbsolutePath())
+                .executeNow((GraphReadMethods) graph);
+
+        final StoreGraph imported = newGraph();
+        PluginExecution.withPlugin(new StixFileImporterPlugin())
+                .withParameter(StixFileImporterPlugin.FILEPATH_PARAMETER_ID, bundle.getAbsolutePath())
+                .executeNow(imported);
+
+        assertEquals(imported.getVertexCount(), 2);
+        assertEquals(imported.getTransactionCount(), 1);
+        assertNotNull(getType(imported, MALWARE));
+        assertEquals(getType(imported, MALWARE).getName(), STIXConcept.VertexType.MALWARE.getName());
+        assertNotNull(getType(imported, SHA256));
+        assertEquals(getType(imported, SHA256).getName(), AnalyticConcept.VertexType.SHA256.getName());
+    }
+
+    /**
+     * A relationship's count is parsed as a Long and drawn as an integer,
+     * whichever of the two names the producer used.
+     */
+    @Test
+    public void testRelationshipCount() throws InterruptedException, IOException, PluginException {
+        assertEquals(importRelationshipCount("\"count\": 7"), "7");
+        assertEquals(importRelationshipCount("\"number_observed\": 3"), "3");
+    }
+
+    private String importRelationshipCount(final String count) throws InterruptedException, IOException, PluginException {
+        final String json = "{\"type\": \"bundle\", \"id\": \"bundle--" + count.hashCode() + "\", \"objects\": ["
+                + "{\"type\": \"malware\", \"spec_version\": \"2.1\", \"id\": \"malware--1\", \"name\": \"" + MALWARE + "\"},"
+                + "{\"type\": \"threat-actor\", \"spec_version\": \"2.1\", \"id\": \"threat-actor--1\", \"name\": \"Example Actor\"},"
+                + "{\"type\": \"relationship\", \"spec_version\": \"2.1\", \"id\": \"relationship--1\", \"relationship_type\": \"uses\","
+                + " \"source_ref\": \"threat-actor--1\", \"target_ref\": \"malware--1\", " + count + "}]}";
+        Files.write(bundle.toPath(), json.getBytes(StandardCharsets.UTF_8));
+
+        final StoreGraph imported = newGraph();
+        PluginExecution.withPlugin(new StixFileImporterPlugin())
+                .withParameter(StixFileImporterPlugin.FILEPATH_PARAMETER_ID, bundle.getAbsolutePath())
+                .executeNow(imported);
+
+        assertEquals(imported.getTransactionCount(), 1);
+        final int countAttribute = imported.getAttribute(GraphElementType.TRANSACTION, "Count");
+        assertNotEquals(countAttribute, GraphReadMethods.NOT_FOUND);
+        return imported.getStringValue(countAttribute, imported.getTransaction(0));
+    }
+}
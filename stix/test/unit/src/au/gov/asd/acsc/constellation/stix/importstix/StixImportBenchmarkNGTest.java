@@ -0,0 +1,156 @@
+/*
+ * Copyright 2010-2020 Australian Signals Directorate
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package au.gov.asd.acsc.constellation.stix.importstix;
+
+import au.gov.asd.acsc.constellation.schema.cyberschema.CyberSchemaFactory;
+import au.gov.asd.tac.constellation.graph.StoreGraph;
+import au.gov.asd.tac.constellation.graph.schema.SchemaFactoryUtilities;
+import au.gov.asd.tac.constellation.plugins.PluginException;
+import au.gov.asd.tac.constellation.plugins.PluginExecution;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import static org.testng.Assert.assertTrue;
+import org.testng.SkipException;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Throughput of importing a generated STIX bundle, mostly the cost of
+ * mapping each object's properties onto the graph.
+ * <p>
+ * The benchmark only runs when acsc.stix.benchmark is set to true. It can be
+ * tuned with these system properties, all prefixed with acsc.stix.benchmark.:
+ * <pre>
+ * objects  the malware and indicator objects in the bundle, default 20000
+ * runs     the measured imports, default 5
+ * </pre>
+ * Each object is related to the one before it, so the bundle also holds
+ * nearly as many relationships.
+ */
+public class StixImportBenchmarkNGTest {
+
+    private static final Logger LOGGER = Logger.getLogger(StixImportBenchmarkNGTest.class.getName());
+
+    private static final String PREFIX = "acsc.stix.benchmark.";
+    private static final String STORE = "acsc.stix.store";
+
+    private Path dir;
+    private File bundle;
+    private String store;
+    private int objects;
+    private int runs;
+
+    @BeforeClass
+    public void setUpClass() throws IOException {
+        if (!Boolean.getBoolean("acsc.stix.benchmark")) {
+            throw new SkipException("Set acsc.stix.benchmark to true to run the STIX import benchmark");
+        }
+        objects = Integer.getInteger(PREFIX + "objects", 20000);
+        runs = Integer.getInteger(PREFIX + "runs", 5);
+
+        // keep the indexes written by the imports out of the user's store
+        dir = Files.createTempDirectory("stix-benchmark");
+        store = System.getProperty(STORE);
+        System.setProperty(STORE, dir.resolve("store").toString());
+
+        bundle = dir.resolve("bundle.json").toFile();
+        try (Writer out = new BufferedWriter(Files.newBufferedWriter(bundle.toPath(), StandardCharsets.UTF_8))) {
+            writeBundle(out, objects);
+        }
+    }
+
+    @AfterClass
+    public void tearDownClass() throws IOException {
+        if (dir == null) {
+            return;
+        }
+        if (store == null) {
+            System.clearProperty(STORE);
+        } else {
+            System.setProperty(STORE, store);
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    private static void writeBundle(final Writer out, final int objects) throws IOException {
+        out.write("{\"type\": \"bundle\", \"id\": \"bundle--benchmark\", \"objects\": [");
+        for (int i = 0; i < objects; i++) {
+            if (i > 0) {
+                out.write(",\n");
+            }
+            if (i % 2 == 0) {
+                out.write(String.format("{\"type\": \"malware\", \"spec_version\": \"2.1\", \"id\": \"malware--%d\", \"name\": \"Malware %d\", "
+                        + "\"description\": \"Generated malware %d\", \"is_family\": true, \"malware_types\": [\"remote-access-trojan\"], "
+                        + "\"created\": \"2020-01-01T00:00:00.000Z\", \"modified\": \"2020-01-02T00:00:00.000Z\", "
+                        + "\"kill_chain_phases\": [{\"kill_chain_name\": \"lockheed-martin-cyber-kill-chain\", \"phase_name\": \"installation\"}]}", i, i, i));
+            } else {
+                out.write(String.format("{\"type\": \"indicator\", \"spec_version\": \"2.1\", \"id\": \"indicator--%d\", \"name\": \"Indicator %d\", "
+                        + "\"pattern\": \"[ipv4-addr:value = '10.%d.%d.%d']\", \"pattern_type\": \"stix\", "
+                        + "\"valid_from\": \"2020-01-01T00:00:00Z\", \"confidence\": %d, "
+                        + "\"created\": \"2020-01-01T00:00:00.000Z\", \"modified\": \"2020-01-02T00:00:00.000Z\"}",
+                        i, i, (i >> 16) & 0xFF, (i >> 8) & 0xFF, i & 0xFF, i % 100));
+            }
+            if (i > 0) {
+                out.write(String.format(",\n{\"type\": \"relationship\", \"spec_version\": \"2.1\", \"id\": \"relationship--%d\", "
+                        + "\"relationship_type\": \"related-to\", \"source_ref\": \"%s--%d\", \"target_ref\": \"%s--%d\", \"count\": %d}",
+                        i, i % 2 == 0 ? "malware" : "indicator", i, i % 2 == 0 ? "indicator" : "malware", i - 1, i));
+            }
+        }
+        out.write("]}\n");
+    }
+
+    private long importBundle() throws InterruptedException, PluginException {
+        final StoreGraph graph = new StoreGraph(SchemaFactoryUtilities.getSchemaFactory(CyberSchemaFactory.CYBER_SCHEMA_ID).createSchema());
+        final long start = System.nanoTime();
+        PluginExecution.withPlugin(new StixFileImporterPlugin())
+                .withParameter(StixFileImporterPlugin.FILEPATH_PARAMETER_ID, bundle.getAbsolutePath())
+                .withParameter(StixFileImporterPlugin.SKIP_UNCHANGED_PARAMETER_ID, false)
+                .executeNow(graph);
+        final long elapsed = System.nanoTime() - start;
+        assertTrue(graph.getVertexCount() >= objects);
+        return elapsed;
+    }
+
+    @Test
+    public void benchmarkImport() throws InterruptedException, PluginException {
+        // the first import also writes the bundle's index
+        importBundle();
+
+        long total = 0;
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < runs; run++) {
+            final long elapsed = importBundle();
+            total += elapsed;
+            best = Math.min(best, elapsed);
+        }
+        final double mean = (double) total / runs;
+        LOGGER.info(String.format("STIX import of %d objects and %d relationships: mean %d ms, best %d ms, %.0f objects/s",
+                objects, objects - 1, TimeUnit.NANOSECONDS.toMillis((long) mean), TimeUnit.NANOSECONDS.toMillis(best),
+                (2 * objects - 1) / (mean / TimeUnit.SECONDS.toNanos(1))));
+    }
+}